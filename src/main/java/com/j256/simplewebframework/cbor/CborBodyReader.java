@@ -0,0 +1,57 @@
+package com.j256.simplewebframework.cbor;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Type;
+
+import javax.servlet.http.HttpServletRequest;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.j256.simplewebframework.params.ParamConversionException;
+import com.j256.simplewebframework.params.RequestBodyReader;
+
+/**
+ * Reads CBOR request bodies into objects with the optional {@link Gson} package (com.google.gson) so the same types and
+ * field rules as JSON bodies can be used.
+ * 
+ * @author graywatson
+ */
+public class CborBodyReader implements RequestBodyReader {
+
+	private Gson gson = new Gson();
+
+	@Override
+	public String[] getHandledMimeTypes() {
+		return new String[] { CborResultDisplayer.CBOR_MIME_TYPE };
+	}
+
+	@Override
+	public Object readBody(HttpServletRequest request, Type type) throws IOException {
+		InputStream inputStream = new BufferedInputStream(request.getInputStream());
+		JsonElement element;
+		try {
+			element = new CborParser(inputStream).parse();
+		} catch (EOFException e) {
+			// empty body
+			return null;
+		} catch (IOException e) {
+			throw new ParamConversionException(type, "request body", e);
+		}
+		try {
+			return gson.fromJson(element, type);
+		} catch (JsonParseException e) {
+			throw new ParamConversionException(type, "request body", e);
+		}
+	}
+
+	/**
+	 * Set the Gson instance used to convert the bodies. Default is new Gson().
+	 */
+	public void setGson(Gson gson) {
+		this.gson = gson;
+	}
+}
@@ -0,0 +1,362 @@
+package com.j256.simplewebframework.cbor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Gson {@link JsonWriter} which writes CBOR (RFC 8949) to an output-stream instead of JSON text so any object that Gson
+ * can serialize can be written as CBOR with the same field rules. Objects and arrays are written with indefinite
+ * lengths so nothing needs to be buffered. Integral numbers are written as CBOR integers and other numbers as single
+ * precision floats if that is lossless otherwise as doubles.
+ * 
+ * @author graywatson
+ */
+public class CborGenerator extends JsonWriter {
+
+	static final int MAJOR_UNSIGNED = 0;
+	static final int MAJOR_NEGATIVE = 1;
+	static final int MAJOR_BYTES = 2;
+	static final int MAJOR_TEXT = 3;
+	static final int MAJOR_ARRAY = 4;
+	static final int MAJOR_MAP = 5;
+	static final int MAJOR_TAG = 6;
+	static final int MAJOR_SIMPLE = 7;
+	static final int INDEFINITE_LENGTH = 31;
+	static final int FALSE = 0xF4;
+	static final int TRUE = 0xF5;
+	static final int NULL = 0xF6;
+	static final int UNDEFINED = 0xF7;
+	static final int HALF_FLOAT = 0xF9;
+	static final int SINGLE_FLOAT = 0xFA;
+	static final int DOUBLE_FLOAT = 0xFB;
+	static final int BREAK = 0xFF;
+	private static final String UTF8_CHARSET = "UTF-8";
+	private static final int DEFAULT_BUFFER_SIZE = 4096;
+
+	private static final Writer UNUSED_WRITER = new Writer() {
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+			throw new UnsupportedOperationException("CBOR generator does not write characters");
+		}
+
+		@Override
+		public void flush() {
+			// no-op
+		}
+
+		@Override
+		public void close() {
+			// no-op
+		}
+	};
+
+	private final OutputStream outputStream;
+	private final byte[] buffer;
+	private int count;
+	private String pendingName;
+
+	public CborGenerator(OutputStream outputStream) {
+		this(outputStream, DEFAULT_BUFFER_SIZE);
+	}
+
+	public CborGenerator(OutputStream outputStream, int bufferSize) {
+		super(UNUSED_WRITER);
+		this.outputStream = outputStream;
+		// room for the largest header
+		this.buffer = new byte[Math.max(bufferSize, 9)];
+	}
+
+	@Override
+	public JsonWriter beginArray() throws IOException {
+		writePendingName();
+		writeByte((MAJOR_ARRAY << 5) | INDEFINITE_LENGTH);
+		return this;
+	}
+
+	@Override
+	public JsonWriter endArray() throws IOException {
+		writeByte(BREAK);
+		return this;
+	}
+
+	@Override
+	public JsonWriter beginObject() throws IOException {
+		writePendingName();
+		writeByte((MAJOR_MAP << 5) | INDEFINITE_LENGTH);
+		return this;
+	}
+
+	@Override
+	public JsonWriter endObject() throws IOException {
+		// a null value with its name skipped could leave a pending name
+		pendingName = null;
+		writeByte(BREAK);
+		return this;
+	}
+
+	@Override
+	public JsonWriter name(String name) throws IOException {
+		if (name == null) {
+			throw new NullPointerException("name == null");
+		}
+		if (pendingName != null) {
+			throw new IllegalStateException("name " + name + " follows name " + pendingName);
+		}
+		pendingName = name;
+		return this;
+	}
+
+	@Override
+	public JsonWriter value(String value) throws IOException {
+		if (value == null) {
+			return nullValue();
+		}
+		writePendingName();
+		writeText(value);
+		return this;
+	}
+
+	@Override
+	public JsonWriter jsonValue(String value) throws IOException {
+		if (value == null) {
+			return nullValue();
+		}
+		writeElement(JsonParser.parseString(value));
+		return this;
+	}
+
+	@Override
+	public JsonWriter nullValue() throws IOException {
+		if (pendingName != null && !getSerializeNulls()) {
+			// like the JSON writer, we skip the name and the value
+			pendingName = null;
+			return this;
+		}
+		writePendingName();
+		writeByte(NULL);
+		return this;
+	}
+
+	@Override
+	public JsonWriter value(boolean value) throws IOException {
+		writePendingName();
+		writeByte(value ? TRUE : FALSE);
+		return this;
+	}
+
+	@Override
+	public JsonWriter value(Boolean value) throws IOException {
+		if (value == null) {
+			return nullValue();
+		}
+		return value(value.booleanValue());
+	}
+
+	@Override
+	public JsonWriter value(double value) throws IOException {
+		if (!isLenient() && (Double.isNaN(value) || Double.isInfinite(value))) {
+			throw new IllegalArgumentException("Numeric values must be finite, but was " + value);
+		}
+		writePendingName();
+		writeDouble(value);
+		return this;
+	}
+
+	@Override
+	public JsonWriter value(long value) throws IOException {
+		writePendingName();
+		writeLong(value);
+		return this;
+	}
+
+	@Override
+	public JsonWriter value(Number value) throws IOException {
+		if (value == null) {
+			return nullValue();
+		}
+		if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte
+				|| value instanceof AtomicInteger || value instanceof AtomicLong) {
+			return value(value.longValue());
+		}
+		if (value instanceof Double || value instanceof Float) {
+			return value(value.doubleValue());
+		}
+		// BigInteger, BigDecimal, gson's lazily parsed numbers
+		BigDecimal decimal;
+		try {
+			decimal = new BigDecimal(value.toString());
+		} catch (NumberFormatException e) {
+			// NaN or infinity
+			return value(value.doubleValue());
+		}
+		if (decimal.scale() <= 0 || decimal.stripTrailingZeros().scale() <= 0) {
+			BigInteger integer = decimal.toBigIntegerExact();
+			if (integer.bitLength() < 64) {
+				return value(integer.longValue());
+			}
+		}
+		return value(value.doubleValue());
+	}
+
+	@Override
+	public void flush() throws IOException {
+		flushBuffer();
+		outputStream.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		flushBuffer();
+		outputStream.close();
+	}
+
+	/**
+	 * Write a gson tree element.
+	 */
+	public void writeElement(JsonElement element) throws IOException {
+		if (element == null || element.isJsonNull()) {
+			nullValue();
+		} else if (element.isJsonPrimitive()) {
+			JsonPrimitive primitive = element.getAsJsonPrimitive();
+			if (primitive.isBoolean()) {
+				value(primitive.getAsBoolean());
+			} else if (primitive.isNumber()) {
+				value(primitive.getAsNumber());
+			} else {
+				value(primitive.getAsString());
+			}
+		} else if (element.isJsonArray()) {
+			beginArray();
+			for (JsonElement child : (JsonArray) element) {
+				writeElement(child);
+			}
+			endArray();
+		} else {
+			beginObject();
+			for (Map.Entry<String, JsonElement> entry : ((JsonObject) element).entrySet()) {
+				name(entry.getKey());
+				writeElement(entry.getValue());
+			}
+			endObject();
+		}
+	}
+
+	private void writePendingName() throws IOException {
+		if (pendingName != null) {
+			String name = pendingName;
+			pendingName = null;
+			writeText(name);
+		}
+	}
+
+	private void writeText(String value) throws IOException {
+		byte[] bytes;
+		try {
+			bytes = value.getBytes(UTF8_CHARSET);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException("UTF-8 charset not supported", e);
+		}
+		writeHeader(MAJOR_TEXT, bytes.length);
+		writeBytes(bytes);
+	}
+
+	private void writeLong(long value) throws IOException {
+		if (value >= 0) {
+			writeHeader(MAJOR_UNSIGNED, value);
+		} else {
+			// -1 - n
+			writeHeader(MAJOR_NEGATIVE, -1 - value);
+		}
+	}
+
+	private void writeDouble(double value) throws IOException {
+		float floatValue = (float) value;
+		if (floatValue == value || Double.isNaN(value)) {
+			ensureRoom(5);
+			buffer[count++] = (byte) SINGLE_FLOAT;
+			writeInt(Float.floatToIntBits(floatValue));
+		} else {
+			ensureRoom(9);
+			buffer[count++] = (byte) DOUBLE_FLOAT;
+			long bits = Double.doubleToLongBits(value);
+			writeInt((int) (bits >>> 32));
+			writeInt((int) bits);
+		}
+	}
+
+	/**
+	 * Write the initial byte with the major type and the argument in as few bytes as possible.
+	 */
+	private void writeHeader(int majorType, long argument) throws IOException {
+		ensureRoom(9);
+		int major = majorType << 5;
+		if (argument < 24) {
+			buffer[count++] = (byte) (major | argument);
+		} else if (argument <= 0xFF) {
+			buffer[count++] = (byte) (major | 24);
+			buffer[count++] = (byte) argument;
+		} else if (argument <= 0xFFFF) {
+			buffer[count++] = (byte) (major | 25);
+			buffer[count++] = (byte) (argument >> 8);
+			buffer[count++] = (byte) argument;
+		} else if (argument <= 0xFFFFFFFFL) {
+			buffer[count++] = (byte) (major | 26);
+			writeInt((int) argument);
+		} else {
+			buffer[count++] = (byte) (major | 27);
+			writeInt((int) (argument >>> 32));
+			writeInt((int) argument);
+		}
+	}
+
+	private void writeInt(int value) {
+		buffer[count++] = (byte) (value >>> 24);
+		buffer[count++] = (byte) (value >>> 16);
+		buffer[count++] = (byte) (value >>> 8);
+		buffer[count++] = (byte) value;
+	}
+
+	private void writeByte(int value) throws IOException {
+		ensureRoom(1);
+		buffer[count++] = (byte) value;
+	}
+
+	private void writeBytes(byte[] bytes) throws IOException {
+		if (count + bytes.length > buffer.length) {
+			flushBuffer();
+			if (bytes.length > buffer.length) {
+				outputStream.write(bytes);
+				return;
+			}
+		}
+		System.arraycopy(bytes, 0, buffer, count, bytes.length);
+		count += bytes.length;
+	}
+
+	private void ensureRoom(int size) throws IOException {
+		if (count + size > buffer.length) {
+			flushBuffer();
+		}
+	}
+
+	private void flushBuffer() throws IOException {
+		if (count > 0) {
+			outputStream.write(buffer, 0, count);
+			count = 0;
+		}
+	}
+}
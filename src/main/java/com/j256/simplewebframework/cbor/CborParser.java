@@ -0,0 +1,314 @@
+package com.j256.simplewebframework.cbor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * Parses CBOR (RFC 8949) from an input-stream into a Gson {@link JsonElement} tree which can then be turned into
+ * objects with {@link com.google.gson.Gson#fromJson(JsonElement, java.lang.reflect.Type)}. Byte strings become arrays
+ * of numbers which is how Gson represents byte arrays, tags are ignored, and non-string map keys are turned into
+ * strings.
+ * 
+ * @author graywatson
+ */
+public class CborParser {
+
+	private static final int DEFAULT_MAX_DEPTH = 64;
+	private static final int READ_CHUNK_SIZE = 8192;
+
+	private final InputStream inputStream;
+	private final int maxDepth;
+	private int depth;
+
+	public CborParser(InputStream inputStream) {
+		this(inputStream, DEFAULT_MAX_DEPTH);
+	}
+
+	/**
+	 * @param maxDepth
+	 *            Maximum nesting of arrays and maps to protect against malicious input.
+	 */
+	public CborParser(InputStream inputStream, int maxDepth) {
+		this.inputStream = inputStream;
+		this.maxDepth = maxDepth;
+	}
+
+	/**
+	 * Parse the next data item from the stream.
+	 * 
+	 * @throws EOFException
+	 *             If there are no more bytes.
+	 */
+	public JsonElement parse() throws IOException {
+		int initial = readByte();
+		if (initial == CborGenerator.BREAK) {
+			throw new IOException("unexpected break in CBOR stream");
+		}
+		return parseItem(initial);
+	}
+
+	private JsonElement parseItem(int initial) throws IOException {
+		int majorType = initial >>> 5;
+		int additional = initial & 0x1F;
+		switch (majorType) {
+			case CborGenerator.MAJOR_UNSIGNED :
+				return new JsonPrimitive(readUnsigned(additional));
+			case CborGenerator.MAJOR_NEGATIVE :
+				return new JsonPrimitive(negate(readUnsigned(additional)));
+			case CborGenerator.MAJOR_BYTES :
+				return bytesToArray(readString(CborGenerator.MAJOR_BYTES, additional));
+			case CborGenerator.MAJOR_TEXT :
+				return new JsonPrimitive(new String(readString(CborGenerator.MAJOR_TEXT, additional), "UTF-8"));
+			case CborGenerator.MAJOR_ARRAY :
+				return parseArray(additional);
+			case CborGenerator.MAJOR_MAP :
+				return parseMap(additional);
+			case CborGenerator.MAJOR_TAG :
+				// we ignore the tags and just return the tagged item
+				enter();
+				readUnsigned(additional);
+				JsonElement tagged = parse();
+				depth--;
+				return tagged;
+			default :
+				return parseSimple(initial, additional);
+		}
+	}
+
+	private JsonArray parseArray(int additional) throws IOException {
+		enter();
+		JsonArray array = new JsonArray();
+		if (additional == CborGenerator.INDEFINITE_LENGTH) {
+			while (true) {
+				int initial = readByte();
+				if (initial == CborGenerator.BREAK) {
+					break;
+				}
+				array.add(parseItem(initial));
+			}
+		} else {
+			long length = readLength(additional);
+			for (long i = 0; i < length; i++) {
+				array.add(parse());
+			}
+		}
+		depth--;
+		return array;
+	}
+
+	private JsonObject parseMap(int additional) throws IOException {
+		enter();
+		JsonObject object = new JsonObject();
+		if (additional == CborGenerator.INDEFINITE_LENGTH) {
+			while (true) {
+				int initial = readByte();
+				if (initial == CborGenerator.BREAK) {
+					break;
+				}
+				object.add(keyToString(parseItem(initial)), parse());
+			}
+		} else {
+			long length = readLength(additional);
+			for (long i = 0; i < length; i++) {
+				object.add(keyToString(parse()), parse());
+			}
+		}
+		depth--;
+		return object;
+	}
+
+	private JsonElement parseSimple(int initial, int additional) throws IOException {
+		switch (initial) {
+			case CborGenerator.FALSE :
+				return new JsonPrimitive(false);
+			case CborGenerator.TRUE :
+				return new JsonPrimitive(true);
+			case CborGenerator.NULL :
+			case CborGenerator.UNDEFINED :
+				return JsonNull.INSTANCE;
+			case CborGenerator.HALF_FLOAT :
+				return new JsonPrimitive(halfToFloat((int) readBigEndian(2)));
+			case CborGenerator.SINGLE_FLOAT :
+				return new JsonPrimitive(Float.intBitsToFloat((int) readBigEndian(4)));
+			case CborGenerator.DOUBLE_FLOAT :
+				return new JsonPrimitive(Double.longBitsToDouble(readBigEndian(8)));
+			default :
+				if (additional < 24) {
+					// unassigned simple value
+					return new JsonPrimitive(additional);
+				} else if (additional == 24) {
+					return new JsonPrimitive(readByte());
+				}
+				throw new IOException("invalid CBOR simple value " + Integer.toHexString(initial));
+		}
+	}
+
+	/**
+	 * Read a byte or text string which may be in indefinite length chunks.
+	 */
+	private byte[] readString(int majorType, int additional) throws IOException {
+		if (additional != CborGenerator.INDEFINITE_LENGTH) {
+			return readBytes(readLength(additional));
+		}
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		while (true) {
+			int initial = readByte();
+			if (initial == CborGenerator.BREAK) {
+				break;
+			}
+			if ((initial >>> 5) != majorType || (initial & 0x1F) == CborGenerator.INDEFINITE_LENGTH) {
+				throw new IOException("invalid chunk in indefinite length CBOR string");
+			}
+			baos.write(readBytes(readLength(initial & 0x1F)));
+		}
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Read the bytes without trusting the length to allocate them all up front.
+	 */
+	private byte[] readBytes(long length) throws IOException {
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException("CBOR string length too large: " + length);
+		}
+		if (length <= READ_CHUNK_SIZE) {
+			byte[] bytes = new byte[(int) length];
+			readFully(bytes, bytes.length);
+			return bytes;
+		}
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(READ_CHUNK_SIZE);
+		byte[] chunk = new byte[READ_CHUNK_SIZE];
+		long left = length;
+		while (left > 0) {
+			int size = (int) Math.min(left, chunk.length);
+			readFully(chunk, size);
+			baos.write(chunk, 0, size);
+			left -= size;
+		}
+		return baos.toByteArray();
+	}
+
+	private void readFully(byte[] bytes, int length) throws IOException {
+		int offset = 0;
+		while (offset < length) {
+			int numRead = inputStream.read(bytes, offset, length - offset);
+			if (numRead < 0) {
+				throw new EOFException("unexpected end of CBOR stream");
+			}
+			offset += numRead;
+		}
+	}
+
+	private long readLength(int additional) throws IOException {
+		long length = readArgument(additional);
+		if (length < 0) {
+			throw new IOException("CBOR length too large");
+		}
+		return length;
+	}
+
+	/**
+	 * Read an unsigned argument which may not fit in a long.
+	 */
+	private Number readUnsigned(int additional) throws IOException {
+		long value = readArgument(additional);
+		if (value >= 0) {
+			return value;
+		} else {
+			// top bit set so it does not fit in a long
+			return new BigInteger(Long.toHexString(value), 16);
+		}
+	}
+
+	private long readArgument(int additional) throws IOException {
+		if (additional < 24) {
+			return additional;
+		}
+		switch (additional) {
+			case 24 :
+				return readBigEndian(1);
+			case 25 :
+				return readBigEndian(2);
+			case 26 :
+				return readBigEndian(4);
+			case 27 :
+				return readBigEndian(8);
+			default :
+				throw new IOException("invalid CBOR additional information " + additional);
+		}
+	}
+
+	private long readBigEndian(int numBytes) throws IOException {
+		long value = 0;
+		for (int i = 0; i < numBytes; i++) {
+			value = (value << 8) | readByte();
+		}
+		return value;
+	}
+
+	private int readByte() throws IOException {
+		int value = inputStream.read();
+		if (value < 0) {
+			throw new EOFException("unexpected end of CBOR stream");
+		}
+		return value;
+	}
+
+	private void enter() throws IOException {
+		if (++depth > maxDepth) {
+			throw new IOException("CBOR nested more than " + maxDepth + " deep");
+		}
+	}
+
+	private static Number negate(Number value) {
+		// -1 - n
+		if (value instanceof Long) {
+			return -1 - (Long) value;
+		} else {
+			return BigInteger.ONE.negate().subtract((BigInteger) value);
+		}
+	}
+
+	private static JsonArray bytesToArray(byte[] bytes) {
+		JsonArray array = new JsonArray();
+		for (byte b : bytes) {
+			array.add(b);
+		}
+		return array;
+	}
+
+	private static String keyToString(JsonElement key) {
+		if (key.isJsonPrimitive()) {
+			return key.getAsString();
+		} else {
+			return key.toString();
+		}
+	}
+
+	private static float halfToFloat(int half) {
+		int exponent = (half >> 10) & 0x1F;
+		int mantissa = half & 0x3FF;
+		float value;
+		if (exponent == 0) {
+			value = mantissa * (float) Math.pow(2, -24);
+		} else if (exponent == 31) {
+			value = (mantissa == 0 ? Float.POSITIVE_INFINITY : Float.NaN);
+		} else {
+			value = (mantissa + 1024) * (float) Math.pow(2, exponent - 25);
+		}
+		if ((half & 0x8000) != 0) {
+			return -value;
+		} else {
+			return value;
+		}
+	}
+}
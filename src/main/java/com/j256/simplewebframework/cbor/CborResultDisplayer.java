@@ -0,0 +1,78 @@
+package com.j256.simplewebframework.cbor;
+
+import java.io.IOException;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Request;
+
+import com.google.gson.Gson;
+import com.j256.simplewebframework.displayer.ResultDisplayer;
+import com.j256.simplewebframework.util.IOUtils;
+
+/**
+ * Displayer which writes results as CBOR (RFC 8949) using the optional {@link Gson} package (com.google.gson) so the
+ * results have the same fields as with the {@link com.j256.simplewebframework.displayer.JsonResultDisplayer}. This is a
+ * lot more compact and cheaper to encode and decode than JSON text for service-to-service calls. Register it with
+ * {@link com.j256.simplewebframework.handler.ServiceHandler#registerAcceptDisplayer(ResultDisplayer)} so clients can
+ * ask for it with an Accept header.
+ * 
+ * @author graywatson
+ */
+public class CborResultDisplayer implements ResultDisplayer {
+
+	public static final String CBOR_MIME_TYPE = "application/cbor";
+	private static final int DEFAULT_BUFFER_SIZE = 8192;
+
+	private Gson gson = new Gson();
+	private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+	@Override
+	public Class<?>[] getHandledClasses() {
+		return null;
+	}
+
+	@Override
+	public String[] getHandledMimeTypes() {
+		return new String[] { CBOR_MIME_TYPE };
+	}
+
+	@Override
+	public boolean canRender(Class<?> resultClass, String mimeType) {
+		return false;
+	}
+
+	@Override
+	public boolean renderResult(Request baseRequest, HttpServletRequest request, HttpServletResponse response,
+			Object result) throws IOException {
+		ServletOutputStream sos = response.getOutputStream();
+		try {
+			CborGenerator generator = new CborGenerator(sos, bufferSize);
+			gson.toJson(result, result.getClass(), generator);
+			generator.close();
+			sos = null;
+			return true;
+		} catch (RuntimeException e) {
+			throw new IOException("could not write CBOR document to response", e);
+		} finally {
+			IOUtils.closeQuietly(sos);
+		}
+	}
+
+	/**
+	 * Set the Gson instance used to write the results so type-adapters, naming policies, etc. can be configured.
+	 * Default is new Gson().
+	 */
+	public void setGson(Gson gson) {
+		this.gson = gson;
+	}
+
+	/**
+	 * Size of the buffer that the CBOR is written into before it is sent. Default is 8k.
+	 */
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+}
@@ -24,13 +24,16 @@ import com.j256.simplewebframework.util.IOUtils;
  * 
  * <p>
  * The revision config file is downloaded from {@code s3.amazonaws.com/s3Bucket/s3CmsPrefix/configPath}. The
- * revision-zip is downloaded from {@code s3.amazonaws.com/s3Bucket/s3CmsPrefix/branch/}.
+ * revision-zip is downloaded from {@code s3.amazonaws.com/s3Bucket/s3CmsPrefix/branch/revision.zip}. If the optional
+ * manifest is published at {@code s3CmsPrefix/branch/revision.manifest} then the files of the revision can also be
+ * downloaded one by one from {@code s3CmsPrefix/branch/revision/path}. The config file is fetched with its ETag as an
+ * If-None-Match constraint so polling an unchanged config does not download it.
  * </p>
  * 
  * @author graywatson
  */
 @JmxResource(domainName = "j256.simpleweb", description = "CMS downloader and manager")
-public class AmazonS3ContentSource implements ContentSource {
+public class AmazonS3ContentSource implements ManifestContentSource, ConditionalContentSource {
 
 	private static final Logger logger = LoggerFactory.getLogger(AmazonS3ContentSource.class);
 
@@ -55,6 +58,34 @@ public class AmazonS3ContentSource implements ContentSource {
 		return object.getObjectContent();
 	}
 
+	@Override
+	public RevisionConfig getRevisionConfig(String previousVersion) throws IOException {
+		String s3Path = s3CmsPrefix + configPath;
+		GetObjectRequest request = new GetObjectRequest(s3Bucket, s3Path);
+		if (previousVersion != null) {
+			request.withNonmatchingETagConstraint(previousVersion);
+		}
+		S3Object object;
+		try {
+			object = s3Client.getObject(request);
+		} catch (AmazonServiceException e) {
+			if (e.getStatusCode() == 404 /* not found */
+					|| e.getStatusCode() == 403 /* forbidden */) {
+				logger.error(e, "Could not find config-file '" + s3Path + "' in bucket '" + s3Bucket + "'");
+				return null;
+			} else {
+				throw new IOException("Could not get bucket '" + s3Bucket + "', key '" + s3Path + "'", e);
+			}
+		} catch (AmazonClientException e) {
+			throw new IOException("Could not get bucket '" + s3Bucket + "', key '" + s3Path + "'", e);
+		}
+		if (object == null) {
+			// the client returns null when the constraint is not met
+			return RevisionConfig.NOT_MODIFIED;
+		}
+		return new RevisionConfig(object.getObjectContent(), object.getObjectMetadata().getETag());
+	}
+
 	@Override
 	public InputStream getContentZipInputStream(String branch, int revision) throws IOException {
 		String cmsZipPath = s3CmsPrefix + branch + "/" + revision + ".zip";
@@ -66,6 +97,29 @@ public class AmazonS3ContentSource implements ContentSource {
 		return object.getObjectContent();
 	}
 
+	@Override
+	public InputStream getManifestInputStream(String branch, int revision) throws IOException {
+		String manifestPath = s3CmsPrefix + branch + "/" + revision + ".manifest";
+		// the manifest is optional so it not being there is not an error
+		S3Object object = getObject(s3Bucket, manifestPath, true);
+		if (object == null) {
+			logger.info("No cms manifest file: " + manifestPath);
+			return null;
+		}
+		return object.getObjectContent();
+	}
+
+	@Override
+	public InputStream getContentFileInputStream(String branch, int revision, String path) throws IOException {
+		String filePath = s3CmsPrefix + branch + "/" + revision + "/" + path;
+		S3Object object = getObject(s3Bucket, filePath);
+		if (object == null) {
+			logger.error("Could not find cms file: " + filePath);
+			return null;
+		}
+		return object.getObjectContent();
+	}
+
 	public void setS3Bucket(String s3Bucket) {
 		this.s3Bucket = s3Bucket;
 	}
@@ -113,9 +167,20 @@ public class AmazonS3ContentSource implements ContentSource {
 	}
 
 	private S3Object getObject(String bucketName, String key) throws IOException {
+		return getObject(bucketName, key, false);
+	}
+
+	/**
+	 * @param optional
+	 *            If true then the object not being found is not logged as an error.
+	 */
+	private S3Object getObject(String bucketName, String key, boolean optional) throws IOException {
 		try {
 			return s3Client.getObject(new GetObjectRequest(bucketName, key));
 		} catch (AmazonServiceException e) {
+			if (optional && e.getStatusCode() == 404 /* not found */) {
+				return null;
+			}
 			logger.error(e, "getting '" + key + "' from bucket '" + bucketName + "' threw: " + e);
 			if (e.getStatusCode() == 404 /* not found */
 					|| e.getStatusCode() == 403 /* forbidden */) {
@@ -3,13 +3,38 @@ package com.j256.simplewebframework.cms;
 import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 
 import com.j256.simplejmx.common.JmxAttributeField;
@@ -20,6 +45,7 @@ import com.j256.simplewebframework.logger.Logger;
 import com.j256.simplewebframework.logger.LoggerFactory;
 import com.j256.simplewebframework.util.FileUtils;
 import com.j256.simplewebframework.util.IOUtils;
+import com.j256.simplewebframework.util.StringUtils;
 
 /**
  * CMS version downloader and manager.
@@ -29,6 +55,41 @@ import com.j256.simplewebframework.util.IOUtils;
  * "symbolic-link" or alias appropriately on your architecture.
  * </p>
  * 
+ * <p>
+ * If {@link #setPrecompressFiles(boolean)} is enabled then gzip variants (foo.css.gz) are written next to the
+ * compressible files of each revision as it is extracted so the compression is done once per release and not once per
+ * request. Override {@link #precompressFile(File, byte[])} to write other encodings such as Brotli.
+ * </p>
+ * 
+ * <p>
+ * If {@link #setExtractThreadCount(int)} is more than 1 then each revision zip is written to a local file and its
+ * entries are extracted in parallel instead of being streamed.
+ * </p>
+ * 
+ * <p>
+ * If {@link #setDeltaUpdates(boolean)} is enabled and the content source is a {@link ManifestContentSource} which
+ * publishes a {@link RevisionManifest} for a new revision, then only the files whose hashes differ from the manifest of
+ * the live revision are downloaded. The unchanged files are hard-linked, or copied if that is not possible, from the
+ * live revision. If anything goes wrong then the whole revision zip is downloaded instead.
+ * </p>
+ * 
+ * <p>
+ * If {@link #setDedupFiles(boolean)} is enabled then each distinct file is stored once in a content-addressed store
+ * under the local directory and the revision directories are made of hard links to it.
+ * </p>
+ * 
+ * <p>
+ * Only one update runs at a time. Updates which are started while one is running return right away. If
+ * {@link #setUpdatePeriodMillis(long)} is set then {@link #start()} runs the updates in the background with some
+ * jitter. If the content source is a {@link ConditionalContentSource} then nothing is downloaded if the revision config
+ * has not changed since the last update that was applied.
+ * </p>
+ * 
+ * <p>
+ * Any {@link CmsRevisionPreparer}s are called before the live link is switched to a different revision and any
+ * {@link CmsRevisionListener}s are called after.
+ * </p>
+ * 
  * @author graywatson
  */
 @JmxResource(domainName = "j256.simpleweb", description = "CMS downloader and manager")
@@ -40,6 +101,15 @@ public class CmsManager {
 	 */
 	private static final String LOCAL_CONTENT_DIR_PROPERTY = "j256.simpleWeb.cmsManager.localContentDir";
 	protected static final Logger logger = LoggerFactory.getLogger(CmsManager.class);
+	private static final String GZIP_EXTENSION = ".gz";
+	private static final String MANIFEST_EXTENSION = ".manifest";
+	private static final String[] DEFAULT_PRECOMPRESS_EXTENSIONS = new String[] { "css", "csv", "htm", "html", "ico",
+			"js", "json", "map", "svg", "txt", "xml" };
+	private static final long DEFAULT_PRECOMPRESS_MIN_SIZE = 512;
+	private static final int PRECOMPRESS_BUFFER_SIZE = 65536;
+	private static final int EXTRACT_BUFFER_SIZE = 65536;
+	private static final String ZIP_EXTENSION = ".zip";
+	private static final String OBJECTS_DIR_NAME = ".objects";
 
 	private ContentSource contentSource;
 	@JmxAttributeField(description = "local directory we write the CMS stuff too")
@@ -50,6 +120,46 @@ public class CmsManager {
 	private List<RevisionInfo> lastCmsUpateRevisions;
 	@JmxAttributeField(description = "live revision CMS directory")
 	private File liveRevisionDir;
+	@JmxAttributeField(description = "whether we write gzip variants of compressible files")
+	private boolean precompressFiles;
+	private Set<String> precompressExtensions = new HashSet<String>(Arrays.asList(DEFAULT_PRECOMPRESS_EXTENSIONS));
+	@JmxAttributeField(description = "files smaller than this are not precompressed")
+	private long precompressMinSize = DEFAULT_PRECOMPRESS_MIN_SIZE;
+	@JmxAttributeField(description = "number of threads extracting revision zips, 1 to stream them")
+	private int extractThreadCount = 1;
+	@JmxAttributeField(description = "whether we only download the changed files of revisions with manifests")
+	private boolean deltaUpdates;
+	@JmxAttributeField(description = "files downloaded by the last delta update")
+	private int lastDeltaDownloadCount;
+	@JmxAttributeField(description = "files reused from the live revision by the last delta update")
+	private int lastDeltaReuseCount;
+	@JmxAttributeField(description = "whether revision files are hard links into a content-addressed store")
+	private boolean dedupFiles;
+	@JmxAttributeField(description = "files of the last revision linked to objects that were already stored")
+	private int lastDedupLinkCount;
+	@JmxAttributeField(description = "milliseconds between background updates, 0 for none")
+	private long updatePeriodMillis;
+	@JmxAttributeField(description = "up to this many random milliseconds are added to each update period")
+	private long updateJitterMillis;
+	@JmxAttributeField(description = "what happened in the last update")
+	private volatile String lastUpdateResult = "never run";
+	@JmxAttributeField(description = "milliseconds the last update took")
+	private volatile long lastUpdateMillis;
+	@JmxAttributeField(description = "version of the config that was last applied")
+	private volatile String lastConfigVersion;
+	private String pendingConfigVersion;
+	private volatile long lastUpdateStartMillis;
+	private volatile long nextUpdateMillis;
+	private final Object updateLock = new Object();
+	private volatile boolean updating;
+	/** another update was asked for while one was running */
+	private boolean rerunRequested;
+	private boolean rerunForced;
+	private final AtomicInteger collapsedUpdateCount = new AtomicInteger();
+	private final Random random = new Random();
+	private ScheduledExecutorService scheduler;
+	private final List<CmsRevisionListener> revisionListeners = new CopyOnWriteArrayList<CmsRevisionListener>();
+	private final List<CmsRevisionPreparer> revisionPreparers = new CopyOnWriteArrayList<CmsRevisionPreparer>();
 
 	public void setContentSource(ContentSource contentSource) {
 		this.contentSource = contentSource;
@@ -67,6 +177,79 @@ public class CmsManager {
 		this.liveFile = new File(livePath);
 	}
 
+	/**
+	 * Set to true to write gzip variants of the compressible files in each revision as it is extracted. Default is
+	 * false.
+	 */
+	public void setPrecompressFiles(boolean precompressFiles) {
+		this.precompressFiles = precompressFiles;
+	}
+
+	/**
+	 * Set the file extensions (without the period) of the files that are precompressed. Default is a list of the
+	 * common text types.
+	 */
+	public void setPrecompressExtensions(String[] precompressExtensions) {
+		Set<String> extensions = new HashSet<String>();
+		for (String extension : precompressExtensions) {
+			extensions.add(extension.toLowerCase(Locale.ENGLISH));
+		}
+		this.precompressExtensions = extensions;
+	}
+
+	/**
+	 * Files smaller than this are not worth compressing. Default is 512 bytes.
+	 */
+	public void setPrecompressMinSize(long precompressMinSize) {
+		this.precompressMinSize = precompressMinSize;
+	}
+
+	/**
+	 * Set to more than 1 to write each revision zip to a local file and extract its entries with that many threads
+	 * instead of streaming it. Default is 1.
+	 */
+	public void setExtractThreadCount(int extractThreadCount) {
+		this.extractThreadCount = extractThreadCount;
+	}
+
+	/**
+	 * Set to true to download only the changed files of revisions whose manifests are published by a
+	 * {@link ManifestContentSource}. Default is false.
+	 */
+	public void setDeltaUpdates(boolean deltaUpdates) {
+		this.deltaUpdates = deltaUpdates;
+	}
+
+	/**
+	 * Set to true to store each distinct file once, by its hash, in a .objects directory under the local directory and
+	 * make the files of the revisions hard links to them. Objects which are not used by any revision are removed when
+	 * the old revisions are. Default is false.
+	 */
+	public void setDedupFiles(boolean dedupFiles) {
+		this.dedupFiles = dedupFiles;
+	}
+
+	/**
+	 * Set the listeners that are called when the live revision changes.
+	 */
+	public void setRevisionListeners(List<CmsRevisionListener> revisionListeners) {
+		this.revisionListeners.clear();
+		this.revisionListeners.addAll(revisionListeners);
+	}
+
+	public void addRevisionListener(CmsRevisionListener revisionListener) {
+		revisionListeners.add(revisionListener);
+	}
+
+	public void setRevisionPreparers(List<CmsRevisionPreparer> revisionPreparers) {
+		this.revisionPreparers.clear();
+		this.revisionPreparers.addAll(revisionPreparers);
+	}
+
+	public void addRevisionPreparer(CmsRevisionPreparer revisionPreparer) {
+		revisionPreparers.add(revisionPreparer);
+	}
+
 	@JmxAttributeMethod(description = "Revisions last updated")
 	public String[] getLastCmsUpateRevisions() {
 		List<RevisionInfo> lastUpdate = lastCmsUpateRevisions;
@@ -81,20 +264,188 @@ public class CmsManager {
 		return results.toArray(new String[results.size()]);
 	}
 
+	@JmxAttributeMethod(description = "Updates folded into a rerun because one was already running")
+	public int getCollapsedUpdateCount() {
+		return collapsedUpdateCount.get();
+	}
+
+	@JmxAttributeMethod(description = "Status of the CMS updates")
+	public String getUpdateStatus() {
+		if (updating) {
+			return "running for " + (System.currentTimeMillis() - lastUpdateStartMillis) + "ms";
+		}
+		StringBuilder sb = new StringBuilder();
+		sb.append("idle, last update ").append(lastUpdateResult);
+		if (lastUpdateStartMillis > 0) {
+			sb.append(" at ").append(new Date(lastUpdateStartMillis));
+		}
+		long nextMillis = nextUpdateMillis;
+		if (nextMillis > 0) {
+			sb.append(", next in ").append(Math.max(0, nextMillis - System.currentTimeMillis())).append("ms");
+		}
+		return sb.toString();
+	}
+
 	/**
-	 * Update our CMS directory to the latest version.
+	 * Update our CMS directory to the latest version. If an update is already running then this returns right away
+	 * and the running update goes again once it finishes since it may have read the config before it was changed.
 	 */
 	@JmxOperation(description = "Update the CMS release")
 	public void updateCms() throws IOException {
+		runUpdate(false);
+	}
+
+	/**
+	 * Update our CMS directory to the latest version even if the content source says the config has not changed.
+	 */
+	@JmxOperation(description = "Update the CMS release ignoring the version of the config")
+	public void forceUpdateCms() throws IOException {
+		runUpdate(true);
+	}
+
+	/**
+	 * Start updating the CMS in the background every update period, plus jitter, if one is set. This should be called
+	 * after the first update such as by the spring init-method.
+	 */
+	public synchronized void start() {
+		if (updatePeriodMillis <= 0 || scheduler != null) {
+			return;
+		}
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "CmsUpdater");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		scheduleUpdate();
+	}
+
+	/**
+	 * Stop the background updates.
+	 */
+	public synchronized void stop() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+			nextUpdateMillis = 0;
+		}
+	}
+
+	/**
+	 * Milliseconds between the background updates started by {@link #start()}. Default is 0 which means none.
+	 */
+	public void setUpdatePeriodMillis(long updatePeriodMillis) {
+		this.updatePeriodMillis = updatePeriodMillis;
+	}
+
+	/**
+	 * Up to this many random milliseconds are added to each update period so a fleet of servers does not poll the
+	 * content source in lock-step. Default is 0.
+	 */
+	public void setUpdateJitterMillis(long updateJitterMillis) {
+		this.updateJitterMillis = updateJitterMillis;
+	}
+
+	private void runUpdate(boolean force) throws IOException {
+		synchronized (updateLock) {
+			if (updating) {
+				// any number of requests while running are collapsed into one more update
+				collapsedUpdateCount.incrementAndGet();
+				rerunRequested = true;
+				rerunForced |= force;
+				logger.info("cms update already running, it will run again when finished");
+				return;
+			}
+			updating = true;
+		}
+		boolean finished = false;
+		try {
+			while (true) {
+				runOneUpdate(force);
+				synchronized (updateLock) {
+					if (!rerunRequested) {
+						updating = false;
+						finished = true;
+						return;
+					}
+					force = rerunForced;
+					rerunRequested = false;
+					rerunForced = false;
+				}
+				logger.info("running cms update again because it was requested while running");
+			}
+		} finally {
+			if (!finished) {
+				synchronized (updateLock) {
+					if (rerunRequested) {
+						logger.warn("cms update failed, not running the update that was requested while running");
+					}
+					updating = false;
+					rerunRequested = false;
+					rerunForced = false;
+				}
+			}
+		}
+	}
+
+	private void runOneUpdate(boolean force) throws IOException {
+		long startMillis = System.currentTimeMillis();
+		lastUpdateStartMillis = startMillis;
+		try {
+			lastUpdateResult = doUpdateCms(force);
+		} catch (IOException e) {
+			lastUpdateResult = "failed: " + e.getMessage();
+			throw e;
+		} catch (RuntimeException e) {
+			lastUpdateResult = "failed: " + e;
+			throw e;
+		} finally {
+			lastUpdateMillis = System.currentTimeMillis() - startMillis;
+		}
+	}
+
+	private synchronized void scheduleUpdate() {
+		if (scheduler == null) {
+			return;
+		}
+		long delayMillis = updatePeriodMillis;
+		if (updateJitterMillis > 0) {
+			delayMillis += (long) (random.nextDouble() * updateJitterMillis);
+		}
+		nextUpdateMillis = System.currentTimeMillis() + delayMillis;
+		scheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					updateCms();
+				} catch (Exception e) {
+					logger.error(e, "background cms update failed");
+				} finally {
+					scheduleUpdate();
+				}
+			}
+		}, delayMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return Description of what happened for the status.
+	 */
+	private String doUpdateCms(boolean force) throws IOException {
 
 		String localContentDir = System.getProperty(LOCAL_CONTENT_DIR_PROPERTY);
 		if (localContentDir != null) {
 			// shortcut when we are testing locally and don't want to pull down from AWS
 			maybeUpdateLiveLink(false, new File(localContentDir));
-			return;
+			return "linked local content";
 		}
 
-		List<RevisionInfo> revisionInfos = readRevisionInfos();
+		List<RevisionInfo> revisionInfos = readRevisionInfos(force);
+		if (revisionInfos == null) {
+			logger.debug("cms revision config has not changed");
+			return "found config not modified";
+		}
 		lastCmsUpateRevisions = revisionInfos;
 
 		if (revisionInfos.isEmpty()) {
@@ -128,14 +479,27 @@ public class CmsManager {
 				File tmpDir = info.getRevisionDirTmp(localDirectory);
 				// just in case
 				FileUtils.deleteDirectory(tmpDir);
-				if (!downloadVersion(info, tmpDir)) {
+				RevisionManifest manifest = readManifest(info);
+				if (manifest != null && downloadDelta(info, manifest, tmpDir)) {
+					// only the changes were downloaded
+				} else if (!downloadVersion(info, tmpDir)) {
 					/*
 					 * We may have invalid entries in the config.txt file.
 					 */
 					continue;
 				}
+				if (precompressFiles) {
+					precompressDirectory(tmpDir, new byte[PRECOMPRESS_BUFFER_SIZE]);
+				}
+				if (dedupFiles) {
+					dedupDirectory(tmpDir);
+				}
 				// rename into place
 				tmpDir.renameTo(revisionDir);
+				if (manifest != null) {
+					// so the next revision can be compared to this one
+					writeManifest(manifest, manifestFile(revisionDir));
+				}
 				downloaded = true;
 			}
 
@@ -152,6 +516,16 @@ public class CmsManager {
 		// remove the directories that are not in the config file
 		clearBranches(revisionInfos);
 		clearRevisions(revisionInfos);
+		if (dedupFiles) {
+			clearObjects();
+		}
+		// only now do we know that the config has been applied
+		lastConfigVersion = pendingConfigVersion;
+		if (downloaded) {
+			return "downloaded revisions";
+		} else {
+			return "found no new revisions";
+		}
 	}
 
 	/**
@@ -183,10 +557,56 @@ public class CmsManager {
 		}
 	}
 
+	/**
+	 * Write the compressed variants of a file that was extracted from a revision. By default this writes a gzip
+	 * variant with a .gz extension if it is smaller than the original. Override this to write other encodings as well.
+	 * 
+	 * @param buffer
+	 *            Buffer which can be used for the copying.
+	 */
+	protected void precompressFile(File file, byte[] buffer) throws IOException {
+		File gzipFile = new File(file.getPath() + GZIP_EXTENSION);
+		FileInputStream fis = null;
+		GZIPOutputStream gzipStream = null;
+		try {
+			fis = new FileInputStream(file);
+			gzipStream = new GZIPOutputStream(new FileOutputStream(gzipFile), buffer.length) {
+				{
+					def.setLevel(Deflater.BEST_COMPRESSION);
+				}
+			};
+			while (true) {
+				int numRead = fis.read(buffer);
+				if (numRead < 0) {
+					break;
+				}
+				gzipStream.write(buffer, 0, numRead);
+			}
+			gzipStream.close();
+			gzipStream = null;
+		} finally {
+			IOUtils.closeQuietly(fis);
+			IOUtils.closeQuietly(gzipStream);
+		}
+		if (gzipFile.length() >= file.length()) {
+			// not worth it
+			gzipFile.delete();
+		} else {
+			gzipFile.setReadable(true, false);
+			gzipFile.setLastModified(file.lastModified());
+		}
+	}
+
 	/**
 	 * Take a look at the existing symlink. If it is pointing to the right directory then we are all set.
 	 */
 	private void maybeUpdateLiveLink(boolean downloaded, File newLiveRevisionDir) throws IOException {
+		boolean changed = !newLiveRevisionDir.equals(liveRevisionDir);
+		if (changed) {
+			for (CmsRevisionPreparer preparer : revisionPreparers) {
+				preparer.prepareRevision(newLiveRevisionDir);
+			}
+		}
 		if (liveFile.exists() && newLiveRevisionDir.getCanonicalFile().equals(liveFile.getCanonicalFile())) {
 			// we are already linked appropriately
 			if (downloaded) {
@@ -202,6 +622,11 @@ public class CmsManager {
 			logger.info("cms linked to live directory: " + newLiveRevisionDir);
 		}
 		liveRevisionDir = newLiveRevisionDir;
+		if (changed) {
+			for (CmsRevisionListener listener : revisionListeners) {
+				listener.liveRevisionChanged(newLiveRevisionDir);
+			}
+		}
 	}
 
 	private void clearBranches(List<RevisionInfo> revisionInfos) {
@@ -246,8 +671,19 @@ public class CmsManager {
 			if (!branchDir.isDirectory()) {
 				continue;
 			}
+			if (branchDir.getName().startsWith(".")) {
+				// skip dot directories such as the object store
+				continue;
+			}
 			for (File revisionDir : branchDir.listFiles()) {
 				if (revisionDir.isFile()) {
+					String path = revisionDir.getPath();
+					if (path.endsWith(MANIFEST_EXTENSION)
+							&& !isConfiguredRevision(revisionInfos,
+									new File(path.substring(0, path.length() - MANIFEST_EXTENSION.length())))) {
+						// manifest of a revision that is being removed
+						revisionDir.delete();
+					}
 					// skip files
 					continue;
 				}
@@ -255,13 +691,7 @@ public class CmsManager {
 					// skip dot files
 					continue;
 				}
-				boolean matched = false;
-				for (RevisionInfo info : revisionInfos) {
-					if (info.getRevisionDir(localDirectory).equals(revisionDir)) {
-						matched = true;
-					}
-				}
-				if (!matched) {
+				if (!isConfiguredRevision(revisionInfos, revisionDir)) {
 					try {
 						FileUtils.deleteDirectory(revisionDir);
 						logger.info("deleted old revision dir: {}", revisionDir);
@@ -274,32 +704,48 @@ public class CmsManager {
 		}
 	}
 
+	private boolean isConfiguredRevision(List<RevisionInfo> revisionInfos, File revisionDir) {
+		for (RevisionInfo info : revisionInfos) {
+			if (info.getRevisionDir(localDirectory).equals(revisionDir)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	private boolean downloadVersion(RevisionInfo info, File downloadDir) throws IOException {
 		InputStream is = contentSource.getContentZipInputStream(info.getBranch(), info.getRevision());
 		if (is == null) {
 			logger.warn("Could not find cms revision {}", info);
 			return false;
 		}
+		if (extractThreadCount > 1) {
+			File zipFile = new File(downloadDir.getPath() + ZIP_EXTENSION);
+			try {
+				spoolToFile(is, zipFile);
+				extractZipFile(zipFile, downloadDir);
+			} finally {
+				zipFile.delete();
+			}
+			logger.info("downloaded revision {} to {}", info.getRevision(), downloadDir);
+			return true;
+		}
 		ZipInputStream zipStream = null;
 		try {
 			downloadDir.mkdirs();
-			zipStream = new ZipInputStream(new BufferedInputStream(is));
+			zipStream = new ZipInputStream(new BufferedInputStream(is, EXTRACT_BUFFER_SIZE));
 			is = null;
+			byte[] buffer = new byte[EXTRACT_BUFFER_SIZE];
 			while (true) {
 				ZipEntry entry = zipStream.getNextEntry();
 				if (entry == null) {
 					break;
 				}
-				String fileName = entry.getName();
+				File file = entryFile(downloadDir, entry);
 				if (entry.isDirectory()) {
-					if (fileName.endsWith("/") || fileName.endsWith(File.separator)) {
-						fileName = fileName.substring(0, fileName.length() - 1);
-					}
-					File dir = new File(downloadDir, fileName);
-					makeDir(dir);
+					makeDir(file);
 				} else {
-					File file = new File(downloadDir, fileName);
-					readInFile(zipStream, entry, file);
+					readInFile(zipStream, file, buffer);
 				}
 			}
 			logger.info("downloaded revision {} to {}", info.getRevision(), downloadDir);
@@ -310,23 +756,452 @@ public class CmsManager {
 		}
 	}
 
-	private void readInFile(ZipInputStream zipStream, ZipEntry entry, File zipFile) throws IOException {
+	/**
+	 * Write the revision zip to a local file so its entries can be read at random. The stream is closed.
+	 */
+	private void spoolToFile(InputStream is, File zipFile) throws IOException {
 		FileOutputStream fos = null;
 		try {
 			fos = new FileOutputStream(zipFile);
-			byte[] buffer = new byte[4096];
+			byte[] buffer = new byte[EXTRACT_BUFFER_SIZE];
 			while (true) {
-				int readCount = zipStream.read(buffer, 0, buffer.length);
+				int readCount = is.read(buffer);
 				if (readCount < 0) {
 					break;
 				}
 				fos.write(buffer, 0, readCount);
 			}
+			fos.close();
+			fos = null;
 		} finally {
 			IOUtils.closeQuietly(fos);
+			IOUtils.closeQuietly(is);
+		}
+	}
+
+	/**
+	 * Extract a revision zip file in parallel. The directories are all made first and then the files are divided up
+	 * between the threads which each have their own zip-file handle and buffer.
+	 */
+	private void extractZipFile(final File zipFile, final File downloadDir) throws IOException {
+		final List<ZipEntry> fileEntries = new ArrayList<ZipEntry>();
+		ZipFile zip = new ZipFile(zipFile);
+		try {
+			makeDir(downloadDir);
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+			while (entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+				File file = entryFile(downloadDir, entry);
+				if (entry.isDirectory()) {
+					makeDir(file);
+				} else {
+					makeDir(file.getParentFile());
+					fileEntries.add(entry);
+				}
+			}
+		} finally {
+			IOUtils.closeQuietly(zip);
+		}
+
+		int threadCount = Math.max(1, Math.min(extractThreadCount, fileEntries.size()));
+		final AtomicInteger nextIndex = new AtomicInteger();
+		final AtomicBoolean failed = new AtomicBoolean();
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount, new ExtractThreadFactory());
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (int i = 0; i < threadCount; i++) {
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws IOException {
+						ZipFile threadZip = new ZipFile(zipFile);
+						try {
+							byte[] buffer = new byte[EXTRACT_BUFFER_SIZE];
+							while (!failed.get()) {
+								int index = nextIndex.getAndIncrement();
+								if (index >= fileEntries.size()) {
+									break;
+								}
+								ZipEntry entry = fileEntries.get(index);
+								readInFile(threadZip.getInputStream(entry), entryFile(downloadDir, entry), buffer);
+							}
+							return null;
+						} catch (IOException e) {
+							failed.set(true);
+							throw e;
+						} finally {
+							IOUtils.closeQuietly(threadZip);
+						}
+					}
+				}));
+			}
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			} else {
+				throw new IOException("Could not extract " + zipFile, e.getCause());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Extraction of " + zipFile + " was interrupted", e);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Return the file of a zip entry making sure that it does not escape the download directory.
+	 */
+	private File entryFile(File downloadDir, ZipEntry entry) throws IOException {
+		String name = entry.getName();
+		for (String part : StringUtils.split(name.replace('\\', '/'), '/')) {
+			if (part.equals("..")) {
+				throw new IOException("Invalid zip entry name: " + name);
+			}
+		}
+		return new File(downloadDir, name);
+	}
+
+	/**
+	 * Read the manifest of a revision if delta updates are enabled and the content source publishes one.
+	 */
+	private RevisionManifest readManifest(RevisionInfo info) {
+		if (!deltaUpdates || !(contentSource instanceof ManifestContentSource)) {
+			return null;
+		}
+		try {
+			InputStream is =
+					((ManifestContentSource) contentSource).getManifestInputStream(info.getBranch(),
+							info.getRevision());
+			if (is == null) {
+				return null;
+			} else {
+				return RevisionManifest.read(is);
+			}
+		} catch (IOException e) {
+			logger.warn(e, "could not read the manifest of cms revision {}", info);
+			return null;
+		}
+	}
+
+	/**
+	 * Download the files of the revision that are not the same as in the live revision and link the rest.
+	 * 
+	 * @return True if it worked or false if the whole revision needs to be downloaded.
+	 */
+	private boolean downloadDelta(RevisionInfo info, RevisionManifest manifest, File downloadDir) throws IOException {
+		File baseDir = liveRevisionDir;
+		if (baseDir == null && liveFile != null && liveFile.exists()) {
+			// we have restarted
+			baseDir = liveFile.getCanonicalFile();
+		}
+		if (baseDir == null || !baseDir.isDirectory()) {
+			return false;
+		}
+		File baseManifestFile = manifestFile(baseDir);
+		if (!baseManifestFile.isFile()) {
+			return false;
+		}
+		ManifestContentSource source = (ManifestContentSource) contentSource;
+		int downloadCount = 0;
+		int reuseCount = 0;
+		byte[] buffer = new byte[PRECOMPRESS_BUFFER_SIZE];
+		try {
+			RevisionManifest baseManifest = RevisionManifest.read(new FileInputStream(baseManifestFile));
+			makeDir(downloadDir);
+			for (RevisionManifest.Entry entry : manifest.getEntries()) {
+				File file = new File(downloadDir, entry.getPath());
+				makeDir(file.getParentFile());
+				File baseFile = new File(baseDir, entry.getPath());
+				if (entry.isSameContents(baseManifest.getEntry(entry.getPath())) && baseFile.isFile()
+						&& baseFile.length() == entry.getSize()) {
+					linkOrCopyFile(baseFile, file);
+					File baseGzipFile = new File(baseFile.getPath() + GZIP_EXTENSION);
+					if (precompressFiles && baseGzipFile.isFile()
+							&& manifest.getEntry(entry.getPath() + GZIP_EXTENSION) == null) {
+						// we compressed it already
+						linkOrCopyFile(baseGzipFile, new File(file.getPath() + GZIP_EXTENSION));
+					}
+					reuseCount++;
+				} else if (dedupFiles && isStoredObject(objectFile(entry.getHash()), entry.getSize())) {
+					// we have had this version of the file before
+					linkOrCopyFile(objectFile(entry.getHash()), file);
+					reuseCount++;
+				} else {
+					InputStream is =
+							source.getContentFileInputStream(info.getBranch(), info.getRevision(), entry.getPath());
+					if (is == null) {
+						throw new IOException("could not find file " + entry.getPath() + " of revision");
+					}
+					readInFile(is, entry, file, buffer);
+					downloadCount++;
+				}
+			}
+		} catch (IOException e) {
+			logger.warn(e, "delta update of cms revision {} failed, downloading the whole revision", info);
+			FileUtils.deleteDirectory(downloadDir);
+			return false;
+		}
+		lastDeltaDownloadCount = downloadCount;
+		lastDeltaReuseCount = reuseCount;
+		logger.info("downloaded {} changed files of revision {} to {}, reused {} from {}", new Object[] { downloadCount,
+				info.getRevision(), downloadDir, reuseCount, baseDir });
+		return true;
+	}
+
+	/**
+	 * Hard link a file from another revision, which is never modified, or copy it if links are not supported.
+	 */
+	private void linkOrCopyFile(File existingFile, File file) throws IOException {
+		try {
+			Files.createLink(file.toPath(), existingFile.toPath());
+		} catch (IOException e) {
+			Files.copy(existingFile.toPath(), file.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+		} catch (UnsupportedOperationException e) {
+			Files.copy(existingFile.toPath(), file.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+		}
+	}
+
+	/**
+	 * Read in a file of a revision checking its size and hash against the manifest. The stream is closed.
+	 */
+	private void readInFile(InputStream is, RevisionManifest.Entry entry, File file, byte[] buffer)
+			throws IOException {
+		MessageDigest digest = RevisionManifest.createDigest();
+		long size = 0;
+		FileOutputStream fos = null;
+		try {
+			fos = new FileOutputStream(file);
+			while (true) {
+				int readCount = is.read(buffer);
+				if (readCount < 0) {
+					break;
+				}
+				digest.update(buffer, 0, readCount);
+				fos.write(buffer, 0, readCount);
+				size += readCount;
+			}
+			fos.close();
+			fos = null;
+		} finally {
+			IOUtils.closeQuietly(fos);
+			IOUtils.closeQuietly(is);
+		}
+		if (size != entry.getSize() || !RevisionManifest.toHex(digest.digest()).equalsIgnoreCase(entry.getHash())) {
+			throw new IOException("file " + entry.getPath() + " does not match its manifest entry");
+		}
+		file.setReadable(true, false);
+		file.setWritable(true, true);
+	}
+
+	private void writeManifest(RevisionManifest manifest, File file) {
+		FileOutputStream fos = null;
+		try {
+			fos = new FileOutputStream(file);
+			manifest.write(fos);
+			fos.close();
+			fos = null;
+		} catch (IOException e) {
+			// the next revision will be downloaded whole
+			logger.warn(e, "could not write cms manifest {}", file);
+			file.delete();
+		} finally {
+			IOUtils.closeQuietly(fos);
+		}
+	}
+
+	/**
+	 * Replace the files of a new revision with hard links to the objects in the store with the same contents, adding
+	 * the ones that are not there yet.
+	 */
+	private void dedupDirectory(File dir) throws IOException {
+		makeDir(new File(localDirectory, OBJECTS_DIR_NAME));
+		int[] linkCount = new int[1];
+		if (dedupFiles(dir, new byte[PRECOMPRESS_BUFFER_SIZE], linkCount)) {
+			lastDedupLinkCount = linkCount[0];
+			logger.info("linked {} files of {} to stored objects", linkCount[0], dir);
+		}
+	}
+
+	/**
+	 * @return False if hard links are not supported.
+	 */
+	private boolean dedupFiles(File dir, byte[] buffer, int[] linkCount) throws IOException {
+		for (File file : dir.listFiles()) {
+			if (file.isDirectory()) {
+				if (!dedupFiles(file, buffer, linkCount)) {
+					return false;
+				}
+				continue;
+			}
+			if (getLinkCount(file) > 1) {
+				// linked from the live revision or the store already
+				continue;
+			}
+			String hash = RevisionManifest.hashFile(file, buffer);
+			File objectFile = objectFile(hash);
+			try {
+				if (isStoredObject(objectFile, file.length())) {
+					replaceWithLink(file, objectFile);
+					linkCount[0]++;
+				} else {
+					makeDir(objectFile.getParentFile());
+					replaceWithLink(objectFile, file);
+				}
+			} catch (IOException e) {
+				logger.warn(e, "could not link {} to the object store, not deduplicating files", file);
+				return false;
+			} catch (UnsupportedOperationException e) {
+				logger.warn(e, "could not link {} to the object store, not deduplicating files", file);
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Replace a file with a hard link to another file. The link is made with a temporary name in the same directory and
+	 * then renamed over the file so if anything fails the original file is left in place.
+	 */
+	private void replaceWithLink(File file, File existingFile) throws IOException {
+		File tmpFile = new File(file.getParentFile(), "." + file.getName() + ".link");
+		tmpFile.delete();
+		Files.createLink(tmpFile.toPath(), existingFile.toPath());
+		boolean moved = false;
+		try {
+			Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+			moved = true;
+		} finally {
+			if (!moved) {
+				tmpFile.delete();
+			}
+		}
+	}
+
+	/**
+	 * Remove the objects in the store which are no longer linked to by any revision.
+	 */
+	private void clearObjects() {
+		File[] hashDirs = new File(localDirectory, OBJECTS_DIR_NAME).listFiles();
+		if (hashDirs == null) {
+			return;
+		}
+		int deleteCount = 0;
+		for (File hashDir : hashDirs) {
+			File[] objectFiles = hashDir.listFiles();
+			if (objectFiles == null) {
+				continue;
+			}
+			for (File objectFile : objectFiles) {
+				int linkCount = getLinkCount(objectFile);
+				if (linkCount < 0) {
+					// we can't tell so we keep them all
+					return;
+				}
+				if (linkCount == 1 && objectFile.delete()) {
+					deleteCount++;
+				}
+			}
+		}
+		if (deleteCount > 0) {
+			logger.info("deleted {} objects that are no longer used by any revision", deleteCount);
+		}
+	}
+
+	private File objectFile(String hash) {
+		String lowerHash = hash.toLowerCase(Locale.ENGLISH);
+		return new File(new File(new File(localDirectory, OBJECTS_DIR_NAME), lowerHash.substring(0, 2)), lowerHash);
+	}
+
+	private static boolean isStoredObject(File objectFile, long size) {
+		return objectFile.isFile() && objectFile.length() == size;
+	}
+
+	/**
+	 * Return the number of hard links to a file or -1 if the file-system does not tell us.
+	 */
+	private static int getLinkCount(File file) {
+		try {
+			return ((Number) Files.getAttribute(file.toPath(), "unix:nlink")).intValue();
+		} catch (IOException e) {
+			return -1;
+		} catch (UnsupportedOperationException e) {
+			return -1;
+		} catch (IllegalArgumentException e) {
+			return -1;
+		}
+	}
+
+	private static File manifestFile(File revisionDir) {
+		return new File(revisionDir.getPath() + MANIFEST_EXTENSION);
+	}
+
+	/**
+	 * Read in a file from a stream which is closed if it is not a zip stream.
+	 */
+	private void readInFile(InputStream is, File file, byte[] buffer) throws IOException {
+		FileOutputStream fos = null;
+		try {
+			fos = new FileOutputStream(file);
+			while (true) {
+				int readCount = is.read(buffer, 0, buffer.length);
+				if (readCount < 0) {
+					break;
+				}
+				fos.write(buffer, 0, readCount);
+			}
+			fos.close();
+			fos = null;
+		} finally {
+			IOUtils.closeQuietly(fos);
+			if (!(is instanceof ZipInputStream)) {
+				IOUtils.closeQuietly(is);
+			}
+		}
+		file.setReadable(true, false);
+		file.setWritable(true, true);
+	}
+
+	/**
+	 * Daemon threads so a stuck extraction does not hold up the shutdown.
+	 */
+	private static class ExtractThreadFactory implements ThreadFactory {
+		private final AtomicInteger threadCount = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "CmsExtract-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+	private void precompressDirectory(File dir, byte[] buffer) throws IOException {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			logAndThrow("Could not list files in directory: " + dir, null);
+			return;
+		}
+		for (File file : files) {
+			if (file.isDirectory()) {
+				precompressDirectory(file, buffer);
+				continue;
+			}
+			String name = file.getName();
+			int dotIndex = name.lastIndexOf('.');
+			if (dotIndex < 0 || file.length() < precompressMinSize
+					|| !precompressExtensions.contains(name.substring(dotIndex + 1).toLowerCase(Locale.ENGLISH))) {
+				continue;
+			}
+			if (new File(file.getPath() + GZIP_EXTENSION).exists()) {
+				// the revision came with its own
+				continue;
+			}
+			precompressFile(file, buffer);
 		}
-		zipFile.setReadable(true, false);
-		zipFile.setWritable(true, true);
 	}
 
 	private void makeDir(File dir) throws IOException {
@@ -339,9 +1214,28 @@ public class CmsManager {
 		}
 	}
 
-	private List<RevisionInfo> readRevisionInfos() throws IOException {
+	/**
+	 * @return The revisions from the config or null if it has not changed.
+	 */
+	private List<RevisionInfo> readRevisionInfos(boolean force) throws IOException {
 		// download the config file
-		InputStream is = contentSource.getRevisionConfigInputStream();
+		InputStream is;
+		pendingConfigVersion = null;
+		if (contentSource instanceof ConditionalContentSource) {
+			// we always get the whole config until we have a live revision
+			String previousVersion = (force || liveRevisionDir == null ? null : lastConfigVersion);
+			RevisionConfig config = ((ConditionalContentSource) contentSource).getRevisionConfig(previousVersion);
+			if (config == null) {
+				is = null;
+			} else if (config.isNotModified()) {
+				return null;
+			} else {
+				is = config.getInputStream();
+				pendingConfigVersion = config.getVersion();
+			}
+		} else {
+			is = contentSource.getRevisionConfigInputStream();
+		}
 		if (is == null) {
 			logAndThrow("Could not find revision configuration file", null);
 		}
@@ -0,0 +1,17 @@
+package com.j256.simplewebframework.cms;
+
+import java.io.File;
+
+/**
+ * Listener which is called by the {@link CmsManager} when the live revision changes so caches of the CMS content can be
+ * flushed.
+ * 
+ * @author graywatson
+ */
+public interface CmsRevisionListener {
+
+	/**
+	 * Called after the live link has been switched to a new revision directory.
+	 */
+	public void liveRevisionChanged(File liveRevisionDir);
+}
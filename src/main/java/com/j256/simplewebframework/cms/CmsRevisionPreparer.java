@@ -0,0 +1,18 @@
+package com.j256.simplewebframework.cms;
+
+import java.io.File;
+
+/**
+ * Preparer which is called by the {@link CmsManager} with a new revision directory before the live link is switched to
+ * it so caches can be filled before the revision takes any traffic.
+ * 
+ * @author graywatson
+ */
+public interface CmsRevisionPreparer {
+
+	/**
+	 * Called before the live link is switched to a new revision directory. Any problems should be logged and not
+	 * thrown since the revision goes live regardless.
+	 */
+	public void prepareRevision(File revisionDir);
+}
@@ -0,0 +1,22 @@
+package com.j256.simplewebframework.cms;
+
+import java.io.IOException;
+
+/**
+ * Content source which can tell if the revision config file has changed since it was last fetched, using an ETag or
+ * last-modified time, so the {@link CmsManager} can poll it often without downloading and parsing it each time.
+ * 
+ * @author graywatson
+ */
+public interface ConditionalContentSource extends ContentSource {
+
+	/**
+	 * Return the revision config if it has changed.
+	 * 
+	 * @param previousVersion
+	 *            Version of the config returned last time, or null to always get it.
+	 * @return The config and its version, {@link RevisionConfig#NOT_MODIFIED} if it has not changed, or null if the
+	 *         config is not found.
+	 */
+	public RevisionConfig getRevisionConfig(String previousVersion) throws IOException;
+}
@@ -0,0 +1,30 @@
+package com.j256.simplewebframework.cms;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Content source which also publishes a {@link RevisionManifest} and the individual files of each revision so the
+ * {@link CmsManager} can download only the files that changed since the live revision instead of the whole zip.
+ * 
+ * @author graywatson
+ */
+public interface ManifestContentSource extends ContentSource {
+
+	/**
+	 * Return an input stream of the manifest of the revision in the format read by
+	 * {@link RevisionManifest#read(InputStream)}. The caller will close the stream.
+	 * 
+	 * @return null if the revision has no manifest in which case the whole zip is downloaded.
+	 */
+	public InputStream getManifestInputStream(String branch, int revision) throws IOException;
+
+	/**
+	 * Return an input stream of a file in the revision. The caller will close the stream.
+	 * 
+	 * @param path
+	 *            Path of the file in the revision as it appears in the manifest.
+	 * @return null if the file is not found.
+	 */
+	public InputStream getContentFileInputStream(String branch, int revision, String path) throws IOException;
+}
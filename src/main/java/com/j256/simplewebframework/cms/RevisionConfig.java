@@ -0,0 +1,44 @@
+package com.j256.simplewebframework.cms;
+
+import java.io.InputStream;
+
+/**
+ * Revision config file returned by a {@link ConditionalContentSource} with the version, such as the ETag, that is
+ * passed back to it to see if the config has changed.
+ * 
+ * @author graywatson
+ */
+public class RevisionConfig {
+
+	/**
+	 * Returned when the config has not changed since the previous version.
+	 */
+	public static final RevisionConfig NOT_MODIFIED = new RevisionConfig(null, null);
+
+	private final InputStream inputStream;
+	private final String version;
+
+	/**
+	 * @param inputStream
+	 *            Stream of the config file in the format of {@link ContentSource#getRevisionConfigInputStream()}
+	 *            which is closed by the caller.
+	 * @param version
+	 *            ETag or other version of the config or null if none.
+	 */
+	public RevisionConfig(InputStream inputStream, String version) {
+		this.inputStream = inputStream;
+		this.version = version;
+	}
+
+	public InputStream getInputStream() {
+		return inputStream;
+	}
+
+	public String getVersion() {
+		return version;
+	}
+
+	public boolean isNotModified() {
+		return this == NOT_MODIFIED;
+	}
+}
@@ -0,0 +1,246 @@
+package com.j256.simplewebframework.cms;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.j256.simplewebframework.util.IOUtils;
+import com.j256.simplewebframework.util.StringUtils;
+
+/**
+ * List of the files in a CMS revision with their hashes and sizes which is published next to the revision zip so the
+ * {@link CmsManager} can download just the files which have changed since the live revision.
+ * 
+ * <pre>
+ * # lines that start with pound sign are comments and ignored along with blank lines
+ * #
+ * # sha1-hex   size   path-in-the-revision
+ * 2fd4e1c67a2d28fced849ee1bb76e7391b93eb12	1234	css/site.css
+ * </pre>
+ * 
+ * @author graywatson
+ */
+public class RevisionManifest {
+
+	private static final String HASH_ALGORITHM = "SHA-1";
+	private static final int HASH_HEX_LENGTH = 40;
+	private static final String CHARSET = "UTF-8";
+	private static final char[] HEX_CHARS = "0123456789abcdef".toCharArray();
+
+	private final Map<String, Entry> entryMap;
+
+	private RevisionManifest(Map<String, Entry> entryMap) {
+		this.entryMap = entryMap;
+	}
+
+	/**
+	 * Read a manifest from a stream which is closed afterwards.
+	 */
+	public static RevisionManifest read(InputStream inputStream) throws IOException {
+		Map<String, Entry> entryMap = new TreeMap<String, Entry>();
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new InputStreamReader(inputStream, CHARSET));
+			inputStream = null;
+			while (true) {
+				String line = reader.readLine();
+				if (line == null) {
+					break;
+				}
+				if (line.length() == 0 || line.charAt(0) == '#') {
+					continue;
+				}
+				String[] parts = StringUtils.split(line, '\t');
+				if (parts.length < 3) {
+					throw new IOException("invalid manifest line: " + line);
+				}
+				long size;
+				try {
+					size = Long.parseLong(parts[1]);
+				} catch (NumberFormatException e) {
+					throw new IOException("invalid size in manifest line: " + line);
+				}
+				// the hash is used as the file name in the object store
+				String hash = parts[0].toLowerCase(Locale.ENGLISH);
+				if (!isValidHash(hash)) {
+					throw new IOException("invalid hash in manifest line: " + line);
+				}
+				String path = parts[2];
+				if (!isSafePath(path)) {
+					throw new IOException("invalid path in manifest line: " + line);
+				}
+				entryMap.put(path, new Entry(path, hash, size));
+			}
+		} finally {
+			IOUtils.closeQuietly(reader);
+			IOUtils.closeQuietly(inputStream);
+		}
+		return new RevisionManifest(entryMap);
+	}
+
+	/**
+	 * Build the manifest of the files in a directory. This is used when publishing a revision.
+	 */
+	public static RevisionManifest build(File dir) throws IOException {
+		Map<String, Entry> entryMap = new TreeMap<String, Entry>();
+		addFiles(dir, "", entryMap, new byte[65536]);
+		return new RevisionManifest(entryMap);
+	}
+
+	/**
+	 * Write the manifest to a stream which is not closed.
+	 */
+	public void write(OutputStream outputStream) throws IOException {
+		Writer writer = new OutputStreamWriter(outputStream, CHARSET);
+		writer.write("# sha1-hex\tsize\tpath\n");
+		for (Entry entry : entryMap.values()) {
+			writer.write(entry.hash + "\t" + entry.size + "\t" + entry.path + "\n");
+		}
+		writer.flush();
+	}
+
+	/**
+	 * Return the entry for a path or null if none.
+	 */
+	public Entry getEntry(String path) {
+		return entryMap.get(path);
+	}
+
+	public Collection<Entry> getEntries() {
+		return entryMap.values();
+	}
+
+	/**
+	 * Return a digest to calculate the hash of a file.
+	 */
+	public static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance(HASH_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(HASH_ALGORITHM + " digest not supported", e);
+		}
+	}
+
+	/**
+	 * Return the hex string of a digest in the format used in the manifest.
+	 */
+	public static String toHex(byte[] digest) {
+		char[] chars = new char[digest.length * 2];
+		for (int i = 0; i < digest.length; i++) {
+			chars[i * 2] = HEX_CHARS[(digest[i] >> 4) & 0xF];
+			chars[i * 2 + 1] = HEX_CHARS[digest[i] & 0xF];
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Return the hash of the contents of a file in the format used in the manifest.
+	 * 
+	 * @param buffer
+	 *            Buffer which can be used for the reading.
+	 */
+	public static String hashFile(File file, byte[] buffer) throws IOException {
+		MessageDigest digest = createDigest();
+		FileInputStream fis = new FileInputStream(file);
+		try {
+			while (true) {
+				int numRead = fis.read(buffer);
+				if (numRead < 0) {
+					break;
+				}
+				digest.update(buffer, 0, numRead);
+			}
+		} finally {
+			IOUtils.closeQuietly(fis);
+		}
+		return toHex(digest.digest());
+	}
+
+	private static boolean isValidHash(String hash) {
+		if (hash.length() != HASH_HEX_LENGTH) {
+			return false;
+		}
+		for (int i = 0; i < hash.length(); i++) {
+			char ch = hash.charAt(i);
+			if ((ch < '0' || ch > '9') && (ch < 'a' || ch > 'f')) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isSafePath(String path) {
+		if (path.length() == 0 || path.startsWith("/") || path.indexOf('\\') >= 0) {
+			return false;
+		}
+		for (String part : StringUtils.split(path, '/')) {
+			if (part.equals("..")) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void addFiles(File dir, String prefix, Map<String, Entry> entryMap, byte[] buffer)
+			throws IOException {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			String path = prefix + file.getName();
+			if (file.isDirectory()) {
+				addFiles(file, path + "/", entryMap, buffer);
+				continue;
+			}
+			entryMap.put(path, new Entry(path, hashFile(file, buffer), file.length()));
+		}
+	}
+
+	/**
+	 * File in the revision.
+	 */
+	public static class Entry {
+
+		private final String path;
+		private final String hash;
+		private final long size;
+
+		public Entry(String path, String hash, long size) {
+			this.path = path;
+			this.hash = hash;
+			this.size = size;
+		}
+
+		public String getPath() {
+			return path;
+		}
+
+		public String getHash() {
+			return hash;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		/**
+		 * Return true if the other entry has the same contents.
+		 */
+		public boolean isSameContents(Entry other) {
+			return other != null && size == other.size && hash.equalsIgnoreCase(other.hash);
+		}
+	}
+}
@@ -0,0 +1,239 @@
+package com.j256.simplewebframework.compress;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.eclipse.jetty.http.HttpHeaders;
+
+/**
+ * Response wrapper which holds on to the first bytes of the body until it knows whether the body is big enough to be
+ * worth compressing and whether the content-type is compressible. If the content-type, status, or encoding already
+ * rule out compression when the output-stream is requested then the wrapped response's stream is returned so the
+ * displayers can still write to the connection directly.
+ * 
+ * @author graywatson
+ */
+class CompressingResponse extends HttpServletResponseWrapper {
+
+	private final ResponseCompressor compressor;
+	private CompressingOutputStream outputStream;
+	private PrintWriter writer;
+	/** held until we've decided because it must not be sent with a compressed body */
+	private long pendingContentLength = -1;
+	/** null if we haven't decided yet */
+	private Boolean compressing;
+
+	public CompressingResponse(HttpServletResponse response, ResponseCompressor compressor) {
+		super(response);
+		this.compressor = compressor;
+	}
+
+	@Override
+	public ServletOutputStream getOutputStream() throws IOException {
+		if (writer != null) {
+			throw new IllegalStateException("getWriter() has already been called");
+		}
+		if (outputStream == null) {
+			if (compressing == null && getContentType() != null && !isCompressible()) {
+				decide(false);
+			}
+			if (compressing != null && !compressing) {
+				return getResponse().getOutputStream();
+			}
+			outputStream = new CompressingOutputStream();
+		}
+		return outputStream;
+	}
+
+	@Override
+	public PrintWriter getWriter() throws IOException {
+		if (writer == null) {
+			if (outputStream != null) {
+				throw new IllegalStateException("getOutputStream() has already been called");
+			}
+			outputStream = new CompressingOutputStream();
+			writer = new PrintWriter(new OutputStreamWriter(outputStream, getCharacterEncoding()));
+		}
+		return writer;
+	}
+
+	@Override
+	public void setContentLength(int length) {
+		if (compressing == null) {
+			pendingContentLength = length;
+		} else if (!compressing) {
+			super.setContentLength(length);
+		}
+	}
+
+	@Override
+	public void setHeader(String name, String value) {
+		if (checkHeader(name, value)) {
+			super.setHeader(name, value);
+		}
+	}
+
+	@Override
+	public void addHeader(String name, String value) {
+		if (checkHeader(name, value)) {
+			super.addHeader(name, value);
+		}
+	}
+
+	@Override
+	public void setIntHeader(String name, int value) {
+		if (checkHeader(name, Integer.toString(value))) {
+			super.setIntHeader(name, value);
+		}
+	}
+
+	@Override
+	public void addIntHeader(String name, int value) {
+		if (checkHeader(name, Integer.toString(value))) {
+			super.addIntHeader(name, value);
+		}
+	}
+
+	/**
+	 * Finish the compressed body if the displayer didn't close the stream or writer itself.
+	 */
+	public void finish() throws IOException {
+		if (writer != null) {
+			writer.close();
+		} else if (outputStream != null) {
+			outputStream.close();
+		}
+	}
+
+	@Override
+	public void flushBuffer() throws IOException {
+		if (writer != null) {
+			writer.flush();
+		} else if (outputStream != null) {
+			outputStream.flush();
+		}
+		super.flushBuffer();
+	}
+
+	/**
+	 * Returns true if the header should be passed through now.
+	 */
+	private boolean checkHeader(String name, String value) {
+		if (HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name)) {
+			if (compressing == null) {
+				try {
+					pendingContentLength = Long.parseLong(value.trim());
+				} catch (NumberFormatException e) {
+					// an invalid length is dropped instead of being sent before we've decided
+					pendingContentLength = -1;
+				}
+				return false;
+			} else {
+				return !compressing;
+			}
+		} else if (HttpHeaders.CONTENT_ENCODING.equalsIgnoreCase(name) && compressing == null) {
+			// already encoded by someone else
+			decide(false);
+		}
+		return true;
+	}
+
+	private void decide(boolean compress) {
+		compressing = compress;
+		compressor.incrementCount(compress);
+		if (compress) {
+			HttpServletResponse response = (HttpServletResponse) getResponse();
+			response.setHeader(HttpHeaders.CONTENT_ENCODING, ResponseCompressor.GZIP_ENCODING);
+			response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+		} else if (pendingContentLength >= 0) {
+			// set as a header because the length may not fit in an int
+			super.setHeader(HttpHeaders.CONTENT_LENGTH, Long.toString(pendingContentLength));
+		}
+	}
+
+	private boolean isCompressible() {
+		int status = getStatus();
+		return ((status == SC_OK || status == 0) && compressor.isCompressible(getContentType()));
+	}
+
+	/**
+	 * Output stream which buffers until we've decided.
+	 */
+	private class CompressingOutputStream extends ServletOutputStream {
+
+		private byte[] buffer = new byte[compressor.getMinSize()];
+		private int bufferCount;
+		private OutputStream delegate;
+		private boolean closed;
+
+		@Override
+		public void write(int b) throws IOException {
+			if (delegate == null && bufferCount < buffer.length) {
+				buffer[bufferCount++] = (byte) b;
+			} else {
+				startDelegate(true).write(b);
+			}
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+			if (delegate == null && bufferCount + length <= buffer.length) {
+				System.arraycopy(bytes, offset, buffer, bufferCount, length);
+				bufferCount += length;
+			} else {
+				startDelegate(true).write(bytes, offset, length);
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			// a flush means the caller is streaming so we decide now and don't wait for the size
+			if (bufferCount > 0 || delegate != null) {
+				startDelegate(true).flush();
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			if (delegate == null) {
+				// the whole body fit in the buffer so we know its size
+				if (compressing == null) {
+					pendingContentLength = bufferCount;
+				}
+				startDelegate(bufferCount >= compressor.getMinSize());
+			}
+			delegate.close();
+		}
+
+		private OutputStream startDelegate(boolean compressIfPossible) throws IOException {
+			if (delegate != null) {
+				return delegate;
+			}
+			if (compressing == null) {
+				decide(compressIfPossible && isCompressible());
+			}
+			OutputStream out = getResponse().getOutputStream();
+			if (compressing) {
+				delegate = new PooledGzipOutputStream(out, compressor.getDeflaterPool(),
+						compressor.getLevel(getContentType()), compressor.getBufferSize());
+			} else {
+				delegate = out;
+			}
+			if (bufferCount > 0) {
+				delegate.write(buffer, 0, bufferCount);
+			}
+			buffer = null;
+			return delegate;
+		}
+	}
+}
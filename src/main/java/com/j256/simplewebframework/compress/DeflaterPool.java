@@ -0,0 +1,61 @@
+package com.j256.simplewebframework.compress;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * Pool of raw (no zlib wrapper) {@link Deflater}s so we don't allocate native zlib state for every compressed
+ * response. Deflaters are reset when they are released and their level is set when they are acquired.
+ * 
+ * @author graywatson
+ */
+public class DeflaterPool {
+
+	private static final int DEFAULT_MAX_IDLE = 64;
+
+	private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<Deflater>();
+	private final AtomicInteger idleCount = new AtomicInteger();
+	private int maxIdle = DEFAULT_MAX_IDLE;
+
+	/**
+	 * Get a deflater from the pool or create a new one.
+	 */
+	public Deflater acquire(int level) {
+		Deflater deflater = deflaters.poll();
+		if (deflater == null) {
+			return new Deflater(level, true);
+		}
+		idleCount.decrementAndGet();
+		deflater.setLevel(level);
+		return deflater;
+	}
+
+	/**
+	 * Return a deflater to the pool. If the pool is full then it is ended.
+	 */
+	public void release(Deflater deflater) {
+		if (idleCount.incrementAndGet() > maxIdle) {
+			idleCount.decrementAndGet();
+			deflater.end();
+		} else {
+			deflater.reset();
+			deflaters.add(deflater);
+		}
+	}
+
+	/**
+	 * Return the number of idle deflaters in the pool.
+	 */
+	public int getIdleCount() {
+		return idleCount.get();
+	}
+
+	/**
+	 * Maximum number of idle deflaters to keep around. Default is 64.
+	 */
+	public void setMaxIdle(int maxIdle) {
+		this.maxIdle = maxIdle;
+	}
+}
@@ -0,0 +1,66 @@
+package com.j256.simplewebframework.compress;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip output stream which uses a deflater from a {@link DeflaterPool} and returns it to the pool when closed.
+ * {@link GZIPOutputStream} always allocates its own deflater so we write the gzip header and trailer ourselves.
+ * 
+ * @author graywatson
+ */
+public class PooledGzipOutputStream extends DeflaterOutputStream {
+
+	private static final byte[] GZIP_HEADER = new byte[] { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+	private final DeflaterPool pool;
+	private final CRC32 crc = new CRC32();
+	private boolean finished;
+	private boolean released;
+
+	public PooledGzipOutputStream(OutputStream out, DeflaterPool pool, int level, int bufferSize) throws IOException {
+		// sync-flush so that flush() pushes out the compressed bytes written so far
+		super(out, pool.acquire(level), bufferSize, true);
+		this.pool = pool;
+		out.write(GZIP_HEADER);
+	}
+
+	@Override
+	public void write(byte[] buf, int offset, int length) throws IOException {
+		super.write(buf, offset, length);
+		crc.update(buf, offset, length);
+	}
+
+	@Override
+	public void finish() throws IOException {
+		if (finished) {
+			return;
+		}
+		finished = true;
+		super.finish();
+		writeIntLe((int) crc.getValue());
+		writeIntLe((int) def.getBytesRead());
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			super.close();
+		} finally {
+			if (!released) {
+				released = true;
+				pool.release(def);
+			}
+		}
+	}
+
+	private void writeIntLe(int value) throws IOException {
+		out.write(value & 0xff);
+		out.write((value >> 8) & 0xff);
+		out.write((value >> 16) & 0xff);
+		out.write((value >> 24) & 0xff);
+	}
+}
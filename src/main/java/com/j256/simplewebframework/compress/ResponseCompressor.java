@@ -0,0 +1,183 @@
+package com.j256.simplewebframework.compress;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.j256.simplejmx.common.JmxAttributeMethod;
+import com.j256.simplejmx.common.JmxResource;
+import com.j256.simplewebframework.util.RequestUtils;
+
+/**
+ * Gzip compresses dynamic responses on the fly. Set one of these on the ServiceHandler or LocalResourceHandler and it
+ * will wrap the response of requests that accept gzip encoding. The body is compressed only if it is of a compressible
+ * content-type and is at least the minimum size. Smaller bodies are sent as is with a Content-Length. Deflaters are
+ * reused from a {@link DeflaterPool}.
+ * 
+ * @author graywatson
+ */
+@JmxResource(domainName = "j256.simpleweb", description = "On the fly response compression")
+public class ResponseCompressor {
+
+	static final String GZIP_ENCODING = "gzip";
+	private static final int DEFAULT_MIN_SIZE = 1024;
+	private static final int DEFAULT_BUFFER_SIZE = 8192;
+	private static final String[] DEFAULT_COMPRESSIBLE_TYPES = new String[] { "application/javascript",
+			"application/json", "application/x-javascript", "application/xhtml+xml", "application/xml",
+			"image/svg+xml", "text/css", "text/csv", "text/html", "text/javascript", "text/plain", "text/xml" };
+
+	private final DeflaterPool deflaterPool = new DeflaterPool();
+	private int minSize = DEFAULT_MIN_SIZE;
+	private int bufferSize = DEFAULT_BUFFER_SIZE;
+	private int defaultLevel = Deflater.DEFAULT_COMPRESSION;
+	private Set<String> compressibleTypes = new HashSet<String>(Arrays.asList(DEFAULT_COMPRESSIBLE_TYPES));
+	private Map<String, Integer> mimeTypeLevels = new HashMap<String, Integer>();
+
+	private final AtomicLong compressedCount = new AtomicLong();
+	private final AtomicLong uncompressedCount = new AtomicLong();
+
+	/**
+	 * Wrap the response with one that compresses if the request accepts gzip encoding otherwise the response is
+	 * returned.
+	 */
+	public HttpServletResponse wrapResponse(HttpServletRequest request, HttpServletResponse response) {
+		if (RequestUtils.isEncodingAccepted(request, GZIP_ENCODING)) {
+			return new CompressingResponse(response, this);
+		} else {
+			return response;
+		}
+	}
+
+	/**
+	 * Finish the response returned by {@link #wrapResponse(HttpServletRequest, HttpServletResponse)}. This needs to be
+	 * called after the result is rendered in case the displayer did not close the output.
+	 */
+	public void finishResponse(HttpServletResponse response) throws IOException {
+		if (response instanceof CompressingResponse) {
+			((CompressingResponse) response).finish();
+		}
+	}
+
+	/**
+	 * Returns true if the content-type should be compressed.
+	 */
+	public boolean isCompressible(String contentType) {
+		return (contentType != null && compressibleTypes.contains(stripParameters(contentType)));
+	}
+
+	/**
+	 * Return the compression level for the content-type.
+	 */
+	public int getLevel(String contentType) {
+		Integer level = mimeTypeLevels.get(stripParameters(contentType));
+		if (level == null) {
+			return defaultLevel;
+		} else {
+			return level;
+		}
+	}
+
+	@JmxAttributeMethod(description = "Number of responses that were compressed")
+	public long getCompressedCount() {
+		return compressedCount.get();
+	}
+
+	@JmxAttributeMethod(description = "Number of responses that were too small or not compressible")
+	public long getUncompressedCount() {
+		return uncompressedCount.get();
+	}
+
+	@JmxAttributeMethod(description = "Number of idle deflaters in the pool")
+	public int getIdleDeflaterCount() {
+		return deflaterPool.getIdleCount();
+	}
+
+	/**
+	 * Bodies smaller than this number of bytes are not compressed. Default is 1024.
+	 */
+	public void setMinSize(int minSize) {
+		this.minSize = minSize;
+	}
+
+	/**
+	 * Size of the buffer used by the deflater output stream. Default is 8192.
+	 */
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * Compression level from 1 (fastest) to 9 (best) used for content-types without a specific level. Default is
+	 * {@link Deflater#DEFAULT_COMPRESSION}.
+	 */
+	public void setDefaultLevel(int defaultLevel) {
+		this.defaultLevel = defaultLevel;
+	}
+
+	/**
+	 * Set the content-types that are compressed. Already compressed types such as images should not be in here.
+	 * Default is a list of the common text types.
+	 */
+	public void setCompressibleTypes(String[] compressibleTypes) {
+		Set<String> types = new HashSet<String>();
+		for (String type : compressibleTypes) {
+			types.add(stripParameters(type));
+		}
+		this.compressibleTypes = types;
+	}
+
+	/**
+	 * Set the compression levels for specific content-types such as the ones in @Produces annotations.
+	 */
+	public void setMimeTypeLevels(Map<String, Integer> mimeTypeLevels) {
+		Map<String, Integer> levels = new HashMap<String, Integer>();
+		for (Map.Entry<String, Integer> entry : mimeTypeLevels.entrySet()) {
+			levels.put(stripParameters(entry.getKey()), entry.getValue());
+		}
+		this.mimeTypeLevels = levels;
+	}
+
+	/**
+	 * Set the maximum number of idle deflaters that are pooled. Default is 64.
+	 */
+	public void setMaxIdleDeflaters(int maxIdleDeflaters) {
+		deflaterPool.setMaxIdle(maxIdleDeflaters);
+	}
+
+	int getMinSize() {
+		return minSize;
+	}
+
+	int getBufferSize() {
+		return bufferSize;
+	}
+
+	DeflaterPool getDeflaterPool() {
+		return deflaterPool;
+	}
+
+	void incrementCount(boolean compressed) {
+		if (compressed) {
+			compressedCount.incrementAndGet();
+		} else {
+			uncompressedCount.incrementAndGet();
+		}
+	}
+
+	private static String stripParameters(String contentType) {
+		int semiIndex = contentType.indexOf(';');
+		if (semiIndex >= 0) {
+			contentType = contentType.substring(0, semiIndex);
+		}
+		return contentType.trim().toLowerCase(Locale.ENGLISH);
+	}
+}
@@ -0,0 +1,342 @@
+package com.j256.simplewebframework.displayer;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.io.EofException;
+import org.eclipse.jetty.server.Request;
+
+import com.j256.simplewebframework.logger.Logger;
+import com.j256.simplewebframework.logger.LoggerFactory;
+import com.j256.simplewebframework.util.BufferedResponseWriter;
+import com.j256.simplewebframework.util.IOUtils;
+
+/**
+ * Displayer which streams tabular results as CSV (text/csv) or TSV (text/tab-separated-values) depending on the
+ * content-type of the web-method. The result can be an {@link Iterable}, {@link Iterator}, or array of rows so the rows
+ * can be generated as they are written and the export runs in constant memory. Each row can be an array, an
+ * {@link Iterable} of cells, a {@link Map}, or a bean whose getter properties are the cells. For maps and beans a
+ * header row is written with the keys of the first map or the property names of the first bean.
+ * 
+ * <p>
+ * Cells are escaped and encoded as UTF-8 straight into a buffer without building strings for the rows. CSV cells are
+ * quoted as per RFC 4180 when they contain a comma, quote, or line break. TSV cells have tabs and line breaks turned
+ * into spaces. The output is flushed every so many rows and the iteration stops if the client disconnects. If the
+ * iterator is {@link Closeable}, such as a database cursor, then it is closed when the rendering finishes.
+ * </p>
+ * 
+ * @author graywatson
+ */
+public class CsvResultDisplayer implements ResultDisplayer {
+
+	public static final String CSV_MIME_TYPE = "text/csv";
+	public static final String TSV_MIME_TYPE = "text/tab-separated-values";
+
+	private static final Logger logger = LoggerFactory.getLogger(CsvResultDisplayer.class);
+	private static final int DEFAULT_FLUSH_ROW_COUNT = 1000;
+	private static final int DEFAULT_BUFFER_SIZE = 16384;
+	private static final String LINE_TERMINATOR = "\r\n";
+
+	private final ConcurrentMap<Class<?>, BeanProperties> beanPropertiesMap =
+			new ConcurrentHashMap<Class<?>, BeanProperties>();
+	private int flushRowCount = DEFAULT_FLUSH_ROW_COUNT;
+	private int bufferSize = DEFAULT_BUFFER_SIZE;
+	private final ThreadLocal<byte[]> threadBuffer = new ThreadLocal<byte[]>();
+	private boolean writeHeader = true;
+
+	@Override
+	public Class<?>[] getHandledClasses() {
+		return null;
+	}
+
+	@Override
+	public String[] getHandledMimeTypes() {
+		return new String[] { CSV_MIME_TYPE, TSV_MIME_TYPE };
+	}
+
+	@Override
+	public boolean canRender(Class<?> resultClass, String mimeType) {
+		return false;
+	}
+
+	@Override
+	public boolean renderResult(Request baseRequest, HttpServletRequest request, HttpServletResponse response,
+			Object result) throws IOException {
+		String contentType = response.getContentType();
+		boolean tabs = (contentType != null && contentType.startsWith(TSV_MIME_TYPE));
+		Iterator<?> iterator;
+		if (result instanceof Iterator) {
+			iterator = (Iterator<?>) result;
+		} else if (result instanceof Iterable) {
+			iterator = ((Iterable<?>) result).iterator();
+		} else if (result instanceof Object[]) {
+			iterator = Arrays.asList((Object[]) result).iterator();
+		} else {
+			// a single row
+			iterator = Collections.singletonList(result).iterator();
+		}
+		return renderRows(response, iterator, tabs);
+	}
+
+	/**
+	 * Number of rows to write between flushes to the client. Default is 1000.
+	 */
+	public void setFlushRowCount(int flushRowCount) {
+		this.flushRowCount = flushRowCount;
+	}
+
+	/**
+	 * Size of the buffer that the rows are encoded into. If the whole document fits then it is sent with a
+	 * Content-Length. Default is 16k.
+	 */
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * Set to false to not write a header row for map and bean rows. Default is true.
+	 */
+	public void setWriteHeader(boolean writeHeader) {
+		this.writeHeader = writeHeader;
+	}
+
+	private boolean renderRows(HttpServletResponse response, Iterator<?> iterator, boolean tabs) throws IOException {
+		// not closed on errors so a partial document is not sent with a Content-Length
+		BufferedResponseWriter writer = new BufferedResponseWriter(response, getBuffer());
+		char separator = (tabs ? '\t' : ',');
+		long rowCount = 0;
+		try {
+			// the columns of the map or bean rows which are set by the first row
+			Object[] mapKeys = null;
+			BeanProperties beanProperties = null;
+			while (iterator.hasNext()) {
+				Object row = iterator.next();
+				if (row == null) {
+					continue;
+				}
+				if (row instanceof Object[]) {
+					writeCells(writer, (Object[]) row, separator);
+				} else if (row instanceof Iterable) {
+					writeCells(writer, (Iterable<?>) row, separator);
+				} else if (row instanceof Map) {
+					Map<?, ?> map = (Map<?, ?>) row;
+					if (mapKeys == null) {
+						mapKeys = map.keySet().toArray();
+						if (writeHeader) {
+							writeCells(writer, mapKeys, separator);
+						}
+					}
+					for (int i = 0; i < mapKeys.length; i++) {
+						if (i > 0) {
+							writer.write(separator);
+						}
+						writeCell(writer, map.get(mapKeys[i]), separator);
+					}
+					writer.write(LINE_TERMINATOR);
+				} else if (row instanceof CharSequence || row instanceof Number || row instanceof Boolean) {
+					// single column
+					writeCell(writer, row, separator);
+					writer.write(LINE_TERMINATOR);
+				} else if (row.getClass().isArray()) {
+					// primitive arrays
+					writeCells(writer, toObjectArray(row), separator);
+				} else {
+					if (beanProperties == null || beanProperties.beanClass != row.getClass()) {
+						boolean first = (beanProperties == null);
+						beanProperties = findBeanProperties(row.getClass());
+						if (first && writeHeader) {
+							writeCells(writer, beanProperties.names, separator);
+						}
+					}
+					beanProperties.writeCells(writer, row, separator);
+				}
+				rowCount++;
+				if (flushRowCount > 0 && rowCount % flushRowCount == 0) {
+					writer.flush();
+				}
+			}
+			writer.close();
+			return true;
+		} catch (EofException e) {
+			logger.debug("client disconnected after {} streamed rows", rowCount);
+			return true;
+		} finally {
+			if (iterator instanceof Closeable) {
+				IOUtils.closeQuietly((Closeable) iterator);
+			}
+		}
+	}
+
+	private byte[] getBuffer() {
+		byte[] buffer = threadBuffer.get();
+		if (buffer == null || buffer.length != bufferSize) {
+			buffer = new byte[bufferSize];
+			threadBuffer.set(buffer);
+		}
+		return buffer;
+	}
+
+	private BeanProperties findBeanProperties(Class<?> clazz) throws IOException {
+		BeanProperties properties = beanPropertiesMap.get(clazz);
+		if (properties == null) {
+			properties = new BeanProperties(clazz);
+			beanPropertiesMap.putIfAbsent(clazz, properties);
+		}
+		return properties;
+	}
+
+	private static void writeCells(BufferedResponseWriter writer, Object[] cells, char separator) throws IOException {
+		for (int i = 0; i < cells.length; i++) {
+			if (i > 0) {
+				writer.write(separator);
+			}
+			writeCell(writer, cells[i], separator);
+		}
+		writer.write(LINE_TERMINATOR);
+	}
+
+	private static void writeCells(BufferedResponseWriter writer, Iterable<?> cells, char separator)
+			throws IOException {
+		boolean first = true;
+		for (Object cell : cells) {
+			if (first) {
+				first = false;
+			} else {
+				writer.write(separator);
+			}
+			writeCell(writer, cell, separator);
+		}
+		writer.write(LINE_TERMINATOR);
+	}
+
+	private static void writeCell(BufferedResponseWriter writer, Object cell, char separator) throws IOException {
+		if (cell == null) {
+			return;
+		}
+		if (cell instanceof Long || cell instanceof Integer || cell instanceof Short || cell instanceof Byte) {
+			writer.writeLong(((Number) cell).longValue());
+			return;
+		}
+		CharSequence value;
+		if (cell instanceof CharSequence) {
+			value = (CharSequence) cell;
+		} else {
+			value = cell.toString();
+		}
+		int length = value.length();
+		if (separator == '\t') {
+			for (int i = 0; i < length; i++) {
+				char ch = value.charAt(i);
+				if (ch == '\t' || ch == '\r' || ch == '\n') {
+					writer.write(' ');
+				} else {
+					writer.write(ch);
+				}
+			}
+			return;
+		}
+		boolean needsQuotes = false;
+		for (int i = 0; i < length; i++) {
+			char ch = value.charAt(i);
+			if (ch == separator || ch == '"' || ch == '\r' || ch == '\n') {
+				needsQuotes = true;
+				break;
+			}
+		}
+		if (!needsQuotes) {
+			if (value instanceof String) {
+				writer.write((String) value);
+			} else {
+				for (int i = 0; i < length; i++) {
+					writer.write(value.charAt(i));
+				}
+			}
+			return;
+		}
+		writer.write('"');
+		for (int i = 0; i < length; i++) {
+			char ch = value.charAt(i);
+			if (ch == '"') {
+				writer.write('"');
+			}
+			writer.write(ch);
+		}
+		writer.write('"');
+	}
+
+	private static Object[] toObjectArray(Object array) {
+		int length = Array.getLength(array);
+		Object[] cells = new Object[length];
+		for (int i = 0; i < length; i++) {
+			cells[i] = Array.get(array, i);
+		}
+		return cells;
+	}
+
+	/**
+	 * Readable properties of a bean class in the order of their names.
+	 */
+	private static class BeanProperties {
+
+		final Class<?> beanClass;
+		final String[] names;
+		final Method[] getters;
+
+		public BeanProperties(Class<?> beanClass) throws IOException {
+			this.beanClass = beanClass;
+			PropertyDescriptor[] descriptors;
+			try {
+				descriptors = Introspector.getBeanInfo(beanClass, Object.class).getPropertyDescriptors();
+			} catch (IntrospectionException e) {
+				throw new IOException("could not get the bean properties of " + beanClass, e);
+			}
+			List<String> nameList = new ArrayList<String>();
+			List<Method> getterList = new ArrayList<Method>();
+			for (PropertyDescriptor descriptor : descriptors) {
+				Method getter = descriptor.getReadMethod();
+				if (getter != null) {
+					getter.setAccessible(true);
+					nameList.add(descriptor.getName());
+					getterList.add(getter);
+				}
+			}
+			this.names = nameList.toArray(new String[nameList.size()]);
+			this.getters = getterList.toArray(new Method[getterList.size()]);
+		}
+
+		public void writeCells(BufferedResponseWriter writer, Object bean, char separator) throws IOException {
+			for (int i = 0; i < getters.length; i++) {
+				if (i > 0) {
+					writer.write(separator);
+				}
+				Object cell;
+				try {
+					cell = getters[i].invoke(bean);
+				} catch (IllegalAccessException e) {
+					throw new IOException("could not get property " + names[i] + " of " + beanClass, e);
+				} catch (InvocationTargetException e) {
+					throw new IOException("could not get property " + names[i] + " of " + beanClass, e.getCause());
+				}
+				writeCell(writer, cell, separator);
+			}
+			writer.write(LINE_TERMINATOR);
+		}
+	}
+}
@@ -3,6 +3,15 @@ package com.j256.simplewebframework.displayer;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
@@ -11,21 +20,50 @@ import javax.servlet.http.HttpServletResponse;
 import org.eclipse.jetty.http.HttpHeaders;
 import org.eclipse.jetty.http.MimeTypes;
 import org.eclipse.jetty.io.Buffer;
+import org.eclipse.jetty.io.nio.DirectNIOBuffer;
+import org.eclipse.jetty.server.AbstractHttpConnection;
 import org.eclipse.jetty.server.Request;
 
+import com.j256.simplewebframework.util.ByteRange;
 import com.j256.simplewebframework.util.IOUtils;
+import com.j256.simplewebframework.util.RequestUtils;
 import com.j256.simplewebframework.util.ResponseUtils;
 import com.j256.simplewebframework.util.ResponseUtils.HttpErrorCode;
+import com.j256.simplewebframework.util.StringUtils;
 
 /**
- * Displayer that writes the data from a file to the response.
+ * Displayer that writes the data from a file to the response. When the response is going directly to a Jetty
+ * connection, files at or above the mapped-file threshold are memory-mapped and handed to Jetty which writes them to
+ * the socket without copying them through the heap. Smaller files are read by Jetty straight into its own output
+ * buffers. The mappings are cached per file and revalidated with the file's length and last-modified time.
+ * 
+ * <p>
+ * Range requests are supported with single ranges returned as a 206 partial response and multiple ranges returned as
+ * multipart/byteranges. Overlapping and adjacent ranges are coalesced first. An If-Range date that does not match the
+ * file's last-modified time causes the whole file to be sent. Entity-tags are built from the last-modified time and
+ * length of the variant being sent. Ranges are read from their position in the file and not by skipping.
+ * </p>
+ * 
+ * <p>
+ * If a {@link FileInfo} has precompressed variants then the Brotli or gzip variant is sent with the appropriate
+ * Content-Encoding to clients whose Accept-Encoding header allows it.
+ * </p>
  * 
  * @author graywatson
  */
 public class FileResultDisplayer implements ResultDisplayer {
 
 	private static final MimeTypes mimeTypes = new MimeTypes();
-	private static final int BUFFER_SIZE = 4096;
+	private static final long DEFAULT_MAPPED_FILE_THRESHOLD = 128 * 1024;
+	private static final int DEFAULT_MAX_MAPPED_FILES = 256;
+	private static final String BYTES_UNIT = "bytes";
+	private static final String CRLF = "\r\n";
+	private static final String BYTERANGES_CHARSET = "ISO-8859-1";
+	private static final Random random = new Random();
+
+	private long mappedFileThreshold = DEFAULT_MAPPED_FILE_THRESHOLD;
+	private int maxMappedFiles = DEFAULT_MAX_MAPPED_FILES;
+	private final ConcurrentMap<File, MappedFile> mappedFiles = new ConcurrentHashMap<File, MappedFile>();
 
 	@Override
 	public Class<?>[] getHandledClasses() {
@@ -47,24 +85,36 @@ public class FileResultDisplayer implements ResultDisplayer {
 			Object result) throws IOException {
 
 		File file;
+		FileInfo fileInfo = null;
 		if (result instanceof File) {
 			file = (File) result;
 		} else if (result instanceof FileInfo) {
-			file = ((FileInfo) result).getFile();
+			fileInfo = (FileInfo) result;
+			file = fileInfo.getFile();
 		} else {
 			throw new IllegalArgumentException("could not display result of class " + result.getClass().getName());
 		}
 
-		if (!file.exists()) {
-			return false;
+		long length;
+		long lastModified;
+		if (fileInfo != null && fileInfo.hasStats()) {
+			// recorded when the file was indexed so we don't go to the file-system
+			length = fileInfo.getLength();
+			lastModified = fileInfo.getLastModified();
+		} else {
+			if (!file.exists()) {
+				return false;
+			}
+			length = file.length();
+			lastModified = file.lastModified();
 		}
 
-		if (file.length() <= Integer.MAX_VALUE) {
-			response.setContentLength((int) file.length());
+		// set before any 304 because the response varies whether or not the content is sent
+		if (fileInfo != null && fileInfo.hasEncodedVariants()) {
+			response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
 		}
 
 		// see if if-modified-since header is set
-		long lastModified = file.lastModified();
 		if (lastModified > 0) {
 			long ifModified = request.getDateHeader(HttpHeaders.IF_MODIFIED_SINCE);
 			// we do / 1000 because the file system last-modified is in seconds
@@ -75,29 +125,287 @@ public class FileResultDisplayer implements ResultDisplayer {
 		}
 
 		response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
-		Buffer mime = mimeTypes.getMimeByExtension(file.getName());
-		if (mime != null) {
-			response.setContentType(mime.toString());
+		response.setHeader(HttpHeaders.ACCEPT_RANGES, BYTES_UNIT);
+		String contentType = findContentType(file.getName());
+		String encoding = null;
+
+		// the content-type and last-modified come from the original file but the bytes may come from a variant
+		if (fileInfo != null && fileInfo.hasEncodedVariants()) {
+			String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+			if (fileInfo.getBrotliFile() != null
+					&& RequestUtils.isEncodingAccepted(acceptEncoding, FileInfo.BROTLI_ENCODING)) {
+				file = fileInfo.getBrotliFile();
+				encoding = FileInfo.BROTLI_ENCODING;
+				length = fileInfo.getBrotliLength();
+			} else if (fileInfo.getGzipFile() != null
+					&& RequestUtils.isEncodingAccepted(acceptEncoding, FileInfo.GZIP_ENCODING)) {
+				file = fileInfo.getGzipFile();
+				encoding = FileInfo.GZIP_ENCODING;
+				length = fileInfo.getGzipLength();
+			}
+			if (encoding != null) {
+				response.setHeader(HttpHeaders.CONTENT_ENCODING, encoding);
+				if (length < 0) {
+					length = file.length();
+				}
+			}
+		}
+
+		String etag = buildETag(lastModified, length, encoding);
+		response.setHeader(HttpHeaders.ETAG, etag);
+		if (isETagMatch(request.getHeader(HttpHeaders.IF_NONE_MATCH), etag)) {
+			ResponseUtils.sendError(response, HttpErrorCode.NOT_MODIFIED);
+			return true;
+		}
+
+		List<ByteRange> ranges = null;
+		String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+		if (rangeHeader != null && isIfRangeMatch(request, lastModified, etag)) {
+			ranges = ByteRange.parseRanges(rangeHeader, length);
+		}
+		if (ranges != null && ranges.isEmpty()) {
+			response.setStatus(HttpErrorCode.REQUESTED_RANGE_NOT_SATISFIABLE.getHttpErrorCode());
+			response.setHeader(HttpHeaders.CONTENT_RANGE, BYTES_UNIT + " */" + length);
+			response.setContentLength(0);
+			ResponseUtils.closeOutputQuietly(response);
+			return true;
 		}
 
 		ServletOutputStream sos = null;
-		FileInputStream fis = null;
 		try {
-			sos = response.getOutputStream();
-			fis = new FileInputStream(file);
-			byte[] buffer = new byte[BUFFER_SIZE];
-			while (true) {
-				int numRead = fis.read(buffer);
-				if (numRead < 0) {
-					break;
+			if (ranges == null) {
+				if (contentType != null) {
+					response.setContentType(contentType);
 				}
-				sos.write(buffer, 0, numRead);
+				setContentLength(response, length);
+				sos = response.getOutputStream();
+				writeFile(file, lastModified, length, 0, length, sos);
+			} else if (ranges.size() == 1) {
+				ByteRange range = ranges.get(0);
+				response.setStatus(HttpErrorCode.PARTIAL_CONTENT.getHttpErrorCode());
+				if (contentType != null) {
+					response.setContentType(contentType);
+				}
+				response.setHeader(HttpHeaders.CONTENT_RANGE, range.toContentRange(length));
+				setContentLength(response, range.getLength());
+				sos = response.getOutputStream();
+				writeFile(file, lastModified, length, range.getStart(), range.getLength(), sos);
+			} else {
+				response.setStatus(HttpErrorCode.PARTIAL_CONTENT.getHttpErrorCode());
+				sos = response.getOutputStream();
+				writeMultipleRanges(response, file, length, contentType, ranges, sos);
 			}
 			return true;
 		} finally {
 			IOUtils.closeQuietly(sos);
+		}
+	}
+
+	/**
+	 * Files of this size or larger are memory-mapped when they are written to a Jetty connection. Default is 128k.
+	 */
+	public void setMappedFileThreshold(long mappedFileThreshold) {
+		this.mappedFileThreshold = mappedFileThreshold;
+	}
+
+	/**
+	 * Maximum number of memory-mapped files that are cached. Default is 256.
+	 */
+	public void setMaxMappedFiles(int maxMappedFiles) {
+		this.maxMappedFiles = maxMappedFiles;
+	}
+
+	/**
+	 * Find the content-type for a file name from its extension.
+	 * 
+	 * @return The content-type or null if it is not known.
+	 */
+	public static String findContentType(String fileName) {
+		Buffer mime = mimeTypes.getMimeByExtension(fileName);
+		if (mime == null) {
+			return null;
+		} else {
+			return mime.toString();
+		}
+	}
+
+	/**
+	 * Build the entity-tag for a file from its last-modified time, its length, and the content-encoding of the variant
+	 * being sent (or null if none).
+	 */
+	public static String buildETag(long lastModified, long length, String encoding) {
+		StringBuilder sb = new StringBuilder(32);
+		sb.append('"').append(Long.toHexString(lastModified)).append('-').append(Long.toHexString(length));
+		if (encoding != null) {
+			sb.append('-').append(encoding);
+		}
+		sb.append('"');
+		return sb.toString();
+	}
+
+	/**
+	 * Returns true if the If-None-Match header value matches our entity-tag.
+	 */
+	public static boolean isETagMatch(String ifNoneMatch, String etag) {
+		if (ifNoneMatch == null) {
+			return false;
+		}
+		for (String tag : StringUtils.split(ifNoneMatch, ',')) {
+			tag = tag.trim();
+			if (tag.startsWith("W/")) {
+				tag = tag.substring(2);
+			}
+			if (tag.equals(etag) || tag.equals("*")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns true if there is no If-Range header or if it matches the file so the Range header should be honored.
+	 */
+	private boolean isIfRangeMatch(HttpServletRequest request, long lastModified, String etag) {
+		String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+		if (ifRange == null) {
+			return true;
+		}
+		// weak entity-tags can't be used for ranges
+		if (ifRange.startsWith("\"")) {
+			return ifRange.equals(etag);
+		} else if (ifRange.startsWith("W/")) {
+			return false;
+		}
+		long ifRangeDate;
+		try {
+			ifRangeDate = request.getDateHeader(HttpHeaders.IF_RANGE);
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+		return (ifRangeDate > 0 && lastModified / 1000 == ifRangeDate / 1000);
+	}
+
+	private void writeMultipleRanges(HttpServletResponse response, File file, long length, String contentType,
+			List<ByteRange> ranges, ServletOutputStream sos) throws IOException {
+		String boundary = Long.toHexString(random.nextLong()) + Long.toHexString(System.nanoTime());
+		response.setContentType("multipart/byteranges; boundary=" + boundary);
+
+		// build the part headers first so we can calculate the content-length
+		byte[][] partHeaders = new byte[ranges.size()][];
+		long contentLength = 0;
+		for (int i = 0; i < partHeaders.length; i++) {
+			ByteRange range = ranges.get(i);
+			StringBuilder sb = new StringBuilder(128);
+			if (i > 0) {
+				sb.append(CRLF);
+			}
+			sb.append("--").append(boundary).append(CRLF);
+			if (contentType != null) {
+				sb.append(HttpHeaders.CONTENT_TYPE).append(": ").append(contentType).append(CRLF);
+			}
+			sb.append(HttpHeaders.CONTENT_RANGE).append(": ").append(range.toContentRange(length)).append(CRLF);
+			sb.append(CRLF);
+			partHeaders[i] = sb.toString().getBytes(BYTERANGES_CHARSET);
+			contentLength += partHeaders[i].length + range.getLength();
+		}
+		byte[] trailer = (CRLF + "--" + boundary + "--" + CRLF).getBytes(BYTERANGES_CHARSET);
+		contentLength += trailer.length;
+		setContentLength(response, contentLength);
+
+		FileInputStream fis = null;
+		try {
+			fis = new FileInputStream(file);
+			FileChannel channel = fis.getChannel();
+			WritableByteChannel target = Channels.newChannel(sos);
+			for (int i = 0; i < partHeaders.length; i++) {
+				ByteRange range = ranges.get(i);
+				sos.write(partHeaders[i]);
+				IOUtils.transferFully(channel, range.getStart(), range.getLength(), target);
+			}
+			sos.write(trailer);
+		} finally {
+			IOUtils.closeQuietly(fis);
+		}
+	}
+
+	private void writeFile(File file, long lastModified, long fileLength, long position, long count,
+			ServletOutputStream sos) throws IOException {
+		if (sos instanceof AbstractHttpConnection.Output && count >= mappedFileThreshold
+				&& fileLength <= Integer.MAX_VALUE) {
+			// jetty writes our own view of the mapped file directly to the channel
+			ByteBuffer mapped = findMappedFile(file, lastModified, fileLength).duplicate();
+			mapped.limit((int) (position + count)).position((int) position);
+			((AbstractHttpConnection.Output) sos).sendContent(new DirectNIOBuffer(mapped.slice(), true));
+			return;
+		}
+		FileInputStream fis = null;
+		try {
+			fis = new FileInputStream(file);
+			if (sos instanceof AbstractHttpConnection.Output) {
+				AbstractHttpConnection.Output output = (AbstractHttpConnection.Output) sos;
+				if (position == 0 && count == fileLength) {
+					// jetty reads the stream to the end into its own buffers and closes it
+					output.sendContent(fis);
+					fis = null;
+					return;
+				}
+			}
+			// not a jetty connection, probably wrapped, or a small range so we go through the stream
+			IOUtils.transferFully(fis.getChannel(), position, count, Channels.newChannel(sos));
+		} finally {
+			IOUtils.closeQuietly(fis);
+		}
+	}
+
+	/**
+	 * Return the cached mapping of the file or map it if the file has changed.
+	 */
+	private MappedByteBuffer findMappedFile(File file, long lastModified, long length) throws IOException {
+		MappedFile mappedFile = mappedFiles.get(file);
+		if (mappedFile != null && mappedFile.lastModified == lastModified && mappedFile.length == length) {
+			return mappedFile.buffer;
+		}
+		MappedByteBuffer buffer;
+		FileInputStream fis = new FileInputStream(file);
+		try {
+			// the mapping outlives the channel
+			buffer = fis.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+		} finally {
 			IOUtils.closeQuietly(fis);
 		}
+		if (mappedFiles.size() >= maxMappedFiles) {
+			/*
+			 * Rather than tracking the age of the entries we just start over. The mappings can't be unmapped while Jetty
+			 * may still be writing them so they are released when they are no longer referenced.
+			 */
+			mappedFiles.clear();
+		}
+		mappedFiles.put(file, new MappedFile(lastModified, length, buffer));
+		return buffer;
+	}
+
+	private static void setContentLength(HttpServletResponse response, long length) {
+		if (length <= Integer.MAX_VALUE) {
+			response.setContentLength((int) length);
+		} else {
+			response.setHeader(HttpHeaders.CONTENT_LENGTH, Long.toString(length));
+		}
+	}
+
+	/**
+	 * Memory-mapped file with the length and last-modified time it was mapped with.
+	 */
+	private static class MappedFile {
+
+		final long lastModified;
+		final long length;
+		final MappedByteBuffer buffer;
+
+		public MappedFile(long lastModified, long length, MappedByteBuffer buffer) {
+			this.lastModified = lastModified;
+			this.length = length;
+			this.buffer = buffer;
+		}
 	}
 
 	/**
@@ -105,12 +413,50 @@ public class FileResultDisplayer implements ResultDisplayer {
 	 */
 	public static class FileInfo {
 
+		public static final String GZIP_ENCODING = "gzip";
+		public static final String GZIP_EXTENSION = ".gz";
+		public static final String BROTLI_ENCODING = "br";
+		public static final String BROTLI_EXTENSION = ".br";
+
 		private final String path;
 		private final File file;
+		private final File gzipFile;
+		private final File brotliFile;
+		private long length = -1;
+		private long lastModified = -1;
+		private long gzipLength = -1;
+		private long brotliLength = -1;
 
 		public FileInfo(String path, File file) {
+			this(path, file, null, null);
+		}
+
+		/**
+		 * @param gzipFile
+		 *            Gzip compressed variant of the file or null if none.
+		 * @param brotliFile
+		 *            Brotli compressed variant of the file or null if none.
+		 */
+		public FileInfo(String path, File file, File gzipFile, File brotliFile) {
 			this.path = path;
 			this.file = file;
+			this.gzipFile = gzipFile;
+			this.brotliFile = brotliFile;
+		}
+
+		/**
+		 * Record the lengths and last-modified time of the files, which are used instead of asking the file-system when
+		 * the file is displayed. This should only be done if the files don't change such as when they are indexed.
+		 */
+		public void recordStats() {
+			length = file.length();
+			lastModified = file.lastModified();
+			if (gzipFile != null) {
+				gzipLength = gzipFile.length();
+			}
+			if (brotliFile != null) {
+				brotliLength = brotliFile.length();
+			}
 		}
 
 		public String getPath() {
@@ -120,5 +466,52 @@ public class FileResultDisplayer implements ResultDisplayer {
 		public File getFile() {
 			return file;
 		}
+
+		public File getGzipFile() {
+			return gzipFile;
+		}
+
+		public File getBrotliFile() {
+			return brotliFile;
+		}
+
+		public boolean hasEncodedVariants() {
+			return (gzipFile != null || brotliFile != null);
+		}
+
+		/**
+		 * Returns true if the stats of the files were recorded with {@link #recordStats()}.
+		 */
+		public boolean hasStats() {
+			return (lastModified >= 0);
+		}
+
+		/**
+		 * Return the recorded length of the file or -1 if not recorded.
+		 */
+		public long getLength() {
+			return length;
+		}
+
+		/**
+		 * Return the recorded last-modified time of the file or -1 if not recorded.
+		 */
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		/**
+		 * Return the recorded length of the gzip variant or -1 if not recorded.
+		 */
+		public long getGzipLength() {
+			return gzipLength;
+		}
+
+		/**
+		 * Return the recorded length of the Brotli variant or -1 if not recorded.
+		 */
+		public long getBrotliLength() {
+			return brotliLength;
+		}
 	}
 }
@@ -1,19 +1,24 @@
 package com.j256.simplewebframework.displayer;
 
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.eclipse.jetty.server.AbstractHttpConnection;
 import org.eclipse.jetty.server.Request;
 
 import com.j256.simplewebframework.util.IOUtils;
 
 /**
  * Displayer that writes the data from a provided input-stream to the response. The input-stream will be closed
- * afterwards.
+ * afterwards. If the response is going directly to a Jetty connection then Jetty reads the stream into its own output
+ * buffers. File streams are otherwise transferred through their channel.
  * 
  * @author graywatson
  */
@@ -31,6 +36,17 @@ public class InputStreamResultDisplayer extends SingleClassResultDisplayer<Input
 		ServletOutputStream sos = null;
 		try {
 			sos = response.getOutputStream();
+			if (sos instanceof AbstractHttpConnection.Output) {
+				// this closes the stream when it is done
+				((AbstractHttpConnection.Output) sos).sendContent(result);
+				return true;
+			}
+			if (result instanceof FileInputStream) {
+				FileChannel channel = ((FileInputStream) result).getChannel();
+				long position = channel.position();
+				IOUtils.transferFully(channel, position, channel.size() - position, Channels.newChannel(sos));
+				return true;
+			}
 			byte[] buffer = new byte[BUFFER_SIZE];
 			while (true) {
 				int numRead = result.read(buffer);
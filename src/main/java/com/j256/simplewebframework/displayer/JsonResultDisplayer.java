@@ -1,7 +1,8 @@
 package com.j256.simplewebframework.displayer;
 
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -10,20 +11,54 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.eclipse.jetty.server.Request;
 
+import com.google.gson.FieldNamingPolicy;
 import com.google.gson.Gson;
-import com.j256.simplewebframework.util.IOUtils;
+import com.google.gson.internal.Excluder;
+import com.google.gson.internal.bind.ReflectiveTypeAdapterFactory;
+import com.j256.simplewebframework.json.GeneratedJsonWriter;
+import com.j256.simplewebframework.json.JsonWriterProcessor;
+import com.j256.simplewebframework.util.BufferedResponseWriter;
 
 /**
  * Json displayer that uses the optional {@link Gson} package (com.google.gson). If you are using this displayer then
  * you need to import the Gson jars into your project.
  * 
+ * <p>
+ * The JSON is encoded as UTF-8 straight into a per-thread buffer. If the document fits in the buffer then it is sent
+ * with a Content-Length otherwise it is streamed. A preconfigured {@link Gson} with registered type-adapters can be
+ * injected with {@link #setGson(Gson)}.
+ * </p>
+ * 
+ * <p>
+ * If a writer was generated for the class of the result by the {@link JsonWriterProcessor} then it is used instead of
+ * Gson's reflection. The generated writers follow Gson's default field rules so they are only used if the injected
+ * Gson has no naming policy or exclusion strategies and writes the class with its reflective adapter.
+ * </p>
+ * 
  * @author graywatson
  */
 public class JsonResultDisplayer implements ResultDisplayer {
 
 	private static final Pattern MSIE_PATTERN = Pattern.compile(".* MSIE ([\\d.]+);.*");
+	private static final int DEFAULT_BUFFER_SIZE = 16384;
+	private static final int MAX_CACHED_USER_AGENTS = 1024;
+	/** marker in the generated writer map for classes that are written by gson */
+	private static final Object NO_GENERATED_WRITER = new Object();
+
+	private Gson gson = new Gson();
+	private int bufferSize = DEFAULT_BUFFER_SIZE;
+	private final ThreadLocal<byte[]> threadBuffer = new ThreadLocal<byte[]>();
+	private final ConcurrentMap<String, Boolean> oldMsieUserAgents = new ConcurrentHashMap<String, Boolean>();
+	private boolean useGeneratedWriters = true;
+	private final ConcurrentMap<Class<?>, Object> generatedWriters = new ConcurrentHashMap<Class<?>, Object>();
+
+	public JsonResultDisplayer() {
+		// for spring
+	}
 
-	private final Gson gson = new Gson();
+	public JsonResultDisplayer(Gson gson) {
+		this.gson = gson;
+	}
 
 	@Override
 	public Class<?>[] getHandledClasses() {
@@ -44,30 +79,133 @@ public class JsonResultDisplayer implements ResultDisplayer {
 	public boolean renderResult(Request baseRequest, HttpServletRequest request, HttpServletResponse response,
 			Object result) throws IOException {
 		String userAgent = request.getHeader("User-Agent");
-		if (userAgent != null) {
+		if (userAgent != null && isOldMsie(userAgent)) {
 			/*
 			 * Unfortunately, the internets says that pre version 10, IE needs the json to be text/plain. Ugh.
 			 */
-			Matcher matcher = MSIE_PATTERN.matcher(userAgent);
-			if (matcher.matches()) {
-				try {
-					float version = Float.parseFloat(matcher.group(1));
-					if (version < 10.0) {
-						response.setContentType("text/plain");
-					}
-				} catch (NumberFormatException e) {
-					// ignored
-				}
-			}
+			response.setContentType("text/plain");
 		}
-		PrintWriter writer = response.getWriter();
+		// not closed on errors so a partial document is not sent with a Content-Length
+		BufferedResponseWriter writer = new BufferedResponseWriter(response, getBuffer());
 		try {
-			gson.toJson(result, writer);
+			GeneratedJsonWriter<Object> generatedWriter = null;
+			if (useGeneratedWriters && result != null) {
+				generatedWriter = findGeneratedWriter(result.getClass());
+			}
+			if (generatedWriter == null) {
+				gson.toJson(result, writer);
+			} else {
+				generatedWriter.write(result, writer, gson);
+			}
+			writer.close();
 			return true;
+		} catch (IOException e) {
+			throw e;
 		} catch (Exception e) {
 			throw new IOException("could not write JSON document to response", e);
-		} finally {
-			IOUtils.closeQuietly(writer);
 		}
 	}
+
+	/**
+	 * Set the Gson instance used to write the results so type-adapters, naming policies, etc. can be configured.
+	 * Default is new Gson().
+	 */
+	public void setGson(Gson gson) {
+		this.gson = gson;
+		// whether the generated writers can be used depends on the gson configuration
+		generatedWriters.clear();
+	}
+
+	/**
+	 * Size of the per-thread buffer that the JSON is encoded into. Documents that fit are sent with a Content-Length.
+	 * Default is 16k.
+	 */
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * Set to false to not use the writers generated by the {@link JsonWriterProcessor} even when the Gson configuration
+	 * allows it. Default is true.
+	 */
+	public void setUseGeneratedWriters(boolean useGeneratedWriters) {
+		this.useGeneratedWriters = useGeneratedWriters;
+	}
+
+	/**
+	 * Return the generated writer for the class or null if there is none.
+	 */
+	private GeneratedJsonWriter<Object> findGeneratedWriter(Class<?> clazz) {
+		Object writer = generatedWriters.get(clazz);
+		if (writer == null) {
+			writer = loadGeneratedWriter(clazz);
+			generatedWriters.putIfAbsent(clazz, writer);
+		}
+		if (writer == NO_GENERATED_WRITER) {
+			return null;
+		}
+		@SuppressWarnings("unchecked")
+		GeneratedJsonWriter<Object> castWriter = (GeneratedJsonWriter<Object>) writer;
+		return castWriter;
+	}
+
+	private Object loadGeneratedWriter(Class<?> clazz) {
+		if (clazz.getClassLoader() == null) {
+			// jdk class
+			return NO_GENERATED_WRITER;
+		}
+		if (!isDefaultReflection(clazz)) {
+			// the generated writer would ignore the gson configuration
+			return NO_GENERATED_WRITER;
+		}
+		try {
+			Class<?> writerClass =
+					Class.forName(GeneratedJsonWriter.writerClassName(clazz), true, clazz.getClassLoader());
+			return (GeneratedJsonWriter<?>) writerClass.newInstance();
+		} catch (ClassNotFoundException e) {
+			return NO_GENERATED_WRITER;
+		} catch (Exception e) {
+			throw new IllegalStateException("could not create generated JSON writer for " + clazz, e);
+		}
+	}
+
+	/**
+	 * Returns true if gson writes the class with its default field names and rules which the generated writers follow.
+	 */
+	private boolean isDefaultReflection(Class<?> clazz) {
+		return (gson.fieldNamingStrategy() == FieldNamingPolicy.IDENTITY && gson.excluder() == Excluder.DEFAULT
+				&& gson.getAdapter(clazz) instanceof ReflectiveTypeAdapterFactory.Adapter);
+	}
+
+	private byte[] getBuffer() {
+		byte[] buffer = threadBuffer.get();
+		if (buffer == null || buffer.length != bufferSize) {
+			buffer = new byte[bufferSize];
+			threadBuffer.set(buffer);
+		}
+		return buffer;
+	}
+
+	private boolean isOldMsie(String userAgent) {
+		Boolean oldMsie = oldMsieUserAgents.get(userAgent);
+		if (oldMsie != null) {
+			return oldMsie;
+		}
+		oldMsie = false;
+		Matcher matcher = MSIE_PATTERN.matcher(userAgent);
+		if (matcher.matches()) {
+			try {
+				float version = Float.parseFloat(matcher.group(1));
+				oldMsie = (version < 10.0);
+			} catch (NumberFormatException e) {
+				// ignored
+			}
+		}
+		if (oldMsieUserAgents.size() >= MAX_CACHED_USER_AGENTS) {
+			// rather than tracking the age of the entries we just start over
+			oldMsieUserAgents.clear();
+		}
+		oldMsieUserAgents.put(userAgent, oldMsie);
+		return oldMsie;
+	}
 }
@@ -0,0 +1,136 @@
+package com.j256.simplewebframework.displayer;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Response whose status, headers, and body are encoded once up front so it can be returned from a web-method over and
+ * over without being rendered again. Web-methods whose content rarely changes, such as configuration blobs or
+ * feature-flag snapshots, can build one when the content changes, hold it in a field, and return it. It is written by
+ * the {@link PreparedResponseDisplayer}.
+ * 
+ * <p>
+ * The body is copied into a single read-only direct buffer so it is sent with a known Content-Length and the container
+ * can write the headers and body with one gathering write. A strong ETag is computed from the body so conditional
+ * requests get a 304 response.
+ * </p>
+ * 
+ * @author graywatson
+ */
+public class PreparedResponse {
+
+	private static final String UTF8_CHARSET = "UTF-8";
+
+	private final int status;
+	private final String contentType;
+	private final Map<String, String> headers;
+	private final ByteBuffer body;
+	private final String etag;
+
+	/**
+	 * @param status
+	 *            HTTP status code such as {@link HttpServletResponse#SC_OK}.
+	 * @param contentType
+	 *            Content-Type of the body or null if none.
+	 * @param headers
+	 *            Other headers to set on the response or null if none. They are copied.
+	 * @param body
+	 *            Bytes of the body. They are copied.
+	 */
+	public PreparedResponse(int status, String contentType, Map<String, String> headers, byte[] body) {
+		this(status, contentType, headers, Collections.singletonList(ByteBuffer.wrap(body)));
+	}
+
+	/**
+	 * Same as {@link #PreparedResponse(int, String, Map, byte[])} but with the body in a list of buffers which are
+	 * concatenated. The buffers' remaining bytes are copied without changing their positions.
+	 */
+	public PreparedResponse(int status, String contentType, Map<String, String> headers, List<ByteBuffer> bodyBuffers) {
+		this.status = status;
+		this.contentType = contentType;
+		if (headers == null) {
+			this.headers = Collections.emptyMap();
+		} else {
+			this.headers = Collections.unmodifiableMap(new LinkedHashMap<String, String>(headers));
+		}
+		int length = 0;
+		for (ByteBuffer buffer : bodyBuffers) {
+			length += buffer.remaining();
+		}
+		ByteBuffer content = ByteBuffer.allocateDirect(length);
+		CRC32 crc = new CRC32();
+		for (ByteBuffer buffer : bodyBuffers) {
+			ByteBuffer view = buffer.duplicate();
+			if (view.hasArray()) {
+				crc.update(view.array(), view.arrayOffset() + view.position(), view.remaining());
+			} else {
+				byte[] bytes = new byte[view.remaining()];
+				view.duplicate().get(bytes);
+				crc.update(bytes);
+			}
+			content.put(view);
+		}
+		content.flip();
+		this.body = content.asReadOnlyBuffer();
+		this.etag = "\"" + Long.toHexString(crc.getValue()) + "-" + Integer.toHexString(length) + "\"";
+	}
+
+	/**
+	 * Create a 200 response with a body of bytes.
+	 */
+	public static PreparedResponse ok(String contentType, byte[] body) {
+		return new PreparedResponse(HttpServletResponse.SC_OK, contentType, null, body);
+	}
+
+	/**
+	 * Create a 200 response with a string body encoded as UTF-8. The charset is added to the content-type.
+	 */
+	public static PreparedResponse ok(String contentType, String body) {
+		try {
+			return new PreparedResponse(HttpServletResponse.SC_OK, contentType + "; charset=" + UTF8_CHARSET, null,
+					body.getBytes(UTF8_CHARSET));
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException("charset " + UTF8_CHARSET + " should always be supported", e);
+		}
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	public String getContentType() {
+		return contentType;
+	}
+
+	/**
+	 * Return the unmodifiable map of the other headers.
+	 */
+	public Map<String, String> getHeaders() {
+		return headers;
+	}
+
+	/**
+	 * Return a new read-only view of the body so its position can be changed as it is written.
+	 */
+	public ByteBuffer getBody() {
+		return body.duplicate();
+	}
+
+	public int getContentLength() {
+		return body.remaining();
+	}
+
+	/**
+	 * Return the strong ETag computed from the body.
+	 */
+	public String getETag() {
+		return etag;
+	}
+}
@@ -0,0 +1,71 @@
+package com.j256.simplewebframework.displayer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Map;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.http.HttpHeaders;
+import org.eclipse.jetty.io.nio.DirectNIOBuffer;
+import org.eclipse.jetty.server.AbstractHttpConnection;
+import org.eclipse.jetty.server.Request;
+
+import com.j256.simplewebframework.util.IOUtils;
+import com.j256.simplewebframework.util.ResponseUtils;
+import com.j256.simplewebframework.util.ResponseUtils.HttpErrorCode;
+
+/**
+ * Displayer that writes a {@link PreparedResponse} without any encoding. When running in Jetty the body buffer is
+ * handed straight to the connection so the headers and body go out in one gathering write.
+ * 
+ * @author graywatson
+ */
+public class PreparedResponseDisplayer extends SingleClassResultDisplayer<PreparedResponse> {
+
+	public PreparedResponseDisplayer() {
+		super(PreparedResponse.class);
+	}
+
+	@Override
+	protected boolean renderTypedResult(Request baseRequest, HttpServletRequest request, HttpServletResponse response,
+			PreparedResponse result) throws IOException {
+		for (Map.Entry<String, String> entry : result.getHeaders().entrySet()) {
+			response.setHeader(entry.getKey(), entry.getValue());
+		}
+		boolean ok = (result.getStatus() == HttpServletResponse.SC_OK);
+		if (ok) {
+			response.setHeader(HttpHeaders.ETAG, result.getETag());
+			if (FileResultDisplayer.isETagMatch(request.getHeader(HttpHeaders.IF_NONE_MATCH), result.getETag())) {
+				ResponseUtils.sendError(response, HttpErrorCode.NOT_MODIFIED);
+				return true;
+			}
+		} else {
+			response.setStatus(result.getStatus());
+		}
+		if (result.getContentType() != null) {
+			response.setContentType(result.getContentType());
+		}
+		ByteBuffer body = result.getBody();
+		response.setContentLength(body.remaining());
+		ServletOutputStream sos = null;
+		try {
+			sos = response.getOutputStream();
+			if (sos instanceof AbstractHttpConnection.Output) {
+				((AbstractHttpConnection.Output) sos).sendContent(new DirectNIOBuffer(body, true));
+			} else {
+				WritableByteChannel channel = Channels.newChannel(sos);
+				while (body.hasRemaining()) {
+					channel.write(body);
+				}
+			}
+			return true;
+		} finally {
+			IOUtils.closeQuietly(sos);
+		}
+	}
+}
@@ -1,25 +1,52 @@
 package com.j256.simplewebframework.displayer;
 
+import java.io.Closeable;
+import java.io.FilterWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Iterator;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.eclipse.jetty.io.EofException;
 import org.eclipse.jetty.server.Request;
 import org.simpleframework.xml.Serializer;
 import org.simpleframework.xml.core.Persister;
+import org.simpleframework.xml.stream.NodeBuilder;
+import org.simpleframework.xml.stream.OutputNode;
+
+import com.j256.simplewebframework.logger.Logger;
+import com.j256.simplewebframework.logger.LoggerFactory;
+import com.j256.simplewebframework.util.BufferedResponseWriter;
+import com.j256.simplewebframework.util.IOUtils;
 
 /**
  * XML displayer that uses the optional {@link Serializer} from the SimpleFramework XML package
  * (org.simpleframework.xml). If you are using this displayer then you need to import the SimpleFramework jars into your
  * project.
  * 
+ * <p>
+ * {@link Iterable} and {@link Iterator} results are streamed. Each item is written with its SimpleFramework annotations
+ * as a child of a wrapper element as it is taken from the iterator so the whole collection never needs to be in
+ * memory. The output is flushed to the client every so many items and the iteration stops if the client disconnects.
+ * If the iterator is {@link Closeable}, such as a database cursor, then it is closed when the rendering finishes.
+ * </p>
+ * 
  * @author graywatson
  */
 public class XmlResultDisplayer implements ResultDisplayer {
 
+	private static final Logger logger = LoggerFactory.getLogger(XmlResultDisplayer.class);
+	private static final String DEFAULT_COLLECTION_ELEMENT_NAME = "list";
+	private static final int DEFAULT_FLUSH_ITEM_COUNT = 100;
+	private static final int DEFAULT_BUFFER_SIZE = 16384;
+
 	private final Serializer serializer = new Persister();
+	private String collectionElementName = DEFAULT_COLLECTION_ELEMENT_NAME;
+	private int flushItemCount = DEFAULT_FLUSH_ITEM_COUNT;
+	private int bufferSize = DEFAULT_BUFFER_SIZE;
 
 	@Override
 	public Class<?>[] getHandledClasses() {
@@ -39,6 +66,11 @@ public class XmlResultDisplayer implements ResultDisplayer {
 	@Override
 	public boolean renderResult(Request baseRequest, HttpServletRequest request, HttpServletResponse response,
 			Object result) throws IOException {
+		if (result instanceof Iterator) {
+			return renderItems(response, (Iterator<?>) result);
+		} else if (result instanceof Iterable) {
+			return renderItems(response, ((Iterable<?>) result).iterator());
+		}
 		PrintWriter writer = response.getWriter();
 		try {
 			serializer.write(result, writer);
@@ -49,4 +81,78 @@ public class XmlResultDisplayer implements ResultDisplayer {
 			writer.close();
 		}
 	}
+
+	/**
+	 * Name of the element that wraps the items of streamed collections. Default is "list".
+	 */
+	public void setCollectionElementName(String collectionElementName) {
+		this.collectionElementName = collectionElementName;
+	}
+
+	/**
+	 * Number of items of a streamed collection to write between flushes to the client. Default is 100.
+	 */
+	public void setFlushItemCount(int flushItemCount) {
+		this.flushItemCount = flushItemCount;
+	}
+
+	/**
+	 * Size of the buffer that streamed collections are encoded into. If the whole document fits then it is sent with a
+	 * Content-Length. Default is 16k.
+	 */
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+
+	private boolean renderItems(HttpServletResponse response, Iterator<?> iterator) throws IOException {
+		// not closed on errors so a partial document is not sent with a Content-Length
+		BufferedResponseWriter responseWriter = new BufferedResponseWriter(response, new byte[bufferSize]);
+		// simple-xml flushes after every element which would send tiny chunks so we decide when to flush
+		Writer writer = new NoFlushWriter(responseWriter);
+		int itemCount = 0;
+		try {
+			OutputNode root = NodeBuilder.write(writer);
+			OutputNode collectionNode = root.getChild(collectionElementName);
+			while (iterator.hasNext()) {
+				Object item = iterator.next();
+				if (item == null) {
+					continue;
+				}
+				serializer.write(item, collectionNode);
+				itemCount++;
+				if (flushItemCount > 0 && itemCount % flushItemCount == 0) {
+					responseWriter.flush();
+				}
+			}
+			collectionNode.commit();
+			responseWriter.close();
+			return true;
+		} catch (EofException e) {
+			logger.debug("client disconnected after {} streamed XML items", itemCount);
+			return true;
+		} catch (IOException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IOException("could not write XML item #" + itemCount + " to response", e);
+		} finally {
+			if (iterator instanceof Closeable) {
+				IOUtils.closeQuietly((Closeable) iterator);
+			}
+		}
+	}
+
+	/**
+	 * Writer that ignores flushes so we can control when the output is sent.
+	 */
+	private static class NoFlushWriter extends FilterWriter {
+
+		public NoFlushWriter(Writer writer) {
+			super(writer);
+		}
+
+		@Override
+		public void flush() {
+			// ignored
+		}
+	}
 }
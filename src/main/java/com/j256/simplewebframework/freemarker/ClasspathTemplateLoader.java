@@ -1,8 +1,27 @@
 package com.j256.simplewebframework.freemarker;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import com.j256.simplewebframework.logger.Logger;
+import com.j256.simplewebframework.logger.LoggerFactory;
+import com.j256.simplewebframework.util.FileUtils;
+import com.j256.simplewebframework.util.IOUtils;
 
 import freemarker.cache.TemplateLoader;
 
@@ -10,12 +29,30 @@ import freemarker.cache.TemplateLoader;
  * Implementation of {@link TemplateLoader} that that does some looks for stuff on the classpath as opposed to the
  * file-system.
  * 
+ * <p>
+ * Classpath resources do not change while we are running so the first time a template is needed, the resources with
+ * template extensions under the base path are indexed and read into memory. If they are in a jar then it is opened
+ * just once for this. Names that are not in the index, such as ones in other jars, are looked up with the class-loader
+ * once and then remembered, misses included, so the class-loader is not locked on each template check. The
+ * last-modified time of every template is the time that the loader was created.
+ * </p>
+ * 
  * @author graywatson
  */
 public class ClasspathTemplateLoader implements TemplateLoader {
 
+	private static final Logger logger = LoggerFactory.getLogger(ClasspathTemplateLoader.class);
+	/** at most this many names, which come from the views and the localized variants of them, are remembered */
+	private static final int MAX_LOOKUPS = 100000;
+	private static final TemplateBytes MISSING = new TemplateBytes(null);
+	private static final String[] DEFAULT_TEMPLATE_EXTENSIONS = new String[] { "htm", "html", "ftl" };
+
 	public String basePath;
 	public long timeStartMillis = System.currentTimeMillis();
+	private final ConcurrentMap<String, TemplateBytes> templateMap = new ConcurrentHashMap<String, TemplateBytes>();
+	private Set<String> templateExtensions = new HashSet<String>(Arrays.asList(DEFAULT_TEMPLATE_EXTENSIONS));
+	private volatile boolean indexed;
+	private int indexedCount;
 
 	public ClasspathTemplateLoader() {
 		// for spring
@@ -26,11 +63,33 @@ public class ClasspathTemplateLoader implements TemplateLoader {
 	}
 
 	@Override
-	public Object findTemplateSource(String name) {
-		if (basePath == null) {
-			return getClass().getResourceAsStream(name);
+	public Object findTemplateSource(String name) throws IOException {
+		if (!indexed) {
+			indexResources();
+		}
+		TemplateBytes source = templateMap.get(name);
+		if (source == null) {
+			InputStream inputStream = getClass().getResourceAsStream(resourcePath(name));
+			if (inputStream == null) {
+				source = MISSING;
+			} else {
+				try {
+					source = new TemplateBytes(IOUtils.toByteArray(inputStream));
+				} finally {
+					IOUtils.closeQuietly(inputStream);
+				}
+			}
+			if (templateMap.size() < MAX_LOOKUPS) {
+				TemplateBytes existing = templateMap.putIfAbsent(name, source);
+				if (existing != null) {
+					source = existing;
+				}
+			}
+		}
+		if (source == MISSING) {
+			return null;
 		} else {
-			return getClass().getResourceAsStream(basePath + name);
+			return source;
 		}
 	}
 
@@ -40,8 +99,8 @@ public class ClasspathTemplateLoader implements TemplateLoader {
 	}
 
 	@Override
-	public Reader getReader(Object templateSource, String encoding) {
-		return new InputStreamReader((InputStream) templateSource);
+	public Reader getReader(Object templateSource, String encoding) throws IOException {
+		return new InputStreamReader(new ByteArrayInputStream(((TemplateBytes) templateSource).bytes), encoding);
 	}
 
 	@Override
@@ -49,7 +108,127 @@ public class ClasspathTemplateLoader implements TemplateLoader {
 		// noop
 	}
 
+	/**
+	 * Return the number of templates found when the resources under the base path were indexed.
+	 */
+	public int getIndexedCount() {
+		return indexedCount;
+	}
+
 	public void setBasePath(String basePath) {
 		this.basePath = basePath;
 	}
+
+	/**
+	 * Extensions of the resources that are read into memory when the base path is indexed. Default is htm, html, and
+	 * ftl.
+	 */
+	public void setTemplateExtensions(String[] templateExtensions) {
+		this.templateExtensions = new HashSet<String>(Arrays.asList(templateExtensions));
+	}
+
+	private String resourcePath(String name) {
+		if (basePath == null) {
+			return name;
+		} else {
+			return basePath + name;
+		}
+	}
+
+	/**
+	 * Read all of the resources under the base path if it is a directory in a jar or on the file-system.
+	 */
+	private synchronized void indexResources() {
+		if (indexed) {
+			return;
+		}
+		// the base path is only a directory if it ends with a slash or is relative to our package
+		String dirPath = (basePath == null ? "" : basePath);
+		if (dirPath.length() == 0 || dirPath.endsWith("/")) {
+			URL url = getClass().getResource(dirPath);
+			try {
+				if (url == null) {
+					// nothing to index
+				} else if ("jar".equals(url.getProtocol())) {
+					indexJar(url);
+				} else if ("file".equals(url.getProtocol())) {
+					indexDirectory(new File(url.toURI()), "");
+				}
+			} catch (Exception e) {
+				// we will look the templates up one by one
+				logger.warn(e, "could not index the templates in {}", url);
+			}
+		}
+		indexedCount = templateMap.size();
+		indexed = true;
+	}
+
+	private void indexJar(URL url) throws IOException {
+		URLConnection conn = url.openConnection();
+		if (!(conn instanceof JarURLConnection)) {
+			return;
+		}
+		JarURLConnection jarConn = (JarURLConnection) conn;
+		// so we can close the jar-file without closing the one used by the class-loader
+		jarConn.setUseCaches(false);
+		String prefix = jarConn.getEntryName();
+		if (prefix == null) {
+			prefix = "";
+		}
+		JarFile jarFile = jarConn.getJarFile();
+		try {
+			Enumeration<JarEntry> entries = jarFile.entries();
+			while (entries.hasMoreElements()) {
+				JarEntry entry = entries.nextElement();
+				String entryName = entry.getName();
+				if (entry.isDirectory() || !entryName.startsWith(prefix) || !isTemplate(entryName)
+						|| templateMap.size() >= MAX_LOOKUPS) {
+					continue;
+				}
+				InputStream inputStream = jarFile.getInputStream(entry);
+				try {
+					templateMap.put(entryName.substring(prefix.length()),
+							new TemplateBytes(IOUtils.toByteArray(inputStream)));
+				} finally {
+					IOUtils.closeQuietly(inputStream);
+				}
+			}
+		} finally {
+			IOUtils.closeQuietly(jarFile);
+		}
+	}
+
+	private void indexDirectory(File dir, String prefix) throws IOException {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			if (templateMap.size() >= MAX_LOOKUPS) {
+				return;
+			}
+			if (file.isDirectory()) {
+				indexDirectory(file, prefix + file.getName() + "/");
+			} else if (isTemplate(file.getName())) {
+				templateMap.put(prefix + file.getName(), new TemplateBytes(FileUtils.readFile(file)));
+			}
+		}
+	}
+
+	private boolean isTemplate(String name) {
+		int index = name.lastIndexOf('.');
+		return (index >= 0 && templateExtensions.contains(name.substring(index + 1)));
+	}
+
+	/**
+	 * Bytes of a template. The same instance is returned for each lookup so Freemarker sees that it has not changed.
+	 */
+	private static class TemplateBytes {
+
+		final byte[] bytes;
+
+		public TemplateBytes(byte[] bytes) {
+			this.bytes = bytes;
+		}
+	}
 }
@@ -0,0 +1,40 @@
+package com.j256.simplewebframework.freemarker;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+import freemarker.core.Environment;
+import freemarker.template.TemplateDirectiveBody;
+import freemarker.template.TemplateDirectiveModel;
+import freemarker.template.TemplateException;
+import freemarker.template.TemplateModel;
+
+/**
+ * Freemarker directive which marks the point in a template, typically right after the document head, where the output
+ * so far can be sent to the browser so it can start fetching the CSS and Javascript while the rest of the page is
+ * rendered. Register it as a shared variable of the configuration:
+ * 
+ * <pre>
+ * config.setSharedVariable(&quot;flush&quot;, new FlushDirective());
+ * 
+ * &lt;/head&gt;&lt;@flush/&gt;
+ * </pre>
+ * 
+ * When the {@link FreemarkerHtmlDisplayer} is buffering, the flush only happens if early flushing is enabled.
+ * 
+ * @author graywatson
+ */
+public class FlushDirective implements TemplateDirectiveModel {
+
+	@Override
+	public void execute(Environment env, @SuppressWarnings("rawtypes") Map params, TemplateModel[] loopVars,
+			TemplateDirectiveBody body) throws TemplateException, IOException {
+		Writer out = env.getOut();
+		if (out instanceof FlushPointWriter) {
+			((FlushPointWriter) out).flushPoint();
+		} else {
+			out.flush();
+		}
+	}
+}
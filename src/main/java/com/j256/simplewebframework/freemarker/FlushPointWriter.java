@@ -0,0 +1,36 @@
+package com.j256.simplewebframework.freemarker;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writer used by the {@link FreemarkerHtmlDisplayer} when rendering into a buffer. Ordinary flushes are ignored so the
+ * page can be sent with a Content-Length but the flush points marked by the {@link FlushDirective} are passed through
+ * if early flushing is enabled.
+ * 
+ * @author graywatson
+ */
+class FlushPointWriter extends FilterWriter {
+
+	private final boolean earlyFlush;
+
+	public FlushPointWriter(Writer writer, boolean earlyFlush) {
+		super(writer);
+		this.earlyFlush = earlyFlush;
+	}
+
+	@Override
+	public void flush() {
+		// ignored
+	}
+
+	/**
+	 * Send what has been rendered so far to the client if early flushing is enabled.
+	 */
+	public void flushPoint() throws IOException {
+		if (earlyFlush) {
+			out.flush();
+		}
+	}
+}
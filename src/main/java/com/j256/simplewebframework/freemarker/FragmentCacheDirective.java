@@ -0,0 +1,71 @@
+package com.j256.simplewebframework.freemarker;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Map;
+
+import freemarker.core.Environment;
+import freemarker.template.TemplateDirectiveBody;
+import freemarker.template.TemplateDirectiveModel;
+import freemarker.template.TemplateException;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import freemarker.template.TemplateScalarModel;
+
+/**
+ * Freemarker directive which caches the output of an expensive part of a template in the {@link PageCache}. Register
+ * it as a shared variable of the configuration and wrap the block with it:
+ * 
+ * <pre>
+ * config.setSharedVariable(&quot;cache&quot;, new FragmentCacheDirective(pageCache));
+ * 
+ * &lt;@cache key=&quot;sidebar-${section}&quot;&gt; ... &lt;/@cache&gt;
+ * </pre>
+ * 
+ * The key must include anything that the output of the block depends on.
+ * 
+ * @author graywatson
+ */
+public class FragmentCacheDirective implements TemplateDirectiveModel {
+
+	private static final String KEY_PARAM = "key";
+	private static final String FRAGMENT_CHARSET = "UTF-8";
+
+	private PageCache pageCache;
+
+	public FragmentCacheDirective() {
+		// for spring
+	}
+
+	public FragmentCacheDirective(PageCache pageCache) {
+		this.pageCache = pageCache;
+	}
+
+	@Override
+	public void execute(Environment env, @SuppressWarnings("rawtypes") Map params, TemplateModel[] loopVars,
+			TemplateDirectiveBody body) throws TemplateException, IOException {
+		Object keyModel = params.get(KEY_PARAM);
+		if (!(keyModel instanceof TemplateScalarModel) || params.size() != 1) {
+			throw new TemplateModelException("fragment cache directive needs a single string \"key\" parameter");
+		}
+		if (body == null) {
+			return;
+		}
+		String key = PageCache.buildFragmentKey(((TemplateScalarModel) keyModel).getAsString());
+		PageCache.CachedPage fragment = pageCache.findPage(key);
+		if (fragment != null) {
+			env.getOut().write(fragment.getString());
+			return;
+		}
+		long generation = pageCache.getGeneration();
+		StringWriter writer = new StringWriter();
+		body.render(writer);
+		String output = writer.toString();
+		pageCache.putPage(key, generation, output.getBytes(FRAGMENT_CHARSET), FRAGMENT_CHARSET);
+		env.getOut().write(output);
+	}
+
+	public void setPageCache(PageCache pageCache) {
+		this.pageCache = pageCache;
+	}
+}
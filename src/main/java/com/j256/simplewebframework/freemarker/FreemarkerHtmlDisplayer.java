@@ -1,24 +1,44 @@
 package com.j256.simplewebframework.freemarker;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.eclipse.jetty.http.HttpHeaders;
 import org.eclipse.jetty.server.Request;
 
 import com.j256.simplewebframework.displayer.FileResultDisplayer.FileInfo;
 import com.j256.simplewebframework.displayer.ResultDisplayer;
+import com.j256.simplewebframework.freemarker.PageCache.CachedPage;
 import com.j256.simplewebframework.logger.Logger;
 import com.j256.simplewebframework.logger.LoggerFactory;
 import com.j256.simplewebframework.resource.FileLocator;
+import com.j256.simplewebframework.util.BufferedResponseWriter;
+import com.j256.simplewebframework.util.IOUtils;
+import com.j256.simplewebframework.util.RequestUtils;
 import com.j256.simplewebframework.util.ResponseUtils;
 
 import freemarker.template.Configuration;
@@ -28,6 +48,25 @@ import freemarker.template.TemplateException;
 /**
  * Any HTML files in the system will be rendered using this wrapper which sends the files back as a FreeMarker template.
  * 
+ * <p>
+ * If {@link #setBuffered(boolean)} is enabled then pages are rendered as UTF-8 into a per-thread buffer so the pages
+ * that fit are sent with a Content-Length and compressed in one pass. With {@link #setEarlyFlush(boolean)} the output
+ * before a {@link FlushDirective} in the template, usually the document head, is sent to the browser right away and
+ * the rest of the page is streamed.
+ * </p>
+ * 
+ * <p>
+ * Any {@link Future} values in the model are resolved before rendering. They are all waited on against a single
+ * deadline, see {@link #setFutureTimeoutMillis(long)}, and replaced by their fallbacks if they time out or fail.
+ * </p>
+ * 
+ * <p>
+ * If a {@link PageCache} is set then {@link ModelView}s marked with {@link ModelView#setCacheKeyNames(String...)} are
+ * rendered once per key and then served from the cache. Only the futures that are part of the key are resolved before
+ * the page is looked up and the others are cancelled if it is found. Concurrent requests for a page that is not cached
+ * wait for the first of them to render it.
+ * </p>
+ * 
  * @author graywatson
  */
 public class FreemarkerHtmlDisplayer implements ResultDisplayer {
@@ -35,9 +74,19 @@ public class FreemarkerHtmlDisplayer implements ResultDisplayer {
 	private static final Logger logger = LoggerFactory.getLogger(FreemarkerHtmlDisplayer.class);
 	@SuppressWarnings("unused")
 	private static final Map<String, Object> readOnlyMap = new ReadOnlyMap();
+	private static final int DEFAULT_BUFFER_SIZE = 32768;
+	private static final long DEFAULT_FUTURE_TIMEOUT_MILLIS = 5000;
 
-	private Configuration templateConfig;
+	private volatile Configuration templateConfig;
 	private FileLocator fileLocator;
+	private PageCache pageCache;
+	private boolean buffered;
+	private boolean earlyFlush;
+	private int bufferSize = DEFAULT_BUFFER_SIZE;
+	private long futureTimeoutMillis = DEFAULT_FUTURE_TIMEOUT_MILLIS;
+	private final ThreadLocal<byte[]> threadBuffer = new ThreadLocal<byte[]>();
+	private final ConcurrentMap<String, FutureTask<CachedPage>> pendingPages =
+			new ConcurrentHashMap<String, FutureTask<CachedPage>>();
 
 	@Override
 	public Class<?>[] getHandledClasses() {
@@ -83,10 +132,204 @@ public class FreemarkerHtmlDisplayer implements ResultDisplayer {
 			throw new IllegalArgumentException(
 					"Cannot render the result of type: " + result.getClass().getSimpleName());
 		}
-		render(fileInfo, modelView.getModel(), request, servletRequest, response, response.getWriter());
+		if (pageCache != null && modelView.getCacheKeyNames() != null) {
+			renderCachedPage(fileInfo, modelView, request, servletRequest, response);
+			return true;
+		}
+		resolveFutures(modelView);
+		if (buffered) {
+			renderBuffered(fileInfo, modelView.getModel(), request, servletRequest, response);
+		} else {
+			render(fileInfo, modelView.getModel(), request, servletRequest, response, response.getWriter());
+		}
 		return true;
 	}
 
+	/**
+	 * Replace the future values in the model with their results. The futures are already running in parallel so we
+	 * just wait for each of them until the deadline.
+	 */
+	void resolveFutures(ModelView modelView) {
+		resolveFutures(modelView, null, 0);
+	}
+
+	/**
+	 * Resolve the named futures in the model, or all of them if the names are null, against the deadline. The deadline
+	 * is started at the first future if it is 0.
+	 * 
+	 * @return The deadline or 0 if it was not started.
+	 */
+	private long resolveFutures(ModelView modelView, String[] names, long deadlineMillis) {
+		Map<String, Object> model = modelView.getModel();
+		if (model == null) {
+			return deadlineMillis;
+		}
+		long timeoutMillis = modelView.getFutureTimeoutMillis();
+		if (timeoutMillis <= 0) {
+			timeoutMillis = futureTimeoutMillis;
+		}
+		Collection<String> nameCollection = (names == null ? null : Arrays.asList(names));
+		Iterator<Map.Entry<String, Object>> iterator = model.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<String, Object> entry = iterator.next();
+			if (!(entry.getValue() instanceof Future)) {
+				continue;
+			}
+			if (nameCollection != null && !nameCollection.contains(entry.getKey())) {
+				continue;
+			}
+			if (deadlineMillis == 0) {
+				deadlineMillis = System.currentTimeMillis() + timeoutMillis;
+			}
+			Future<?> future = (Future<?>) entry.getValue();
+			String name = entry.getKey();
+			Object value;
+			try {
+				value = future.get(Math.max(deadlineMillis - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				logger.warn("model value '{}' not ready after {}ms, using fallback", name, timeoutMillis);
+				future.cancel(true);
+				value = modelView.getFallback(name);
+			} catch (ExecutionException e) {
+				logger.warn(e.getCause(), "model value '{}' failed, using fallback", name);
+				value = modelView.getFallback(name);
+			} catch (CancellationException e) {
+				value = modelView.getFallback(name);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				future.cancel(true);
+				value = modelView.getFallback(name);
+			}
+			if (value == null) {
+				iterator.remove();
+			} else {
+				entry.setValue(value);
+			}
+		}
+		return deadlineMillis;
+	}
+
+	/**
+	 * Cancel the futures in the model whose results are not needed.
+	 */
+	private void cancelFutures(ModelView modelView) {
+		Map<String, Object> model = modelView.getModel();
+		if (model == null) {
+			return;
+		}
+		for (Object value : model.values()) {
+			if (value instanceof Future) {
+				((Future<?>) value).cancel(true);
+			}
+		}
+	}
+
+	private void renderBuffered(FileInfo fileInfo, Map<String, Object> model, Request request,
+			HttpServletRequest servletRequest, HttpServletResponse response) throws IOException {
+		// not closed on errors so a partial page is not sent with a Content-Length
+		BufferedResponseWriter responseWriter = new BufferedResponseWriter(response, getBuffer());
+		render(fileInfo, model, request, servletRequest, response, new FlushPointWriter(responseWriter, earlyFlush));
+		responseWriter.close();
+	}
+
+	private void renderCachedPage(final FileInfo fileInfo, final ModelView modelView, final Request request,
+			final HttpServletRequest servletRequest, final HttpServletResponse response) throws IOException {
+		// only the futures that are part of the key are needed to find the page
+		final long deadlineMillis = resolveFutures(modelView, modelView.getCacheKeyNames(), 0);
+		final String key =
+				PageCache.buildPageKey(modelView.getView(), modelView.getModel(), modelView.getCacheKeyNames());
+		CachedPage page = pageCache.findPage(key);
+		if (page != null) {
+			cancelFutures(modelView);
+			writePage(page, servletRequest, response);
+			return;
+		}
+
+		if (pageCache.isCompress()) {
+			// once it is cached the page will be sent gzipped to the clients that accept it
+			response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+		}
+		// concurrent misses of the same page, such as after the cache is flushed, wait for the first one to render it
+		FutureTask<CachedPage> task = new FutureTask<CachedPage>(new Callable<CachedPage>() {
+			@Override
+			public CachedPage call() throws IOException {
+				return renderPage(key, fileInfo, modelView, deadlineMillis, request, servletRequest, response);
+			}
+		});
+		FutureTask<CachedPage> pendingTask = pendingPages.putIfAbsent(key, task);
+		if (pendingTask == null) {
+			try {
+				task.run();
+			} finally {
+				pendingPages.remove(key, task);
+			}
+		} else {
+			cancelFutures(modelView);
+			task = pendingTask;
+		}
+		try {
+			page = task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted waiting for page " + key);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else {
+				throw new IOException("could not render page " + modelView.getView(), cause);
+			}
+		}
+		writePage(page, servletRequest, response);
+	}
+
+	/**
+	 * Render the page and put it in the cache.
+	 * 
+	 * @return The uncompressed page which is written to the responses of the requests that waited for it.
+	 */
+	private CachedPage renderPage(String key, FileInfo fileInfo, ModelView modelView, long deadlineMillis,
+			Request request, HttpServletRequest servletRequest, HttpServletResponse response) throws IOException {
+		resolveFutures(modelView, null, deadlineMillis);
+		long generation = pageCache.getGeneration();
+		// render sets the content-type which determines the charset
+		response.setContentType("text/html");
+		String charset = response.getCharacterEncoding();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		render(fileInfo, modelView.getModel(), request, servletRequest, response, new OutputStreamWriter(baos,
+				charset));
+		byte[] body = baos.toByteArray();
+		pageCache.putPage(key, generation, body, charset);
+		return new CachedPage(body, false, body.length, charset);
+	}
+
+	private void writePage(CachedPage page, HttpServletRequest servletRequest, HttpServletResponse response)
+			throws IOException {
+		response.setContentType("text/html");
+		response.setCharacterEncoding(page.getCharset());
+		if (page.isGzipped()) {
+			// the identity response varies too since other clients get the gzipped one
+			response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+		}
+		if (page.isGzipped() && RequestUtils.isEncodingAccepted(servletRequest, "gzip")) {
+			response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+			writeBody(response, page.getBody());
+		} else {
+			writeBody(response, page.getUncompressedBody());
+		}
+	}
+
+	private void writeBody(HttpServletResponse response, byte[] body) throws IOException {
+		response.setContentLength(body.length);
+		ServletOutputStream sos = null;
+		try {
+			sos = response.getOutputStream();
+			sos.write(body);
+		} finally {
+			IOUtils.closeQuietly(sos);
+		}
+	}
+
 	private boolean render(FileInfo fileInfo, Map<String, Object> model, Request request,
 			HttpServletRequest servletRequest, HttpServletResponse servletResponse, Writer writer) throws IOException {
 
@@ -123,6 +366,14 @@ public class FreemarkerHtmlDisplayer implements ResultDisplayer {
 		}
 	}
 
+	public Configuration getTemplateConfig() {
+		return templateConfig;
+	}
+
+	/**
+	 * Set the template configuration. This can be called while requests are being rendered to switch to a
+	 * configuration whose template cache has been filled by the {@link TemplateWarmer}.
+	 */
 	public void setTemplateConfig(Configuration templateConfig) {
 		this.templateConfig = templateConfig;
 	}
@@ -131,6 +382,52 @@ public class FreemarkerHtmlDisplayer implements ResultDisplayer {
 		this.fileLocator = fileLocator;
 	}
 
+	/**
+	 * Set to true to render the pages into a per-thread buffer so they are sent with a Content-Length if they fit.
+	 * Default is false.
+	 */
+	public void setBuffered(boolean buffered) {
+		this.buffered = buffered;
+	}
+
+	/**
+	 * Set to true to send the output before each {@link FlushDirective} right away when the pages are buffered.
+	 * Default is false.
+	 */
+	public void setEarlyFlush(boolean earlyFlush) {
+		this.earlyFlush = earlyFlush;
+	}
+
+	/**
+	 * Size of the per-thread buffer that pages are rendered into when buffered. Default is 32k.
+	 */
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * Time to wait for all of the future model values of a request to resolve. Default is 5000ms.
+	 */
+	public void setFutureTimeoutMillis(long futureTimeoutMillis) {
+		this.futureTimeoutMillis = futureTimeoutMillis;
+	}
+
+	/**
+	 * Set the cache of the pages whose model-views are marked as cacheable. Default is none.
+	 */
+	public void setPageCache(PageCache pageCache) {
+		this.pageCache = pageCache;
+	}
+
+	private byte[] getBuffer() {
+		byte[] buffer = threadBuffer.get();
+		if (buffer == null || buffer.length != bufferSize) {
+			buffer = new byte[bufferSize];
+			threadBuffer.set(buffer);
+		}
+		return buffer;
+	}
+
 	/**
 	 * Little map that ignores any updates.
 	 */
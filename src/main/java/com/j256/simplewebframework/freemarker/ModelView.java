@@ -2,16 +2,27 @@ package com.j256.simplewebframework.freemarker;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Future;
 
 /**
  * Model and view to be returned by web-service.
  * 
+ * <p>
+ * Model values can be {@link Future}s of the results of backend calls which the web-service has started in parallel.
+ * They are resolved by the {@link FreemarkerHtmlDisplayer} before the template is rendered with one deadline for the
+ * whole request, so the page waits for the slowest call instead of the sum of them. Values which are not ready by the
+ * deadline or whose calls failed are replaced by the fallback given to {@link #putFuture(String, Future, Object)}.
+ * </p>
+ * 
  * @author graywatson
  */
 public class ModelView {
 
 	private final Map<String, Object> model;
 	private final String view;
+	private String[] cacheKeyNames;
+	private Map<String, Object> fallbacks;
+	private long futureTimeoutMillis;
 
 	public ModelView(String view) {
 		// we do this in case the view needs to modify the map
@@ -31,4 +42,58 @@ public class ModelView {
 	public String getView() {
 		return view;
 	}
+
+	/**
+	 * Return the names of the model entries that the cached page is keyed by or null if the page is not cached.
+	 */
+	public String[] getCacheKeyNames() {
+		return cacheKeyNames;
+	}
+
+	/**
+	 * Mark the rendered page as cacheable in the {@link PageCache} of the displayer. It is keyed by the view and the
+	 * values of the named model entries so they must include everything the page depends on, such as the language of
+	 * the user. Only pages which are the same for all of the users who get the same values should be cached.
+	 */
+	public void setCacheKeyNames(String... cacheKeyNames) {
+		this.cacheKeyNames = cacheKeyNames;
+	}
+
+	/**
+	 * Add a future value to the model which is replaced by its result before the template is rendered.
+	 * 
+	 * @param fallback
+	 *            Value to use if the future is not done by the deadline or if it fails. If null then the entry is
+	 *            removed from the model.
+	 */
+	public void putFuture(String name, Future<?> future, Object fallback) {
+		model.put(name, future);
+		if (fallbacks == null) {
+			fallbacks = new HashMap<String, Object>();
+		}
+		fallbacks.put(name, fallback);
+	}
+
+	/**
+	 * Return the fallback value for a future model entry or null if none.
+	 */
+	public Object getFallback(String name) {
+		if (fallbacks == null) {
+			return null;
+		} else {
+			return fallbacks.get(name);
+		}
+	}
+
+	public long getFutureTimeoutMillis() {
+		return futureTimeoutMillis;
+	}
+
+	/**
+	 * Time to wait for all of the future model values of this request to resolve. Default is 0 which uses the timeout
+	 * of the displayer.
+	 */
+	public void setFutureTimeoutMillis(long futureTimeoutMillis) {
+		this.futureTimeoutMillis = futureTimeoutMillis;
+	}
 }
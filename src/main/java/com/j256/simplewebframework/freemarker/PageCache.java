@@ -0,0 +1,286 @@
+package com.j256.simplewebframework.freemarker;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.j256.simplejmx.common.JmxAttributeMethod;
+import com.j256.simplejmx.common.JmxOperation;
+import com.j256.simplejmx.common.JmxResource;
+import com.j256.simplewebframework.cms.CmsRevisionListener;
+import com.j256.simplewebframework.util.IOUtils;
+
+/**
+ * Byte-bounded cache of rendered pages and template fragments which is used by the {@link FreemarkerHtmlDisplayer} for
+ * views that opt in with {@link ModelView#setCacheKeyNames(String...)} and by the {@link FragmentCacheDirective}. The
+ * least recently used entries are evicted when the byte budget is exceeded. Pages can optionally be stored gzipped in
+ * which case they are sent compressed to the clients that accept it. Fragments are always stored uncompressed because
+ * they are written into a page on every hit.
+ * 
+ * <p>
+ * Register this with the {@link com.j256.simplewebframework.cms.CmsManager} as a {@link CmsRevisionListener} so the
+ * cache is flushed when the live revision changes. Renders that started before the flush are not cached.
+ * </p>
+ * 
+ * @author graywatson
+ */
+@JmxResource(domainName = "j256.simpleweb", description = "Cache of rendered pages and fragments")
+public class PageCache implements CmsRevisionListener {
+
+	private static final long DEFAULT_MAX_BYTES = 32 * 1024 * 1024;
+	private static final int DEFAULT_MAX_ENTRY_BYTES = 1024 * 1024;
+	private static final char KEY_SEPARATOR = '\u0000';
+
+	private final LinkedHashMap<String, CachedPage> pages = new LinkedHashMap<String, CachedPage>(16, 0.75F, true);
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+	private long byteCount;
+	private volatile long generation;
+
+	private long maxBytes = DEFAULT_MAX_BYTES;
+	private int maxEntryBytes = DEFAULT_MAX_ENTRY_BYTES;
+	private boolean compress;
+
+	/**
+	 * Build the key of a page from its view and the values of the model entries which distinguish its variants.
+	 */
+	public static String buildPageKey(String view, Map<String, Object> model, String[] keyNames) {
+		StringBuilder sb = new StringBuilder(view);
+		for (String name : keyNames) {
+			sb.append(KEY_SEPARATOR).append(name).append('=').append(model.get(name));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Build the key of a template fragment.
+	 */
+	public static String buildFragmentKey(String key) {
+		return KEY_SEPARATOR + key;
+	}
+
+	/**
+	 * Find a cached page or fragment.
+	 * 
+	 * @return The cached entry or null if not in the cache.
+	 */
+	public CachedPage findPage(String key) {
+		CachedPage page;
+		synchronized (pages) {
+			page = pages.get(key);
+		}
+		if (page == null) {
+			missCount.incrementAndGet();
+		} else {
+			hitCount.incrementAndGet();
+		}
+		return page;
+	}
+
+	/**
+	 * Return the generation of the cache which should be read before the rendering starts and passed to
+	 * {@link #putPage(String, long, byte[], String)}.
+	 */
+	public long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Add a rendered page or fragment to the cache unless the cache has been flushed since the rendering started.
+	 * 
+	 * @param generation
+	 *            Result of {@link #getGeneration()} before the rendering started.
+	 * @param body
+	 *            The rendered bytes which are not copied.
+	 * @param charset
+	 *            The charset that the bytes were encoded with.
+	 */
+	public void putPage(String key, long generation, byte[] body, String charset) throws IOException {
+		if (body.length > maxEntryBytes) {
+			return;
+		}
+		CachedPage page;
+		if (compress && !isFragmentKey(key)) {
+			page = new CachedPage(gzip(body), true, body.length, charset);
+		} else {
+			page = new CachedPage(body, false, body.length, charset);
+		}
+		synchronized (pages) {
+			if (generation != this.generation) {
+				return;
+			}
+			CachedPage existing = pages.put(key, page);
+			if (existing != null) {
+				byteCount -= existing.body.length;
+			}
+			byteCount += page.body.length;
+			Iterator<CachedPage> iterator = pages.values().iterator();
+			while (byteCount > maxBytes && iterator.hasNext()) {
+				CachedPage eldest = iterator.next();
+				iterator.remove();
+				byteCount -= eldest.body.length;
+				evictionCount.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Flush the cache when the live CMS revision changes.
+	 */
+	@Override
+	public void liveRevisionChanged(File liveRevisionDir) {
+		clear();
+	}
+
+	@JmxOperation(description = "Remove all of the cached pages and fragments")
+	public void clear() {
+		synchronized (pages) {
+			generation++;
+			pages.clear();
+			byteCount = 0;
+		}
+	}
+
+	@JmxAttributeMethod(description = "Number of pages and fragments served from the cache")
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	@JmxAttributeMethod(description = "Number of cacheable pages and fragments that had to be rendered")
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	@JmxAttributeMethod(description = "Number of entries evicted to stay under the byte budget")
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	@JmxAttributeMethod(description = "Number of pages and fragments in the cache")
+	public int getPageCount() {
+		synchronized (pages) {
+			return pages.size();
+		}
+	}
+
+	@JmxAttributeMethod(description = "Number of stored bytes in the cache")
+	public long getByteCount() {
+		synchronized (pages) {
+			return byteCount;
+		}
+	}
+
+	/**
+	 * Maximum number of stored bytes in the cache. Default is 32mb.
+	 */
+	public void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Pages and fragments larger than this are not cached. Default is 1mb.
+	 */
+	public void setMaxEntryBytes(int maxEntryBytes) {
+		this.maxEntryBytes = maxEntryBytes;
+	}
+
+	public boolean isCompress() {
+		return compress;
+	}
+
+	/**
+	 * Set to true to store the pages gzipped. Fragments are never compressed. Default is false.
+	 */
+	public void setCompress(boolean compress) {
+		this.compress = compress;
+	}
+
+	private static boolean isFragmentKey(String key) {
+		return (key.length() > 0 && key.charAt(0) == KEY_SEPARATOR);
+	}
+
+	private static byte[] gzip(byte[] bytes) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(bytes.length / 4 + 32);
+		GZIPOutputStream gzipStream = new GZIPOutputStream(baos);
+		try {
+			gzipStream.write(bytes);
+			gzipStream.close();
+			gzipStream = null;
+		} finally {
+			IOUtils.closeQuietly(gzipStream);
+		}
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Rendered page or fragment in the cache.
+	 */
+	public static class CachedPage {
+
+		private final byte[] body;
+		private final boolean gzipped;
+		private final int length;
+		private final String charset;
+
+		public CachedPage(byte[] body, boolean gzipped, int length, String charset) {
+			this.body = body;
+			this.gzipped = gzipped;
+			this.length = length;
+			this.charset = charset;
+		}
+
+		/**
+		 * Return the stored bytes which are gzipped if {@link #isGzipped()}. They must not be modified.
+		 */
+		public byte[] getBody() {
+			return body;
+		}
+
+		public boolean isGzipped() {
+			return gzipped;
+		}
+
+		public String getCharset() {
+			return charset;
+		}
+
+		/**
+		 * Return the bytes of the page, uncompressing them if necessary.
+		 */
+		public byte[] getUncompressedBody() throws IOException {
+			if (!gzipped) {
+				return body;
+			}
+			byte[] bytes = new byte[length];
+			GZIPInputStream gzipStream = new GZIPInputStream(new ByteArrayInputStream(body));
+			try {
+				int offset = 0;
+				while (offset < length) {
+					int numRead = gzipStream.read(bytes, offset, length - offset);
+					if (numRead < 0) {
+						throw new IOException("cached page is shorter than expected");
+					}
+					offset += numRead;
+				}
+			} finally {
+				IOUtils.closeQuietly(gzipStream);
+			}
+			return bytes;
+		}
+
+		/**
+		 * Return the page as a string.
+		 */
+		public String getString() throws IOException {
+			return new String(getUncompressedBody(), charset);
+		}
+	}
+}
@@ -0,0 +1,167 @@
+package com.j256.simplewebframework.freemarker;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.j256.simplewebframework.cms.CmsManager;
+import com.j256.simplewebframework.cms.CmsRevisionListener;
+import com.j256.simplewebframework.util.FileUtils;
+
+import freemarker.cache.TemplateLoader;
+import freemarker.template.Configuration;
+
+/**
+ * Template loader for CMS revision directories which never change once they are extracted. Each template name is only
+ * looked up in the file-system once per revision, misses included, and the last-modified time of every template is the
+ * time that the revision was bound so Freemarker's freshness checks never touch the disk. The templates are read in
+ * full with one read instead of through an unbuffered stream. This means that the template update delay of the
+ * configuration can be set to a very large value.
+ * 
+ * <p>
+ * The loader can be bound to a specific revision directory, as the {@link TemplateWarmer} does, or registered as a
+ * {@link CmsRevisionListener} with the {@link CmsManager} in which case it is re-bound to each new live revision. When
+ * re-bound the lookups are dropped and the template cache of the configuration set with
+ * {@link #setTemplateConfig(Configuration)} is cleared so nothing stale is ever rendered.
+ * </p>
+ * 
+ * @author graywatson
+ */
+public class RevisionTemplateLoader implements TemplateLoader, CmsRevisionListener {
+
+	/** at most this many names, which come from the views and the localized variants of them, are remembered */
+	private static final int MAX_LOOKUPS = 100000;
+
+	private volatile Revision revision;
+	private Configuration templateConfig;
+
+	public RevisionTemplateLoader() {
+		// for spring
+	}
+
+	public RevisionTemplateLoader(File revisionDir) {
+		setRevisionDir(revisionDir);
+	}
+
+	@Override
+	public Object findTemplateSource(String name) {
+		Revision current = revision;
+		TemplateSource source = current.lookups.get(name);
+		if (source == null) {
+			File file = new File(current.dir, name);
+			if (file.isFile()) {
+				source = new TemplateSource(file, current.stamp);
+			} else {
+				source = TemplateSource.MISSING;
+			}
+			if (current.lookups.size() >= MAX_LOOKUPS) {
+				current.lookups.clear();
+			}
+			current.lookups.put(name, source);
+		}
+		if (source == TemplateSource.MISSING) {
+			return null;
+		} else {
+			return source;
+		}
+	}
+
+	@Override
+	public long getLastModified(Object templateSource) {
+		return ((TemplateSource) templateSource).stamp;
+	}
+
+	@Override
+	public Reader getReader(Object templateSource, String encoding) throws IOException {
+		byte[] bytes = FileUtils.readFile(((TemplateSource) templateSource).file);
+		return new StringReader(new String(bytes, encoding));
+	}
+
+	@Override
+	public void closeTemplateSource(Object templateSource) {
+		// noop
+	}
+
+	/**
+	 * Re-bind to the new live revision.
+	 */
+	@Override
+	public void liveRevisionChanged(File liveRevisionDir) {
+		setRevisionDir(liveRevisionDir);
+		if (templateConfig != null) {
+			templateConfig.clearTemplateCache();
+		}
+	}
+
+	/**
+	 * Set the directory of the revision that the templates are loaded from.
+	 */
+	public void setRevisionDir(File revisionDir) {
+		Revision previous = revision;
+		long stamp = System.currentTimeMillis();
+		if (previous != null && stamp <= previous.stamp) {
+			// the stamp must change so templates of the previous revision are seen as modified
+			stamp = previous.stamp + 1;
+		}
+		revision = new Revision(revisionDir, stamp);
+	}
+
+	/**
+	 * Set the configuration whose template cache is cleared when the live revision changes.
+	 */
+	public void setTemplateConfig(Configuration templateConfig) {
+		this.templateConfig = templateConfig;
+	}
+
+	/**
+	 * Revision directory with the template lookups made in it.
+	 */
+	private static class Revision {
+		final File dir;
+		final long stamp;
+		final ConcurrentMap<String, TemplateSource> lookups = new ConcurrentHashMap<String, TemplateSource>();
+
+		public Revision(File dir, long stamp) {
+			this.dir = dir;
+			this.stamp = stamp;
+		}
+	}
+
+	/**
+	 * Template file in a revision. Freemarker compares sources to see if it needs to reload a template.
+	 */
+	private static class TemplateSource {
+
+		static final TemplateSource MISSING = new TemplateSource(null, 0);
+
+		final File file;
+		final long stamp;
+
+		public TemplateSource(File file, long stamp) {
+			this.file = file;
+			this.stamp = stamp;
+		}
+
+		@Override
+		public int hashCode() {
+			return (file == null ? 0 : file.hashCode()) ^ (int) stamp;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof TemplateSource)) {
+				return false;
+			}
+			TemplateSource other = (TemplateSource) obj;
+			return (file == null ? other.file == null : file.equals(other.file)) && stamp == other.stamp;
+		}
+
+		@Override
+		public String toString() {
+			return String.valueOf(file);
+		}
+	}
+}
@@ -0,0 +1,247 @@
+package com.j256.simplewebframework.freemarker;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.j256.simplejmx.common.JmxAttributeField;
+import com.j256.simplejmx.common.JmxAttributeMethod;
+import com.j256.simplejmx.common.JmxOperation;
+import com.j256.simplejmx.common.JmxResource;
+import com.j256.simplewebframework.cms.CmsManager;
+import com.j256.simplewebframework.cms.CmsRevisionListener;
+import com.j256.simplewebframework.cms.CmsRevisionPreparer;
+import com.j256.simplewebframework.logger.Logger;
+import com.j256.simplewebframework.logger.LoggerFactory;
+
+import freemarker.cache.SoftCacheStorage;
+import freemarker.cache.TemplateLoader;
+import freemarker.template.Configuration;
+
+/**
+ * Parses all of the templates of a directory in parallel to fill Freemarker's template cache so the first requests for
+ * each page do not pay for the parsing.
+ * 
+ * <p>
+ * When registered with the {@link CmsManager} as a preparer and a listener, each new revision is warmed into its own
+ * copy of the {@link FreemarkerHtmlDisplayer}'s configuration, with a template loader for the revision directory,
+ * before the live link is switched. Once the revision is live the warmed configuration is swapped into the displayer.
+ * The displayer's configuration is copied when {@link #setHtmlDisplayer(FreemarkerHtmlDisplayer)} is called, before
+ * requests are served, and that copy is the prototype of the revision copies.
+ * </p>
+ * 
+ * <p>
+ * Without the CMS, {@link #warmUp()} can be called at startup to warm the displayer's configuration with the templates
+ * in the {@link #setTemplateDir(File)} directory.
+ * </p>
+ * 
+ * @author graywatson
+ */
+@JmxResource(domainName = "j256.simpleweb", description = "Parses the Freemarker templates before the requests")
+public class TemplateWarmer implements CmsRevisionPreparer, CmsRevisionListener {
+
+	private static final Logger logger = LoggerFactory.getLogger(TemplateWarmer.class);
+	private static final String[] DEFAULT_TEMPLATE_EXTENSIONS = new String[] { "htm", "html", "ftl" };
+	private static final int MAX_REPORTED_ERRORS = 100;
+	private static final long WARM_UP_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+	private FreemarkerHtmlDisplayer htmlDisplayer;
+	private File templateDir;
+	private Set<String> templateExtensions = new HashSet<String>(Arrays.asList(DEFAULT_TEMPLATE_EXTENSIONS));
+	private int threadCount = Runtime.getRuntime().availableProcessors();
+
+	private Configuration prototypeConfig;
+	private Configuration preparedConfig;
+	private File preparedRevisionDir;
+
+	@JmxAttributeField(description = "Number of templates parsed by the last warm-up")
+	private volatile int lastTemplateCount;
+	@JmxAttributeField(description = "Milliseconds taken by the last warm-up")
+	private volatile long lastWarmUpMillis;
+	private volatile List<String> lastErrors = Collections.emptyList();
+
+	/**
+	 * Warm the templates of a new revision into a copy of the displayer's configuration.
+	 */
+	@Override
+	public synchronized void prepareRevision(File revisionDir) {
+		if (prototypeConfig == null) {
+			// the displayer had no configuration when it was set so this clears its cache
+			prototypeConfig = copyConfig(htmlDisplayer.getTemplateConfig());
+		}
+		Configuration config = copyConfig(prototypeConfig);
+		config.setTemplateLoader(createTemplateLoader(revisionDir));
+		warmUp(config, revisionDir);
+		preparedConfig = config;
+		preparedRevisionDir = revisionDir;
+	}
+
+	/**
+	 * Swap the configuration warmed for the revision into the displayer.
+	 */
+	@Override
+	public synchronized void liveRevisionChanged(File liveRevisionDir) {
+		if (preparedConfig != null && liveRevisionDir.equals(preparedRevisionDir)) {
+			htmlDisplayer.setTemplateConfig(preparedConfig);
+			preparedConfig = null;
+			preparedRevisionDir = null;
+		}
+	}
+
+	/**
+	 * Warm the displayer's configuration with the templates in the template directory.
+	 */
+	@JmxOperation(description = "Parse all of the templates in the template directory")
+	public synchronized String warmUp() {
+		if (templateDir == null) {
+			return "no template directory configured";
+		}
+		warmUp(htmlDisplayer.getTemplateConfig(), templateDir);
+		return "parsed " + lastTemplateCount + " templates in " + lastWarmUpMillis + "ms with " + lastErrors.size()
+				+ " errors";
+	}
+
+	@JmxAttributeMethod(description = "Templates which failed to parse in the last warm-up")
+	public String[] getLastErrors() {
+		List<String> errors = lastErrors;
+		return errors.toArray(new String[errors.size()]);
+	}
+
+	/**
+	 * Set the displayer whose configuration is warmed. Its configuration should already be set because it is copied
+	 * here as the prototype of the revision copies.
+	 */
+	public void setHtmlDisplayer(FreemarkerHtmlDisplayer htmlDisplayer) {
+		this.htmlDisplayer = htmlDisplayer;
+		Configuration config = htmlDisplayer.getTemplateConfig();
+		if (config != null) {
+			prototypeConfig = copyConfig(config);
+		}
+	}
+
+	/**
+	 * Directory of the templates that are parsed by {@link #warmUp()}. This should be the same directory that the
+	 * displayer's template loader uses.
+	 */
+	public void setTemplateDir(File templateDir) {
+		this.templateDir = templateDir;
+	}
+
+	/**
+	 * Extensions of the files that are parsed as templates. Default is htm, html, and ftl.
+	 */
+	public void setTemplateExtensions(String[] templateExtensions) {
+		this.templateExtensions = new HashSet<String>(Arrays.asList(templateExtensions));
+	}
+
+	/**
+	 * Number of threads that parse the templates. Default is the number of processors.
+	 */
+	public void setThreadCount(int threadCount) {
+		this.threadCount = threadCount;
+	}
+
+	/**
+	 * Create the template loader for a revision directory. The default is a {@link RevisionTemplateLoader} bound to the
+	 * directory. Override this if the displayer's configuration uses more than one loader such as a multi-loader with
+	 * classpath templates.
+	 */
+	protected TemplateLoader createTemplateLoader(File revisionDir) {
+		return new RevisionTemplateLoader(revisionDir);
+	}
+
+	/**
+	 * Copy a configuration with its own cache storage. The clone shares the cache storage of the original and clears
+	 * it, so the displayer's live configuration is only copied before it serves requests and the revisions are copied
+	 * from the prototype.
+	 */
+	private static Configuration copyConfig(Configuration config) {
+		Configuration copy = (Configuration) config.clone();
+		copy.setCacheStorage(new SoftCacheStorage());
+		return copy;
+	}
+
+	private void warmUp(final Configuration config, File dir) {
+		long start = System.currentTimeMillis();
+		List<String> paths = new ArrayList<String>();
+		findTemplates(dir, "", paths);
+
+		final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+		final AtomicInteger errorCount = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threadCount), new WarmerThreadFactory());
+		try {
+			for (final String path : paths) {
+				executor.submit(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							config.getTemplate(path);
+						} catch (Exception e) {
+							if (errorCount.incrementAndGet() <= MAX_REPORTED_ERRORS) {
+								errors.add(path + ": " + e.getMessage());
+							}
+							logger.warn(e, "could not parse template {}", path);
+						}
+					}
+				});
+			}
+			executor.shutdown();
+			if (!executor.awaitTermination(WARM_UP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+				logger.error("template warm-up of {} did not finish in {}ms", dir, WARM_UP_TIMEOUT_MILLIS);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			executor.shutdownNow();
+		}
+
+		lastTemplateCount = paths.size();
+		lastWarmUpMillis = System.currentTimeMillis() - start;
+		lastErrors = new ArrayList<String>(errors);
+		logger.info("parsed {} templates in {} in {}ms", paths.size(), dir, lastWarmUpMillis);
+		if (errorCount.get() > 0) {
+			logger.error("{} templates in {} could not be parsed", errorCount.get(), dir);
+		}
+	}
+
+	private void findTemplates(File dir, String prefix, List<String> paths) {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			String name = file.getName();
+			if (file.isDirectory()) {
+				findTemplates(file, prefix + name + "/", paths);
+				continue;
+			}
+			int index = name.lastIndexOf('.');
+			if (index >= 0 && templateExtensions.contains(name.substring(index + 1))) {
+				paths.add(prefix + name);
+			}
+		}
+	}
+
+	/**
+	 * Daemon threads so a stuck parse does not hold up the shutdown.
+	 */
+	private static class WarmerThreadFactory implements ThreadFactory {
+		private final AtomicInteger threadCount = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "TemplateWarmer-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
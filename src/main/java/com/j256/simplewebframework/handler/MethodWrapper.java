@@ -2,6 +2,7 @@ package com.j256.simplewebframework.handler;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
+import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -20,6 +21,7 @@ import org.eclipse.jetty.server.Request;
 
 import com.j256.simplewebframework.logger.Logger;
 import com.j256.simplewebframework.logger.LoggerFactory;
+import com.j256.simplewebframework.params.ParamConverterRegistry;
 import com.j256.simplewebframework.params.ParamInfo;
 import com.j256.simplewebframework.util.ResponseUtils;
 import com.j256.simplewebframework.util.ResponseUtils.HttpErrorCode;
@@ -48,7 +50,7 @@ public class MethodWrapper {
 	private final boolean pathParam;
 
 	public MethodWrapper(Object webService, String defaultContentType, Method method, String handlerPathPrefix,
-			String classPathPrefix) {
+			String classPathPrefix, ParamConverterRegistry converterRegistry) {
 
 		this.webService = webService;
 		this.method = method;
@@ -68,6 +70,7 @@ public class MethodWrapper {
 		}
 
 		Class<?>[] types = method.getParameterTypes();
+		Type[] genericTypes = method.getGenericParameterTypes();
 		Annotation[][] annotations = method.getParameterAnnotations();
 		if (types.length != annotations.length) {
 			throw new IllegalStateException("Type array length should match annotations array length");
@@ -109,7 +112,8 @@ public class MethodWrapper {
 		this.numParams = types.length;
 		this.paramInfos = new ParamInfo[this.numParams];
 		for (int i = 0; i < this.numParams; i++) {
-			this.paramInfos[i] = new ParamInfo(webService, method, i, types[i], annotations[i], pathParts);
+			this.paramInfos[i] = new ParamInfo(webService, method, i, types[i], genericTypes[i], annotations[i],
+					pathParts, converterRegistry);
 		}
 
 		List<RequestType> requestTypes = new ArrayList<RequestType>(0);
@@ -150,6 +154,19 @@ public class MethodWrapper {
 		return pathParam;
 	}
 
+	public ParamInfo[] getParamInfos() {
+		return paramInfos;
+	}
+
+	/**
+	 * Set the sample rate of the debug log messages about parameters that are missing or cannot be converted.
+	 */
+	public void setParamFailureLogSampleRate(int failureLogSampleRate) {
+		for (ParamInfo paramInfo : paramInfos) {
+			paramInfo.setFailureLogSampleRate(failureLogSampleRate);
+		}
+	}
+
 	/**
 	 * Process our request and return the result object returned by the web-service method.
 	 */
@@ -3,9 +3,13 @@ package com.j256.simplewebframework.handler;
 import java.io.IOException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 
 import javax.jws.WebMethod;
 import javax.jws.WebService;
@@ -14,13 +18,22 @@ import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 
+import org.eclipse.jetty.http.HttpHeaders;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 
+import com.j256.simplejmx.common.JmxAttributeMethod;
+import com.j256.simplejmx.common.JmxResource;
+import com.j256.simplewebframework.compress.ResponseCompressor;
 import com.j256.simplewebframework.displayer.ResultDisplayer;
 import com.j256.simplewebframework.handler.MethodWrapper.RequestType;
 import com.j256.simplewebframework.logger.Logger;
 import com.j256.simplewebframework.logger.LoggerFactory;
+import com.j256.simplewebframework.params.ParamConverter;
+import com.j256.simplewebframework.params.ParamConverterRegistry;
+import com.j256.simplewebframework.params.ParamInfo;
+import com.j256.simplewebframework.params.RequestBodyReader;
+import com.j256.simplewebframework.util.RequestUtils;
 import com.j256.simplewebframework.util.ResponseUtils;
 import com.j256.simplewebframework.util.ResponseUtils.HttpErrorCode;
 
@@ -30,6 +43,7 @@ import com.j256.simplewebframework.util.ResponseUtils.HttpErrorCode;
  * 
  * @author graywatson
  */
+@JmxResource(domainName = "j256.simpleweb", description = "Handler for web-service method calls")
 public class ServiceHandler extends AbstractHandler {
 
 	private static final Logger logger = LoggerFactory.getLogger(ServiceHandler.class);
@@ -41,6 +55,12 @@ public class ServiceHandler extends AbstractHandler {
 	private final Map<Class<?>, ResultDisplayer> displayerClassMap = new HashMap<Class<?>, ResultDisplayer>();
 	private final Map<String, ResultDisplayer> displayerMimeTypeMap = new HashMap<String, ResultDisplayer>();
 	private final List<ResultDisplayer> runtimeMatchDisplayers = new ArrayList<ResultDisplayer>();
+	private final Map<String, ResultDisplayer> acceptDisplayerMap = new HashMap<String, ResultDisplayer>();
+	private Set<String> negotiableMimeTypes = Collections.singleton("application/json");
+	private final List<MethodWrapper> methodWrappers = new ArrayList<MethodWrapper>();
+	private int paramFailureLogSampleRate;
+	private ResponseCompressor responseCompressor;
+	private ParamConverterRegistry converterRegistry = new ParamConverterRegistry();
 	private boolean pathParam;
 
 	@Override
@@ -96,6 +116,19 @@ public class ServiceHandler extends AbstractHandler {
 		Class<? extends Object> resultClass = result.getClass();
 		String resultMimeType = response.getContentType();
 		ResultDisplayer displayer = displayerClassMap.get(resultClass);
+		if (displayer == null && !acceptDisplayerMap.isEmpty() && resultMimeType != null
+				&& negotiableMimeTypes.contains(RequestUtils.stripParams(resultMimeType).toLowerCase(Locale.ENGLISH))) {
+			// caches must key on the Accept header even when the default type is chosen
+			response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+			// the client may prefer a binary encoding of the result to the one the method produces
+			String acceptType = RequestUtils.findPreferredType(request.getHeader(HttpHeaders.ACCEPT), resultMimeType,
+					acceptDisplayerMap.keySet());
+			if (acceptType != null) {
+				displayer = acceptDisplayerMap.get(acceptType);
+				resultMimeType = acceptType;
+				response.setContentType(acceptType);
+			}
+		}
 		if (displayer == null) {
 			// after we look up the class returned, we check the content-type
 			displayer = displayerMimeTypeMap.get(resultMimeType);
@@ -118,7 +151,19 @@ public class ServiceHandler extends AbstractHandler {
 			 */
 			logger.debug("Could not display result of class {}, mime-type {}", resultClass, resultMimeType);
 		} else {
-			if (displayer.renderResult(baseRequest, request, response, result)) {
+			HttpServletResponse renderResponse = response;
+			if (responseCompressor != null) {
+				renderResponse = responseCompressor.wrapResponse(request, response);
+			}
+			boolean rendered;
+			try {
+				rendered = displayer.renderResult(baseRequest, request, renderResponse, result);
+			} finally {
+				if (responseCompressor != null) {
+					responseCompressor.finishResponse(renderResponse);
+				}
+			}
+			if (rendered) {
 				baseRequest.setHandled(true);
 			} else {
 				/*
@@ -189,6 +234,89 @@ public class ServiceHandler extends AbstractHandler {
 		}
 	}
 
+	/**
+	 * Register a displayer which is used instead of the one for the produced mime-type when the request's Accept header
+	 * prefers one of the displayer's mime-types. This only applies to methods which produce one of the negotiable
+	 * mime-types and whose result class does not have its own displayer.
+	 */
+	public void registerAcceptDisplayer(ResultDisplayer resultDisplayer) {
+		for (String mimeType : resultDisplayer.getHandledMimeTypes()) {
+			acceptDisplayerMap.put(mimeType.toLowerCase(Locale.ENGLISH), resultDisplayer);
+		}
+	}
+
+	/**
+	 * Register a reader for {@link com.j256.simplewebframework.params.BodyParam} parameters. This must be called
+	 * before the web-services that use it are registered.
+	 */
+	public void registerBodyReader(RequestBodyReader bodyReader) {
+		converterRegistry.registerBodyReader(bodyReader);
+	}
+
+	/**
+	 * Register a converter for web-method parameters of a particular type. This must be called before the web-services
+	 * that use the type are registered.
+	 */
+	public void registerParamConverter(Class<?> clazz, ParamConverter converter) {
+		converterRegistry.registerConverter(clazz, converter);
+	}
+
+	/**
+	 * Set the registry of parameter converters. This must be called before any web-services are registered.
+	 */
+	public void setParamConverterRegistry(ParamConverterRegistry converterRegistry) {
+		this.converterRegistry = converterRegistry;
+	}
+
+	@JmxAttributeMethod(description = "Number of missing or invalid values per web-method parameter")
+	public String[] getParamFailureCounts() {
+		List<String> results = new ArrayList<String>();
+		for (MethodWrapper wrapper : methodWrappers) {
+			for (ParamInfo paramInfo : wrapper.getParamInfos()) {
+				long count = paramInfo.getFailureCount();
+				if (count > 0) {
+					results.add(paramInfo + ": " + count);
+				}
+			}
+		}
+		return results.toArray(new String[results.size()]);
+	}
+
+	@JmxAttributeMethod(description = "Total number of missing or invalid web-method parameter values")
+	public long getParamFailureTotal() {
+		long total = 0;
+		for (MethodWrapper wrapper : methodWrappers) {
+			for (ParamInfo paramInfo : wrapper.getParamInfos()) {
+				total += paramInfo.getFailureCount();
+			}
+		}
+		return total;
+	}
+
+	@JmxAttributeMethod(description = "Log every Nth parameter failure at debug level, 0 to disable")
+	public int getParamFailureLogSampleRate() {
+		return paramFailureLogSampleRate;
+	}
+
+	/**
+	 * Set the sample rate of the debug log messages about parameters that are missing or cannot be converted. If set to
+	 * 100 then the first and every 100th failure of each parameter is logged. Default is 0 which disables the messages.
+	 */
+	@JmxAttributeMethod(description = "Log every Nth parameter failure at debug level, 0 to disable")
+	public void setParamFailureLogSampleRate(int paramFailureLogSampleRate) {
+		this.paramFailureLogSampleRate = paramFailureLogSampleRate;
+		for (MethodWrapper wrapper : methodWrappers) {
+			wrapper.setParamFailureLogSampleRate(paramFailureLogSampleRate);
+		}
+	}
+
+	/**
+	 * Set the compressor which gzips the rendered results on the fly. Default is none.
+	 */
+	public void setResponseCompressor(ResponseCompressor responseCompressor) {
+		this.responseCompressor = responseCompressor;
+	}
+
 	public void setPathPrefix(String pathPrefix) {
 		this.handlerPathPrefix = pathPrefix;
 	}
@@ -205,6 +333,30 @@ public class ServiceHandler extends AbstractHandler {
 		}
 	}
 
+	public void setAcceptDisplayers(ResultDisplayer[] acceptDisplayers) {
+		for (ResultDisplayer acceptDisplayer : acceptDisplayers) {
+			registerAcceptDisplayer(acceptDisplayer);
+		}
+	}
+
+	public void setBodyReaders(RequestBodyReader[] bodyReaders) {
+		for (RequestBodyReader bodyReader : bodyReaders) {
+			registerBodyReader(bodyReader);
+		}
+	}
+
+	/**
+	 * Set the mime-types produced by web-methods whose results can be rendered by the accept displayers instead.
+	 * Default is application/json.
+	 */
+	public void setNegotiableMimeTypes(String[] mimeTypes) {
+		Set<String> mimeTypeSet = new HashSet<String>();
+		for (String mimeType : mimeTypes) {
+			mimeTypeSet.add(mimeType.toLowerCase(Locale.ENGLISH));
+		}
+		this.negotiableMimeTypes = mimeTypeSet;
+	}
+
 	private void processMethods(Object webService, String classPathPrefix, String webServiceContentType, Class<?> clazz) {
 		for (Method method : clazz.getMethods()) {
 
@@ -213,8 +365,10 @@ public class ServiceHandler extends AbstractHandler {
 				continue;
 			}
 
-			MethodWrapper wrapper =
-					new MethodWrapper(webService, webServiceContentType, method, handlerPathPrefix, classPathPrefix);
+			MethodWrapper wrapper = new MethodWrapper(webService, webServiceContentType, method, handlerPathPrefix,
+					classPathPrefix, converterRegistry);
+			wrapper.setParamFailureLogSampleRate(paramFailureLogSampleRate);
+			methodWrappers.add(wrapper);
 			for (RequestType type : wrapper.getAllowedRequestTypes()) {
 				Map<String, MethodWrapper> pathMap = typePathMaps.get(type.name());
 				if (pathMap == null) {
@@ -0,0 +1,199 @@
+package com.j256.simplewebframework.json;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+
+import com.google.gson.Gson;
+import com.j256.simplewebframework.util.BufferedResponseWriter;
+
+/**
+ * Base class for the JSON writers generated by the {@link JsonWriterProcessor}. The generated writers write the same
+ * output as Gson's default reflective serialization but without the reflection. Fields which are not strings,
+ * primitives, or boxed primitives are handed to Gson.
+ * 
+ * @author graywatson
+ */
+public abstract class GeneratedJsonWriter<T> {
+
+	/**
+	 * Suffix added to the flattened class name of the type to get the name of its generated writer class.
+	 */
+	public static final String WRITER_CLASS_SUFFIX = "_JsonWriter";
+
+	private static final char[] HEX_CHARS = "0123456789abcdef".toCharArray();
+
+	/**
+	 * Write the value as a JSON object.
+	 */
+	public abstract void write(T value, BufferedResponseWriter writer, Gson gson) throws IOException;
+
+	/**
+	 * Return the name of the writer class generated for a type. Nested classes are flattened with underscores.
+	 */
+	public static String writerClassName(Class<?> type) {
+		return type.getName().replace('$', '_') + WRITER_CLASS_SUFFIX;
+	}
+
+	/**
+	 * Return the UTF-8 bytes of a quoted field name followed by a colon.
+	 */
+	protected static byte[] nameBytes(String name) {
+		StringBuilder sb = new StringBuilder(name.length() + 3);
+		sb.append('"');
+		appendEscaped(sb, name, true);
+		sb.append("\":");
+		try {
+			return sb.toString().getBytes(BufferedResponseWriter.UTF8_CHARSET);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException("UTF-8 charset not supported", e);
+		}
+	}
+
+	/**
+	 * Return a handle which reads a field that the generated code cannot access directly. The handle takes an Object
+	 * and returns the primitive type of the field or Object.
+	 */
+	protected static MethodHandle fieldGetter(Class<?> declaringClass, String fieldName) {
+		try {
+			Field field = declaringClass.getDeclaredField(fieldName);
+			field.setAccessible(true);
+			Class<?> returnType = (field.getType().isPrimitive() ? field.getType() : Object.class);
+			return MethodHandles.lookup().unreflectGetter(field)
+					.asType(MethodType.methodType(returnType, Object.class));
+		} catch (Exception e) {
+			throw new IllegalStateException("could not access field " + fieldName + " in " + declaringClass, e);
+		}
+	}
+
+	protected static void writeString(BufferedResponseWriter writer, String value, Gson gson) throws IOException {
+		boolean htmlSafe = gson.htmlSafe();
+		writer.write('"');
+		int last = 0;
+		int length = value.length();
+		for (int i = 0; i < length; i++) {
+			char ch = value.charAt(i);
+			String replacement = escapeChar(ch, htmlSafe);
+			if (replacement != null) {
+				if (last < i) {
+					writer.write(value, last, i - last);
+				}
+				writer.write(replacement);
+				last = i + 1;
+			}
+		}
+		if (last < length) {
+			writer.write(value, last, length - last);
+		}
+		writer.write('"');
+	}
+
+	protected static void writeChar(BufferedResponseWriter writer, char value, Gson gson) throws IOException {
+		writeString(writer, String.valueOf(value), gson);
+	}
+
+	protected static void writeFloat(BufferedResponseWriter writer, float value) throws IOException {
+		checkFloatingPoint(value);
+		writer.write(Float.toString(value));
+	}
+
+	protected static void writeDouble(BufferedResponseWriter writer, double value) throws IOException {
+		checkFloatingPoint(value);
+		writer.write(Double.toString(value));
+	}
+
+	/**
+	 * Write a field that the generated code does not handle itself with Gson.
+	 */
+	protected static void writeObject(BufferedResponseWriter writer, Object value, Gson gson) {
+		gson.toJson(value, writer);
+	}
+
+	/**
+	 * Rethrow the throwable from a method-handle invocation as an IOException or unchecked exception.
+	 */
+	protected static IOException rethrow(Throwable throwable) {
+		if (throwable instanceof IOException) {
+			return (IOException) throwable;
+		} else if (throwable instanceof RuntimeException) {
+			throw (RuntimeException) throwable;
+		} else if (throwable instanceof Error) {
+			throw (Error) throwable;
+		} else {
+			return new IOException("could not read field", throwable);
+		}
+	}
+
+	private static void checkFloatingPoint(double value) {
+		// same as gson without serializeSpecialFloatingPointValues
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			throw new IllegalArgumentException(value
+					+ " is not a valid double value as per JSON specification. To override this"
+					+ " behavior, use GsonBuilder.serializeSpecialFloatingPointValues() method.");
+		}
+	}
+
+	private static void appendEscaped(StringBuilder sb, String value, boolean htmlSafe) {
+		for (int i = 0; i < value.length(); i++) {
+			char ch = value.charAt(i);
+			String replacement = escapeChar(ch, htmlSafe);
+			if (replacement == null) {
+				sb.append(ch);
+			} else {
+				sb.append(replacement);
+			}
+		}
+	}
+
+	/**
+	 * Return the escape sequence for the character using the same rules as Gson's JsonWriter or null if none.
+	 */
+	private static String escapeChar(char ch, boolean htmlSafe) {
+		if (ch < 0x20) {
+			switch (ch) {
+				case '\t' :
+					return "\\t";
+				case '\b' :
+					return "\\b";
+				case '\n' :
+					return "\\n";
+				case '\r' :
+					return "\\r";
+				case '\f' :
+					return "\\f";
+				default :
+					return unicodeEscape(ch);
+			}
+		}
+		switch (ch) {
+			case '"' :
+				return "\\\"";
+			case '\\' :
+				return "\\\\";
+			case '\u2028' :
+				return "\\u2028";
+			case '\u2029' :
+				return "\\u2029";
+			case '<' :
+			case '>' :
+			case '&' :
+			case '=' :
+			case '\'' :
+				if (htmlSafe) {
+					return unicodeEscape(ch);
+				} else {
+					return null;
+				}
+			default :
+				return null;
+		}
+	}
+
+	private static String unicodeEscape(char ch) {
+		return new String(new char[] { '\\', 'u', HEX_CHARS[(ch >> 12) & 0xF], HEX_CHARS[(ch >> 8) & 0xF],
+				HEX_CHARS[(ch >> 4) & 0xF], HEX_CHARS[ch & 0xF] });
+	}
+}
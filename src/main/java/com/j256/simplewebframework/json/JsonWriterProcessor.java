@@ -0,0 +1,477 @@
+package com.j256.simplewebframework.json;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+/**
+ * Annotation processor which generates a {@link GeneratedJsonWriter} for the return type of each @WebMethod which
+ * produces application/json. The {@link com.j256.simplewebframework.displayer.JsonResultDisplayer} picks the writers up
+ * at runtime by their class name. Types that Gson would not serialize reflectively, such as collections, maps, enums,
+ * and generic types, or that use @JsonAdapter are skipped and left to Gson.
+ * 
+ * <p>
+ * This is not registered as a service in the jar so it needs to be enabled in the compiler configuration of the project
+ * with the web-services. For example with maven:
+ * </p>
+ * 
+ * <pre>
+ * &lt;annotationProcessors&gt;
+ *   &lt;annotationProcessor&gt;com.j256.simplewebframework.json.JsonWriterProcessor&lt;/annotationProcessor&gt;
+ * &lt;/annotationProcessors&gt;
+ * </pre>
+ * 
+ * @author graywatson
+ */
+@SupportedAnnotationTypes("javax.jws.WebMethod")
+public class JsonWriterProcessor extends AbstractProcessor {
+
+	private static final String WEB_METHOD_ANNOTATION = "javax.jws.WebMethod";
+	private static final String PRODUCES_ANNOTATION = "javax.ws.rs.Produces";
+	private static final String SERIALIZED_NAME_ANNOTATION = "com.google.gson.annotations.SerializedName";
+	private static final String JSON_ADAPTER_ANNOTATION = "com.google.gson.annotations.JsonAdapter";
+	private static final String JSON_CONTENT_TYPE = "application/json";
+
+	private final Set<String> processedTypes = new HashSet<String>();
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		TypeElement webMethodElement = processingEnv.getElementUtils().getTypeElement(WEB_METHOD_ANNOTATION);
+		if (webMethodElement == null) {
+			return false;
+		}
+		for (Element element : roundEnv.getElementsAnnotatedWith(webMethodElement)) {
+			if (element.getKind() != ElementKind.METHOD || !producesJson(element)) {
+				continue;
+			}
+			TypeMirror returnType = ((ExecutableElement) element).getReturnType();
+			if (returnType.getKind() != TypeKind.DECLARED) {
+				continue;
+			}
+			TypeElement type = (TypeElement) ((DeclaredType) returnType).asElement();
+			if (!processedTypes.add(type.getQualifiedName().toString())) {
+				continue;
+			}
+			try {
+				generateWriter(type);
+			} catch (IOException e) {
+				processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+						"could not write JSON writer for " + type + ": " + e.getMessage(), type);
+			}
+		}
+		// we don't claim the annotation
+		return false;
+	}
+
+	/**
+	 * Returns true if the first @Produces type of the method, or its class if the method has none, is JSON.
+	 */
+	private boolean producesJson(Element method) {
+		String contentType = findProducesType(method);
+		if (contentType == null) {
+			contentType = findProducesType(method.getEnclosingElement());
+		}
+		return (contentType != null && contentType.startsWith(JSON_CONTENT_TYPE));
+	}
+
+	private String findProducesType(Element element) {
+		AnnotationValue value = findAnnotationValue(element, PRODUCES_ANNOTATION);
+		if (value == null) {
+			return null;
+		}
+		Object contentTypes = value.getValue();
+		if (contentTypes instanceof List) {
+			List<?> list = (List<?>) contentTypes;
+			if (list.isEmpty()) {
+				return null;
+			}
+			return String.valueOf(((AnnotationValue) list.get(0)).getValue());
+		} else {
+			return String.valueOf(contentTypes);
+		}
+	}
+
+	private void generateWriter(TypeElement type) throws IOException {
+		String skipReason = findSkipReason(type);
+		List<FieldInfo> fieldInfos = null;
+		if (skipReason == null) {
+			fieldInfos = new ArrayList<FieldInfo>();
+			skipReason = findFields(type, fieldInfos);
+		}
+		if (skipReason != null) {
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+					"not generating JSON writer for " + type + ": " + skipReason);
+			return;
+		}
+
+		String packageName = getPackage(type).getQualifiedName().toString();
+		String writerName = flattenedName(type) + GeneratedJsonWriter.WRITER_CLASS_SUFFIX;
+		String qualifiedWriterName = (packageName.length() == 0 ? writerName : packageName + "." + writerName);
+		String typeName = type.getQualifiedName().toString();
+
+		PrintWriter writer = new PrintWriter(processingEnv.getFiler().createSourceFile(qualifiedWriterName, type)
+				.openWriter());
+		try {
+			if (packageName.length() > 0) {
+				writer.println("package " + packageName + ";");
+				writer.println();
+			}
+			writer.println("import java.io.IOException;");
+			writer.println("import java.lang.invoke.MethodHandle;");
+			writer.println();
+			writer.println("import com.google.gson.Gson;");
+			writer.println("import com.j256.simplewebframework.json.GeneratedJsonWriter;");
+			writer.println("import com.j256.simplewebframework.util.BufferedResponseWriter;");
+			writer.println();
+			writer.println("/**");
+			writer.println(" * JSON writer for {@link " + typeName + "} generated by "
+					+ JsonWriterProcessor.class.getSimpleName() + ". Do not edit.");
+			writer.println(" */");
+			writer.println("public final class " + writerName + " extends GeneratedJsonWriter<" + typeName + "> {");
+			writer.println();
+			for (int i = 0; i < fieldInfos.size(); i++) {
+				FieldInfo info = fieldInfos.get(i);
+				writer.println("\tprivate static final byte[] NAME" + i + " = nameBytes(\"" + escapeJava(info.jsonName)
+						+ "\");");
+				if (info.getter) {
+					writer.println("\tprivate static final MethodHandle GETTER" + i + " = fieldGetter("
+							+ info.declaringClass + ".class, \"" + info.fieldName + "\");");
+				}
+			}
+			writer.println();
+			writer.println("\t@Override");
+			writer.println("\tpublic void write(" + typeName
+					+ " value, BufferedResponseWriter writer, Gson gson) throws IOException {");
+			writer.println("\t\tboolean serializeNulls = gson.serializeNulls();");
+			writer.println("\t\tboolean comma = false;");
+			writer.println("\t\twriter.write('{');");
+			writer.println("\t\ttry {");
+			for (int i = 0; i < fieldInfos.size(); i++) {
+				writeField(writer, fieldInfos.get(i), i);
+			}
+			writer.println("\t\t} catch (Throwable th) {");
+			writer.println("\t\t\tthrow rethrow(th);");
+			writer.println("\t\t}");
+			writer.println("\t\twriter.write('}');");
+			writer.println("\t}");
+			writer.println("}");
+		} finally {
+			writer.close();
+		}
+	}
+
+	private void writeField(PrintWriter writer, FieldInfo info, int index) {
+		String access;
+		if (info.getter) {
+			String cast = (info.kind.primitive ? info.kind.typeName : "Object");
+			access = "(" + cast + ") GETTER" + index + ".invokeExact((Object) value)";
+			if (!info.kind.primitive && info.kind != FieldKind.OBJECT) {
+				access = "(" + info.kind.typeName + ") " + access;
+			}
+		} else {
+			access = "value." + info.fieldName;
+		}
+		writer.println("\t\t\t{");
+		writer.println("\t\t\t\t" + info.kind.typeName + " field = " + access + ";");
+		String indent = "\t\t\t\t";
+		if (!info.kind.primitive) {
+			writer.println("\t\t\t\tif (field == null) {");
+			writer.println("\t\t\t\t\tif (serializeNulls) {");
+			writer.println("\t\t\t\t\t\tif (comma) {");
+			writer.println("\t\t\t\t\t\t\twriter.write(',');");
+			writer.println("\t\t\t\t\t\t}");
+			writer.println("\t\t\t\t\t\tcomma = true;");
+			writer.println("\t\t\t\t\t\twriter.writeUtf8(NAME" + index + ");");
+			writer.println("\t\t\t\t\t\twriter.write(\"null\");");
+			writer.println("\t\t\t\t\t}");
+			if (info.kind == FieldKind.OBJECT) {
+				// gson skips fields that refer back to the object to avoid recursion
+				writer.println("\t\t\t\t} else if (field != value) {");
+			} else {
+				writer.println("\t\t\t\t} else {");
+			}
+			indent = "\t\t\t\t\t";
+		}
+		writer.println(indent + "if (comma) {");
+		writer.println(indent + "\twriter.write(',');");
+		writer.println(indent + "}");
+		writer.println(indent + "comma = true;");
+		writer.println(indent + "writer.writeUtf8(NAME" + index + ");");
+		writer.println(indent + info.kind.writeStatement + ";");
+		if (!info.kind.primitive) {
+			writer.println("\t\t\t\t}");
+		}
+		writer.println("\t\t\t}");
+	}
+
+	/**
+	 * Return the reason why we can't generate a writer for the type or null if we can.
+	 */
+	private String findSkipReason(TypeElement type) {
+		if (type.getKind() != ElementKind.CLASS) {
+			return "not a class";
+		}
+		if (type.getModifiers().contains(Modifier.ABSTRACT)) {
+			return "abstract class";
+		}
+		if (!type.getTypeParameters().isEmpty()) {
+			return "generic class";
+		}
+		String typeName = type.getQualifiedName().toString();
+		if (typeName.startsWith("java.") || typeName.startsWith("javax.")) {
+			return "JDK class";
+		}
+		for (Element element = type; element instanceof TypeElement; element = element.getEnclosingElement()) {
+			if (element.getModifiers().contains(Modifier.PRIVATE)) {
+				return "private class";
+			}
+			if (element.getEnclosingElement() instanceof TypeElement
+					&& !element.getModifiers().contains(Modifier.STATIC)) {
+				return "inner class";
+			}
+		}
+		if (isSubtype(type, "java.util.Collection") || isSubtype(type, "java.util.Map")) {
+			return "collection or map";
+		}
+		return null;
+	}
+
+	/**
+	 * Find the fields that gson would serialize in the same order.
+	 * 
+	 * @return The reason why we can't generate a writer for the type or null if we can.
+	 */
+	private String findFields(TypeElement type, List<FieldInfo> fieldInfos) {
+		PackageElement writerPackage = getPackage(type);
+		Set<String> jsonNames = new HashSet<String>();
+		// like gson, we start with the class and then go up through the super-classes
+		for (TypeElement current = type; current != null; current = getSuperclass(current)) {
+			if (current.getQualifiedName().contentEquals("java.lang.Object")) {
+				break;
+			}
+			if (hasAnnotation(current, JSON_ADAPTER_ANNOTATION)) {
+				return "uses @JsonAdapter";
+			}
+			boolean samePackage = getPackage(current).equals(writerPackage);
+			boolean publicClass = current.getModifiers().contains(Modifier.PUBLIC);
+			for (VariableElement field : ElementFilter.fieldsIn(current.getEnclosedElements())) {
+				Set<Modifier> modifiers = field.getModifiers();
+				if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)) {
+					continue;
+				}
+				if (hasAnnotation(field, JSON_ADAPTER_ANNOTATION)) {
+					return "field " + field + " uses @JsonAdapter";
+				}
+				String fieldName = field.getSimpleName().toString();
+				String jsonName = fieldName;
+				AnnotationValue serializedName = findAnnotationValue(field, SERIALIZED_NAME_ANNOTATION);
+				if (serializedName != null) {
+					jsonName = String.valueOf(serializedName.getValue());
+				}
+				if (!jsonNames.add(jsonName)) {
+					return "multiple fields named " + jsonName;
+				}
+				boolean direct;
+				if (modifiers.contains(Modifier.PRIVATE)) {
+					direct = false;
+				} else if (modifiers.contains(Modifier.PUBLIC) && publicClass) {
+					direct = true;
+				} else {
+					direct = samePackage;
+				}
+				if (!direct && !samePackage && !publicClass) {
+					// we can't even reference the class to get the field handle
+					return "field " + fieldName + " in class " + current + " is not accessible";
+				}
+				fieldInfos.add(new FieldInfo(fieldName, jsonName, current.getQualifiedName().toString(), !direct,
+						FieldKind.fromType(field.asType())));
+			}
+		}
+		return null;
+	}
+
+	private TypeElement getSuperclass(TypeElement type) {
+		TypeMirror superclass = type.getSuperclass();
+		if (superclass.getKind() != TypeKind.DECLARED) {
+			return null;
+		}
+		return (TypeElement) ((DeclaredType) superclass).asElement();
+	}
+
+	private boolean isSubtype(TypeElement type, String superTypeName) {
+		TypeElement superType = processingEnv.getElementUtils().getTypeElement(superTypeName);
+		if (superType == null) {
+			return false;
+		}
+		return processingEnv.getTypeUtils().isAssignable(processingEnv.getTypeUtils().erasure(type.asType()),
+				processingEnv.getTypeUtils().erasure(superType.asType()));
+	}
+
+	private PackageElement getPackage(Element element) {
+		return processingEnv.getElementUtils().getPackageOf(element);
+	}
+
+	private boolean hasAnnotation(Element element, String annotationName) {
+		for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+			if (((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(annotationName)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private AnnotationValue findAnnotationValue(Element element, String annotationName) {
+		for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+			if (!((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName()
+					.contentEquals(annotationName)) {
+				continue;
+			}
+			for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : mirror.getElementValues()
+					.entrySet()) {
+				if (entry.getKey().getSimpleName().contentEquals("value")) {
+					return entry.getValue();
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Nested classes are flattened with underscores which matches {@link GeneratedJsonWriter#writerClassName(Class)}.
+	 */
+	private static String flattenedName(TypeElement type) {
+		StringBuilder sb = new StringBuilder(type.getSimpleName());
+		for (Element element = type.getEnclosingElement(); element instanceof TypeElement; element =
+				element.getEnclosingElement()) {
+			sb.insert(0, '_').insert(0, element.getSimpleName());
+		}
+		return sb.toString();
+	}
+
+	private static String escapeJava(String str) {
+		StringBuilder sb = new StringBuilder(str.length());
+		for (int i = 0; i < str.length(); i++) {
+			char ch = str.charAt(i);
+			if (ch == '"' || ch == '\\') {
+				sb.append('\\').append(ch);
+			} else if (ch < 0x20 || ch > 0x7e) {
+				sb.append(String.format("\\u%04x", (int) ch));
+			} else {
+				sb.append(ch);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * How a field is written.
+	 */
+	private enum FieldKind {
+		BOOLEAN(true, "boolean", "writer.write(field ? \"true\" : \"false\")"),
+		BYTE(true, "byte", "writer.writeLong(field)"),
+		SHORT(true, "short", "writer.writeLong(field)"),
+		INT(true, "int", "writer.writeLong(field)"),
+		LONG(true, "long", "writer.writeLong(field)"),
+		CHAR(true, "char", "writeChar(writer, field, gson)"),
+		FLOAT(true, "float", "writeFloat(writer, field)"),
+		DOUBLE(true, "double", "writeDouble(writer, field)"),
+		BOXED_BOOLEAN(false, "Boolean", "writer.write(field.booleanValue() ? \"true\" : \"false\")"),
+		BOXED_BYTE(false, "Byte", "writer.writeLong(field.longValue())"),
+		BOXED_SHORT(false, "Short", "writer.writeLong(field.longValue())"),
+		BOXED_INT(false, "Integer", "writer.writeLong(field.longValue())"),
+		BOXED_LONG(false, "Long", "writer.writeLong(field.longValue())"),
+		BOXED_CHAR(false, "Character", "writeChar(writer, field.charValue(), gson)"),
+		BOXED_FLOAT(false, "Float", "writeFloat(writer, field.floatValue())"),
+		BOXED_DOUBLE(false, "Double", "writeDouble(writer, field.doubleValue())"),
+		STRING(false, "String", "writeString(writer, field, gson)"),
+		OBJECT(false, "Object", "writeObject(writer, field, gson)");
+
+		final boolean primitive;
+		final String typeName;
+		final String writeStatement;
+
+		private FieldKind(boolean primitive, String typeName, String writeStatement) {
+			this.primitive = primitive;
+			this.typeName = typeName;
+			this.writeStatement = writeStatement;
+		}
+
+		static FieldKind fromType(TypeMirror type) {
+			switch (type.getKind()) {
+				case BOOLEAN :
+					return BOOLEAN;
+				case BYTE :
+					return BYTE;
+				case SHORT :
+					return SHORT;
+				case INT :
+					return INT;
+				case LONG :
+					return LONG;
+				case CHAR :
+					return CHAR;
+				case FLOAT :
+					return FLOAT;
+				case DOUBLE :
+					return DOUBLE;
+				case DECLARED :
+					String name = ((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName().toString();
+					for (FieldKind kind : values()) {
+						if (!kind.primitive && kind != OBJECT && name.equals("java.lang." + kind.typeName)) {
+							return kind;
+						}
+					}
+					return OBJECT;
+				default :
+					return OBJECT;
+			}
+		}
+	}
+
+	/**
+	 * Information about a field that we are writing.
+	 */
+	private static class FieldInfo {
+		final String fieldName;
+		final String jsonName;
+		final String declaringClass;
+		final boolean getter;
+		final FieldKind kind;
+
+		public FieldInfo(String fieldName, String jsonName, String declaringClass, boolean getter, FieldKind kind) {
+			this.fieldName = fieldName;
+			this.jsonName = jsonName;
+			this.declaringClass = declaringClass;
+			this.getter = getter;
+			this.kind = kind;
+		}
+	}
+}
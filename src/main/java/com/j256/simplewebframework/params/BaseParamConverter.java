@@ -0,0 +1,51 @@
+package com.j256.simplewebframework.params;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+
+/**
+ * Base class for converters of object types which handles the default value and builds arrays of the right component
+ * type out of the results of {@link #convertString(String)}. Extend this if you are registering your own converters
+ * with the {@link ParamConverterRegistry} and want array and list parameters to work.
+ * 
+ * @author graywatson
+ */
+public abstract class BaseParamConverter implements ParamConverter {
+
+	private final Class<?> clazz;
+
+	protected BaseParamConverter(Class<?> clazz) {
+		this.clazz = clazz;
+	}
+
+	@Override
+	public abstract Object convertString(String param) throws IOException;
+
+	@Override
+	public Object getDefaultValue() {
+		return null;
+	}
+
+	@Override
+	public Object convertStringArray(String[] params) throws IOException {
+		Object result = Array.newInstance(clazz, params.length);
+		for (int i = 0; i < params.length; i++) {
+			if (params[i] != null) {
+				Array.set(result, i, convertString(params[i]));
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public boolean isCanBeNull() {
+		return true;
+	}
+
+	/**
+	 * Return the class that this converter produces.
+	 */
+	public Class<?> getConvertedClass() {
+		return clazz;
+	}
+}
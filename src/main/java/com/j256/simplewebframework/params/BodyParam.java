@@ -0,0 +1,18 @@
+package com.j256.simplewebframework.params;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Method parameter which is decoded from the request body by the {@link RequestBodyReader} registered for the
+ * Content-Type of the request.
+ * 
+ * @author graywatson
+ */
+@Target({ ElementType.PARAMETER })
+@Retention(RetentionPolicy.RUNTIME)
+public @interface BodyParam {
+	// marker interface
+}
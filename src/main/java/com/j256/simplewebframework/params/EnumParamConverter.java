@@ -0,0 +1,52 @@
+package com.j256.simplewebframework.params;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Converts a parameter into an enum constant using a name to constant map that is built once when the converter is
+ * created. This avoids the exception that {@link Enum#valueOf(Class, String)} throws on an unknown name.
+ * 
+ * @author graywatson
+ */
+public class EnumParamConverter extends BaseParamConverter {
+
+	private final Map<String, Object> nameMap;
+	private final boolean caseInsensitive;
+
+	public EnumParamConverter(Class<?> enumClass, boolean caseInsensitive) {
+		super(enumClass);
+		if (!enumClass.isEnum()) {
+			throw new IllegalArgumentException("Class " + enumClass + " is not an enum");
+		}
+		this.caseInsensitive = caseInsensitive;
+		Object[] constants = enumClass.getEnumConstants();
+		this.nameMap = new HashMap<String, Object>(constants.length * 2);
+		for (Object constant : constants) {
+			String name = ((Enum<?>) constant).name();
+			if (caseInsensitive) {
+				name = name.toLowerCase(Locale.ENGLISH);
+			}
+			nameMap.put(name, constant);
+		}
+	}
+
+	@Override
+	public Object convertString(String param) throws IOException {
+		if (param == null) {
+			return null;
+		}
+		Object value;
+		if (caseInsensitive) {
+			value = nameMap.get(param.toLowerCase(Locale.ENGLISH));
+		} else {
+			value = nameMap.get(param);
+		}
+		if (value == null) {
+			throw new ParamConversionException(getConvertedClass().getSimpleName(), param);
+		}
+		return value;
+	}
+}
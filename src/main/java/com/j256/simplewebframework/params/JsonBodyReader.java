@@ -0,0 +1,49 @@
+package com.j256.simplewebframework.params;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.Type;
+
+import javax.servlet.http.HttpServletRequest;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+/**
+ * Reads JSON request bodies with the optional {@link Gson} package (com.google.gson).
+ * 
+ * @author graywatson
+ */
+public class JsonBodyReader implements RequestBodyReader {
+
+	private static final String DEFAULT_CHARSET = "UTF-8";
+
+	private Gson gson = new Gson();
+
+	@Override
+	public String[] getHandledMimeTypes() {
+		return new String[] { "application/json" };
+	}
+
+	@Override
+	public Object readBody(HttpServletRequest request, Type type) throws IOException {
+		String charset = request.getCharacterEncoding();
+		if (charset == null) {
+			charset = DEFAULT_CHARSET;
+		}
+		Reader reader = new InputStreamReader(request.getInputStream(), charset);
+		try {
+			return gson.fromJson(reader, type);
+		} catch (JsonParseException e) {
+			throw new ParamConversionException(type, "request body", e);
+		}
+	}
+
+	/**
+	 * Set the Gson instance used to read the bodies. Default is new Gson().
+	 */
+	public void setGson(Gson gson) {
+		this.gson = gson;
+	}
+}
@@ -1,41 +1,47 @@
 package com.j256.simplewebframework.params;
 
 import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 
 /**
- * Handles the conversion of an object to a parameter.
+ * Handles the conversion of an object to a parameter. The constructor or static method is looked up and bound to a
+ * {@link MethodHandle} once when the converter is created so there is no reflection per conversion.
  * 
  * @author graywatson
  */
-public class ObjectParamConverter implements ParamConverter {
+public class ObjectParamConverter extends BaseParamConverter {
 
-	private final Class<?> clazz;
-	private final Constructor<?> constructor;
-	private final Method method;
+	private static final MethodType CONVERT_TYPE = MethodType.methodType(Object.class, String.class);
 
-	private ObjectParamConverter(Class<?> clazz, Constructor<?> constructor) {
-		this.clazz = clazz;
-		this.constructor = constructor;
-		this.method = null;
-	}
+	private final MethodHandle handle;
 
-	private ObjectParamConverter(Class<?> clazz, Method method) {
-		this.clazz = clazz;
-		this.constructor = null;
-		this.method = method;
+	private ObjectParamConverter(Class<?> clazz, MethodHandle handle) {
+		super(clazz);
+		this.handle = handle.asType(CONVERT_TYPE);
 	}
 
+	/**
+	 * Create a converter for the class using a constructor that takes a single string argument or a static method
+	 * named valueOf() or fromString() which accepts a single string argument.
+	 * 
+	 * @return The converter or null if the class has no such constructor or method.
+	 */
 	public static ObjectParamConverter create(Class<?> clazz) {
-		Constructor<?> constructor = null;
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
 		try {
 			// constructor that accepts a single String argument
-			constructor = clazz.getConstructor(String.class);
-			return new ObjectParamConverter(clazz, constructor);
+			Constructor<?> constructor = clazz.getConstructor(String.class);
+			constructor.setAccessible(true);
+			return new ObjectParamConverter(clazz, lookup.unreflectConstructor(constructor));
 		} catch (NoSuchMethodException e) {
 			// ignore it
+		} catch (IllegalAccessException e) {
+			return null;
 		}
 
 		// static method named valueOf() or fromString() that accepts a single String argument
@@ -45,39 +51,27 @@ public class ObjectParamConverter implements ParamConverter {
 		}
 		if (method == null) {
 			return null;
-		} else {
-			return new ObjectParamConverter(clazz, method);
 		}
-	}
-
-	@Override
-	public Object getDefaultValue() {
-		return null;
+		try {
+			method.setAccessible(true);
+			return new ObjectParamConverter(clazz, lookup.unreflect(method));
+		} catch (IllegalAccessException e) {
+			return null;
+		}
 	}
 
 	@Override
 	public Object convertString(String param) throws IOException {
 		try {
-			if (constructor == null) {
-				return method.invoke(null, param);
-			} else {
-				return constructor.newInstance(param);
-			}
-		} catch (Exception e) {
-			throw new IOException("could not instantiate an object for class " + clazz + " with param: " + param, e);
+			return (Object) handle.invokeExact(param);
+		} catch (Error e) {
+			// out of memory and the like are not the fault of the parameter
+			throw e;
+		} catch (Throwable th) {
+			throw new ParamConversionException(getConvertedClass().getSimpleName(), param, th);
 		}
 	}
 
-	@Override
-	public Object convertStringArray(String[] params) {
-		return null;
-	}
-
-	@Override
-	public boolean isCanBeNull() {
-		return true;
-	}
-
 	/**
 	 * Find the appropriate static method that takes a string argument.
 	 */
@@ -96,6 +90,5 @@ public class ObjectParamConverter implements ParamConverter {
 		} else {
 			return null;
 		}
-
 	}
 }
@@ -0,0 +1,50 @@
+package com.j256.simplewebframework.params;
+
+import java.io.IOException;
+
+/**
+ * Exception thrown when a parameter value could not be converted. Because bad parameters are often sent in volume by
+ * scanners, this does not fill in its stack-trace and the message is only built if it is asked for.
+ * 
+ * @author graywatson
+ */
+public class ParamConversionException extends IOException {
+
+	private static final long serialVersionUID = 2849366123806549527L;
+
+	private final Object target;
+	private final String value;
+
+	/**
+	 * @param target
+	 *            What we were converting to. Its toString() is only called if the message is requested.
+	 * @param value
+	 *            The value that could not be converted.
+	 */
+	public ParamConversionException(Object target, String value) {
+		this(target, value, null);
+	}
+
+	public ParamConversionException(Object target, String value, Throwable cause) {
+		super(null, cause);
+		this.target = target;
+		this.value = value;
+	}
+
+	@Override
+	public String getMessage() {
+		return "could not convert " + target + " parameter value '" + value + "'";
+	}
+
+	public String getValue() {
+		return value;
+	}
+
+	/**
+	 * No stack-trace is needed to explain a bad parameter value.
+	 */
+	@Override
+	public synchronized Throwable fillInStackTrace() {
+		return this;
+	}
+}
@@ -0,0 +1,108 @@
+package com.j256.simplewebframework.params;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.j256.simplewebframework.util.RequestUtils;
+
+/**
+ * Registry of the {@link ParamConverter}s that turn request strings into the types of the web-method parameters.
+ * Converters registered here take precedence over the built-in primitive and string converters. If no converter has
+ * been registered for a type then enums get an {@link EnumParamConverter} and other classes get an
+ * {@link ObjectParamConverter} if they have a string constructor or a static valueOf() or fromString() method. Looked
+ * up converters are cached so they are only built once per type.
+ * 
+ * <p>
+ * <b>NOTE:</b> Converters are resolved when the web-service is registered so they need to be registered before then.
+ * Array and {@code List<T>} parameters use the {@link ParamConverter#convertStringArray(String[])} method of the
+ * element type's converter so extending {@link BaseParamConverter} is recommended.
+ * </p>
+ * 
+ * @author graywatson
+ */
+public class ParamConverterRegistry {
+
+	private final Map<Class<?>, ParamConverter> converterMap = new ConcurrentHashMap<Class<?>, ParamConverter>();
+	private final Map<String, RequestBodyReader> bodyReaderMap = new ConcurrentHashMap<String, RequestBodyReader>();
+	private boolean enumsCaseInsensitive;
+
+	/**
+	 * Register a converter for a particular type which will override any built-in converters.
+	 */
+	public void registerConverter(Class<?> clazz, ParamConverter converter) {
+		converterMap.put(clazz, converter);
+	}
+
+	/**
+	 * Find the converter for the type.
+	 * 
+	 * @return The converter or null if there is none registered and one cannot be built for the type.
+	 */
+	public ParamConverter findConverter(Class<?> clazz) {
+		ParamConverter converter = converterMap.get(clazz);
+		if (converter != null) {
+			return converter;
+		}
+		converter = ParamType.classToConverter(clazz);
+		if (converter != null) {
+			return converter;
+		}
+		if (clazz.isEnum()) {
+			converter = new EnumParamConverter(clazz, enumsCaseInsensitive);
+		} else {
+			converter = ObjectParamConverter.create(clazz);
+			if (converter == null) {
+				return null;
+			}
+		}
+		converterMap.put(clazz, converter);
+		return converter;
+	}
+
+	/**
+	 * Register a reader for the request bodies of the mime-types that it handles.
+	 */
+	public void registerBodyReader(RequestBodyReader bodyReader) {
+		for (String mimeType : bodyReader.getHandledMimeTypes()) {
+			bodyReaderMap.put(mimeType.toLowerCase(Locale.ENGLISH), bodyReader);
+		}
+	}
+
+	/**
+	 * Find the reader for a request Content-Type such as "application/json; charset=UTF-8".
+	 * 
+	 * @return The reader or null if none is registered for the type or the type is null.
+	 */
+	public RequestBodyReader findBodyReader(String contentType) {
+		if (contentType == null) {
+			return null;
+		} else {
+			return bodyReaderMap.get(RequestUtils.stripParams(contentType).toLowerCase(Locale.ENGLISH));
+		}
+	}
+
+	/**
+	 * Set to true to have enum parameters match their constant names regardless of case. Default is false.
+	 */
+	public void setEnumsCaseInsensitive(boolean enumsCaseInsensitive) {
+		this.enumsCaseInsensitive = enumsCaseInsensitive;
+	}
+
+	/**
+	 * Register a map of converters. This is here for spring wiring.
+	 */
+	public void setConverters(Map<Class<?>, ParamConverter> converters) {
+		converterMap.putAll(converters);
+	}
+
+	/**
+	 * Register a list of body readers. This is here for spring wiring.
+	 */
+	public void setBodyReaders(List<RequestBodyReader> bodyReaders) {
+		for (RequestBodyReader bodyReader : bodyReaders) {
+			registerBodyReader(bodyReader);
+		}
+	}
+}
@@ -1,9 +1,15 @@
 package com.j256.simplewebframework.params;
 
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -18,6 +24,9 @@ import javax.ws.rs.QueryParam;
 import org.eclipse.jetty.server.Request;
 
 import com.j256.simplewebframework.handler.RequestContext;
+import com.j256.simplewebframework.logger.Log.Level;
+import com.j256.simplewebframework.logger.Logger;
+import com.j256.simplewebframework.logger.LoggerFactory;
 import com.j256.simplewebframework.util.ResponseUtils;
 import com.j256.simplewebframework.util.ResponseUtils.HttpErrorCode;
 
@@ -28,31 +37,51 @@ import com.j256.simplewebframework.util.ResponseUtils.HttpErrorCode;
  */
 public class ParamInfo {
 
+	private static final Logger logger = LoggerFactory.getLogger(ParamInfo.class);
+	private static final String ERROR_CHARSET = "UTF-8";
+
 	private final Object webService;
 	private final Method method;
 	private final int paramNum;
 	private final ParamConverter converter;
 	private final boolean isArray;
+	private final boolean isList;
 	private final Class<?> paramType;
+	private final Type genericType;
+	private final ParamConverterRegistry converterRegistry;
 	private String name;
 	private String defaultValue;
 	private ParamSource paramSource;
 	private int pathPartIndex;
+	private final String missingReason;
+	private final byte[] missingBody;
+	private final String invalidReason;
+	private final byte[] invalidBody;
+	private final AtomicLong failureCount = new AtomicLong();
+	private int failureLogSampleRate;
 
-	public ParamInfo(Object webService, Method method, int paramNum, Class<?> type, Annotation[] annotations,
-			String[] pathParts) {
+	public ParamInfo(Object webService, Method method, int paramNum, Class<?> type, Type genericType,
+			Annotation[] annotations, String[] pathParts, ParamConverterRegistry converterRegistry) {
 
 		this.webService = webService;
 		this.method = method;
 		this.paramNum = paramNum;
 		this.paramType = type;
+		this.genericType = genericType;
+		this.converterRegistry = converterRegistry;
 
+		// list parameters are converted as arrays of their element type and then wrapped
+		Class<?> listElementType = null;
 		if (type.isArray()) {
 			this.isArray = true;
 			type = type.getComponentType();
 		} else {
 			this.isArray = false;
+			if (type == List.class || type == Collection.class) {
+				listElementType = findListElementType(genericType);
+			}
 		}
+		this.isList = (listElementType != null);
 
 		// special types that automatically get context information
 		if (type == RequestContext.class || type == HttpServletRequest.class || type == HttpServletResponse.class) {
@@ -63,7 +92,7 @@ public class ParamInfo {
 			if (anno instanceof QueryParam) {
 				QueryParam queryParam = (QueryParam) anno;
 				this.name = queryParam.value();
-				if (this.isArray) {
+				if (this.isArray || this.isList) {
 					this.paramSource = ParamSource.QUERY_ARRAY;
 				} else {
 					this.paramSource = ParamSource.QUERY;
@@ -90,7 +119,7 @@ public class ParamInfo {
 				this.name = cookieParam.value();
 				this.paramSource = ParamSource.COOKIE;
 			} else if (anno instanceof DefaultValue) {
-				if (this.isArray) {
+				if (this.isArray || this.isList) {
 					throw new IllegalArgumentException("Cannot specify a default value for an array type for " + this);
 				} else {
 					this.defaultValue = ((DefaultValue) anno).value();
@@ -143,10 +172,13 @@ public class ParamInfo {
 				} else {
 					throw new IllegalArgumentException("@ClientAddrsParam class must be of type String[] for " + this);
 				}
+			} else if (anno instanceof BodyParam) {
+				// annotation is just a marker annotation so no name
+				this.paramSource = ParamSource.BODY;
 			} else if (anno instanceof FormParam) {
 				FormParam formParam = (FormParam) anno;
 				this.name = formParam.value();
-				if (this.isArray) {
+				if (this.isArray || this.isList) {
 					this.paramSource = ParamSource.QUERY_ARRAY;
 				} else {
 					this.paramSource = ParamSource.QUERY;
@@ -160,13 +192,22 @@ public class ParamInfo {
 		}
 
 		if (this.paramSource.isNeedsConverter()) {
-			this.converter = ParamType.classToConverter(type);
+			if (this.isList) {
+				type = listElementType;
+			}
+			this.converter = converterRegistry.findConverter(type);
 			if (this.converter == null) {
 				throw new IllegalArgumentException("Unknown parameter type " + type + " for " + this);
 			}
 		} else {
 			this.converter = ParamType.getNoopConverter();
 		}
+
+		// bad requests are common enough that we render their responses up front
+		this.missingReason = "missing value for " + getWebError();
+		this.missingBody = getErrorBytes(missingReason);
+		this.invalidReason = "unable to process value for " + getWebError();
+		this.invalidBody = getErrorBytes(invalidReason);
 	}
 
 	/**
@@ -184,19 +225,34 @@ public class ParamInfo {
 			} else if (paramSource.isDefaultValueAllowed()) {
 				return getDefaultValue();
 			} else {
-				ResponseUtils.sendError(response, HttpErrorCode.BAD_REQUEST, "missing value for " + this.getWebError());
+				recordFailure(null);
+				ResponseUtils.sendErrorBody(response, HttpErrorCode.BAD_REQUEST, missingReason, missingBody);
 				return null;
 			}
 		} catch (Exception e) {
-			e.printStackTrace();
+			recordFailure(e);
 			if (!response.isCommitted()) {
-				ResponseUtils.sendError(response, HttpErrorCode.BAD_REQUEST,
-						"unable to process value for " + this.getWebError() + ": " + e.getMessage());
+				ResponseUtils.sendErrorBody(response, HttpErrorCode.BAD_REQUEST, invalidReason, invalidBody);
 			}
 			return null;
 		}
 	}
 
+	/**
+	 * Return the number of requests where this parameter was missing or could not be converted.
+	 */
+	public long getFailureCount() {
+		return failureCount.get();
+	}
+
+	/**
+	 * Set the sample rate of the debug log messages about failures. If set to 100 then the first and every 100th failure
+	 * after that is logged. Default is 0 which disables the messages.
+	 */
+	public void setFailureLogSampleRate(int failureLogSampleRate) {
+		this.failureLogSampleRate = failureLogSampleRate;
+	}
+
 	/**
 	 * Convert a string parameter into a native value.
 	 */
@@ -212,7 +268,27 @@ public class ParamInfo {
 	 * Convert a string array parameter into a native value.
 	 */
 	Object convertStringArray(String[] values) throws IOException {
-		return converter.convertStringArray(values);
+		if (values == null) {
+			return null;
+		}
+		Object result = converter.convertStringArray(values);
+		if (isList && result != null) {
+			return Arrays.asList((Object[]) result);
+		} else {
+			return result;
+		}
+	}
+
+	/**
+	 * Read the request body with the reader registered for its Content-Type.
+	 */
+	Object readBody(HttpServletRequest request) throws IOException {
+		RequestBodyReader bodyReader = converterRegistry.findBodyReader(request.getContentType());
+		if (bodyReader == null) {
+			throw new ParamConversionException(genericType, "no body reader for Content-Type "
+					+ request.getContentType());
+		}
+		return bodyReader.readBody(request, genericType);
 	}
 
 	String getName() {
@@ -250,7 +326,7 @@ public class ParamInfo {
 	}
 
 	private Object getDefaultValue() throws IOException {
-		if (isArray) {
+		if (isArray || isList) {
 			return null;
 		} else if (defaultValue == null) {
 			return converter.getDefaultValue();
@@ -258,4 +334,39 @@ public class ParamInfo {
 			return converter.convertString(defaultValue);
 		}
 	}
+
+	private void recordFailure(Exception e) {
+		long count = failureCount.incrementAndGet();
+		if (failureLogSampleRate > 0 && (count == 1 || count % failureLogSampleRate == 0)
+				&& logger.isLevelEnabled(Level.DEBUG)) {
+			if (e == null) {
+				logger.debug("{} (failure #{})", missingReason, count);
+			} else {
+				logger.debug("{} (failure #{}): {}", invalidReason, count, e.getMessage());
+			}
+		}
+	}
+
+	private static byte[] getErrorBytes(String message) {
+		try {
+			return message.getBytes(ERROR_CHARSET);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException("charset " + ERROR_CHARSET + " should always be supported", e);
+		}
+	}
+
+	/**
+	 * Find the element class of a List<T> or Collection<T> parameter or null if it is not specified.
+	 */
+	private static Class<?> findListElementType(Type genericType) {
+		if (!(genericType instanceof ParameterizedType)) {
+			return null;
+		}
+		Type[] typeArgs = ((ParameterizedType) genericType).getActualTypeArguments();
+		if (typeArgs.length == 1 && typeArgs[0] instanceof Class) {
+			return (Class<?>) typeArgs[0];
+		} else {
+			return null;
+		}
+	}
 }
@@ -202,6 +202,22 @@ public enum ParamSource {
 		}
 	},
 
+	BODY {
+		@Override
+		public Object extractValue(Request baseRequest, HttpServletRequest request, HttpServletResponse response,
+				ParamInfo paramInfo) throws IOException {
+			return paramInfo.readBody(request);
+		}
+		@Override
+		public boolean isNeedsConverter() {
+			return false;
+		}
+		@Override
+		public boolean isDefaultValueAllowed() {
+			return false;
+		}
+	},
+
 	// end
 	;
 
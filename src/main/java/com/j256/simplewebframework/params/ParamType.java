@@ -148,7 +148,7 @@ enum ParamType implements ParamConverter {
 			try {
 				return Byte.parseByte(param);
 			} catch (NumberFormatException e) {
-				throw new IOException("could not convert " + this + " parameter value '" + param + "'");
+				throw new ParamConversionException(this, param);
 			}
 		}
 		@Override
@@ -178,7 +178,7 @@ enum ParamType implements ParamConverter {
 			try {
 				return Byte.parseByte(param);
 			} catch (NumberFormatException e) {
-				throw new IOException("could not convert " + this + " parameter value '" + param + "'");
+				throw new ParamConversionException(this, param);
 			}
 		}
 		@Override
@@ -205,7 +205,7 @@ enum ParamType implements ParamConverter {
 			try {
 				return Short.parseShort(param);
 			} catch (NumberFormatException e) {
-				throw new IOException("could not convert " + this + " parameter value '" + param + "'");
+				throw new ParamConversionException(this, param);
 			}
 		}
 		@Override
@@ -235,7 +235,7 @@ enum ParamType implements ParamConverter {
 			try {
 				return Short.parseShort(param);
 			} catch (NumberFormatException e) {
-				throw new IOException("could not convert " + this + " parameter value '" + param + "'");
+				throw new ParamConversionException(this, param);
 			}
 		}
 		@Override
@@ -262,7 +262,7 @@ enum ParamType implements ParamConverter {
 			try {
 				return Integer.parseInt(param);
 			} catch (NumberFormatException e) {
-				throw new IOException("could not convert " + this + " parameter value '" + param + "'");
+				throw new ParamConversionException(this, param);
 			}
 		}
 		@Override
@@ -292,7 +292,7 @@ enum ParamType implements ParamConverter {
 			try {
 				return Integer.parseInt(param);
 			} catch (NumberFormatException e) {
-				throw new IOException("could not convert " + this + " parameter value '" + param + "'");
+				throw new ParamConversionException(this, param);
 			}
 		}
 		@Override
@@ -319,7 +319,7 @@ enum ParamType implements ParamConverter {
 			try {
 				return Long.parseLong(param);
 			} catch (NumberFormatException e) {
-				throw new IOException("could not convert parameter value '" + param + "' + to " + this);
+				throw new ParamConversionException(this, param);
 			}
 		}
 		@Override
@@ -349,7 +349,7 @@ enum ParamType implements ParamConverter {
 			try {
 				return Long.parseLong(param);
 			} catch (NumberFormatException e) {
-				throw new IOException("could not convert " + this + " parameter value '" + param + "'");
+				throw new ParamConversionException(this, param);
 			}
 		}
 		@Override
@@ -376,7 +376,7 @@ enum ParamType implements ParamConverter {
 			try {
 				return Float.parseFloat(param);
 			} catch (NumberFormatException e) {
-				throw new IOException("could not convert " + this + " parameter value '" + param + "'");
+				throw new ParamConversionException(this, param);
 			}
 		}
 		@Override
@@ -406,7 +406,7 @@ enum ParamType implements ParamConverter {
 			try {
 				return Float.parseFloat(param);
 			} catch (NumberFormatException e) {
-				throw new IOException("could not convert " + this + " parameter value '" + param + "'");
+				throw new ParamConversionException(this, param);
 			}
 		}
 		@Override
@@ -433,7 +433,7 @@ enum ParamType implements ParamConverter {
 			try {
 				return Double.parseDouble(param);
 			} catch (NumberFormatException e) {
-				throw new IOException("could not convert " + this + " parameter value '" + param + "'");
+				throw new ParamConversionException(this, param);
 			}
 		}
 		@Override
@@ -463,7 +463,7 @@ enum ParamType implements ParamConverter {
 			try {
 				return Double.parseDouble(param);
 			} catch (NumberFormatException e) {
-				throw new IOException("could not convert " + this + " parameter value '" + param + "'");
+				throw new ParamConversionException(this, param);
 			}
 		}
 		@Override
@@ -526,16 +526,14 @@ enum ParamType implements ParamConverter {
 	public abstract Object convertStringArray(String[] params) throws IOException;
 
 	/**
-	 * Lookup the parameter converter by class.
+	 * Lookup the built-in parameter converter by class. See {@link ParamConverterRegistry} for the other types.
 	 * 
 	 * NOTE: this is here to save on the small utility class to do so.
+	 * 
+	 * @return The converter or null if the class is not one of the built-in types.
 	 */
 	public static ParamConverter classToConverter(Class<?> clazz) {
-		ParamConverter converter = classParams.get(clazz);
-		if (converter == null) {
-			converter = ObjectParamConverter.create(clazz);
-		}
-		return converter;
+		return classParams.get(clazz);
 	}
 
 	/**
@@ -0,0 +1,29 @@
+package com.j256.simplewebframework.params;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Reads the body of a request into the type of a {@link BodyParam} parameter. Readers are registered with the
+ * {@link ParamConverterRegistry} by the mime-types that they handle.
+ * 
+ * @author graywatson
+ */
+public interface RequestBodyReader {
+
+	/**
+	 * Return the mime-types of the request bodies that are read by this class.
+	 */
+	public String[] getHandledMimeTypes();
+
+	/**
+	 * Read the request body into an object of the type.
+	 * 
+	 * @param type
+	 *            Generic type of the web-method parameter.
+	 * @return The object or null if the body is empty.
+	 */
+	public Object readBody(HttpServletRequest request, Type type) throws IOException;
+}
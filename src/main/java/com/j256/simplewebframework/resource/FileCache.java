@@ -0,0 +1,452 @@
+package com.j256.simplewebframework.resource;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.http.HttpHeaders;
+import org.eclipse.jetty.io.nio.DirectNIOBuffer;
+import org.eclipse.jetty.server.AbstractHttpConnection;
+
+import com.j256.simplejmx.common.JmxAttributeMethod;
+import com.j256.simplejmx.common.JmxOperation;
+import com.j256.simplejmx.common.JmxResource;
+import com.j256.simplewebframework.cms.CmsRevisionListener;
+import com.j256.simplewebframework.displayer.FileResultDisplayer;
+import com.j256.simplewebframework.displayer.FileResultDisplayer.FileInfo;
+import com.j256.simplewebframework.util.IOUtils;
+import com.j256.simplewebframework.util.RequestUtils;
+import com.j256.simplewebframework.util.ResponseUtils;
+import com.j256.simplewebframework.util.ResponseUtils.HttpErrorCode;
+
+/**
+ * Bounded in-memory cache of small, frequently requested files and their precomputed headers which is used by the
+ * {@link LocalResourceHandler} so hot files are served without touching the disk. A file is only admitted after it
+ * has been requested a number of times and when the byte budget is exceeded the least frequently hit entries are
+ * evicted. The hit counts are halved at each eviction so old favorites age out.
+ * 
+ * <p>
+ * Files are not checked for changes unless {@link #setRevalidateMillis(long)} is set. Register this with the
+ * {@link com.j256.simplewebframework.cms.CmsManager} as a {@link CmsRevisionListener} so the cache is flushed when the
+ * live revision changes.
+ * </p>
+ * 
+ * @author graywatson
+ */
+@JmxResource(domainName = "j256.simpleweb", description = "In-memory cache of hot local files")
+public class FileCache implements CmsRevisionListener {
+
+	private static final long DEFAULT_MAX_BYTES = 64 * 1024 * 1024;
+	private static final long DEFAULT_MAX_FILE_SIZE = 256 * 1024;
+	private static final int DEFAULT_ADMIT_REQUEST_COUNT = 2;
+	private static final int MAX_TRACKED_MISSES = 10000;
+	private static final String BYTES_UNIT = "bytes";
+
+	private final ConcurrentMap<String, CachedFile> cachedFiles = new ConcurrentHashMap<String, CachedFile>();
+	private final ConcurrentMap<String, AtomicInteger> missCounts = new ConcurrentHashMap<String, AtomicInteger>();
+	private final AtomicLong byteCount = new AtomicLong();
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+
+	private long maxBytes = DEFAULT_MAX_BYTES;
+	private long maxFileSize = DEFAULT_MAX_FILE_SIZE;
+	private int admitRequestCount = DEFAULT_ADMIT_REQUEST_COUNT;
+	private long revalidateMillis;
+
+	/**
+	 * Find the cached file for a request path.
+	 * 
+	 * @return The cached file or null if it is not in the cache.
+	 */
+	public CachedFile findFile(String path) {
+		CachedFile cachedFile = cachedFiles.get(path);
+		if (cachedFile == null) {
+			missCount.incrementAndGet();
+			return null;
+		}
+		if (revalidateMillis > 0 && !cachedFile.isValid(revalidateMillis)) {
+			removeFile(path, cachedFile);
+			missCount.incrementAndGet();
+			return null;
+		}
+		cachedFile.hitCount.incrementAndGet();
+		hitCount.incrementAndGet();
+		return cachedFile;
+	}
+
+	/**
+	 * Called after a file was found on disk which may add it to the cache if it has been requested enough times and is
+	 * small enough.
+	 * 
+	 * @return True if the file was cached.
+	 */
+	public boolean maybeCacheFile(String path, FileInfo fileInfo) throws IOException {
+		if (!isAdmitted(path)) {
+			return false;
+		}
+		File file = fileInfo.getFile();
+		if (file.length() > maxFileSize) {
+			return false;
+		}
+		CachedFile cachedFile = loadFile(fileInfo);
+		if (cachedFile == null) {
+			return false;
+		}
+		CachedFile existing = cachedFiles.put(path, cachedFile);
+		if (existing != null) {
+			byteCount.addAndGet(-existing.size);
+		}
+		if (byteCount.addAndGet(cachedFile.size) > maxBytes) {
+			evict(cachedFile);
+		}
+		return true;
+	}
+
+	/**
+	 * Write a cached file to the response along with its headers.
+	 */
+	public void renderFile(CachedFile cachedFile, HttpServletRequest request, HttpServletResponse response)
+			throws IOException {
+
+		boolean hasEncodedVariants = (cachedFile.brotli != null || cachedFile.gzip != null);
+		// set before any 304 because the response varies whether or not the content is sent
+		if (hasEncodedVariants) {
+			response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+		}
+
+		long ifModified = request.getDateHeader(HttpHeaders.IF_MODIFIED_SINCE);
+		// we do / 1000 because the file system last-modified is in seconds
+		if (ifModified > 0 && (cachedFile.lastModified / 1000) <= (ifModified / 1000)) {
+			ResponseUtils.sendError(response, HttpErrorCode.NOT_MODIFIED);
+			return;
+		}
+
+		response.setDateHeader(HttpHeaders.LAST_MODIFIED, cachedFile.lastModified);
+		response.setHeader(HttpHeaders.ACCEPT_RANGES, BYTES_UNIT);
+		Variant variant = cachedFile.identity;
+		if (hasEncodedVariants) {
+			String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+			if (cachedFile.brotli != null
+					&& RequestUtils.isEncodingAccepted(acceptEncoding, FileInfo.BROTLI_ENCODING)) {
+				variant = cachedFile.brotli;
+			} else if (cachedFile.gzip != null
+					&& RequestUtils.isEncodingAccepted(acceptEncoding, FileInfo.GZIP_ENCODING)) {
+				variant = cachedFile.gzip;
+			}
+			if (variant.encoding != null) {
+				response.setHeader(HttpHeaders.CONTENT_ENCODING, variant.encoding);
+			}
+		}
+		response.setHeader(HttpHeaders.ETAG, variant.etag);
+		if (FileResultDisplayer.isETagMatch(request.getHeader(HttpHeaders.IF_NONE_MATCH), variant.etag)) {
+			ResponseUtils.sendError(response, HttpErrorCode.NOT_MODIFIED);
+			return;
+		}
+
+		if (cachedFile.contentType != null) {
+			response.setContentType(cachedFile.contentType);
+		}
+		// each request gets its own view of the buffer since the position is changed as it is written
+		ByteBuffer content = variant.content.duplicate();
+		response.setContentLength(content.remaining());
+		ServletOutputStream sos = null;
+		try {
+			sos = response.getOutputStream();
+			if (sos instanceof AbstractHttpConnection.Output) {
+				((AbstractHttpConnection.Output) sos).sendContent(new DirectNIOBuffer(content, true));
+			} else {
+				WritableByteChannel channel = Channels.newChannel(sos);
+				while (content.hasRemaining()) {
+					channel.write(content);
+				}
+			}
+		} finally {
+			IOUtils.closeQuietly(sos);
+		}
+	}
+
+	/**
+	 * Flush the cache when the live CMS revision changes.
+	 */
+	@Override
+	public void liveRevisionChanged(File liveRevisionDir) {
+		clear();
+	}
+
+	@JmxOperation(description = "Remove all of the cached files")
+	public void clear() {
+		for (String path : cachedFiles.keySet()) {
+			CachedFile cachedFile = cachedFiles.get(path);
+			if (cachedFile != null) {
+				removeFile(path, cachedFile);
+			}
+		}
+		missCounts.clear();
+	}
+
+	@JmxAttributeMethod(description = "Number of requests served from the cache")
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	@JmxAttributeMethod(description = "Number of requests for files not in the cache")
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	@JmxAttributeMethod(description = "Number of files evicted to stay under the byte budget")
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	@JmxAttributeMethod(description = "Number of files in the cache")
+	public int getFileCount() {
+		return cachedFiles.size();
+	}
+
+	@JmxAttributeMethod(description = "Number of bytes in the cache including compressed variants")
+	public long getByteCount() {
+		return byteCount.get();
+	}
+
+	/**
+	 * Maximum number of bytes of file contents, including the compressed variants, held in the cache. The contents are
+	 * held in direct buffers so this counts against the JVM's max direct memory. Default is 64mb.
+	 */
+	public void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Files larger than this are never cached. Default is 256k.
+	 */
+	public void setMaxFileSize(long maxFileSize) {
+		this.maxFileSize = maxFileSize;
+	}
+
+	/**
+	 * Number of times a file has to be requested before it is cached so one-off requests don't churn the cache.
+	 * Default is 2.
+	 */
+	public void setAdmitRequestCount(int admitRequestCount) {
+		this.admitRequestCount = admitRequestCount;
+	}
+
+	/**
+	 * If set to more than 0 then a cached file's last-modified time and length are checked at most every so many
+	 * millis and the file is dropped if it has changed. Default is 0 which never checks which is right for CMS
+	 * revisions which never change once they are live.
+	 */
+	public void setRevalidateMillis(long revalidateMillis) {
+		this.revalidateMillis = revalidateMillis;
+	}
+
+	private boolean isAdmitted(String path) {
+		if (admitRequestCount <= 1) {
+			return true;
+		}
+		AtomicInteger count = missCounts.get(path);
+		if (count == null) {
+			if (missCounts.size() >= MAX_TRACKED_MISSES) {
+				// rather than tracking the age of the counts we just start over
+				missCounts.clear();
+			}
+			count = new AtomicInteger();
+			AtomicInteger existing = missCounts.putIfAbsent(path, count);
+			if (existing != null) {
+				count = existing;
+			}
+		}
+		if (count.incrementAndGet() < admitRequestCount) {
+			return false;
+		}
+		missCounts.remove(path);
+		return true;
+	}
+
+	private CachedFile loadFile(FileInfo fileInfo) throws IOException {
+		File file = fileInfo.getFile();
+		long lastModified = file.lastModified();
+		Variant identity = loadVariant(file, null, lastModified);
+		if (identity == null) {
+			return null;
+		}
+		Variant gzip = null;
+		if (fileInfo.getGzipFile() != null) {
+			gzip = loadVariant(fileInfo.getGzipFile(), FileInfo.GZIP_ENCODING, lastModified);
+		}
+		Variant brotli = null;
+		if (fileInfo.getBrotliFile() != null) {
+			brotli = loadVariant(fileInfo.getBrotliFile(), FileInfo.BROTLI_ENCODING, lastModified);
+		}
+		CachedFile cachedFile = new CachedFile(file, FileResultDisplayer.findContentType(file.getName()), lastModified,
+				identity, gzip, brotli);
+		// count the requests it took to be admitted so it isn't the first to be evicted
+		cachedFile.hitCount.set(Math.max(admitRequestCount, 1));
+		return cachedFile;
+	}
+
+	private Variant loadVariant(File file, String encoding, long lastModified) throws IOException {
+		long length = file.length();
+		if (length > Integer.MAX_VALUE) {
+			return null;
+		}
+		ByteBuffer content = ByteBuffer.allocateDirect((int) length);
+		FileInputStream fis = null;
+		try {
+			fis = new FileInputStream(file);
+			FileChannel channel = fis.getChannel();
+			while (content.hasRemaining()) {
+				if (channel.read(content) < 0) {
+					// file was truncated underneath us
+					return null;
+				}
+			}
+		} finally {
+			IOUtils.closeQuietly(fis);
+		}
+		content.flip();
+		return new Variant(content.asReadOnlyBuffer(), encoding,
+				FileResultDisplayer.buildETag(lastModified, length, encoding));
+	}
+
+	/**
+	 * Evict the least frequently hit files other than the one that was just added.
+	 */
+	private synchronized void evict(CachedFile addedFile) {
+		if (byteCount.get() <= maxBytes) {
+			// someone else beat us to it
+			return;
+		}
+		List<CachedFileEntry> entries = new ArrayList<CachedFileEntry>(cachedFiles.size());
+		for (String path : cachedFiles.keySet()) {
+			CachedFile cachedFile = cachedFiles.get(path);
+			if (cachedFile != null && cachedFile != addedFile) {
+				entries.add(new CachedFileEntry(path, cachedFile, cachedFile.hitCount.get()));
+			}
+		}
+		// least frequently hit first
+		Collections.sort(entries, new Comparator<CachedFileEntry>() {
+			@Override
+			public int compare(CachedFileEntry entry1, CachedFileEntry entry2) {
+				return (entry1.hitCount < entry2.hitCount ? -1 : (entry1.hitCount == entry2.hitCount ? 0 : 1));
+			}
+		});
+		// evict down below the budget so we don't have to do this on every add
+		long target = maxBytes - maxBytes / 10;
+		for (CachedFileEntry entry : entries) {
+			if (byteCount.get() <= target) {
+				// age the survivors so the counts reflect recent requests
+				int count = entry.cachedFile.hitCount.get();
+				entry.cachedFile.hitCount.compareAndSet(count, count / 2);
+			} else if (removeFile(entry.path, entry.cachedFile)) {
+				evictionCount.incrementAndGet();
+			}
+		}
+	}
+
+	private boolean removeFile(String path, CachedFile cachedFile) {
+		if (cachedFiles.remove(path, cachedFile)) {
+			byteCount.addAndGet(-cachedFile.size);
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	/**
+	 * Contents and headers of a cached file.
+	 */
+	public static class CachedFile {
+
+		final File file;
+		final String contentType;
+		final long lastModified;
+		final Variant identity;
+		final Variant gzip;
+		final Variant brotli;
+		final long size;
+		final AtomicInteger hitCount = new AtomicInteger();
+		private volatile long lastValidatedMillis;
+
+		CachedFile(File file, String contentType, long lastModified, Variant identity, Variant gzip, Variant brotli) {
+			this.file = file;
+			this.contentType = contentType;
+			this.lastModified = lastModified;
+			this.identity = identity;
+			this.gzip = gzip;
+			this.brotli = brotli;
+			this.size = variantSize(identity) + variantSize(gzip) + variantSize(brotli);
+			this.lastValidatedMillis = System.currentTimeMillis();
+		}
+
+		boolean isValid(long revalidateMillis) {
+			long now = System.currentTimeMillis();
+			if (now < lastValidatedMillis + revalidateMillis) {
+				return true;
+			}
+			if (file.lastModified() != lastModified || file.length() != identity.content.capacity()) {
+				return false;
+			}
+			lastValidatedMillis = now;
+			return true;
+		}
+
+		private static long variantSize(Variant variant) {
+			if (variant == null) {
+				return 0;
+			} else {
+				return variant.content.capacity();
+			}
+		}
+	}
+
+	/**
+	 * Contents of one encoding of a cached file.
+	 */
+	private static class Variant {
+
+		final ByteBuffer content;
+		final String encoding;
+		final String etag;
+
+		Variant(ByteBuffer content, String encoding, String etag) {
+			this.content = content;
+			this.encoding = encoding;
+			this.etag = etag;
+		}
+	}
+
+	/**
+	 * Snapshot of a cached file and its hit-count used when sorting for eviction.
+	 */
+	private static class CachedFileEntry {
+
+		final String path;
+		final CachedFile cachedFile;
+		final int hitCount;
+
+		CachedFileEntry(String path, CachedFile cachedFile, int hitCount) {
+			this.path = path;
+			this.cachedFile = cachedFile;
+			this.hitCount = hitCount;
+		}
+	}
+}
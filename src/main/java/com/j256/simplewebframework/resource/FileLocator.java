@@ -1,20 +1,48 @@
 package com.j256.simplewebframework.resource;
 
 import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
+import com.j256.simplewebframework.cms.CmsRevisionListener;
 import com.j256.simplewebframework.displayer.FileResultDisplayer.FileInfo;
+import com.j256.simplewebframework.logger.Logger;
+import com.j256.simplewebframework.logger.LoggerFactory;
 
 /**
  * Utility that locates files on our local file-system.
  * 
+ * <p>
+ * If {@link #setIndexed(boolean)} is enabled then the directory tree is walked once and the files, welcome files, and
+ * precompressed variants are resolved into an in-memory index along with their lengths and last-modified times.
+ * Lookups are then a hash lookup with no file-system calls and misses are known without going to the disk. This
+ * should only be used when the files don't change underneath us, such as a CMS revision. Register this with the
+ * {@link com.j256.simplewebframework.cms.CmsManager} as a {@link CmsRevisionListener} so the index is rebuilt when the
+ * live revision changes.
+ * </p>
+ * 
  * @author graywatson
  */
-public class FileLocator {
+public class FileLocator implements CmsRevisionListener {
+
+	private static final Logger logger = LoggerFactory.getLogger(FileLocator.class);
+	private static final int DEFAULT_MAX_INDEXED_FILES = 100000;
+	/** marks that the directory has too many files to index so we don't walk it again until it is rebuilt */
+	private static final Map<String, FileInfo> TOO_BIG_INDEX = Collections.unmodifiableMap(
+			new HashMap<String, FileInfo>());
 
 	// @JmxAttributeField(description = "Local directory for storing files")
 	private File localDirectory;
 	// @JmxAttributeField(description = "Welcome files that we lookup if a directory is accessed")
 	private String[] welcomeFiles = new String[0];
+	// @JmxAttributeField(description = "Whether we look for precompressed .gz and .br variants of files")
+	private boolean precompressedVariants;
+	// @JmxAttributeField(description = "Whether we resolve paths from an in-memory index of the directory tree")
+	private boolean indexed;
+	private int maxIndexedFiles = DEFAULT_MAX_INDEXED_FILES;
+	private volatile Map<String, FileInfo> fileIndex;
+	private int indexBuildCount;
 
 	public FileLocator() {
 		// for spring
@@ -32,6 +60,17 @@ public class FileLocator {
 	 */
 	public FileInfo findFile(String pathInfo) {
 
+		if (indexed) {
+			Map<String, FileInfo> index = fileIndex;
+			if (index == null) {
+				index = buildIndexIfNeeded();
+			}
+			if (index != TOO_BIG_INDEX) {
+				return index.get(pathInfo);
+			}
+			// too many files so we fall back to the file-system
+		}
+
 		// create our local file path
 		File localFile = new File(localDirectory, pathInfo);
 		if (!localFile.exists()) {
@@ -40,7 +79,7 @@ public class FileLocator {
 
 		// if a directory then bail, not sure this will ever happen
 		if (!localFile.isDirectory()) {
-			return new FileInfo(pathInfo, localFile);
+			return buildFileInfo(pathInfo, localFile);
 		}
 
 		// check welcome paths
@@ -48,13 +87,45 @@ public class FileLocator {
 			String welcomePath = pathInfo + welcomeFileName;
 			File welcomeFile = new File(localDirectory, welcomePath);
 			if (welcomeFile.exists()) {
-				return new FileInfo(welcomePath, welcomeFile);
+				return buildFileInfo(welcomePath, welcomeFile);
 			}
 		}
 
 		return null;
 	}
 
+	/**
+	 * Rebuild the index of the directory tree if {@link #setIndexed(boolean)} is enabled. This needs to be called if the
+	 * files in the local directory change.
+	 */
+	public void rebuildIndex() {
+		if (indexed) {
+			synchronized (this) {
+				fileIndex = buildIndex();
+			}
+		}
+	}
+
+	/**
+	 * Rebuild the index when the live CMS revision changes.
+	 */
+	@Override
+	public void liveRevisionChanged(File liveRevisionDir) {
+		rebuildIndex();
+	}
+
+	/**
+	 * Return the number of paths in the index or -1 if there is no index.
+	 */
+	public int getIndexedPathCount() {
+		Map<String, FileInfo> index = fileIndex;
+		if (index == null || index == TOO_BIG_INDEX) {
+			return -1;
+		} else {
+			return index.size();
+		}
+	}
+
 	public void setLocalDirectory(File localDirectory) {
 		localDirectory.mkdirs();
 		if (!localDirectory.exists()) {
@@ -69,4 +140,109 @@ public class FileLocator {
 	public void setWelcomeFiles(String[] welcomeFiles) {
 		this.welcomeFiles = welcomeFiles;
 	}
+
+	/**
+	 * Set to true to look for precompressed siblings of files (foo.css.gz and foo.css.br) which can then be sent to
+	 * clients that accept the encoding. See
+	 * {@link com.j256.simplewebframework.cms.CmsManager#setPrecompressFiles(boolean)}. Default is false.
+	 */
+	public void setPrecompressedVariants(boolean precompressedVariants) {
+		this.precompressedVariants = precompressedVariants;
+	}
+
+	/**
+	 * Set to true to resolve paths from an in-memory index of the local directory which is built on the first lookup.
+	 * See {@link #rebuildIndex()}. Default is false.
+	 */
+	public void setIndexed(boolean indexed) {
+		this.indexed = indexed;
+	}
+
+	/**
+	 * If the local directory has more than this number of files then we don't index it and go to the file-system
+	 * instead. Default is 100000.
+	 */
+	public void setMaxIndexedFiles(int maxIndexedFiles) {
+		this.maxIndexedFiles = maxIndexedFiles;
+	}
+
+	private synchronized Map<String, FileInfo> buildIndexIfNeeded() {
+		if (fileIndex == null) {
+			fileIndex = buildIndex();
+		}
+		return fileIndex;
+	}
+
+	/**
+	 * Return the number of times the directory tree has been walked to build the index.
+	 */
+	int getIndexBuildCount() {
+		return indexBuildCount;
+	}
+
+	private Map<String, FileInfo> buildIndex() {
+		indexBuildCount++;
+		Map<String, FileInfo> index = new HashMap<String, FileInfo>();
+		if (!addDirectory(index, localDirectory, "")) {
+			logger.warn("more than {} files in {}, not indexing", maxIndexedFiles, localDirectory);
+			return TOO_BIG_INDEX;
+		}
+		logger.info("indexed {} paths in {}", index.size(), localDirectory);
+		return index;
+	}
+
+	/**
+	 * Add the files in a directory to the index. The directories are added with a trailing slash if they have a welcome
+	 * file.
+	 * 
+	 * @return False if there are too many files to index.
+	 */
+	private boolean addDirectory(Map<String, FileInfo> index, File dir, String dirPath) {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return true;
+		}
+		for (File file : files) {
+			String path = dirPath + file.getName();
+			if (file.isDirectory()) {
+				if (!addDirectory(index, file, path + "/")) {
+					return false;
+				}
+			} else {
+				if (index.size() >= maxIndexedFiles) {
+					return false;
+				}
+				FileInfo fileInfo = buildFileInfo(path, file);
+				// the files don't change underneath an index so the displayer doesn't need to stat them
+				fileInfo.recordStats();
+				index.put(path, fileInfo);
+			}
+		}
+		// resolve the welcome files after the files in this directory are in the index
+		for (String welcomeFileName : welcomeFiles) {
+			FileInfo welcomeInfo = index.get(dirPath + welcomeFileName);
+			if (welcomeInfo != null) {
+				index.put(dirPath, welcomeInfo);
+				break;
+			}
+		}
+		return true;
+	}
+
+	private FileInfo buildFileInfo(String path, File file) {
+		if (!precompressedVariants) {
+			return new FileInfo(path, file);
+		}
+		return new FileInfo(path, file, findVariant(file, FileInfo.GZIP_EXTENSION),
+				findVariant(file, FileInfo.BROTLI_EXTENSION));
+	}
+
+	private File findVariant(File file, String extension) {
+		File variant = new File(file.getPath() + extension);
+		if (variant.isFile()) {
+			return variant;
+		} else {
+			return null;
+		}
+	}
 }
@@ -7,12 +7,15 @@ import java.util.Map;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.eclipse.jetty.http.HttpHeaders;
 import org.eclipse.jetty.http.HttpMethods;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 
 import com.j256.simplejmx.common.JmxAttributeField;
 import com.j256.simplejmx.common.JmxResource;
+import com.j256.simplewebframework.compress.ResponseCompressor;
+import com.j256.simplewebframework.displayer.FileResultDisplayer;
 import com.j256.simplewebframework.displayer.FileResultDisplayer.FileInfo;
 import com.j256.simplewebframework.displayer.ResultDisplayer;
 import com.j256.simplewebframework.util.ResponseUtils;
@@ -39,7 +42,11 @@ public class LocalResourceHandler extends AbstractHandler {
 	private int invalidPathsCount = 0;
 	@JmxAttributeField(description = "Number of unknown paths")
 	private int unknownPathsCount = 0;
+	@JmxAttributeField(description = "Number of files served from the file cache")
+	private int cachedFilesCount = 0;
 	private FileLocator fileLocator;
+	private ResponseCompressor responseCompressor;
+	private FileCache fileCache;
 
 	@Override
 	public void handle(String target, Request request, HttpServletRequest servletRequest,
@@ -84,6 +91,22 @@ public class LocalResourceHandler extends AbstractHandler {
 	private void handlePath(String path, Map<String, Object> model, Request request, HttpServletRequest servletRequest,
 			HttpServletResponse servletResponse) throws IOException {
 
+		// ranges are left to the displayer
+		boolean cacheable = (fileCache != null && servletRequest.getHeader(HttpHeaders.RANGE) == null);
+		if (cacheable) {
+			FileCache.CachedFile cachedFile = fileCache.findFile(path);
+			if (cachedFile != null) {
+				cachedFilesCount++;
+				HttpServletResponse response = wrapResponse(servletRequest, servletResponse);
+				try {
+					fileCache.renderFile(cachedFile, servletRequest, response);
+				} finally {
+					finishResponse(response);
+				}
+				return;
+			}
+		}
+
 		FileInfo fileInfo = fileLocator.findFile(path);
 		if (fileInfo == null) {
 			unknownPathsCount++;
@@ -108,7 +131,31 @@ public class LocalResourceHandler extends AbstractHandler {
 			}
 		}
 
-		displayer.renderResult(request, servletRequest, servletResponse, fileInfo);
+		HttpServletResponse response = wrapResponse(servletRequest, servletResponse);
+		try {
+			displayer.renderResult(request, servletRequest, response, fileInfo);
+		} finally {
+			finishResponse(response);
+		}
+
+		// only the file displayer's output can be reproduced from the cache
+		if (cacheable && displayer instanceof FileResultDisplayer) {
+			fileCache.maybeCacheFile(path, fileInfo);
+		}
+	}
+
+	private HttpServletResponse wrapResponse(HttpServletRequest servletRequest, HttpServletResponse servletResponse) {
+		if (responseCompressor == null) {
+			return servletResponse;
+		} else {
+			return responseCompressor.wrapResponse(servletRequest, servletResponse);
+		}
+	}
+
+	private void finishResponse(HttpServletResponse response) throws IOException {
+		if (responseCompressor != null) {
+			responseCompressor.finishResponse(response);
+		}
 	}
 
 	private String findRequestExtension(FileInfo fileInfo) {
@@ -137,6 +184,21 @@ public class LocalResourceHandler extends AbstractHandler {
 		this.defaultResultDisplayer = defaultResultDisplayer;
 	}
 
+	/**
+	 * Set the compressor which gzips rendered files on the fly. Only compressible content-types are compressed and
+	 * precompressed files are sent as is. Default is none.
+	 */
+	public void setResponseCompressor(ResponseCompressor responseCompressor) {
+		this.responseCompressor = responseCompressor;
+	}
+
+	/**
+	 * Set the cache which holds the contents of small hot files in memory. Default is none.
+	 */
+	public void setFileCache(FileCache fileCache) {
+		this.fileCache = fileCache;
+	}
+
 	public void setFileLocator(FileLocator fileLocator) {
 		this.fileLocator = fileLocator;
 	}
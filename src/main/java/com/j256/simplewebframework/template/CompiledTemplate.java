@@ -0,0 +1,344 @@
+package com.j256.simplewebframework.template;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.j256.simplewebframework.util.BufferedResponseWriter;
+import com.j256.simplewebframework.util.FileUtils;
+
+/**
+ * Template which only supports <code>${...}</code> substitutions and Apache style includes. It is compiled once into an
+ * array of literal segments, already encoded as UTF-8, and an array of expressions which go between them so rendering
+ * is just copying bytes and writing the escaped values.
+ * 
+ * <p>
+ * Expressions are a model entry name followed by optional dotted map keys or bean properties such as
+ * <code>${user.name}</code>. Values are HTML escaped unless the expression ends with <code>?raw</code>. Missing values
+ * are rendered as the default after a <code>!</code> if given, as in <code>${title!"Welcome"}</code>, or as nothing.
+ * </p>
+ * 
+ * <p>
+ * Includes of the form <code>&lt;!--#include file="header.html" --&gt;</code>, which is relative to the including file,
+ * or <code>&lt;!--#include virtual="/common/header.html" --&gt;</code> are inlined when the template is compiled.
+ * </p>
+ * 
+ * @author graywatson
+ */
+public class CompiledTemplate {
+
+	private static final String EXPRESSION_START = "${";
+	private static final char EXPRESSION_END = '}';
+	private static final String INCLUDE_START = "<!--#include ";
+	private static final String INCLUDE_END = "-->";
+	private static final String RAW_SUFFIX = "?raw";
+	private static final int MAX_INCLUDE_DEPTH = 16;
+	private static final ConcurrentMap<Class<?>, Map<String, Method>> beanGettersMap =
+			new ConcurrentHashMap<Class<?>, Map<String, Method>>();
+
+	private final byte[][] literals;
+	private final Expression[] expressions;
+
+	private CompiledTemplate(byte[][] literals, Expression[] expressions) {
+		this.literals = literals;
+		this.expressions = expressions;
+	}
+
+	/**
+	 * Compile the template in a file.
+	 * 
+	 * @param includeResolver
+	 *            Used to find the files of virtual includes or null if they are not supported.
+	 */
+	public static CompiledTemplate compile(File file, IncludeResolver includeResolver) throws IOException {
+		Compiler compiler = new Compiler(includeResolver);
+		compiler.parseFile(file, 0);
+		return compiler.build();
+	}
+
+	/**
+	 * Compile a template from a string. Only virtual includes are supported.
+	 */
+	public static CompiledTemplate compile(String template, IncludeResolver includeResolver) throws IOException {
+		Compiler compiler = new Compiler(includeResolver);
+		compiler.parse(template, null, "template", 0);
+		return compiler.build();
+	}
+
+	/**
+	 * Render the template with the values in the model.
+	 */
+	public void render(Map<String, Object> model, BufferedResponseWriter writer) throws IOException {
+		for (int i = 0; i < expressions.length; i++) {
+			writer.writeUtf8(literals[i]);
+			expressions[i].write(model, writer);
+		}
+		writer.writeUtf8(literals[expressions.length]);
+	}
+
+	/**
+	 * Return the number of expressions in the template.
+	 */
+	public int getExpressionCount() {
+		return expressions.length;
+	}
+
+	/**
+	 * Finds the files of virtual includes.
+	 */
+	public interface IncludeResolver {
+		/**
+		 * Return the file of the virtual path or null if not found.
+		 */
+		public File findVirtual(String path);
+	}
+
+	private static String escapeHtml(String value) {
+		StringBuilder sb = null;
+		int last = 0;
+		for (int i = 0; i < value.length(); i++) {
+			String replacement;
+			switch (value.charAt(i)) {
+				case '&' :
+					replacement = "&amp;";
+					break;
+				case '<' :
+					replacement = "&lt;";
+					break;
+				case '>' :
+					replacement = "&gt;";
+					break;
+				case '"' :
+					replacement = "&quot;";
+					break;
+				case '\'' :
+					replacement = "&#39;";
+					break;
+				default :
+					continue;
+			}
+			if (sb == null) {
+				sb = new StringBuilder(value.length() + 16);
+			}
+			sb.append(value, last, i).append(replacement);
+			last = i + 1;
+		}
+		if (sb == null) {
+			return value;
+		}
+		sb.append(value, last, value.length());
+		return sb.toString();
+	}
+
+	private static Object getProperty(Object bean, String name) throws IOException {
+		if (bean instanceof Map) {
+			return ((Map<?, ?>) bean).get(name);
+		}
+		Method getter = findBeanGetters(bean.getClass()).get(name);
+		if (getter == null) {
+			return null;
+		}
+		try {
+			return getter.invoke(bean);
+		} catch (IllegalAccessException e) {
+			throw new IOException("could not get property " + name + " of " + bean.getClass(), e);
+		} catch (InvocationTargetException e) {
+			throw new IOException("could not get property " + name + " of " + bean.getClass(), e.getCause());
+		}
+	}
+
+	private static Map<String, Method> findBeanGetters(Class<?> clazz) throws IOException {
+		Map<String, Method> getters = beanGettersMap.get(clazz);
+		if (getters != null) {
+			return getters;
+		}
+		PropertyDescriptor[] descriptors;
+		try {
+			descriptors = Introspector.getBeanInfo(clazz, Object.class).getPropertyDescriptors();
+		} catch (IntrospectionException e) {
+			throw new IOException("could not get the bean properties of " + clazz, e);
+		}
+		getters = new HashMap<String, Method>();
+		for (PropertyDescriptor descriptor : descriptors) {
+			Method getter = descriptor.getReadMethod();
+			if (getter != null) {
+				getter.setAccessible(true);
+				getters.put(descriptor.getName(), getter);
+			}
+		}
+		beanGettersMap.putIfAbsent(clazz, getters);
+		return getters;
+	}
+
+	/**
+	 * Expression between two literal segments.
+	 */
+	private static class Expression {
+
+		private final String[] path;
+		private final boolean escape;
+		private final String defaultValue;
+
+		public Expression(String[] path, boolean escape, String defaultValue) {
+			this.path = path;
+			this.escape = escape;
+			this.defaultValue = defaultValue;
+		}
+
+		public void write(Map<String, Object> model, BufferedResponseWriter writer) throws IOException {
+			Object value = (model == null ? null : model.get(path[0]));
+			for (int i = 1; i < path.length && value != null; i++) {
+				value = getProperty(value, path[i]);
+			}
+			String str;
+			if (value == null) {
+				str = defaultValue;
+			} else {
+				str = value.toString();
+			}
+			if (str == null) {
+				return;
+			}
+			if (escape) {
+				writer.write(escapeHtml(str));
+			} else {
+				writer.write(str);
+			}
+		}
+	}
+
+	/**
+	 * Splits the template text into the literal segments and expressions, inlining the includes.
+	 */
+	private static class Compiler {
+
+		private final IncludeResolver includeResolver;
+		private final List<byte[]> literalList = new ArrayList<byte[]>();
+		private final List<Expression> expressionList = new ArrayList<Expression>();
+		private final StringBuilder literal = new StringBuilder();
+
+		public Compiler(IncludeResolver includeResolver) {
+			this.includeResolver = includeResolver;
+		}
+
+		public void parseFile(File file, int depth) throws IOException {
+			String template = new String(FileUtils.readFile(file), BufferedResponseWriter.UTF8_CHARSET);
+			parse(template, file.getParentFile(), file.getPath(), depth);
+		}
+
+		public void parse(String template, File dir, String name, int depth) throws IOException {
+			int pos = 0;
+			while (pos < template.length()) {
+				int exprStart = template.indexOf(EXPRESSION_START, pos);
+				int includeStart = template.indexOf(INCLUDE_START, pos);
+				if (exprStart < 0 && includeStart < 0) {
+					break;
+				}
+				if (includeStart < 0 || (exprStart >= 0 && exprStart < includeStart)) {
+					int end = template.indexOf(EXPRESSION_END, exprStart);
+					if (end < 0) {
+						throw new IOException("unterminated ${ in " + name + " at position " + exprStart);
+					}
+					literal.append(template, pos, exprStart);
+					addExpression(template.substring(exprStart + EXPRESSION_START.length(), end), name);
+					pos = end + 1;
+				} else {
+					int end = template.indexOf(INCLUDE_END, includeStart);
+					if (end < 0) {
+						throw new IOException("unterminated include in " + name + " at position " + includeStart);
+					}
+					literal.append(template, pos, includeStart);
+					include(template.substring(includeStart + INCLUDE_START.length(), end).trim(), dir, name,
+							depth);
+					pos = end + INCLUDE_END.length();
+				}
+			}
+			literal.append(template, pos, template.length());
+		}
+
+		public CompiledTemplate build() {
+			literalList.add(encode(literal.toString()));
+			return new CompiledTemplate(literalList.toArray(new byte[literalList.size()][]),
+					expressionList.toArray(new Expression[expressionList.size()]));
+		}
+
+		private void addExpression(String expr, String name) throws IOException {
+			expr = expr.trim();
+			String defaultValue = null;
+			int bangIndex = expr.indexOf('!');
+			if (bangIndex >= 0) {
+				defaultValue = unquote(expr.substring(bangIndex + 1).trim());
+				expr = expr.substring(0, bangIndex).trim();
+			}
+			boolean escape = true;
+			if (expr.endsWith(RAW_SUFFIX)) {
+				escape = false;
+				expr = expr.substring(0, expr.length() - RAW_SUFFIX.length()).trim();
+			}
+			if (expr.length() == 0) {
+				throw new IOException("empty ${} expression in " + name);
+			}
+			literalList.add(encode(literal.toString()));
+			literal.setLength(0);
+			expressionList.add(new Expression(expr.split("\\."), escape, defaultValue));
+		}
+
+		private void include(String directive, File dir, String name, int depth) throws IOException {
+			if (depth >= MAX_INCLUDE_DEPTH) {
+				throw new IOException("includes nested more than " + MAX_INCLUDE_DEPTH + " deep in " + name);
+			}
+			int equalsIndex = directive.indexOf('=');
+			if (equalsIndex < 0) {
+				throw new IOException("invalid include '" + directive + "' in " + name);
+			}
+			String type = directive.substring(0, equalsIndex).trim();
+			String path = unquote(directive.substring(equalsIndex + 1).trim());
+			File file;
+			if ("file".equals(type)) {
+				if (dir == null) {
+					throw new IOException("file include '" + path + "' not supported in " + name);
+				}
+				file = new File(dir, path);
+			} else if ("virtual".equals(type)) {
+				if (includeResolver == null) {
+					throw new IOException("virtual include '" + path + "' not supported in " + name);
+				}
+				file = includeResolver.findVirtual(path);
+			} else {
+				throw new IOException("invalid include type '" + type + "' in " + name);
+			}
+			if (file == null || !file.isFile()) {
+				throw new IOException("included file '" + path + "' not found from " + name);
+			}
+			parseFile(file, depth + 1);
+		}
+
+		private static String unquote(String value) {
+			if (value.length() >= 2 && (value.charAt(0) == '"' || value.charAt(0) == '\'')
+					&& value.charAt(value.length() - 1) == value.charAt(0)) {
+				return value.substring(1, value.length() - 1);
+			} else {
+				return value;
+			}
+		}
+
+		private static byte[] encode(String value) {
+			try {
+				return value.getBytes(BufferedResponseWriter.UTF8_CHARSET);
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException("UTF-8 charset not supported", e);
+			}
+		}
+	}
+}
@@ -0,0 +1,172 @@
+package com.j256.simplewebframework.template;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Request;
+
+import com.j256.simplewebframework.cms.CmsRevisionListener;
+import com.j256.simplewebframework.displayer.FileResultDisplayer.FileInfo;
+import com.j256.simplewebframework.displayer.ResultDisplayer;
+import com.j256.simplewebframework.freemarker.ModelView;
+import com.j256.simplewebframework.logger.Logger;
+import com.j256.simplewebframework.logger.LoggerFactory;
+import com.j256.simplewebframework.resource.FileLocator;
+import com.j256.simplewebframework.template.CompiledTemplate.IncludeResolver;
+import com.j256.simplewebframework.util.BufferedResponseWriter;
+import com.j256.simplewebframework.util.ResponseUtils;
+
+/**
+ * Lightweight alternative to the {@link com.j256.simplewebframework.freemarker.FreemarkerHtmlDisplayer} for pages which
+ * only need <code>${...}</code> substitutions and includes. See {@link CompiledTemplate} for the syntax. Each template
+ * is compiled the first time it is rendered and then kept until the live CMS revision changes, so the file time-stamps
+ * are never checked. Register it as a {@link CmsRevisionListener} after the {@link FileLocator}.
+ * 
+ * <p>
+ * Pages are rendered as UTF-8 into a per-thread buffer so the pages that fit are sent with a Content-Length.
+ * </p>
+ * 
+ * @author graywatson
+ */
+public class SimpleTemplateDisplayer implements ResultDisplayer, CmsRevisionListener, IncludeResolver {
+
+	private static final Logger logger = LoggerFactory.getLogger(SimpleTemplateDisplayer.class);
+	private static final int DEFAULT_BUFFER_SIZE = 32768;
+
+	private FileLocator fileLocator;
+	private int bufferSize = DEFAULT_BUFFER_SIZE;
+	private volatile ConcurrentMap<String, CompiledTemplate> templates =
+			new ConcurrentHashMap<String, CompiledTemplate>();
+	private final ThreadLocal<byte[]> threadBuffer = new ThreadLocal<byte[]>();
+
+	@Override
+	public Class<?>[] getHandledClasses() {
+		return new Class[] { ModelView.class, FileInfo.class };
+	}
+
+	@Override
+	public String[] getHandledMimeTypes() {
+		return null;
+	}
+
+	@Override
+	public boolean canRender(Class<?> resultClass, String mimeType) {
+		return false;
+	}
+
+	@Override
+	public boolean renderResult(Request request, HttpServletRequest servletRequest, HttpServletResponse response,
+			Object result) throws IOException {
+		FileInfo fileInfo;
+		Map<String, Object> model;
+		if (result instanceof ModelView) {
+			ModelView modelView = (ModelView) result;
+			String view = modelView.getView();
+			if (view.startsWith("redirect:")) {
+				String dest = view.substring(9);
+				if (dest.startsWith("http:") || dest.startsWith("https:")) {
+					ResponseUtils.sendRedirect(response, dest);
+				} else {
+					ResponseUtils.sendRelativeRedirect(servletRequest, response, dest);
+				}
+				return true;
+			}
+			fileInfo = fileLocator.findFile(view);
+			if (fileInfo == null) {
+				logger.error("template not found in path '{}'", view);
+				return false;
+			}
+			model = modelView.getModel();
+		} else if (result instanceof FileInfo) {
+			fileInfo = (FileInfo) result;
+			model = null;
+		} else {
+			throw new IllegalArgumentException(
+					"Cannot render the result of type: " + result.getClass().getSimpleName());
+		}
+
+		CompiledTemplate template = findTemplate(fileInfo);
+		response.setContentType("text/html");
+		// not closed on errors so a partial page is not sent with a Content-Length
+		BufferedResponseWriter writer = new BufferedResponseWriter(response, getBuffer());
+		template.render(model, writer);
+		writer.close();
+		return true;
+	}
+
+	/**
+	 * Drop the compiled templates when the live revision changes.
+	 */
+	@Override
+	public void liveRevisionChanged(File liveRevisionDir) {
+		templates = new ConcurrentHashMap<String, CompiledTemplate>();
+	}
+
+	/**
+	 * Find the file of a virtual include using the file locator. The path is relative to the locator's directory even if
+	 * it starts with a slash.
+	 */
+	@Override
+	public File findVirtual(String path) {
+		// the locator's paths don't start with a slash, like the ones from the LocalResourceHandler
+		if (path.startsWith("/")) {
+			path = path.substring(1);
+		}
+		FileInfo fileInfo = fileLocator.findFile(path);
+		if (fileInfo == null) {
+			return null;
+		} else {
+			return fileInfo.getFile();
+		}
+	}
+
+	/**
+	 * Return the number of compiled templates.
+	 */
+	public int getTemplateCount() {
+		return templates.size();
+	}
+
+	public void setFileLocator(FileLocator fileLocator) {
+		this.fileLocator = fileLocator;
+	}
+
+	/**
+	 * Size of the per-thread buffer that pages are rendered into. Default is 32k.
+	 */
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+
+	private CompiledTemplate findTemplate(FileInfo fileInfo) throws IOException {
+		ConcurrentMap<String, CompiledTemplate> templateMap = templates;
+		String path = fileInfo.getPath();
+		CompiledTemplate template = templateMap.get(path);
+		if (template == null) {
+			try {
+				template = CompiledTemplate.compile(fileInfo.getFile(), this);
+			} catch (IOException e) {
+				String msg = "could not compile template in " + fileInfo.getFile();
+				logger.error(e, msg);
+				throw new IOException(msg, e);
+			}
+			templateMap.putIfAbsent(path, template);
+		}
+		return template;
+	}
+
+	private byte[] getBuffer() {
+		byte[] buffer = threadBuffer.get();
+		if (buffer == null || buffer.length != bufferSize) {
+			buffer = new byte[bufferSize];
+			threadBuffer.set(buffer);
+		}
+		return buffer;
+	}
+}
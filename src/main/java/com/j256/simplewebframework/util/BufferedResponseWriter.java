@@ -0,0 +1,220 @@
+package com.j256.simplewebframework.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Writer which encodes characters as UTF-8 straight into a byte buffer instead of going through the response's
+ * {@link java.io.PrintWriter} and charset encoder. If the whole body fits in the buffer then the Content-Length is set
+ * when the writer is closed and the body is written in one go. Otherwise the buffer is flushed to the response
+ * output-stream each time it fills and the response is chunked.
+ * 
+ * <p>
+ * <b>NOTE:</b> The buffer is not copied so it can be reused by the caller after the writer is closed but not before.
+ * </p>
+ * 
+ * @author graywatson
+ */
+public class BufferedResponseWriter extends Writer {
+
+	public static final String UTF8_CHARSET = "UTF-8";
+
+	private final HttpServletResponse response;
+	private final byte[] buffer;
+	private int count;
+	private OutputStream outputStream;
+	private char highSurrogate;
+	private long totalCount;
+	private boolean closed;
+
+	public BufferedResponseWriter(HttpServletResponse response, byte[] buffer) {
+		this.response = response;
+		this.buffer = buffer;
+		// the buffer needs to be able to hold the longest encoding of a character
+		if (buffer.length < 4) {
+			throw new IllegalArgumentException("buffer length must be at least 4 bytes");
+		}
+		response.setCharacterEncoding(UTF8_CHARSET);
+	}
+
+	@Override
+	public void write(int ch) throws IOException {
+		writeChar((char) ch);
+	}
+
+	@Override
+	public void write(char[] chars, int offset, int length) throws IOException {
+		int end = offset + length;
+		for (int i = offset; i < end; i++) {
+			char ch = chars[i];
+			// fast path for ascii when we have room
+			if (ch < 0x80 && count < buffer.length && highSurrogate == 0) {
+				buffer[count++] = (byte) ch;
+			} else {
+				writeChar(ch);
+			}
+		}
+	}
+
+	@Override
+	public void write(String str, int offset, int length) throws IOException {
+		int end = offset + length;
+		for (int i = offset; i < end; i++) {
+			char ch = str.charAt(i);
+			if (ch < 0x80 && count < buffer.length && highSurrogate == 0) {
+				buffer[count++] = (byte) ch;
+			} else {
+				writeChar(ch);
+			}
+		}
+	}
+
+	/**
+	 * Write bytes which are already UTF-8 encoded such as precomputed JSON field names.
+	 */
+	public void writeUtf8(byte[] bytes) throws IOException {
+		if (highSurrogate != 0) {
+			writeUnpairedSurrogate();
+		}
+		if (count + bytes.length > buffer.length) {
+			flushBuffer();
+			if (bytes.length > buffer.length) {
+				outputStream.write(bytes);
+				totalCount += bytes.length;
+				return;
+			}
+		}
+		System.arraycopy(bytes, 0, buffer, count, bytes.length);
+		count += bytes.length;
+	}
+
+	/**
+	 * Write the decimal digits of a number without creating a string.
+	 */
+	public void writeLong(long value) throws IOException {
+		if (value == Long.MIN_VALUE) {
+			// can't be negated
+			write(Long.toString(value));
+			return;
+		}
+		if (highSurrogate != 0) {
+			writeUnpairedSurrogate();
+		}
+		// 19 digits plus the sign
+		if (count + 20 > buffer.length) {
+			flushBuffer();
+			if (20 > buffer.length) {
+				write(Long.toString(value));
+				return;
+			}
+		}
+		if (value < 0) {
+			buffer[count++] = '-';
+			value = -value;
+		}
+		int digitCount = 1;
+		for (long left = value / 10; left > 0; left /= 10) {
+			digitCount++;
+		}
+		int pos = count + digitCount;
+		count = pos;
+		do {
+			buffer[--pos] = (byte) ('0' + (value % 10));
+			value /= 10;
+		} while (value > 0);
+	}
+
+	/**
+	 * Flushes the buffer to the response. This means that the Content-Length will not be set so it should only be used
+	 * for streaming results.
+	 */
+	@Override
+	public void flush() throws IOException {
+		flushBuffer();
+		outputStream.flush();
+	}
+
+	/**
+	 * Writes the buffered body to the response, setting the Content-Length if nothing has been flushed yet, and closes
+	 * the response output-stream.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		if (highSurrogate != 0) {
+			writeUnpairedSurrogate();
+		}
+		if (outputStream == null) {
+			response.setContentLength(count);
+		}
+		flushBuffer();
+		outputStream.close();
+	}
+
+	/**
+	 * Return the number of bytes written so far.
+	 */
+	public long getByteCount() {
+		return totalCount + count;
+	}
+
+	private void writeChar(char ch) throws IOException {
+		if (count + 4 > buffer.length) {
+			flushBuffer();
+		}
+		if (highSurrogate != 0) {
+			char high = highSurrogate;
+			highSurrogate = 0;
+			if (Character.isLowSurrogate(ch)) {
+				int codePoint = Character.toCodePoint(high, ch);
+				buffer[count++] = (byte) (0xF0 | (codePoint >> 18));
+				buffer[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+				buffer[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+				buffer[count++] = (byte) (0x80 | (codePoint & 0x3F));
+				return;
+			}
+			// unpaired high surrogate
+			buffer[count++] = '?';
+			if (count + 4 > buffer.length) {
+				flushBuffer();
+			}
+		}
+		if (ch < 0x80) {
+			buffer[count++] = (byte) ch;
+		} else if (ch < 0x800) {
+			buffer[count++] = (byte) (0xC0 | (ch >> 6));
+			buffer[count++] = (byte) (0x80 | (ch & 0x3F));
+		} else if (Character.isHighSurrogate(ch)) {
+			highSurrogate = ch;
+		} else if (Character.isLowSurrogate(ch)) {
+			// unpaired low surrogate
+			buffer[count++] = '?';
+		} else {
+			buffer[count++] = (byte) (0xE0 | (ch >> 12));
+			buffer[count++] = (byte) (0x80 | ((ch >> 6) & 0x3F));
+			buffer[count++] = (byte) (0x80 | (ch & 0x3F));
+		}
+	}
+
+	private void writeUnpairedSurrogate() throws IOException {
+		highSurrogate = 0;
+		writeChar('?');
+	}
+
+	private void flushBuffer() throws IOException {
+		if (outputStream == null) {
+			outputStream = response.getOutputStream();
+		}
+		if (count > 0) {
+			outputStream.write(buffer, 0, count);
+			totalCount += count;
+			count = 0;
+		}
+	}
+}
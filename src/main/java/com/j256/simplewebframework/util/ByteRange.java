@@ -0,0 +1,152 @@
+package com.j256.simplewebframework.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Byte range from a HTTP Range header.
+ * 
+ * @author graywatson
+ */
+public class ByteRange {
+
+	private static final String BYTES_UNIT = "bytes=";
+	/** more ranges than this and we ignore the header and send the whole thing */
+	private static final int MAX_RANGES = 32;
+
+	private final long start;
+	private final long end;
+
+	public ByteRange(long start, long end) {
+		this.start = start;
+		this.end = end;
+	}
+
+	/**
+	 * Parse a Range header such as "bytes=0-499,1000-,-500" for content of a certain length. Ranges are clipped to the
+	 * content length and overlapping or adjacent ranges are coalesced.
+	 * 
+	 * @return The satisfiable ranges which may be empty if none of them are satisfiable or null if the header is not
+	 *         valid and should be ignored.
+	 */
+	public static List<ByteRange> parseRanges(String header, long length) {
+		if (header == null || !header.regionMatches(true, 0, BYTES_UNIT, 0, BYTES_UNIT.length())) {
+			return null;
+		}
+		String[] specs = StringUtils.split(header.substring(BYTES_UNIT.length()), ',');
+		if (specs.length == 0 || specs.length > MAX_RANGES) {
+			return null;
+		}
+		List<ByteRange> ranges = new ArrayList<ByteRange>(specs.length);
+		for (String spec : specs) {
+			spec = spec.trim();
+			int dashIndex = spec.indexOf('-');
+			if (dashIndex < 0) {
+				return null;
+			}
+			long start;
+			long end;
+			try {
+				if (dashIndex == 0) {
+					// suffix range, the last N bytes
+					long suffixLength = Long.parseLong(spec.substring(1));
+					if (suffixLength <= 0) {
+						continue;
+					}
+					start = Math.max(0, length - suffixLength);
+					end = length - 1;
+				} else {
+					start = Long.parseLong(spec.substring(0, dashIndex));
+					if (dashIndex == spec.length() - 1) {
+						end = length - 1;
+					} else {
+						end = Long.parseLong(spec.substring(dashIndex + 1));
+						if (end < start) {
+							return null;
+						}
+						end = Math.min(end, length - 1);
+					}
+				}
+			} catch (NumberFormatException e) {
+				return null;
+			}
+			if (start < 0) {
+				return null;
+			}
+			if (start >= length) {
+				// not satisfiable
+				continue;
+			}
+			ranges.add(new ByteRange(start, end));
+		}
+		return coalesceRanges(ranges);
+	}
+
+	/**
+	 * Merge the overlapping and adjacent ranges so the same bytes are not sent more than once (RFC 7233 section 6.1).
+	 * The ranges are left in the requested order if none of them are merged.
+	 */
+	static List<ByteRange> coalesceRanges(List<ByteRange> ranges) {
+		if (ranges.size() < 2) {
+			return ranges;
+		}
+		List<ByteRange> sorted = new ArrayList<ByteRange>(ranges);
+		Collections.sort(sorted, new Comparator<ByteRange>() {
+			@Override
+			public int compare(ByteRange range1, ByteRange range2) {
+				return (range1.start < range2.start ? -1 : (range1.start == range2.start ? 0 : 1));
+			}
+		});
+		List<ByteRange> merged = new ArrayList<ByteRange>(sorted.size());
+		ByteRange current = sorted.get(0);
+		for (int i = 1; i < sorted.size(); i++) {
+			ByteRange range = sorted.get(i);
+			if (range.start <= current.end + 1) {
+				if (range.end > current.end) {
+					current = new ByteRange(current.start, range.end);
+				}
+			} else {
+				merged.add(current);
+				current = range;
+			}
+		}
+		merged.add(current);
+		if (merged.size() == ranges.size()) {
+			return ranges;
+		} else {
+			return merged;
+		}
+	}
+
+	/**
+	 * Return the first byte position in the range.
+	 */
+	public long getStart() {
+		return start;
+	}
+
+	/**
+	 * Return the last byte position in the range which is inclusive.
+	 */
+	public long getEnd() {
+		return end;
+	}
+
+	public long getLength() {
+		return end - start + 1;
+	}
+
+	/**
+	 * Return the value of the Content-Range header for this range of content of a certain length.
+	 */
+	public String toContentRange(long contentLength) {
+		return "bytes " + start + "-" + end + "/" + contentLength;
+	}
+
+	@Override
+	public String toString() {
+		return start + "-" + end;
+	}
+}
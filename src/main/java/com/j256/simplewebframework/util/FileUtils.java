@@ -1,7 +1,10 @@
 package com.j256.simplewebframework.util;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.Arrays;
 
 /**
  * File level utility methods copied and modified from elsewhere.
@@ -56,4 +59,45 @@ public class FileUtils {
 			return true;
 		}
 	}
+
+	/**
+	 * Read all of the bytes of a file with a single buffer sized from its length.
+	 */
+	public static byte[] readFile(File file) throws IOException {
+		FileInputStream fis = new FileInputStream(file);
+		try {
+			long length = file.length();
+			if (length > Integer.MAX_VALUE) {
+				throw new IOException("File is too large to read into memory: " + file);
+			}
+			byte[] bytes = new byte[(int) length];
+			int offset = 0;
+			while (offset < bytes.length) {
+				int numRead = fis.read(bytes, offset, bytes.length - offset);
+				if (numRead < 0) {
+					// file shrank
+					return Arrays.copyOf(bytes, offset);
+				}
+				offset += numRead;
+			}
+			int next = fis.read();
+			if (next < 0) {
+				return bytes;
+			}
+			// file grew
+			ByteArrayOutputStream baos = new ByteArrayOutputStream(bytes.length * 2);
+			baos.write(bytes);
+			baos.write(next);
+			byte[] buffer = new byte[4096];
+			while (true) {
+				int numRead = fis.read(buffer);
+				if (numRead < 0) {
+					return baos.toByteArray();
+				}
+				baos.write(buffer, 0, numRead);
+			}
+		} finally {
+			IOUtils.closeQuietly(fis);
+		}
+	}
 }
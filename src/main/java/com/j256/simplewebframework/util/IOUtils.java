@@ -1,7 +1,11 @@
 package com.j256.simplewebframework.util;
 
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * IO utility methods copied from elsewhere.
@@ -22,4 +26,38 @@ public class IOUtils {
 			}
 		}
 	}
+
+	/**
+	 * Read the rest of an input-stream into a byte array. The stream is not closed.
+	 */
+	public static byte[] toByteArray(InputStream inputStream) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		while (true) {
+			int numRead = inputStream.read(buffer);
+			if (numRead < 0) {
+				return baos.toByteArray();
+			}
+			baos.write(buffer, 0, numRead);
+		}
+	}
+
+	/**
+	 * Transfer a number of bytes from the channel starting at a position. {@link FileChannel#transferTo} may transfer
+	 * less than asked for so we loop.
+	 * 
+	 * @throws IOException
+	 *             If the file was truncated underneath us so not all of the bytes could be transferred.
+	 */
+	public static void transferFully(FileChannel channel, long position, long count, WritableByteChannel target)
+			throws IOException {
+		long end = position + count;
+		while (position < end) {
+			long numTransferred = channel.transferTo(position, end - position, target);
+			if (numTransferred <= 0) {
+				throw new IOException("could not transfer all " + count + " bytes from channel");
+			}
+			position += numTransferred;
+		}
+	}
 }
@@ -1,5 +1,8 @@
 package com.j256.simplewebframework.util;
 
+import java.util.Collection;
+import java.util.Locale;
+
 import javax.servlet.http.HttpServletRequest;
 
 /**
@@ -19,4 +22,115 @@ public class RequestUtils {
 		}
 		return sb.toString();
 	}
+
+	/**
+	 * Return true if the request's Accept-Encoding header accepts a particular content-coding such as "gzip".
+	 */
+	public static boolean isEncodingAccepted(HttpServletRequest request, String encoding) {
+		return isEncodingAccepted(request.getHeader("Accept-Encoding"), encoding);
+	}
+
+	/**
+	 * Return true if the Accept-Encoding header value accepts a particular content-coding such as "gzip". Codings with
+	 * a q-value of 0 are not accepted and "*" matches any coding not otherwise listed.
+	 */
+	public static boolean isEncodingAccepted(String acceptEncoding, String encoding) {
+		if (acceptEncoding == null) {
+			return false;
+		}
+		boolean starAccepted = false;
+		for (String part : StringUtils.split(acceptEncoding, ',')) {
+			String coding;
+			boolean accepted = true;
+			int semiIndex = part.indexOf(';');
+			if (semiIndex < 0) {
+				coding = part.trim();
+			} else {
+				coding = part.substring(0, semiIndex).trim();
+				accepted = isQualityNonZero(part.substring(semiIndex + 1));
+			}
+			if (coding.equalsIgnoreCase(encoding)) {
+				return accepted;
+			} else if (coding.equals("*")) {
+				starAccepted = accepted;
+			}
+		}
+		return starAccepted;
+	}
+
+	/**
+	 * Return the alternate mime-type that the Accept header value prefers over the default type or null if the default
+	 * type is just as good. Only types listed explicitly in the header are considered and the first one listed wins
+	 * ties. Wildcards like "*&#47;*" never select an alternate type.
+	 * 
+	 * @param accept
+	 *            Value of the Accept header which may be null.
+	 * @param defaultType
+	 *            Type the response would have without negotiation. Any parameters such as charset are ignored.
+	 * @param alternateTypes
+	 *            Lowercase types without parameters that the response could be rendered as instead.
+	 */
+	public static String findPreferredType(String accept, String defaultType, Collection<String> alternateTypes) {
+		if (accept == null || alternateTypes.isEmpty()) {
+			return null;
+		}
+		if (defaultType != null) {
+			defaultType = stripParams(defaultType).toLowerCase(Locale.ENGLISH);
+		}
+		float defaultQuality = 0;
+		String bestType = null;
+		float bestQuality = 0;
+		for (String part : StringUtils.split(accept, ',')) {
+			String type;
+			float quality = 1;
+			int semiIndex = part.indexOf(';');
+			if (semiIndex < 0) {
+				type = part.trim().toLowerCase(Locale.ENGLISH);
+			} else {
+				type = part.substring(0, semiIndex).trim().toLowerCase(Locale.ENGLISH);
+				quality = parseQuality(part.substring(semiIndex + 1));
+			}
+			if (type.equals(defaultType)) {
+				defaultQuality = Math.max(defaultQuality, quality);
+			} else if (quality > bestQuality && alternateTypes.contains(type)) {
+				bestType = type;
+				bestQuality = quality;
+			}
+		}
+		if (bestQuality > defaultQuality) {
+			return bestType;
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * Return the mime-type with any parameters such as "; charset=UTF-8" removed.
+	 */
+	public static String stripParams(String contentType) {
+		int semiIndex = contentType.indexOf(';');
+		if (semiIndex < 0) {
+			return contentType.trim();
+		} else {
+			return contentType.substring(0, semiIndex).trim();
+		}
+	}
+
+	private static boolean isQualityNonZero(String params) {
+		return parseQuality(params) > 0;
+	}
+
+	private static float parseQuality(String params) {
+		for (String param : StringUtils.split(params, ';')) {
+			param = param.trim();
+			if (param.startsWith("q=") || param.startsWith("Q=")) {
+				try {
+					return Float.parseFloat(param.substring(2).trim());
+				} catch (NumberFormatException e) {
+					return 0;
+				}
+			}
+		}
+		return 1;
+	}
 }
@@ -53,6 +53,37 @@ public class ResponseUtils {
 		}
 	}
 
+	/**
+	 * Send an error back in the response object with a body that has already been rendered. This avoids the container
+	 * generating an error page for every bad request. This also closes the response output stream.
+	 * 
+	 * @param reason
+	 *            Reason added to the logging handler details or null if none.
+	 * @return True if it worked otherwise false if it threw an exception.
+	 */
+	public static boolean sendErrorBody(HttpServletResponse response, HttpErrorCode errorCode, String reason,
+			byte[] body) {
+		try {
+			if (reason != null) {
+				LoggingHandler.addExtraDetail("reason", reason);
+			}
+			if (response.isCommitted()) {
+				return false;
+			} else {
+				response.setStatus(errorCode.getHttpErrorCode());
+				response.setContentType("text/plain");
+				response.setContentLength(body.length);
+				response.getOutputStream().write(body);
+				return true;
+			}
+		} catch (IOException e) {
+			// ignore the error
+			return false;
+		} finally {
+			closeOutputQuietly(response);
+		}
+	}
+
 	/**
 	 * Closes the output stream assocatiated with the response object quietly.
 	 */
@@ -0,0 +1,163 @@
+package com.j256.simplewebframework.cbor;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+public class CborTest {
+
+	private final Gson gson = new Gson();
+
+	@Test
+	public void testIntegers() throws Exception {
+		assertEquals("00", encode(0));
+		assertEquals("17", encode(23));
+		assertEquals("1818", encode(24));
+		assertEquals("1864", encode(100));
+		assertEquals("1903e8", encode(1000));
+		assertEquals("1a000f4240", encode(1000000));
+		assertEquals("1b000000e8d4a51000", encode(1000000000000L));
+		assertEquals("20", encode(-1));
+		assertEquals("3863", encode(-100));
+		assertEquals("3b7fffffffffffffff", encode(Long.MIN_VALUE));
+	}
+
+	@Test
+	public void testOtherValues() throws Exception {
+		assertEquals("6161", encode("a"));
+		assertEquals("62c3bc", encode("\u00fc"));
+		assertEquals("f5", encode(true));
+		assertEquals("f6", encode(null));
+		assertEquals("fa3fc00000", encode(1.5));
+		assertEquals("fb3ff199999999999a", encode(1.1));
+		assertEquals("9f010203ff", encode(new int[] { 1, 2, 3 }));
+		assertEquals("bf6161016162f5ff", encode(new Foo(1, true)));
+	}
+
+	@Test
+	public void testNullFields() throws Exception {
+		assertEquals("bf6161f6ff", encode(new Bar(null), new GsonBuilder().serializeNulls().create()));
+		assertEquals("bfff", encode(new Bar(null), gson));
+	}
+
+	@Test
+	public void testParse() throws Exception {
+		assertEquals(JsonParser.parseString("[1,[2,3],[4,5]]"), parse("8301820203820405"));
+		assertEquals(JsonParser.parseString("{\"a\":1,\"b\":[2,3]}"), parse("a26161016162820203"));
+		assertEquals(JsonParser.parseString("\"streaming\""), parse("7f657374726561646d696e67ff"));
+		assertEquals(JsonParser.parseString("[1,2]"), parse("9f0102ff"));
+		assertEquals(JsonParser.parseString("1.5"), parse("f93e00"));
+		assertEquals(JsonParser.parseString("-1000"), parse("3903e7"));
+		assertEquals(JsonParser.parseString("18446744073709551615"), parse("1bffffffffffffffff"));
+		// tagged date string
+		assertEquals(JsonParser.parseString("\"2013-03-21T20:04:00Z\""),
+				parse("c074323031332d30332d32315432303a30343a30305a"));
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		Baz baz = new Baz();
+		baz.name = "n\u00e4me \ud83d\ude00";
+		baz.values = Arrays.asList(1L, -2L, 300L);
+		baz.ratio = 0.1;
+		baz.bytes = new byte[] { 1, -1 };
+		baz.foo = new Foo(10, false);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		CborGenerator generator = new CborGenerator(baos);
+		gson.toJson(baz, Baz.class, generator);
+		generator.flush();
+		JsonElement element = new CborParser(new ByteArrayInputStream(baos.toByteArray())).parse();
+		Baz result = gson.fromJson(element, Baz.class);
+		assertEquals(baz.name, result.name);
+		assertEquals(baz.values, result.values);
+		assertEquals(baz.ratio, result.ratio, 0);
+		assertArrayEquals(baz.bytes, result.bytes);
+		assertEquals(baz.foo.a, result.foo.a);
+		assertEquals(baz.foo.b, result.foo.b);
+	}
+
+	@Test
+	public void testTooDeep() throws Exception {
+		byte[] bytes = new byte[100];
+		Arrays.fill(bytes, (byte) 0x81);
+		try {
+			new CborParser(new ByteArrayInputStream(bytes), 10).parse();
+			fail("should have thrown");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testTruncated() throws Exception {
+		parse("1a000f");
+	}
+
+	private String encode(Object value) throws IOException {
+		return encode(value, gson);
+	}
+
+	private String encode(Object value, Gson gson) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		CborGenerator generator = new CborGenerator(baos);
+		if (value == null) {
+			generator.nullValue();
+		} else {
+			gson.toJson(value, value.getClass(), generator);
+		}
+		generator.flush();
+		StringBuilder sb = new StringBuilder();
+		for (byte b : baos.toByteArray()) {
+			sb.append(String.format("%02x", b & 0xFF));
+		}
+		return sb.toString();
+	}
+
+	private JsonElement parse(String hex) throws IOException {
+		byte[] bytes = new byte[hex.length() / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+		}
+		return new CborParser(new ByteArrayInputStream(bytes)).parse();
+	}
+
+	private static class Foo {
+		int a;
+		boolean b;
+
+		public Foo(int a, boolean b) {
+			this.a = a;
+			this.b = b;
+		}
+	}
+
+	private static class Bar {
+		@SuppressWarnings("unused")
+		String a;
+
+		public Bar(String a) {
+			this.a = a;
+		}
+	}
+
+	private static class Baz {
+		String name;
+		List<Long> values;
+		double ratio;
+		byte[] bytes;
+		Foo foo;
+	}
+}
@@ -0,0 +1,382 @@
+package com.j256.simplewebframework.cms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.j256.simplewebframework.util.FileUtils;
+import com.j256.simplewebframework.util.IOUtils;
+
+public class CmsManagerTest {
+
+	private final File tmpDir = new File("target/" + getClass().getSimpleName()).getAbsoluteFile();
+
+	@Before
+	public void before() throws IOException {
+		FileUtils.deleteDirectory(tmpDir);
+		tmpDir.mkdirs();
+	}
+
+	@After
+	public void after() throws IOException {
+		FileUtils.deleteDirectory(tmpDir);
+	}
+
+	@Test
+	public void testDeltaUpdate() throws Exception {
+		TestContentSource source = new TestContentSource();
+		Map<String, String> files = new HashMap<String, String>();
+		files.put("index.html", "<p>index</p>");
+		files.put("css/site.css", "body { color: red; }");
+		source.addRevision(1, files);
+
+		CmsManager cmsManager = new CmsManager();
+		cmsManager.setContentSource(source);
+		cmsManager.setLocalPath(new File(tmpDir, "cms").getPath());
+		cmsManager.setLivePath(new File(tmpDir, "cms/live").getPath());
+		cmsManager.setDeltaUpdates(true);
+		cmsManager.updateCms();
+		assertEquals(1, source.zipCount);
+		assertEquals(0, source.fileRequests.size());
+		assertTrue(new File(tmpDir, "cms/trunk/1.manifest").isFile());
+
+		files.put("index.html", "<p>fixed typo</p>");
+		files.put("new.html", "new");
+		source.addRevision(2, files);
+		cmsManager.updateCms();
+		// only the changed files were downloaded
+		assertEquals(1, source.zipCount);
+		assertEquals(2, source.fileRequests.size());
+		assertTrue(source.fileRequests.contains("index.html"));
+		assertTrue(source.fileRequests.contains("new.html"));
+		File revisionDir = new File(tmpDir, "cms/trunk/2");
+		assertEquals("<p>fixed typo</p>", readFile(new File(revisionDir, "index.html")));
+		assertEquals("body { color: red; }", readFile(new File(revisionDir, "css/site.css")));
+		assertEquals(revisionDir.getCanonicalFile(), new File(tmpDir, "cms/live").getCanonicalFile());
+
+		// the old revision and its manifest are removed
+		assertFalse(new File(tmpDir, "cms/trunk/1").exists());
+		assertFalse(new File(tmpDir, "cms/trunk/1.manifest").exists());
+	}
+
+	@Test
+	public void testDeltaBadFile() throws Exception {
+		TestContentSource source = new TestContentSource();
+		Map<String, String> files = new HashMap<String, String>();
+		files.put("index.html", "<p>index</p>");
+		source.addRevision(1, files);
+		CmsManager cmsManager = new CmsManager();
+		cmsManager.setContentSource(source);
+		cmsManager.setLocalPath(new File(tmpDir, "cms").getPath());
+		cmsManager.setLivePath(new File(tmpDir, "cms/live").getPath());
+		cmsManager.setDeltaUpdates(true);
+		cmsManager.updateCms();
+
+		files.put("index.html", "<p>changed</p>");
+		source.addRevision(2, files);
+		// does not match the manifest so we fall back to the zip
+		source.corruptFiles = true;
+		cmsManager.updateCms();
+		assertEquals(2, source.zipCount);
+		assertEquals("<p>changed</p>", readFile(new File(tmpDir, "cms/trunk/2/index.html")));
+	}
+
+	@Test
+	public void testDeltaBadHash() throws Exception {
+		TestContentSource source = new TestContentSource();
+		Map<String, String> files = new HashMap<String, String>();
+		files.put("index.html", "<p>index</p>");
+		source.addRevision(1, files);
+		CmsManager cmsManager = createCmsManager(source);
+		cmsManager.setDeltaUpdates(true);
+		cmsManager.setDedupFiles(true);
+		cmsManager.updateCms();
+
+		// the hashes are used as object file names so the manifest is rejected and we fall back to the zip
+		int revision = 2;
+		for (String hash : new String[] { "a", "../../../../index.html", "2fd4e1c67a2d28fced849ee1bb76e7391b93eb1z" }) {
+			files.put("index.html", "<p>revision " + revision + "</p>");
+			source.addRevision(revision, files);
+			source.manifestHash = hash;
+			cmsManager.updateCms();
+			assertEquals(revision, source.zipCount);
+			assertEquals("<p>revision " + revision + "</p>",
+					readFile(new File(tmpDir, "cms/trunk/" + revision + "/index.html")));
+			revision++;
+		}
+		assertEquals(0, source.fileRequests.size());
+	}
+
+	@Test
+	public void testParallelExtract() throws Exception {
+		TestContentSource source = new TestContentSource();
+		Map<String, String> files = new HashMap<String, String>();
+		for (int i = 0; i < 100; i++) {
+			files.put("css/file" + i + ".css", "body { width: " + i + "px; }");
+		}
+		source.addRevision(1, files);
+		CmsManager cmsManager = new CmsManager();
+		cmsManager.setContentSource(source);
+		cmsManager.setLocalPath(new File(tmpDir, "cms").getPath());
+		cmsManager.setLivePath(new File(tmpDir, "cms/live").getPath());
+		cmsManager.setExtractThreadCount(4);
+		cmsManager.updateCms();
+		File revisionDir = new File(tmpDir, "cms/trunk/1");
+		for (int i = 0; i < 100; i++) {
+			assertEquals("body { width: " + i + "px; }", readFile(new File(revisionDir, "css/file" + i + ".css")));
+		}
+		// the spooled zip is removed
+		assertFalse(new File(tmpDir, "cms/trunk/1.t.zip").exists());
+	}
+
+	@Test
+	public void testDedupFiles() throws Exception {
+		TestContentSource source = new TestContentSource();
+		Map<String, String> files = new HashMap<String, String>();
+		files.put("index.html", "<p>index</p>");
+		files.put("css/site.css", "body { color: red; }");
+		files.put("css/copy.css", "body { color: red; }");
+		source.addRevision(1, files);
+		CmsManager cmsManager = new CmsManager();
+		cmsManager.setContentSource(source);
+		cmsManager.setLocalPath(new File(tmpDir, "cms").getPath());
+		cmsManager.setLivePath(new File(tmpDir, "cms/live").getPath());
+		cmsManager.setDedupFiles(true);
+		cmsManager.updateCms();
+		// the two css files are the same object
+		File revisionDir = new File(tmpDir, "cms/trunk/1");
+		assertEquals(3, Files.getAttribute(new File(revisionDir, "css/site.css").toPath(), "unix:nlink"));
+		assertEquals(2, countObjects());
+		// no temporary links are left behind
+		assertEquals(2, new File(revisionDir, "css").list().length);
+
+		files.put("index.html", "<p>changed</p>");
+		source.addRevision(2, files);
+		cmsManager.updateCms();
+		revisionDir = new File(tmpDir, "cms/trunk/2");
+		assertEquals("<p>changed</p>", readFile(new File(revisionDir, "index.html")));
+		assertEquals("body { color: red; }", readFile(new File(revisionDir, "css/site.css")));
+		// the object of the old index.html is removed with the old revision
+		assertEquals(2, countObjects());
+	}
+
+	@Test
+	public void testConditionalConfig() throws Exception {
+		TestContentSource source = new TestContentSource();
+		Map<String, String> files = new HashMap<String, String>();
+		files.put("index.html", "<p>index</p>");
+		source.addRevision(1, files);
+		CmsManager cmsManager = createCmsManager(source);
+		cmsManager.updateCms();
+		assertEquals(1, source.zipCount);
+		cmsManager.updateCms();
+		assertEquals(1, source.notModifiedCount);
+		assertTrue(cmsManager.getUpdateStatus(), cmsManager.getUpdateStatus().contains("not modified"));
+		// forced updates always read the config
+		cmsManager.forceUpdateCms();
+		assertEquals(1, source.notModifiedCount);
+		assertEquals(1, source.zipCount);
+
+		source.addRevision(2, files);
+		cmsManager.updateCms();
+		assertEquals(2, source.zipCount);
+		assertEquals("<p>index</p>", readFile(new File(tmpDir, "cms/live/index.html")));
+	}
+
+	@Test
+	public void testSingleFlight() throws Exception {
+		TestContentSource source = new TestContentSource();
+		Map<String, String> files = new HashMap<String, String>();
+		files.put("index.html", "<p>index</p>");
+		source.addRevision(1, files);
+		source.configLatch = new CountDownLatch(1);
+		final CmsManager cmsManager = createCmsManager(source);
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					cmsManager.updateCms();
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		});
+		thread.start();
+		while (source.configCount == 0) {
+			Thread.sleep(10);
+		}
+		// these return right away while the other is running
+		cmsManager.updateCms();
+		cmsManager.forceUpdateCms();
+		cmsManager.updateCms();
+		assertEquals(3, cmsManager.getCollapsedUpdateCount());
+		assertTrue(cmsManager.getUpdateStatus(), cmsManager.getUpdateStatus().startsWith("running"));
+		source.configLatch.countDown();
+		thread.join();
+		// the requests were collapsed into one forced update after the running one
+		assertEquals(2, source.configCount);
+		assertEquals(0, source.notModifiedCount);
+		assertEquals(1, source.zipCount);
+		assertTrue(cmsManager.getUpdateStatus(), cmsManager.getUpdateStatus().startsWith("idle"));
+
+		cmsManager.updateCms();
+		assertEquals(3, source.configCount);
+		assertEquals(1, source.notModifiedCount);
+	}
+
+	@Test
+	public void testBackgroundUpdates() throws Exception {
+		TestContentSource source = new TestContentSource();
+		Map<String, String> files = new HashMap<String, String>();
+		files.put("index.html", "<p>index</p>");
+		source.addRevision(1, files);
+		CmsManager cmsManager = createCmsManager(source);
+		cmsManager.setUpdatePeriodMillis(10);
+		cmsManager.setUpdateJitterMillis(10);
+		cmsManager.start();
+		try {
+			long end = System.currentTimeMillis() + 10000;
+			while (source.notModifiedCount < 2 && System.currentTimeMillis() < end) {
+				Thread.sleep(10);
+			}
+		} finally {
+			cmsManager.stop();
+		}
+		assertTrue(source.notModifiedCount >= 2);
+		assertEquals(1, source.zipCount);
+	}
+
+	private CmsManager createCmsManager(ContentSource source) {
+		CmsManager cmsManager = new CmsManager();
+		cmsManager.setContentSource(source);
+		cmsManager.setLocalPath(new File(tmpDir, "cms").getPath());
+		cmsManager.setLivePath(new File(tmpDir, "cms/live").getPath());
+		return cmsManager;
+	}
+
+	private int countObjects() {
+		int count = 0;
+		for (File hashDir : new File(tmpDir, "cms/.objects").listFiles()) {
+			count += hashDir.listFiles().length;
+		}
+		return count;
+	}
+
+	private static String readFile(File file) throws IOException {
+		return new String(FileUtils.readFile(file), "UTF-8");
+	}
+
+	private static class TestContentSource implements ManifestContentSource, ConditionalContentSource {
+
+		private final Map<Integer, Map<String, byte[]>> revisions = new HashMap<Integer, Map<String, byte[]>>();
+		private int liveRevision;
+		int zipCount;
+		final List<String> fileRequests = new ArrayList<String>();
+		boolean corruptFiles;
+		String manifestHash;
+		volatile int configCount;
+		volatile int notModifiedCount;
+		CountDownLatch configLatch;
+
+		public void addRevision(int revision, Map<String, String> files) throws IOException {
+			Map<String, byte[]> fileBytes = new HashMap<String, byte[]>();
+			for (Map.Entry<String, String> entry : files.entrySet()) {
+				fileBytes.put(entry.getKey(), entry.getValue().getBytes("UTF-8"));
+			}
+			revisions.put(revision, fileBytes);
+			liveRevision = revision;
+		}
+
+		@Override
+		public InputStream getRevisionConfigInputStream() throws IOException {
+			return new ByteArrayInputStream(("true\ttrunk\t" + liveRevision + "\n").getBytes("UTF-8"));
+		}
+
+		@Override
+		public RevisionConfig getRevisionConfig(String previousVersion) throws IOException {
+			configCount++;
+			if (configLatch != null) {
+				try {
+					configLatch.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException(e);
+				}
+			}
+			String version = "\"" + liveRevision + "\"";
+			if (version.equals(previousVersion)) {
+				notModifiedCount++;
+				return RevisionConfig.NOT_MODIFIED;
+			}
+			return new RevisionConfig(getRevisionConfigInputStream(), version);
+		}
+
+		@Override
+		public InputStream getContentZipInputStream(String branch, int revision) throws IOException {
+			zipCount++;
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			ZipOutputStream zos = new ZipOutputStream(baos);
+			// directory entries first like zip tools write
+			zos.putNextEntry(new ZipEntry("css/"));
+			for (Map.Entry<String, byte[]> entry : revisions.get(revision).entrySet()) {
+				zos.putNextEntry(new ZipEntry(entry.getKey()));
+				zos.write(entry.getValue());
+			}
+			zos.close();
+			return new ByteArrayInputStream(baos.toByteArray());
+		}
+
+		@Override
+		public InputStream getManifestInputStream(String branch, int revision) throws IOException {
+			// build it from a directory like a publisher would
+			File dir = new File("target/" + CmsManagerTest.class.getSimpleName() + "/publish");
+			FileUtils.deleteDirectory(dir);
+			for (Map.Entry<String, byte[]> entry : revisions.get(revision).entrySet()) {
+				File file = new File(dir, entry.getKey());
+				file.getParentFile().mkdirs();
+				FileOutputStream fos = new FileOutputStream(file);
+				try {
+					fos.write(entry.getValue());
+				} finally {
+					IOUtils.closeQuietly(fos);
+				}
+			}
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			RevisionManifest.build(dir).write(baos);
+			FileUtils.deleteDirectory(dir);
+			if (manifestHash == null) {
+				return new ByteArrayInputStream(baos.toByteArray());
+			}
+			String manifest = baos.toString("UTF-8").replaceAll("(?m)^[0-9a-f]+\t", manifestHash + "\t");
+			return new ByteArrayInputStream(manifest.getBytes("UTF-8"));
+		}
+
+		@Override
+		public InputStream getContentFileInputStream(String branch, int revision, String path) {
+			fileRequests.add(path);
+			if (corruptFiles) {
+				return new ByteArrayInputStream(new byte[] { 1, 2, 3 });
+			}
+			return new ByteArrayInputStream(revisions.get(revision).get(path));
+		}
+	}
+}
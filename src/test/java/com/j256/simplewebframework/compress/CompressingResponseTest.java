@@ -0,0 +1,220 @@
+package com.j256.simplewebframework.compress;
+
+import static org.easymock.EasyMock.anyInt;
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Test;
+
+import com.j256.simplewebframework.util.IOUtils;
+
+public class CompressingResponseTest {
+
+	private static final int MIN_SIZE = 1024;
+
+	@Test
+	public void testSmallBodyNotCompressed() throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		HttpServletResponse response = createResponse(baos, "text/html");
+		response.setHeader("Content-Length", Integer.toString(MIN_SIZE - 1));
+		expectNotCompressed(response);
+		replay(response);
+
+		ResponseCompressor compressor = createCompressor();
+		byte[] body = createBody(MIN_SIZE - 1);
+		render(compressor, response, body);
+		verify(response);
+		assertArrayEquals(body, baos.toByteArray());
+		assertEquals(0, compressor.getCompressedCount());
+		assertEquals(1, compressor.getUncompressedCount());
+	}
+
+	@Test
+	public void testMinSizeCompressed() throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		HttpServletResponse response = createResponse(baos, "text/html");
+		expectCompressed(response);
+		replay(response);
+
+		ResponseCompressor compressor = createCompressor();
+		byte[] body = createBody(MIN_SIZE);
+		render(compressor, response, body);
+		verify(response);
+		assertArrayEquals(body, gunzip(baos.toByteArray()));
+		assertEquals(1, compressor.getCompressedCount());
+		assertEquals(0, compressor.getUncompressedCount());
+	}
+
+	@Test
+	public void testLargeBodyCompressed() throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		HttpServletResponse response = createResponse(baos, "application/json; charset=UTF-8");
+		expectCompressed(response);
+		replay(response);
+
+		ResponseCompressor compressor = createCompressor();
+		byte[] body = createBody(100000);
+		render(compressor, response, body);
+		verify(response);
+		assertArrayEquals(body, gunzip(baos.toByteArray()));
+		assertTrue(baos.size() < body.length);
+	}
+
+	@Test
+	public void testNotCompressibleType() throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		HttpServletResponse response = createResponse(baos, "image/png");
+		// longer than an int can hold and passed through once we know we aren't compressing
+		response.setHeader("Content-Length", "3000000000");
+		expectNotCompressed(response);
+		replay(response);
+
+		ResponseCompressor compressor = createCompressor();
+		HttpServletResponse wrapped = compressor.wrapResponse(createRequest(), response);
+		wrapped.setHeader("Content-Length", "3000000000");
+		byte[] body = createBody(MIN_SIZE * 2);
+		wrapped.getOutputStream().write(body);
+		compressor.finishResponse(wrapped);
+		verify(response);
+		assertArrayEquals(body, baos.toByteArray());
+	}
+
+	@Test
+	public void testAlreadyEncoded() throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		HttpServletResponse response = createResponse(baos, "text/html");
+		response.setHeader("Content-Encoding", "br");
+		// passed straight through once we've decided not to compress
+		response.setContentLength(MIN_SIZE * 2);
+		response.addHeader("Vary", "Accept-Encoding");
+		expectLastCall().andThrow(new AssertionError("should not vary when not compressing")).anyTimes();
+		replay(response);
+
+		ResponseCompressor compressor = createCompressor();
+		HttpServletResponse wrapped = compressor.wrapResponse(createRequest(), response);
+		wrapped.setHeader("Content-Encoding", "br");
+		byte[] body = createBody(MIN_SIZE * 2);
+		wrapped.setContentLength(body.length);
+		render(wrapped, body);
+		compressor.finishResponse(wrapped);
+		verify(response);
+		assertArrayEquals(body, baos.toByteArray());
+		assertEquals(1, compressor.getUncompressedCount());
+	}
+
+	@Test
+	public void testRawOutputWhenNotCompressing() throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		HttpServletResponse response = createResponse(baos, "image/png");
+		replay(response);
+
+		// the displayers see the connection's stream so they can write to it directly
+		ResponseCompressor compressor = createCompressor();
+		HttpServletResponse wrapped = compressor.wrapResponse(createRequest(), response);
+		assertSame(response.getOutputStream(), wrapped.getOutputStream());
+		assertEquals(1, compressor.getUncompressedCount());
+
+		response = createResponse(baos, "text/html");
+		replay(response);
+		wrapped = compressor.wrapResponse(createRequest(), response);
+		assertNotSame(response.getOutputStream(), wrapped.getOutputStream());
+	}
+
+	private ResponseCompressor createCompressor() {
+		ResponseCompressor compressor = new ResponseCompressor();
+		compressor.setMinSize(MIN_SIZE);
+		return compressor;
+	}
+
+	private HttpServletRequest createRequest() {
+		HttpServletRequest request = createNiceMock(HttpServletRequest.class);
+		expect(request.getHeader("Accept-Encoding")).andReturn("gzip, deflate").anyTimes();
+		replay(request);
+		return request;
+	}
+
+	private HttpServletResponse createResponse(final ByteArrayOutputStream baos, String contentType)
+			throws IOException {
+		HttpServletResponse response = createNiceMock(HttpServletResponse.class);
+		expect(response.getContentType()).andReturn(contentType).anyTimes();
+		expect(response.getStatus()).andReturn(HttpServletResponse.SC_OK).anyTimes();
+		expect(response.getOutputStream()).andReturn(new ServletOutputStream() {
+			@Override
+			public void write(int b) {
+				baos.write(b);
+			}
+
+			@Override
+			public void write(byte[] bytes, int offset, int length) {
+				baos.write(bytes, offset, length);
+			}
+		}).anyTimes();
+		return response;
+	}
+
+	private void expectNotCompressed(HttpServletResponse response) {
+		response.setHeader("Content-Encoding", "gzip");
+		expectLastCall().andThrow(new AssertionError("should not be compressed")).anyTimes();
+		response.addHeader("Vary", "Accept-Encoding");
+		expectLastCall().andThrow(new AssertionError("should not vary when not compressing")).anyTimes();
+	}
+
+	private void expectCompressed(HttpServletResponse response) {
+		response.setHeader("Content-Encoding", "gzip");
+		response.addHeader("Vary", "Accept-Encoding");
+		response.setHeader(anyObject(String.class), anyObject(String.class));
+		expectLastCall().andThrow(new AssertionError("no other headers should be set")).anyTimes();
+		response.setContentLength(anyInt());
+		expectLastCall().andThrow(new AssertionError("Content-Length should not be set")).anyTimes();
+	}
+
+	private void render(ResponseCompressor compressor, HttpServletResponse response, byte[] body)
+			throws IOException {
+		HttpServletResponse wrapped = compressor.wrapResponse(createRequest(), response);
+		// the length of the uncompressed body
+		wrapped.setContentLength(body.length);
+		render(wrapped, body);
+		compressor.finishResponse(wrapped);
+	}
+
+	private void render(HttpServletResponse wrapped, byte[] body) throws IOException {
+		ServletOutputStream sos = wrapped.getOutputStream();
+		// in pieces to go through the buffering
+		int half = body.length / 2;
+		sos.write(body, 0, half);
+		sos.write(body, half, body.length - half);
+		sos.close();
+	}
+
+	private byte[] createBody(int length) {
+		byte[] body = new byte[length];
+		Arrays.fill(body, (byte) 'a');
+		for (int i = 0; i < length; i += 7) {
+			body[i] = (byte) ('0' + i % 10);
+		}
+		return body;
+	}
+
+	private byte[] gunzip(byte[] bytes) throws IOException {
+		return IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(bytes)));
+	}
+}
@@ -0,0 +1,63 @@
+package com.j256.simplewebframework.compress;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+public class PooledGzipOutputStreamTest {
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		DeflaterPool pool = new DeflaterPool();
+		byte[] bytes = new byte[100000];
+		new Random(1).nextBytes(bytes);
+		// make it somewhat compressible
+		for (int i = 0; i < bytes.length; i += 2) {
+			bytes[i] = 'a';
+		}
+		for (int i = 0; i < 3; i++) {
+			assertArrayEquals(bytes, gunzip(gzip(pool, bytes)));
+			// the deflater should be back in the pool
+			assertEquals(1, pool.getIdleCount());
+		}
+	}
+
+	@Test
+	public void testEmpty() throws Exception {
+		DeflaterPool pool = new DeflaterPool();
+		assertEquals(0, gunzip(gzip(pool, new byte[0])).length);
+	}
+
+	private byte[] gzip(DeflaterPool pool, byte[] bytes) throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		PooledGzipOutputStream gzipStream = new PooledGzipOutputStream(baos, pool, Deflater.BEST_SPEED, 1024);
+		gzipStream.write(bytes, 0, bytes.length / 2);
+		gzipStream.flush();
+		gzipStream.write(bytes, bytes.length / 2, bytes.length - bytes.length / 2);
+		gzipStream.close();
+		gzipStream.close();
+		return baos.toByteArray();
+	}
+
+	private byte[] gunzip(byte[] bytes) throws Exception {
+		GZIPInputStream gzipStream = new GZIPInputStream(new ByteArrayInputStream(bytes));
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		while (true) {
+			int numRead = gzipStream.read(buffer);
+			if (numRead < 0) {
+				break;
+			}
+			baos.write(buffer, 0, numRead);
+		}
+		gzipStream.close();
+		return baos.toByteArray();
+	}
+}
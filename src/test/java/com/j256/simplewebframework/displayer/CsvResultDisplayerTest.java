@@ -0,0 +1,164 @@
+package com.j256.simplewebframework.displayer;
+
+import static org.easymock.EasyMock.anyInt;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Test;
+
+public class CsvResultDisplayerTest {
+
+	@Test
+	public void testArrays() throws Exception {
+		String csv = render(CsvResultDisplayer.CSV_MIME_TYPE,
+				Arrays.asList(new Object[] { "a", 1, null, "b,c" }, new int[] { 1, 2 },
+						Arrays.asList("say \"hi\"", "line\nbreak", 1.5)));
+		assertEquals("a,1,,\"b,c\"\r\n1,2\r\n\"say \"\"hi\"\"\",\"line\nbreak\",1.5\r\n", csv);
+	}
+
+	@Test
+	public void testTsv() throws Exception {
+		String tsv = render(CsvResultDisplayer.TSV_MIME_TYPE,
+				new Object[][] { { "a\tb", "c,\"d\"" }, { -5L, "e\r\nf" } });
+		assertEquals("a b\tc,\"d\"\r\n-5\te  f\r\n", tsv);
+	}
+
+	@Test
+	public void testMaps() throws Exception {
+		Map<String, Object> row1 = new LinkedHashMap<String, Object>();
+		row1.put("name", "x");
+		row1.put("count", 1);
+		Map<String, Object> row2 = new LinkedHashMap<String, Object>();
+		row2.put("count", 2);
+		row2.put("name", "y");
+		String csv = render(CsvResultDisplayer.CSV_MIME_TYPE, Arrays.asList(row1, row2));
+		assertEquals("name,count\r\nx,1\r\ny,2\r\n", csv);
+	}
+
+	@Test
+	public void testBeans() throws Exception {
+		String csv = render(CsvResultDisplayer.CSV_MIME_TYPE, Arrays.asList(new Bean("x", 1), new Bean("y\u00e9", 2)));
+		assertEquals("count,name\r\n1,x\r\n2,y\u00e9\r\n", csv);
+	}
+
+	@Test
+	public void testIteratorStreamed() throws Exception {
+		final int numRows = 10000;
+		Iterator<Object[]> iterator = new Iterator<Object[]>() {
+			int count;
+
+			@Override
+			public boolean hasNext() {
+				return count < numRows;
+			}
+
+			@Override
+			public Object[] next() {
+				count++;
+				return new Object[] { count, "row" };
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+		String csv = render(CsvResultDisplayer.CSV_MIME_TYPE, iterator);
+		assertTrue(csv.startsWith("1,row\r\n2,row\r\n"));
+		assertTrue(csv.endsWith("\r\n10000,row\r\n"));
+		assertEquals(numRows, csv.split("\r\n").length);
+	}
+
+	@Test
+	public void testBeanGetterThrows() throws Exception {
+		final boolean[] closed = new boolean[1];
+		HttpServletResponse response = createNiceMock(HttpServletResponse.class);
+		expect(response.getContentType()).andReturn(CsvResultDisplayer.CSV_MIME_TYPE);
+		expect(response.getOutputStream()).andReturn(new ServletOutputStream() {
+			@Override
+			public void write(int b) {
+				fail("nothing should have been written");
+			}
+
+			@Override
+			public void close() {
+				closed[0] = true;
+			}
+		}).anyTimes();
+		response.setContentLength(anyInt());
+		expectLastCall().andThrow(new AssertionError("Content-Length should not be set")).anyTimes();
+		replay(response);
+		CsvResultDisplayer displayer = new CsvResultDisplayer();
+		try {
+			displayer.renderResult(null, null, response, Arrays.asList(new Bean("x", 1), new FailingBean()));
+			fail("should have thrown");
+		} catch (IOException e) {
+			assertEquals("bad count", e.getCause().getMessage());
+		}
+		// the truncated document must not be sent as a complete response
+		assertFalse(closed[0]);
+	}
+
+	private String render(String contentType, Object result) throws IOException {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		HttpServletResponse response = createNiceMock(HttpServletResponse.class);
+		expect(response.getContentType()).andReturn(contentType);
+		expect(response.getOutputStream()).andReturn(new ServletOutputStream() {
+			@Override
+			public void write(int b) {
+				baos.write(b);
+			}
+		});
+		replay(response);
+		CsvResultDisplayer displayer = new CsvResultDisplayer();
+		displayer.setBufferSize(100);
+		displayer.setFlushRowCount(10);
+		assertTrue(displayer.renderResult(null, null, response, result));
+		return baos.toString("UTF-8");
+	}
+
+	public static class Bean {
+		private final String name;
+		private final int count;
+
+		public Bean(String name, int count) {
+			this.name = name;
+			this.count = count;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getCount() {
+			return count;
+		}
+	}
+
+	public static class FailingBean extends Bean {
+		public FailingBean() {
+			super("z", 3);
+		}
+
+		@Override
+		public int getCount() {
+			throw new IllegalStateException("bad count");
+		}
+	}
+}
@@ -0,0 +1,434 @@
+package com.j256.simplewebframework.displayer;
+
+import static org.easymock.EasyMock.anyInt;
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.capture;
+import static org.easymock.EasyMock.captureInt;
+import static org.easymock.EasyMock.createMockBuilder;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.getCurrentArguments;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.easymock.Capture;
+import org.easymock.IAnswer;
+import org.eclipse.jetty.io.Buffer;
+import org.eclipse.jetty.io.nio.DirectNIOBuffer;
+import org.eclipse.jetty.server.AbstractHttpConnection;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.j256.simplewebframework.displayer.FileResultDisplayer.FileInfo;
+import com.j256.simplewebframework.util.FileUtils;
+import com.j256.simplewebframework.util.IOUtils;
+
+public class FileResultDisplayerTest {
+
+	private static final int FILE_SIZE = 100;
+
+	private File tmpDir;
+	private File file;
+	private byte[] contents;
+
+	@Before
+	public void before() throws IOException {
+		tmpDir = new File("target/" + getClass().getSimpleName());
+		FileUtils.deleteDirectory(tmpDir);
+		tmpDir.mkdirs();
+		contents = new byte[FILE_SIZE];
+		for (int i = 0; i < contents.length; i++) {
+			contents[i] = (byte) ('a' + i % 26);
+		}
+		file = new File(tmpDir, "file.txt");
+		FileOutputStream fos = new FileOutputStream(file);
+		try {
+			fos.write(contents);
+		} finally {
+			fos.close();
+		}
+	}
+
+	@After
+	public void after() throws IOException {
+		FileUtils.deleteDirectory(tmpDir);
+	}
+
+	@Test
+	public void testWholeFile() throws Exception {
+		HttpServletRequest request = createRequest(null, null);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		HttpServletResponse response = createResponse(baos);
+		response.setContentLength(FILE_SIZE);
+		expectNoPartialContent(response);
+		replay(request, response);
+
+		assertTrue(new FileResultDisplayer().renderResult(null, request, response, file));
+		verify(response);
+		assertArrayEquals(contents, baos.toByteArray());
+	}
+
+	@Test
+	public void testSingleRange() throws Exception {
+		HttpServletRequest request = createRequest("bytes=10-19", null);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		HttpServletResponse response = createResponse(baos);
+		response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+		response.setHeader("Content-Range", "bytes 10-19/" + FILE_SIZE);
+		response.setContentLength(10);
+		replay(request, response);
+
+		assertTrue(new FileResultDisplayer().renderResult(null, request, response, file));
+		verify(response);
+		assertArrayEquals(Arrays.copyOfRange(contents, 10, 20), baos.toByteArray());
+	}
+
+	@Test
+	public void testOverlappingRanges() throws Exception {
+		HttpServletRequest request = createRequest("bytes=10-19,15-29,30-39", null);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		HttpServletResponse response = createResponse(baos);
+		// coalesced into a single range
+		response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+		response.setHeader("Content-Range", "bytes 10-39/" + FILE_SIZE);
+		response.setContentLength(30);
+		replay(request, response);
+
+		assertTrue(new FileResultDisplayer().renderResult(null, request, response, file));
+		verify(response);
+		assertArrayEquals(Arrays.copyOfRange(contents, 10, 40), baos.toByteArray());
+	}
+
+	@Test
+	public void testMultipleRanges() throws Exception {
+		HttpServletRequest request = createRequest("bytes=50-59,0-4", null);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		HttpServletResponse response = createResponse(baos);
+		response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+		Capture<String> contentTypeCapture = Capture.newInstance();
+		response.setContentType(capture(contentTypeCapture));
+		Capture<Integer> lengthCapture = Capture.newInstance();
+		response.setContentLength(captureInt(lengthCapture));
+		replay(request, response);
+
+		assertTrue(new FileResultDisplayer().renderResult(null, request, response, file));
+		verify(response);
+		String contentType = contentTypeCapture.getValue();
+		String prefix = "multipart/byteranges; boundary=";
+		assertTrue(contentType, contentType.startsWith(prefix));
+		String boundary = contentType.substring(prefix.length());
+		String expected = "--" + boundary + "\r\n" //
+				+ "Content-Type: text/plain\r\n" //
+				+ "Content-Range: bytes 50-59/" + FILE_SIZE + "\r\n" //
+				+ "\r\n" //
+				+ new String(contents, 50, 10, "ISO-8859-1") //
+				+ "\r\n--" + boundary + "\r\n" //
+				+ "Content-Type: text/plain\r\n" //
+				+ "Content-Range: bytes 0-4/" + FILE_SIZE + "\r\n" //
+				+ "\r\n" //
+				+ new String(contents, 0, 5, "ISO-8859-1") //
+				+ "\r\n--" + boundary + "--\r\n";
+		assertEquals(expected, baos.toString("ISO-8859-1"));
+		assertEquals(baos.size(), (int) lengthCapture.getValue());
+	}
+
+	@Test
+	public void testUnsatisfiableRange() throws Exception {
+		HttpServletRequest request = createRequest("bytes=" + FILE_SIZE + "-", null);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		HttpServletResponse response = createResponse(baos);
+		response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+		response.setHeader("Content-Range", "bytes */" + FILE_SIZE);
+		response.setContentLength(0);
+		replay(request, response);
+
+		assertTrue(new FileResultDisplayer().renderResult(null, request, response, file));
+		verify(response);
+		assertEquals(0, baos.size());
+	}
+
+	@Test
+	public void testIfRangeMismatch() throws Exception {
+		// the file has changed since the client got its part so the whole file is sent
+		HttpServletRequest request = createRequest("bytes=10-19", "\"not-the-etag\"");
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		HttpServletResponse response = createResponse(baos);
+		response.setContentLength(FILE_SIZE);
+		expectNoPartialContent(response);
+		replay(request, response);
+
+		assertTrue(new FileResultDisplayer().renderResult(null, request, response, file));
+		verify(response);
+		assertArrayEquals(contents, baos.toByteArray());
+	}
+
+	@Test
+	public void testIfRangeMatch() throws Exception {
+		String etag = FileResultDisplayer.buildETag(file.lastModified(), FILE_SIZE, null);
+		HttpServletRequest request = createRequest("bytes=10-19", etag);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		HttpServletResponse response = createResponse(baos);
+		response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+		response.setContentLength(10);
+		replay(request, response);
+
+		assertTrue(new FileResultDisplayer().renderResult(null, request, response, file));
+		verify(response);
+		assertArrayEquals(Arrays.copyOfRange(contents, 10, 20), baos.toByteArray());
+	}
+
+	@Test
+	public void testNotModifiedVaries() throws Exception {
+		File gzipFile = new File(tmpDir, "file.txt.gz");
+		gzipFile.createNewFile();
+		HttpServletRequest request = createRequest(null, null);
+		expect(request.getDateHeader("If-Modified-Since")).andReturn(file.lastModified() + 1000).anyTimes();
+		HttpServletResponse response = createResponse(new ByteArrayOutputStream());
+		// caches have to know that the 304 depends on the Accept-Encoding too
+		response.setHeader("Vary", "Accept-Encoding");
+		response.sendError(HttpServletResponse.SC_NOT_MODIFIED, "not modified");
+		replay(request, response);
+
+		FileInfo fileInfo = new FileInfo("file.txt", file, gzipFile, null);
+		assertTrue(new FileResultDisplayer().renderResult(null, request, response, fileInfo));
+		verify(response);
+	}
+
+	@Test
+	public void testRecordedStats() throws Exception {
+		StatCountingFile countingFile = new StatCountingFile(file.getPath());
+		FileInfo fileInfo = new FileInfo("file.txt", countingFile);
+		fileInfo.recordStats();
+		countingFile.statCount = 0;
+
+		HttpServletRequest request = createRequest(null, null);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		HttpServletResponse response = createResponse(baos);
+		response.setContentLength(FILE_SIZE);
+		response.setDateHeader("Last-Modified", file.lastModified());
+		replay(request, response);
+
+		assertTrue(new FileResultDisplayer().renderResult(null, request, response, fileInfo));
+		verify(response);
+		assertArrayEquals(contents, baos.toByteArray());
+		// the file-system was not asked
+		assertEquals(0, countingFile.statCount);
+	}
+
+	@Test
+	public void testMappedAboveThreshold() throws Exception {
+		Capture<Object> contentCapture = Capture.newInstance();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		HttpServletResponse response = createJettyResponse(contentCapture, baos);
+		HttpServletRequest request = createRequest(null, null);
+		replay(request, response);
+
+		FileResultDisplayer displayer = new FileResultDisplayer();
+		displayer.setMappedFileThreshold(FILE_SIZE);
+		assertTrue(displayer.renderResult(null, request, response, file));
+		// the mapped file is handed to jetty
+		Object content = contentCapture.getValue();
+		assertTrue(content.getClass().getName(), content instanceof DirectNIOBuffer);
+		assertArrayEquals(contents, ((Buffer) content).asArray());
+		assertEquals(0, baos.size());
+	}
+
+	@Test
+	public void testMappedRange() throws Exception {
+		Capture<Object> contentCapture = Capture.newInstance();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		HttpServletResponse response = createJettyResponse(contentCapture, baos);
+		HttpServletRequest request = createRequest("bytes=10-19", null);
+		replay(request, response);
+
+		FileResultDisplayer displayer = new FileResultDisplayer();
+		displayer.setMappedFileThreshold(10);
+		assertTrue(displayer.renderResult(null, request, response, file));
+		Object content = contentCapture.getValue();
+		assertTrue(content.getClass().getName(), content instanceof DirectNIOBuffer);
+		assertArrayEquals(Arrays.copyOfRange(contents, 10, 20), ((Buffer) content).asArray());
+	}
+
+	@Test
+	public void testMappingRevalidated() throws Exception {
+		FileResultDisplayer displayer = new FileResultDisplayer();
+		displayer.setMappedFileThreshold(10);
+		assertArrayEquals(contents, renderMapped(displayer));
+		assertArrayEquals(contents, renderMapped(displayer));
+
+		// a new length and last-modified time means the file is mapped again
+		contents = Arrays.copyOf(contents, FILE_SIZE * 2);
+		Arrays.fill(contents, FILE_SIZE, contents.length, (byte) 'z');
+		FileOutputStream fos = new FileOutputStream(file);
+		try {
+			fos.write(contents);
+		} finally {
+			fos.close();
+		}
+		file.setLastModified(file.lastModified() + 10000);
+		assertArrayEquals(contents, renderMapped(displayer));
+	}
+
+	@Test
+	public void testStreamBelowThreshold() throws Exception {
+		Capture<Object> contentCapture = Capture.newInstance();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		HttpServletResponse response = createJettyResponse(contentCapture, baos);
+		HttpServletRequest request = createRequest(null, null);
+		replay(request, response);
+
+		FileResultDisplayer displayer = new FileResultDisplayer();
+		displayer.setMappedFileThreshold(FILE_SIZE + 1);
+		assertTrue(displayer.renderResult(null, request, response, file));
+		// jetty reads the stream itself
+		Object content = contentCapture.getValue();
+		assertTrue(content.getClass().getName(), content instanceof FileInputStream);
+		FileInputStream fis = (FileInputStream) content;
+		try {
+			assertArrayEquals(contents, IOUtils.toByteArray(fis));
+		} finally {
+			fis.close();
+		}
+	}
+
+	@Test
+	public void testSmallRangeTransferred() throws Exception {
+		Capture<Object> contentCapture = Capture.newInstance();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		HttpServletResponse response = createJettyResponse(contentCapture, baos);
+		HttpServletRequest request = createRequest("bytes=10-19", null);
+		replay(request, response);
+
+		// below the threshold and not at the start of the file so it is transferred through the stream
+		assertTrue(new FileResultDisplayer().renderResult(null, request, response, file));
+		assertFalse(contentCapture.hasCaptured());
+		assertArrayEquals(Arrays.copyOfRange(contents, 10, 20), baos.toByteArray());
+	}
+
+	@Test
+	public void testSmallRangeAtStartTransferred() throws Exception {
+		Capture<Object> contentCapture = Capture.newInstance();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		HttpServletResponse response = createJettyResponse(contentCapture, baos);
+		HttpServletRequest request = createRequest("bytes=0-9", null);
+		replay(request, response);
+
+		// jetty would send the stream to the end of the file so only the range is transferred
+		assertTrue(new FileResultDisplayer().renderResult(null, request, response, file));
+		assertFalse(contentCapture.hasCaptured());
+		assertArrayEquals(Arrays.copyOfRange(contents, 0, 10), baos.toByteArray());
+	}
+
+	private byte[] renderMapped(FileResultDisplayer displayer) throws IOException {
+		Capture<Object> contentCapture = Capture.newInstance();
+		HttpServletResponse response = createJettyResponse(contentCapture, new ByteArrayOutputStream());
+		HttpServletRequest request = createRequest(null, null);
+		replay(request, response);
+		assertTrue(displayer.renderResult(null, request, response, file));
+		return ((Buffer) contentCapture.getValue()).asArray();
+	}
+
+	private HttpServletRequest createRequest(String range, String ifRange) {
+		HttpServletRequest request = createNiceMock(HttpServletRequest.class);
+		expect(request.getHeader("Range")).andReturn(range).anyTimes();
+		expect(request.getHeader("If-Range")).andReturn(ifRange).anyTimes();
+		return request;
+	}
+
+	private HttpServletResponse createResponse(final ByteArrayOutputStream baos) throws IOException {
+		HttpServletResponse response = createNiceMock(HttpServletResponse.class);
+		expect(response.getOutputStream()).andReturn(new ServletOutputStream() {
+			@Override
+			public void write(int b) {
+				baos.write(b);
+			}
+
+			@Override
+			public void write(byte[] bytes, int offset, int length) {
+				baos.write(bytes, offset, length);
+			}
+		}).anyTimes();
+		return response;
+	}
+
+	/**
+	 * Create a response whose output looks like a jetty connection with the sent content captured and the written
+	 * bytes going to the output-stream.
+	 */
+	private HttpServletResponse createJettyResponse(Capture<Object> contentCapture, final ByteArrayOutputStream baos)
+			throws IOException {
+		AbstractHttpConnection.Output output = createMockBuilder(AbstractHttpConnection.Output.class) //
+				.addMockedMethod("sendContent") //
+				.addMockedMethod("close") //
+				.addMockedMethod("write", byte[].class, int.class, int.class) //
+				.createNiceMock();
+		output.sendContent(capture(contentCapture));
+		expectLastCall().anyTimes();
+		output.write(anyObject(byte[].class), anyInt(), anyInt());
+		expectLastCall().andAnswer(new IAnswer<Object>() {
+			@Override
+			public Object answer() {
+				Object[] args = getCurrentArguments();
+				baos.write((byte[]) args[0], (Integer) args[1], (Integer) args[2]);
+				return null;
+			}
+		}).anyTimes();
+		replay(output);
+		HttpServletResponse response = createNiceMock(HttpServletResponse.class);
+		expect(response.getOutputStream()).andReturn(output).anyTimes();
+		return response;
+	}
+
+	/**
+	 * File which counts the calls that go to the file-system for its stats.
+	 */
+	private static class StatCountingFile extends File {
+
+		private static final long serialVersionUID = 1L;
+		int statCount;
+
+		public StatCountingFile(String path) {
+			super(path);
+		}
+
+		@Override
+		public boolean exists() {
+			statCount++;
+			return super.exists();
+		}
+
+		@Override
+		public long length() {
+			statCount++;
+			return super.length();
+		}
+
+		@Override
+		public long lastModified() {
+			statCount++;
+			return super.lastModified();
+		}
+	}
+
+	private void expectNoPartialContent(HttpServletResponse response) {
+		response.setStatus(anyInt());
+		expectLastCall().andThrow(new AssertionError("status should not be set")).anyTimes();
+	}
+}
@@ -0,0 +1,90 @@
+package com.j256.simplewebframework.displayer;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Test;
+
+public class PreparedResponseDisplayerTest {
+
+	@Test
+	public void testRender() throws Exception {
+		PreparedResponse prepared =
+				new PreparedResponse(HttpServletResponse.SC_OK, "application/json",
+						Collections.singletonMap("Cache-Control", "max-age=60"), Arrays.asList(
+								ByteBuffer.wrap("{\"a\":".getBytes("UTF-8")), ByteBuffer.wrap("1}".getBytes("UTF-8"))));
+		assertEquals(7, prepared.getContentLength());
+
+		// rendered twice to make sure the body is not consumed
+		for (int i = 0; i < 2; i++) {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			HttpServletRequest request = createMock(HttpServletRequest.class);
+			expect(request.getHeader("If-None-Match")).andReturn(null);
+			HttpServletResponse response = createMock(HttpServletResponse.class);
+			response.setHeader("Cache-Control", "max-age=60");
+			response.setHeader("ETag", prepared.getETag());
+			response.setContentType("application/json");
+			response.setContentLength(7);
+			expect(response.getOutputStream()).andReturn(new TestOutputStream(baos));
+			replay(request, response);
+			assertTrue(new PreparedResponseDisplayer().renderResult(null, request, response, prepared));
+			verify(request, response);
+			assertArrayEquals("{\"a\":1}".getBytes("UTF-8"), baos.toByteArray());
+		}
+	}
+
+	@Test
+	public void testNotModified() throws Exception {
+		PreparedResponse prepared = PreparedResponse.ok("text/plain", "hello");
+		HttpServletRequest request = createMock(HttpServletRequest.class);
+		expect(request.getHeader("If-None-Match")).andReturn(prepared.getETag());
+		HttpServletResponse response = createMock(HttpServletResponse.class);
+		response.setHeader("ETag", prepared.getETag());
+		expect(response.isCommitted()).andReturn(false);
+		expect(response.getOutputStream()).andReturn(new TestOutputStream(new ByteArrayOutputStream()));
+		response.sendError(HttpServletResponse.SC_NOT_MODIFIED, "not modified");
+		replay(request, response);
+		assertTrue(new PreparedResponseDisplayer().renderResult(null, request, response, prepared));
+		verify(request, response);
+	}
+
+	@Test
+	public void testETagChangesWithBody() {
+		String etag = PreparedResponse.ok("text/plain", "hello").getETag();
+		assertEquals(etag, PreparedResponse.ok("text/plain", "hello").getETag());
+		assertTrue(!etag.equals(PreparedResponse.ok("text/plain", "hellp").getETag()));
+	}
+
+	private static class TestOutputStream extends ServletOutputStream {
+		private final ByteArrayOutputStream baos;
+
+		public TestOutputStream(ByteArrayOutputStream baos) {
+			this.baos = baos;
+		}
+
+		@Override
+		public void write(int b) {
+			baos.write(b);
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+			baos.write(bytes, offset, length);
+		}
+	}
+}
@@ -0,0 +1,184 @@
+package com.j256.simplewebframework.displayer;
+
+import static org.easymock.EasyMock.anyInt;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.io.EofException;
+import org.junit.Test;
+import org.simpleframework.xml.Attribute;
+import org.simpleframework.xml.Root;
+
+public class XmlResultDisplayerTest {
+
+	@Test
+	public void testStreamIterable() throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		XmlResultDisplayer displayer = new XmlResultDisplayer();
+		displayer.setCollectionElementName("items");
+		assertTrue(displayer.renderResult(null, null, createResponse(baos),
+				Arrays.asList(new Item(1), null, new Item(2))));
+		String xml = baos.toString("UTF-8").replaceAll("\\s+", "");
+		assertEquals("<items><itemid=\"1\"/><itemid=\"2\"/></items>", xml);
+	}
+
+	@Test
+	public void testStreamIterator() throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		XmlResultDisplayer displayer = new XmlResultDisplayer();
+		displayer.setBufferSize(64);
+		displayer.setFlushItemCount(10);
+		ItemIterator iterator = new ItemIterator(1000);
+		assertTrue(displayer.renderResult(null, null, createResponse(baos), iterator));
+		String xml = baos.toString("UTF-8");
+		assertTrue(xml.trim().startsWith("<list>"));
+		assertTrue(xml.trim().endsWith("</list>"));
+		assertTrue(xml.contains("<item id=\"999\"/>"));
+		assertEquals(1000, iterator.count);
+		assertTrue(iterator.closed);
+	}
+
+	@Test
+	public void testClientDisconnect() throws Exception {
+		XmlResultDisplayer displayer = new XmlResultDisplayer();
+		displayer.setBufferSize(64);
+		displayer.setFlushItemCount(10);
+		ItemIterator iterator = new ItemIterator(1000000);
+		assertTrue(displayer.renderResult(null, null, createResponse(new DisconnectingOutputStream(1000)), iterator));
+		assertTrue(iterator.count < 1000);
+		assertTrue(iterator.closed);
+	}
+
+	@Test
+	public void testIteratorThrows() throws Exception {
+		XmlResultDisplayer displayer = new XmlResultDisplayer();
+		ItemIterator iterator = new ItemIterator(1000) {
+			@Override
+			public Item next() {
+				if (count == 5) {
+					throw new IllegalStateException("database went away");
+				}
+				return super.next();
+			}
+		};
+		final boolean[] closed = new boolean[1];
+		HttpServletResponse response = createNiceMock(HttpServletResponse.class);
+		expect(response.getOutputStream()).andReturn(new ServletOutputStream() {
+			@Override
+			public void write(int b) {
+				fail("nothing should have been written");
+			}
+
+			@Override
+			public void close() {
+				closed[0] = true;
+			}
+		}).anyTimes();
+		response.setContentLength(anyInt());
+		expectLastCall().andThrow(new AssertionError("Content-Length should not be set")).anyTimes();
+		replay(response);
+		try {
+			displayer.renderResult(null, null, response, iterator);
+			fail("should have thrown");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("#5"));
+		}
+		// the truncated document must not be sent as a complete response
+		assertFalse(closed[0]);
+		assertTrue(iterator.closed);
+	}
+
+	private HttpServletResponse createResponse(final OutputStream outputStream) throws IOException {
+		HttpServletResponse response = createNiceMock(HttpServletResponse.class);
+		expect(response.getOutputStream()).andReturn(new ServletOutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				outputStream.write(b);
+			}
+
+			@Override
+			public void write(byte[] bytes, int offset, int length) throws IOException {
+				outputStream.write(bytes, offset, length);
+			}
+		});
+		replay(response);
+		return response;
+	}
+
+	@Root(name = "item")
+	public static class Item {
+		@Attribute
+		int id;
+
+		public Item(int id) {
+			this.id = id;
+		}
+	}
+
+	private static class ItemIterator implements Iterator<Item>, Closeable {
+		private final int max;
+		int count;
+		boolean closed;
+
+		public ItemIterator(int max) {
+			this.max = max;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return count < max;
+		}
+
+		@Override
+		public Item next() {
+			return new Item(count++);
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+		}
+	}
+
+	private static class DisconnectingOutputStream extends OutputStream {
+		private int left;
+
+		public DisconnectingOutputStream(int left) {
+			this.left = left;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+			left -= length;
+			if (left < 0) {
+				throw new EofException("client went away");
+			}
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package com.j256.simplewebframework.example;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jws.WebMethod;
+import javax.jws.WebService;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.Produces;
+
+import com.j256.simplewebframework.displayer.JsonResultDisplayer;
+
+/**
+ * Little benchmark program which compares rendering a result with Gson's reflection against the writer generated by
+ * the JsonWriterProcessor when the tests were compiled.
+ * 
+ * @author graywatson
+ */
+public class JsonWriterBenchmark {
+
+	private static final int NUM_ITERATIONS = 200000;
+	private static final int NUM_ROUNDS = 5;
+
+	public static void main(String[] args) throws Exception {
+		HttpServletRequest request = createNiceMock(HttpServletRequest.class);
+		replay(request);
+		HttpServletResponse response = createNiceMock(HttpServletResponse.class);
+		expect(response.getOutputStream()).andReturn(new ServletOutputStream() {
+			@Override
+			public void write(int b) {
+				// discarded
+			}
+
+			@Override
+			public void write(byte[] bytes, int offset, int length) {
+				// discarded
+			}
+		}).anyTimes();
+		replay(response);
+
+		Account account = new BenchmarkService().account();
+		JsonResultDisplayer gsonDisplayer = new JsonResultDisplayer();
+		gsonDisplayer.setUseGeneratedWriters(false);
+		JsonResultDisplayer generatedDisplayer = new JsonResultDisplayer();
+
+		for (int round = 0; round < NUM_ROUNDS; round++) {
+			// the first rounds warm up the JIT
+			System.out.println("round " + round + ": gson " + timeRender(gsonDisplayer, request, response, account)
+					+ "ms, generated " + timeRender(generatedDisplayer, request, response, account) + "ms");
+		}
+	}
+
+	private static long timeRender(JsonResultDisplayer displayer, HttpServletRequest request,
+			HttpServletResponse response, Account account) throws Exception {
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < NUM_ITERATIONS; i++) {
+			displayer.renderResult(null, request, response, account);
+		}
+		return System.currentTimeMillis() - start;
+	}
+
+	@WebService
+	@Produces("application/json")
+	public static class BenchmarkService {
+		@WebMethod
+		public Account account() {
+			Account account = new Account();
+			account.id = 1234567890L;
+			account.name = "Benchmark Account";
+			account.email = "benchmark@example.com";
+			account.balance = 1234.56;
+			account.active = true;
+			account.loginCount = 42;
+			account.roles = new ArrayList<String>();
+			account.roles.add("admin");
+			account.roles.add("user");
+			return account;
+		}
+	}
+
+	public static class Account {
+		long id;
+		String name;
+		String email;
+		double balance;
+		boolean active;
+		private int loginCount;
+		List<String> roles;
+	}
+}
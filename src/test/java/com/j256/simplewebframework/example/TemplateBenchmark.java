@@ -0,0 +1,110 @@
+package com.j256.simplewebframework.example;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.j256.simplewebframework.displayer.ResultDisplayer;
+import com.j256.simplewebframework.freemarker.FreemarkerHtmlDisplayer;
+import com.j256.simplewebframework.freemarker.ModelView;
+import com.j256.simplewebframework.resource.FileLocator;
+import com.j256.simplewebframework.template.SimpleTemplateDisplayer;
+import com.j256.simplewebframework.util.FileUtils;
+import com.j256.simplewebframework.util.IOUtils;
+
+import freemarker.template.Configuration;
+import freemarker.template.Version;
+
+/**
+ * Little benchmark program which compares rendering a simply templated page with the {@link FreemarkerHtmlDisplayer}
+ * against the {@link SimpleTemplateDisplayer}. Both render into a buffer with a Content-Length.
+ * 
+ * @author graywatson
+ */
+public class TemplateBenchmark {
+
+	private static final int NUM_ITERATIONS = 100000;
+	private static final int NUM_ROUNDS = 5;
+
+	public static void main(String[] args) throws Exception {
+		File templateDir = new File("target/" + TemplateBenchmark.class.getSimpleName());
+		FileUtils.deleteDirectory(templateDir);
+		templateDir.mkdirs();
+		try {
+			doMain(templateDir);
+		} finally {
+			FileUtils.deleteDirectory(templateDir);
+		}
+	}
+
+	private static void doMain(File templateDir) throws Exception {
+		StringBuilder sb = new StringBuilder();
+		sb.append("<html><head><title>${title}</title></head><body>\n");
+		for (int i = 0; i < 20; i++) {
+			sb.append("<p>Hello ${name}, this is paragraph ").append(i).append(" of the benchmark page.</p>\n");
+		}
+		sb.append("</body></html>\n");
+		writeFile(new File(templateDir, "page.html"), sb.toString());
+
+		HttpServletRequest request = createNiceMock(HttpServletRequest.class);
+		replay(request);
+		HttpServletResponse response = createNiceMock(HttpServletResponse.class);
+		expect(response.getOutputStream()).andReturn(new ServletOutputStream() {
+			@Override
+			public void write(int b) {
+				// discarded
+			}
+
+			@Override
+			public void write(byte[] bytes, int offset, int length) {
+				// discarded
+			}
+		}).anyTimes();
+		replay(response);
+
+		FileLocator fileLocator = new FileLocator(templateDir, new String[0]);
+		FreemarkerHtmlDisplayer freemarkerDisplayer = new FreemarkerHtmlDisplayer();
+		freemarkerDisplayer.setFileLocator(fileLocator);
+		freemarkerDisplayer.setBuffered(true);
+		Configuration config = new Configuration(new Version("2.3.22"));
+		config.setDirectoryForTemplateLoading(templateDir);
+		freemarkerDisplayer.setTemplateConfig(config);
+		SimpleTemplateDisplayer simpleDisplayer = new SimpleTemplateDisplayer();
+		simpleDisplayer.setFileLocator(fileLocator);
+
+		for (int round = 0; round < NUM_ROUNDS; round++) {
+			// the first rounds warm up the JIT
+			System.out.println("round " + round + ": freemarker " + timeRender(freemarkerDisplayer, request, response)
+					+ "ms, simple " + timeRender(simpleDisplayer, request, response) + "ms");
+		}
+	}
+
+	private static long timeRender(ResultDisplayer displayer, HttpServletRequest request,
+			HttpServletResponse response) throws Exception {
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < NUM_ITERATIONS; i++) {
+			ModelView modelView = new ModelView("page.html");
+			modelView.getModel().put("title", "Benchmark");
+			modelView.getModel().put("name", "Bob & Alice");
+			displayer.renderResult(null, request, response, modelView);
+		}
+		return System.currentTimeMillis() - start;
+	}
+
+	private static void writeFile(File file, String contents) throws IOException {
+		FileOutputStream fos = new FileOutputStream(file);
+		try {
+			fos.write(contents.getBytes("UTF-8"));
+		} finally {
+			IOUtils.closeQuietly(fos);
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package com.j256.simplewebframework.freemarker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.j256.simplewebframework.util.FileUtils;
+import com.j256.simplewebframework.util.IOUtils;
+
+import freemarker.cache.TemplateLoader;
+
+public class ClasspathTemplateLoaderTest {
+
+	private final File tmpDir = new File("target/" + getClass().getSimpleName());
+
+	@Before
+	public void before() throws IOException {
+		FileUtils.deleteDirectory(tmpDir);
+		tmpDir.mkdirs();
+	}
+
+	@After
+	public void after() throws IOException {
+		FileUtils.deleteDirectory(tmpDir);
+	}
+
+	@Test
+	public void testDirectory() throws Exception {
+		ClasspathTemplateLoader loader = new ClasspathTemplateLoader("/com/j256/simplewebframework/example/");
+		Object source = loader.findTemplateSource("index.html");
+		assertNotNull(source);
+		// only the html files are indexed
+		assertEquals(2, loader.getIndexedCount());
+		assertSame(source, loader.findTemplateSource("index.html"));
+		assertEquals(loader.timeStartMillis, loader.getLastModified(source));
+		assertNull(loader.findTemplateSource("unknown.html"));
+		// non-templates are looked up one by one
+		assertNotNull(loader.findTemplateSource("spring.xml"));
+	}
+
+	@Test
+	public void testJar() throws Exception {
+		File jarFile = new File(tmpDir, "templates.jar");
+		JarOutputStream jos = new JarOutputStream(new FileOutputStream(jarFile));
+		try {
+			// directory entries like the jar plugin writes so the base path can be found
+			jos.putNextEntry(new JarEntry("templates/"));
+			jos.putNextEntry(new JarEntry("templates/page.html"));
+			jos.write("<p>page</p>".getBytes("UTF-8"));
+			jos.putNextEntry(new JarEntry("templates/sub/other.ftl"));
+			jos.write("other".getBytes("UTF-8"));
+		} finally {
+			IOUtils.closeQuietly(jos);
+		}
+
+		// load the loader from a class-loader with the jar so it sees the jar's resources
+		URLClassLoader classLoader = new URLClassLoader(new URL[] { jarFile.toURI().toURL(),
+				ClasspathTemplateLoader.class.getProtectionDomain().getCodeSource().getLocation(),
+				TemplateLoader.class.getProtectionDomain().getCodeSource().getLocation() },
+				ClassLoader.getSystemClassLoader().getParent());
+		try {
+			Class<?> loaderClass = classLoader.loadClass(ClasspathTemplateLoader.class.getName());
+			Object loader = loaderClass.getConstructor(String.class).newInstance("/templates/");
+			Object source = loaderClass.getMethod("findTemplateSource", String.class).invoke(loader, "page.html");
+			assertNotNull(source);
+			assertEquals(2, loaderClass.getMethod("getIndexedCount").invoke(loader));
+			Object other = loaderClass.getMethod("findTemplateSource", String.class).invoke(loader, "sub/other.ftl");
+			assertNotNull(other);
+			Reader reader =
+					(Reader) loaderClass.getMethod("getReader", Object.class, String.class).invoke(loader, source,
+							"UTF-8");
+			StringWriter writer = new StringWriter();
+			char[] chars = new char[100];
+			int numRead;
+			while ((numRead = reader.read(chars)) >= 0) {
+				writer.write(chars, 0, numRead);
+			}
+			assertEquals("<p>page</p>", writer.toString());
+		} finally {
+			classLoader.close();
+		}
+	}
+}
@@ -0,0 +1,53 @@
+package com.j256.simplewebframework.freemarker;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.HashMap;
+
+import org.junit.Test;
+
+import freemarker.cache.StringTemplateLoader;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.Version;
+
+public class FlushDirectiveTest {
+
+	@Test
+	public void testEarlyFlush() throws Exception {
+		Template template = createTemplate();
+		RecordingWriter writer = new RecordingWriter();
+		template.process(new HashMap<String, Object>(), new FlushPointWriter(writer, true));
+		assertEquals("<head></head>", writer.flushed);
+		assertEquals("<head></head><body></body>", writer.toString());
+	}
+
+	@Test
+	public void testNoEarlyFlush() throws Exception {
+		Template template = createTemplate();
+		RecordingWriter writer = new RecordingWriter();
+		template.process(new HashMap<String, Object>(), new FlushPointWriter(writer, false));
+		assertEquals(null, writer.flushed);
+		assertEquals("<head></head><body></body>", writer.toString());
+	}
+
+	private Template createTemplate() throws IOException {
+		StringTemplateLoader loader = new StringTemplateLoader();
+		loader.putTemplate("page.html", "<head></head><@flush/><body></body>");
+		Configuration config = new Configuration(new Version(2, 3, 22));
+		config.setTemplateLoader(loader);
+		config.setSharedVariable("flush", new FlushDirective());
+		return config.getTemplate("page.html");
+	}
+
+	private static class RecordingWriter extends StringWriter {
+		String flushed;
+
+		@Override
+		public void flush() {
+			flushed = toString();
+		}
+	}
+}
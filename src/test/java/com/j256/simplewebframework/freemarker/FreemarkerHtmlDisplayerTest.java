@@ -0,0 +1,271 @@
+package com.j256.simplewebframework.freemarker;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Test;
+
+import com.j256.simplewebframework.displayer.FileResultDisplayer.FileInfo;
+import com.j256.simplewebframework.resource.FileLocator;
+
+import freemarker.cache.StringTemplateLoader;
+import freemarker.template.Configuration;
+
+public class FreemarkerHtmlDisplayerTest {
+
+	private static final String PAGE_PATH = "page.html";
+	private static final String PAGE_CONTENT = "<html><body>cached page</body></html>";
+
+	@Test
+	public void testResolveFutures() throws Exception {
+		ExecutorService executor = Executors.newCachedThreadPool();
+		try {
+			ModelView modelView = new ModelView("page.html");
+			modelView.getModel().put("plain", "value");
+			modelView.putFuture("fast1", executor.submit(new SleepCallable(100, "one")), "fallback");
+			modelView.putFuture("fast2", executor.submit(new SleepCallable(100, "two")), "fallback");
+			Future<String> slow = executor.submit(new SleepCallable(10000, "slow"));
+			modelView.putFuture("slow", slow, "fallback");
+			modelView.putFuture("failed", executor.submit(new SleepCallable(0, null)), null);
+			modelView.setFutureTimeoutMillis(1000);
+
+			FreemarkerHtmlDisplayer displayer = new FreemarkerHtmlDisplayer();
+			long start = System.currentTimeMillis();
+			displayer.resolveFutures(modelView);
+			// one deadline for all of them
+			assertTrue(System.currentTimeMillis() - start < 5000);
+
+			assertEquals("value", modelView.getModel().get("plain"));
+			assertEquals("one", modelView.getModel().get("fast1"));
+			assertEquals("two", modelView.getModel().get("fast2"));
+			assertEquals("fallback", modelView.getModel().get("slow"));
+			assertTrue(slow.isCancelled());
+			assertFalse(modelView.getModel().containsKey("failed"));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testCachedPageVary() throws Exception {
+		PageCache pageCache = new PageCache();
+		pageCache.setCompress(true);
+		FreemarkerHtmlDisplayer displayer = createDisplayer(pageCache);
+
+		// the miss is sent as identity but still varies because the cached page will be gzipped
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		HttpServletResponse response = createResponse(baos);
+		response.addHeader("Vary", "Accept-Encoding");
+		response.setHeader("Content-Encoding", "gzip");
+		expectLastCall().andThrow(new AssertionError("should not be compressed")).anyTimes();
+		replay(response);
+		assertTrue(displayer.renderResult(null, createRequest("gzip"), response, createModelView()));
+		verify(response);
+		byte[] body = baos.toByteArray();
+		assertEquals(PAGE_CONTENT, new String(body, "UTF-8"));
+
+		// the identity hit varies as well
+		baos = new ByteArrayOutputStream();
+		response = createResponse(baos);
+		response.addHeader("Vary", "Accept-Encoding");
+		response.setHeader("Content-Encoding", "gzip");
+		expectLastCall().andThrow(new AssertionError("should not be compressed")).anyTimes();
+		replay(response);
+		assertTrue(displayer.renderResult(null, createRequest(null), response, createModelView()));
+		verify(response);
+		assertArrayEquals(body, baos.toByteArray());
+
+		baos = new ByteArrayOutputStream();
+		response = createResponse(baos);
+		response.addHeader("Vary", "Accept-Encoding");
+		response.setHeader("Content-Encoding", "gzip");
+		replay(response);
+		assertTrue(displayer.renderResult(null, createRequest("gzip"), response, createModelView()));
+		verify(response);
+	}
+
+	@Test
+	public void testCachedPageNotCompressed() throws Exception {
+		PageCache pageCache = new PageCache();
+		FreemarkerHtmlDisplayer displayer = createDisplayer(pageCache);
+
+		for (int i = 0; i < 2; i++) {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			HttpServletResponse response = createResponse(baos);
+			response.addHeader("Vary", "Accept-Encoding");
+			expectLastCall().andThrow(new AssertionError("should not vary when not compressing")).anyTimes();
+			replay(response);
+			assertTrue(displayer.renderResult(null, createRequest("gzip"), response, createModelView()));
+			verify(response);
+			assertEquals(PAGE_CONTENT, new String(baos.toByteArray(), "UTF-8"));
+		}
+	}
+
+	@Test
+	public void testCachedPageFutures() throws Exception {
+		FreemarkerHtmlDisplayer displayer = createDisplayer(new PageCache());
+		ExecutorService executor = Executors.newCachedThreadPool();
+		try {
+			// the miss waits for all of the futures
+			ModelView modelView = createModelView();
+			modelView.setCacheKeyNames("lang");
+			modelView.putFuture("lang", executor.submit(new SleepCallable(0, "en")), "none");
+			modelView.putFuture("slow", executor.submit(new SleepCallable(10000, "slow")), "fallback");
+			modelView.setFutureTimeoutMillis(100);
+			render(displayer, modelView);
+			assertEquals("en", modelView.getModel().get("lang"));
+			assertEquals("fallback", modelView.getModel().get("slow"));
+
+			// the hit only needs the key
+			modelView = createModelView();
+			modelView.setCacheKeyNames("lang");
+			modelView.putFuture("lang", executor.submit(new SleepCallable(100, "en")), "none");
+			Future<String> slow = executor.submit(new SleepCallable(10000, "slow"));
+			modelView.putFuture("slow", slow, "fallback");
+			modelView.setFutureTimeoutMillis(5000);
+			long start = System.currentTimeMillis();
+			render(displayer, modelView);
+			assertTrue(System.currentTimeMillis() - start < 2000);
+			assertEquals("en", modelView.getModel().get("lang"));
+			assertTrue(slow.isCancelled());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testCachedPageSingleFlight() throws Exception {
+		final FreemarkerHtmlDisplayer displayer =
+				createDisplayer(new PageCache(), "<html>${renders.slowCount()}</html>");
+		final RenderCounter renders = new RenderCounter();
+		ExecutorService executor = Executors.newCachedThreadPool();
+		try {
+			List<Future<String>> futures = new ArrayList<Future<String>>();
+			for (int i = 0; i < 5; i++) {
+				futures.add(executor.submit(new Callable<String>() {
+					@Override
+					public String call() throws Exception {
+						ModelView modelView = createModelView();
+						modelView.getModel().put("renders", renders);
+						ByteArrayOutputStream baos = new ByteArrayOutputStream();
+						HttpServletResponse response = createResponse(baos);
+						replay(response);
+						displayer.renderResult(null, createRequest(null), response, modelView);
+						return new String(baos.toByteArray(), "UTF-8");
+					}
+				}));
+			}
+			for (Future<String> future : futures) {
+				assertEquals("<html>1</html>", future.get());
+			}
+			// the concurrent misses waited for the one render
+			assertEquals(1, renders.count.get());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private void render(FreemarkerHtmlDisplayer displayer, ModelView modelView) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		HttpServletResponse response = createResponse(baos);
+		replay(response);
+		assertTrue(displayer.renderResult(null, createRequest(null), response, modelView));
+		assertEquals(PAGE_CONTENT, new String(baos.toByteArray(), "UTF-8"));
+	}
+
+	private FreemarkerHtmlDisplayer createDisplayer(PageCache pageCache) {
+		return createDisplayer(pageCache, PAGE_CONTENT);
+	}
+
+	private FreemarkerHtmlDisplayer createDisplayer(PageCache pageCache, String content) {
+		StringTemplateLoader templateLoader = new StringTemplateLoader();
+		templateLoader.putTemplate(PAGE_PATH, content);
+		Configuration templateConfig = new Configuration(Configuration.VERSION_2_3_22);
+		templateConfig.setTemplateLoader(templateLoader);
+		FileLocator fileLocator = createNiceMock(FileLocator.class);
+		expect(fileLocator.findFile(PAGE_PATH)).andReturn(new FileInfo(PAGE_PATH, new File(PAGE_PATH))).anyTimes();
+		replay(fileLocator);
+
+		FreemarkerHtmlDisplayer displayer = new FreemarkerHtmlDisplayer();
+		displayer.setTemplateConfig(templateConfig);
+		displayer.setFileLocator(fileLocator);
+		displayer.setPageCache(pageCache);
+		return displayer;
+	}
+
+	private ModelView createModelView() {
+		ModelView modelView = new ModelView(PAGE_PATH);
+		modelView.setCacheKeyNames();
+		return modelView;
+	}
+
+	private HttpServletRequest createRequest(String acceptEncoding) {
+		HttpServletRequest request = createNiceMock(HttpServletRequest.class);
+		expect(request.getHeader("Accept-Encoding")).andReturn(acceptEncoding).anyTimes();
+		replay(request);
+		return request;
+	}
+
+	private HttpServletResponse createResponse(final ByteArrayOutputStream baos) throws IOException {
+		HttpServletResponse response = createNiceMock(HttpServletResponse.class);
+		expect(response.getCharacterEncoding()).andReturn("UTF-8").anyTimes();
+		expect(response.getOutputStream()).andReturn(new ServletOutputStream() {
+			@Override
+			public void write(int b) {
+				baos.write(b);
+			}
+		}).anyTimes();
+		return response;
+	}
+
+	public static class RenderCounter {
+		final AtomicInteger count = new AtomicInteger();
+
+		public int slowCount() throws InterruptedException {
+			// long enough for the other requests to miss the cache
+			Thread.sleep(500);
+			return count.incrementAndGet();
+		}
+	}
+
+	private static class SleepCallable implements Callable<String> {
+		private final long sleepMillis;
+		private final String result;
+
+		public SleepCallable(long sleepMillis, String result) {
+			this.sleepMillis = sleepMillis;
+			this.result = result;
+		}
+
+		@Override
+		public String call() throws Exception {
+			Thread.sleep(sleepMillis);
+			if (result == null) {
+				throw new IllegalStateException("backend failed");
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package com.j256.simplewebframework.freemarker;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.j256.simplewebframework.freemarker.PageCache.CachedPage;
+
+import freemarker.cache.StringTemplateLoader;
+import freemarker.template.Configuration;
+import freemarker.template.Version;
+
+public class PageCacheTest {
+
+	@Test
+	public void testPageKeys() {
+		Map<String, Object> model = new HashMap<String, Object>();
+		model.put("lang", "en");
+		model.put("user", "ignored");
+		String key = PageCache.buildPageKey("index.html", model, new String[] { "lang" });
+		model.put("user", "other");
+		assertEquals(key, PageCache.buildPageKey("index.html", model, new String[] { "lang" }));
+		model.put("lang", "fr");
+		assertFalse(key.equals(PageCache.buildPageKey("index.html", model, new String[] { "lang" })));
+	}
+
+	@Test
+	public void testPutFind() throws Exception {
+		PageCache cache = new PageCache();
+		cache.setMaxBytes(250);
+		byte[] body = new byte[100];
+		cache.putPage("a", cache.getGeneration(), body, "UTF-8");
+		cache.putPage("b", cache.getGeneration(), body, "UTF-8");
+		assertNotNull(cache.findPage("a"));
+		// b is the least recently used
+		cache.putPage("c", cache.getGeneration(), body, "UTF-8");
+		assertNull(cache.findPage("b"));
+		assertNotNull(cache.findPage("a"));
+		assertNotNull(cache.findPage("c"));
+		assertEquals(1, cache.getEvictionCount());
+		assertEquals(200, cache.getByteCount());
+
+		// rendering started before the flush is not cached
+		long generation = cache.getGeneration();
+		cache.liveRevisionChanged(null);
+		cache.putPage("d", generation, body, "UTF-8");
+		assertNull(cache.findPage("d"));
+		assertEquals(0, cache.getPageCount());
+	}
+
+	@Test
+	public void testCompressed() throws Exception {
+		PageCache cache = new PageCache();
+		cache.setCompress(true);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			sb.append("<p>hello there</p>\n");
+		}
+		byte[] body = sb.toString().getBytes("UTF-8");
+		cache.putPage("a", cache.getGeneration(), body, "UTF-8");
+		CachedPage page = cache.findPage("a");
+		assertTrue(page.isGzipped());
+		assertTrue(page.getBody().length < body.length);
+		assertArrayEquals(body, page.getUncompressedBody());
+		assertEquals(sb.toString(), page.getString());
+
+		// fragments are not compressed since they are written into a page on every hit
+		String fragmentKey = PageCache.buildFragmentKey("side");
+		cache.putPage(fragmentKey, cache.getGeneration(), body, "UTF-8");
+		page = cache.findPage(fragmentKey);
+		assertFalse(page.isGzipped());
+		assertArrayEquals(body, page.getBody());
+	}
+
+	@Test
+	public void testFragmentDirective() throws Exception {
+		PageCache cache = new PageCache();
+		StringTemplateLoader loader = new StringTemplateLoader();
+		loader.putTemplate("page.html", "<@cache key=\"side-${section}\">[${value}]</@cache> ${value}");
+		Configuration config = new Configuration(new Version("2.3.22"));
+		config.setTemplateLoader(loader);
+		config.setSharedVariable("cache", new FragmentCacheDirective(cache));
+
+		assertEquals("[1] 1", process(config, "a", 1));
+		assertEquals("[1] 2", process(config, "a", 2));
+		assertEquals("[3] 3", process(config, "b", 3));
+		assertEquals(2, cache.getPageCount());
+		assertEquals(1, cache.getHitCount());
+	}
+
+	private String process(Configuration config, String section, int value) throws Exception {
+		Map<String, Object> model = new HashMap<String, Object>();
+		model.put("section", section);
+		model.put("value", value);
+		StringWriter writer = new StringWriter();
+		config.getTemplate("page.html").process(model, writer);
+		return writer.toString();
+	}
+}
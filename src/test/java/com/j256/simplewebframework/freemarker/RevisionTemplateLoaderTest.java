@@ -0,0 +1,73 @@
+package com.j256.simplewebframework.freemarker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.j256.simplewebframework.util.FileUtils;
+
+import freemarker.template.Configuration;
+import freemarker.template.Version;
+
+public class RevisionTemplateLoaderTest {
+
+	@Test
+	public void testRevisions() throws Exception {
+		File dir = new File("target/" + getClass().getSimpleName());
+		FileUtils.deleteDirectory(dir);
+		File rev1 = new File(dir, "rev1");
+		File rev2 = new File(dir, "rev2");
+		rev1.mkdirs();
+		rev2.mkdirs();
+		writeFile(new File(rev1, "index.html"), "one ${name}");
+		writeFile(new File(rev2, "index.html"), "two ${name}");
+
+		RevisionTemplateLoader loader = new RevisionTemplateLoader(rev1);
+		Configuration config = new Configuration(new Version("2.3.22"));
+		config.setTemplateLoader(loader);
+		config.setTemplateUpdateDelay(Integer.MAX_VALUE);
+		loader.setTemplateConfig(config);
+
+		assertEquals("one x", process(config));
+		Object source = loader.findTemplateSource("index.html");
+		assertNotNull(source);
+		assertNull(loader.findTemplateSource("missing.html"));
+
+		// lookups are remembered so the file-system is not consulted again
+		new File(rev1, "index.html").delete();
+		writeFile(new File(rev1, "missing.html"), "found");
+		assertEquals(source, loader.findTemplateSource("index.html"));
+		assertNull(loader.findTemplateSource("missing.html"));
+
+		loader.liveRevisionChanged(rev2);
+		Object newSource = loader.findTemplateSource("index.html");
+		assertTrue(loader.getLastModified(newSource) > loader.getLastModified(source));
+		assertEquals("two x", process(config));
+
+		FileUtils.deleteDirectory(dir);
+	}
+
+	private String process(Configuration config) throws Exception {
+		StringWriter writer = new StringWriter();
+		config.getTemplate("index.html").process(Collections.singletonMap("name", "x"), writer);
+		return writer.toString();
+	}
+
+	private void writeFile(File file, String contents) throws IOException {
+		FileWriter writer = new FileWriter(file);
+		try {
+			writer.write(contents);
+		} finally {
+			writer.close();
+		}
+	}
+}
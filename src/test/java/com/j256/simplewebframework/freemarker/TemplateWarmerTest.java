@@ -0,0 +1,91 @@
+package com.j256.simplewebframework.freemarker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.j256.simplewebframework.util.FileUtils;
+
+import freemarker.template.Configuration;
+import freemarker.template.Version;
+
+public class TemplateWarmerTest {
+
+	@Test
+	public void testPrepareRevision() throws Exception {
+		File dir = new File("target/" + getClass().getSimpleName());
+		FileUtils.deleteDirectory(dir);
+		new File(dir, "sub").mkdirs();
+		writeFile(new File(dir, "index.html"), "hello ${name}");
+		writeFile(new File(dir, "sub/page.html"), "<#if true>page</#if>");
+		writeFile(new File(dir, "sub/broken.html"), "<#if>");
+		writeFile(new File(dir, "sub/style.css"), "body { }");
+
+		Configuration config = new Configuration(new Version("2.3.22"));
+		config.setTemplateUpdateDelay(3600);
+		FreemarkerHtmlDisplayer displayer = new FreemarkerHtmlDisplayer();
+		displayer.setTemplateConfig(config);
+		TemplateWarmer warmer = new TemplateWarmer();
+		warmer.setHtmlDisplayer(displayer);
+		warmer.setThreadCount(2);
+
+		warmer.prepareRevision(dir);
+		assertEquals(1, warmer.getLastErrors().length);
+		// not swapped in until the revision is live
+		assertSame(config, displayer.getTemplateConfig());
+		warmer.liveRevisionChanged(dir);
+		Configuration warmed = displayer.getTemplateConfig();
+		assertNotSame(config, warmed);
+
+		// the templates come from the cache even once the files are gone
+		FileUtils.deleteDirectory(dir);
+		assertNotNull(warmed.getTemplate("index.html"));
+		assertNotNull(warmed.getTemplate("/sub/page.html"));
+	}
+
+	@Test
+	public void testLiveCacheNotCleared() throws Exception {
+		File liveDir = new File("target/" + getClass().getSimpleName() + "-live");
+		File revisionDir = new File("target/" + getClass().getSimpleName() + "-revision");
+		FileUtils.deleteDirectory(liveDir);
+		FileUtils.deleteDirectory(revisionDir);
+		liveDir.mkdirs();
+		revisionDir.mkdirs();
+		writeFile(new File(liveDir, "index.html"), "live");
+		writeFile(new File(revisionDir, "index.html"), "revision");
+
+		Configuration config = new Configuration(new Version("2.3.22"));
+		config.setTemplateUpdateDelay(3600);
+		config.setDirectoryForTemplateLoading(liveDir);
+		FreemarkerHtmlDisplayer displayer = new FreemarkerHtmlDisplayer();
+		displayer.setTemplateConfig(config);
+		TemplateWarmer warmer = new TemplateWarmer();
+		warmer.setHtmlDisplayer(displayer);
+
+		// the live configuration is serving requests
+		assertNotNull(config.getTemplate("index.html"));
+		FileUtils.deleteDirectory(liveDir);
+		for (int i = 0; i < 2; i++) {
+			warmer.prepareRevision(revisionDir);
+			// still served from the live cache even though the file is gone
+			assertNotNull(config.getTemplate("index.html"));
+		}
+		FileUtils.deleteDirectory(revisionDir);
+	}
+
+	private void writeFile(File file, String contents) throws IOException {
+		FileWriter writer = new FileWriter(file);
+		try {
+			writer.write(contents);
+		} finally {
+			writer.close();
+		}
+	}
+}
@@ -1,23 +1,41 @@
 package com.j256.simplewebframework.handler;
 
+import static org.easymock.EasyMock.anyInt;
 import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 
 import javax.jws.WebMethod;
 import javax.jws.WebService;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
 import javax.ws.rs.HeaderParam;
+import javax.ws.rs.POST;
 import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 
 import org.easymock.EasyMock;
 import org.eclipse.jetty.server.Request;
 import org.junit.Test;
 
+import com.j256.simplewebframework.cbor.CborResultDisplayer;
+import com.j256.simplewebframework.displayer.JsonResultDisplayer;
+import com.j256.simplewebframework.params.BodyParam;
+import com.j256.simplewebframework.params.JsonBodyReader;
+
 public class ServiceHandlerTest {
 
 	@Test
@@ -46,6 +64,197 @@ public class ServiceHandlerTest {
 		verify(request, response);
 	}
 
+	@Test
+	public void testBadParam() throws Exception {
+		ServiceHandler handler = new ServiceHandler();
+		Service service = new Service();
+		handler.registerWebService(service);
+
+		Request baseRequest = EasyMock.createMock(Request.class);
+		HttpServletRequest request = createMock(HttpServletRequest.class);
+		HttpServletResponse response = createMock(HttpServletResponse.class);
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		ServletOutputStream sos = new ServletOutputStream() {
+			@Override
+			public void write(int b) {
+				baos.write(b);
+			}
+		};
+
+		expect(baseRequest.isHandled()).andReturn(false);
+		expect(request.getMethod()).andReturn("GET");
+		expect(request.getPathInfo()).andReturn("/");
+		expect(request.getParameter("bar")).andReturn("bar2");
+		expect(request.getParameter("baz")).andReturn("not-a-number");
+		expect(response.isCommitted()).andReturn(false).times(3);
+		response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+		response.setContentType("text/plain");
+		response.setContentLength(anyInt());
+		expect(response.getOutputStream()).andReturn(sos).times(2);
+		expect(response.isCommitted()).andReturn(true).anyTimes();
+		baseRequest.setHandled(true);
+		EasyMock.expectLastCall().anyTimes();
+
+		EasyMock.replay(baseRequest);
+		replay(request, response);
+		handler.handle(null, baseRequest, request, response);
+		EasyMock.verify(baseRequest);
+		verify(request, response);
+
+		assertTrue(baos.toString("UTF-8").contains("baz"));
+		assertEquals(1, handler.getParamFailureTotal());
+		assertEquals(1, handler.getParamFailureCounts().length);
+	}
+
+	@Test
+	public void testAcceptNegotiated() throws Exception {
+		ServiceHandler handler = createJsonHandler();
+		HttpServletRequest request = createRequest("GET", "/widget", "application/json;q=0.5, application/CBOR");
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		HttpServletResponse response = createJsonResponse(baos);
+		response.setContentType(CborResultDisplayer.CBOR_MIME_TYPE);
+		response.addHeader("Vary", "Accept");
+
+		replay(request, response);
+		handler.handle(null, createBaseRequest(), request, response);
+		verify(response);
+		// indefinite length map
+		assertEquals((byte) 0xbf, baos.toByteArray()[0]);
+	}
+
+	@Test
+	public void testAcceptDefaultType() throws Exception {
+		ServiceHandler handler = createJsonHandler();
+		HttpServletRequest request = createRequest("GET", "/widget", "application/json, application/cbor;q=0.5");
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		HttpServletResponse response = createJsonResponse(baos);
+		// the response still varies by the Accept header even though the default type was chosen
+		response.addHeader("Vary", "Accept");
+
+		replay(request, response);
+		handler.handle(null, createBaseRequest(), request, response);
+		verify(response);
+		assertEquals("{\"name\":\"widget\",\"count\":1}", baos.toString("UTF-8"));
+	}
+
+	@Test
+	public void testBodyParam() throws Exception {
+		ServiceHandler handler = createJsonHandler();
+		HttpServletRequest request = createRequest("POST", "/echo", null);
+		expect(request.getContentType()).andReturn("Application/JSON; charset=UTF-8").anyTimes();
+		expect(request.getCharacterEncoding()).andReturn("UTF-8").anyTimes();
+		expect(request.getInputStream()).andReturn(createInputStream("{\"name\":\"w\u00e9\",\"count\":5}"));
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		HttpServletResponse response = createJsonResponse(baos);
+
+		replay(request, response);
+		handler.handle(null, createBaseRequest(), request, response);
+		assertEquals("{\"name\":\"w\u00e9\",\"count\":6}", baos.toString("UTF-8"));
+		assertEquals(0, handler.getParamFailureTotal());
+	}
+
+	@Test
+	public void testBodyParamInvalid() throws Exception {
+		ServiceHandler handler = createJsonHandler();
+		HttpServletRequest request = createRequest("POST", "/echo", null);
+		expect(request.getContentType()).andReturn("application/json").anyTimes();
+		expect(request.getInputStream()).andReturn(createInputStream("{\"name\":"));
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		HttpServletResponse response = createNiceMock(HttpServletResponse.class);
+		expect(response.getOutputStream()).andReturn(new ServletOutputStream() {
+			@Override
+			public void write(int b) {
+				baos.write(b);
+			}
+		}).anyTimes();
+		expect(response.isCommitted()).andReturn(false).times(2);
+		expect(response.isCommitted()).andReturn(true).anyTimes();
+		response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+
+		replay(request, response);
+		handler.handle(null, createBaseRequest(), request, response);
+		verify(response);
+		assertTrue(baos.toString("UTF-8").contains("unable to process value"));
+		assertEquals(1, handler.getParamFailureTotal());
+	}
+
+	private ServiceHandler createJsonHandler() {
+		ServiceHandler handler = new ServiceHandler();
+		handler.registerResultDisplayer(new JsonResultDisplayer());
+		handler.registerAcceptDisplayer(new CborResultDisplayer());
+		handler.registerBodyReader(new JsonBodyReader());
+		handler.registerWebService(new JsonService());
+		return handler;
+	}
+
+	private Request createBaseRequest() {
+		Request baseRequest = createNiceMock(Request.class);
+		expect(baseRequest.isHandled()).andReturn(false);
+		EasyMock.replay(baseRequest);
+		return baseRequest;
+	}
+
+	private HttpServletRequest createRequest(String method, String path, String accept) {
+		HttpServletRequest request = createNiceMock(HttpServletRequest.class);
+		expect(request.getMethod()).andReturn(method).anyTimes();
+		expect(request.getPathInfo()).andReturn(path).anyTimes();
+		expect(request.getHeader("Accept")).andReturn(accept).anyTimes();
+		return request;
+	}
+
+	private HttpServletResponse createJsonResponse(final ByteArrayOutputStream baos) throws IOException {
+		HttpServletResponse response = createNiceMock(HttpServletResponse.class);
+		// not set until the method returns
+		expect(response.getContentType()).andReturn(null).once();
+		expect(response.getContentType()).andReturn("application/json").anyTimes();
+		expect(response.getOutputStream()).andReturn(new ServletOutputStream() {
+			@Override
+			public void write(int b) {
+				baos.write(b);
+			}
+		}).anyTimes();
+		return response;
+	}
+
+	private ServletInputStream createInputStream(String body) throws IOException {
+		final ByteArrayInputStream bais = new ByteArrayInputStream(body.getBytes("UTF-8"));
+		return new ServletInputStream() {
+			@Override
+			public int read() {
+				return bais.read();
+			}
+		};
+	}
+
+	@WebService
+	@Produces("application/json")
+	protected static class JsonService {
+		@GET
+		@Path("/widget")
+		@WebMethod
+		public Widget widget() {
+			return new Widget("widget", 1);
+		}
+
+		@POST
+		@Path("/echo")
+		@WebMethod
+		public Widget echo(@BodyParam Widget widget) {
+			widget.count++;
+			return widget;
+		}
+	}
+
+	protected static class Widget {
+		String name;
+		int count;
+
+		public Widget(String name, int count) {
+			this.name = name;
+			this.count = count;
+		}
+	}
+
 	@WebService
 	protected class Service {
 		@Path("/")
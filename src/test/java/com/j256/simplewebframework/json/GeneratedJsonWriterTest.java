@@ -0,0 +1,163 @@
+package com.j256.simplewebframework.json;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.jws.WebMethod;
+import javax.jws.WebService;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.Produces;
+
+import org.easymock.EasyMock;
+import org.junit.Test;
+
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSerializationContext;
+import com.google.gson.JsonSerializer;
+import com.google.gson.annotations.SerializedName;
+import com.j256.simplewebframework.displayer.JsonResultDisplayer;
+import com.j256.simplewebframework.util.BufferedResponseWriter;
+
+public class GeneratedJsonWriterTest {
+
+	@Test
+	public void testMatchesGson() throws Exception {
+		Result result = new Result();
+		result.name = "<quoted> \"stuff\" é\n";
+		result.count = 10;
+		result.boxed = null;
+		result.ratio = 1.5F;
+		result.tags = Arrays.asList("a", "b");
+		result.setHidden(-9223372036854775807L);
+		result.letter = 'x';
+
+		assertMatches(result, new Gson());
+		assertMatches(result, new GsonBuilder().serializeNulls().disableHtmlEscaping().create());
+		result.boxed = 12;
+		result.tags = null;
+		assertMatches(result, new Gson());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNaN() throws Exception {
+		Result result = new Result();
+		result.ratio = Float.NaN;
+		write(result, new Gson());
+	}
+
+	@Test
+	public void testDisplayerFollowsGson() throws Exception {
+		Result result = new Result();
+		result.name = "name";
+		result.count = 10;
+		result.tags = Arrays.asList("a", "b");
+
+		assertDisplayed(result, new Gson());
+		// the generated writer would ignore these
+		assertDisplayed(result, new GsonBuilder().setFieldNamingPolicy(FieldNamingPolicy.UPPER_CAMEL_CASE).create());
+		assertDisplayed(result, new GsonBuilder().excludeFieldsWithModifiers().create());
+		assertDisplayed(result, new GsonBuilder().registerTypeAdapter(Result.class, new JsonSerializer<Result>() {
+			@Override
+			public JsonPrimitive serialize(Result src, Type typeOfSrc, JsonSerializationContext context) {
+				return new JsonPrimitive(src.name);
+			}
+		}).create());
+	}
+
+	private void assertDisplayed(Result result, Gson gson) throws Exception {
+		JsonResultDisplayer displayer = new JsonResultDisplayer();
+		displayer.setGson(gson);
+		HttpServletRequest request = createNiceMock(HttpServletRequest.class);
+		replay(request);
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		HttpServletResponse response = createNiceMock(HttpServletResponse.class);
+		expect(response.getOutputStream()).andReturn(new ServletOutputStream() {
+			@Override
+			public void write(int b) {
+				baos.write(b);
+			}
+		}).anyTimes();
+		replay(response);
+		displayer.renderResult(null, request, response, result);
+		assertEquals(gson.toJson(result), baos.toString(BufferedResponseWriter.UTF8_CHARSET));
+	}
+
+	private void assertMatches(Result result, Gson gson) throws Exception {
+		assertEquals(gson.toJson(result), write(result, gson));
+	}
+
+	private String write(Result result, Gson gson) throws Exception {
+		GeneratedJsonWriter<Result> writer = findWriter();
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		HttpServletResponse response = createMock(HttpServletResponse.class);
+		response.setCharacterEncoding(BufferedResponseWriter.UTF8_CHARSET);
+		response.setContentLength(EasyMock.anyInt());
+		EasyMock.expectLastCall().anyTimes();
+		expect(response.getOutputStream()).andReturn(new ServletOutputStream() {
+			@Override
+			public void write(int b) {
+				baos.write(b);
+			}
+		}).anyTimes();
+		replay(response);
+		BufferedResponseWriter responseWriter = new BufferedResponseWriter(response, new byte[1024]);
+		writer.write(result, responseWriter, gson);
+		responseWriter.close();
+		return baos.toString(BufferedResponseWriter.UTF8_CHARSET);
+	}
+
+	private GeneratedJsonWriter<Result> findWriter() throws IOException {
+		try {
+			@SuppressWarnings("unchecked")
+			GeneratedJsonWriter<Result> writer =
+					(GeneratedJsonWriter<Result>) Class.forName(GeneratedJsonWriter.writerClassName(Result.class))
+							.newInstance();
+			return writer;
+		} catch (Exception e) {
+			throw new IOException("generated writer not found", e);
+		}
+	}
+
+	@WebService
+	@Produces("application/json")
+	protected static class Service {
+		@WebMethod
+		public Result result() {
+			return new Result();
+		}
+	}
+
+	protected static class BaseResult {
+		private long hidden;
+
+		public void setHidden(long hidden) {
+			this.hidden = hidden;
+		}
+	}
+
+	protected static class Result extends BaseResult {
+		@SerializedName("full_name")
+		String name;
+		int count;
+		Integer boxed;
+		float ratio;
+		List<String> tags;
+		char letter;
+		transient String ignored = "ignored";
+		static String ignoredStatic = "ignored";
+	}
+}
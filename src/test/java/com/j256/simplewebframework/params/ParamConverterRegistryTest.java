@@ -0,0 +1,121 @@
+package com.j256.simplewebframework.params;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class ParamConverterRegistryTest {
+
+	@Test
+	public void testBuiltIn() throws Exception {
+		ParamConverterRegistry registry = new ParamConverterRegistry();
+		ParamConverter converter = registry.findConverter(int.class);
+		assertEquals(12, converter.convertString("12"));
+		assertSame(ParamType.STRING, registry.findConverter(String.class));
+	}
+
+	@Test
+	public void testEnum() throws Exception {
+		ParamConverterRegistry registry = new ParamConverterRegistry();
+		ParamConverter converter = registry.findConverter(Color.class);
+		assertTrue(converter instanceof EnumParamConverter);
+		assertSame(Color.RED, converter.convertString("RED"));
+		// should be cached
+		assertSame(converter, registry.findConverter(Color.class));
+		try {
+			converter.convertString("red");
+			fail("should have thrown");
+		} catch (IOException e) {
+			// expected
+		}
+		assertArrayEquals(new Color[] { Color.BLUE, Color.RED },
+				(Color[]) converter.convertStringArray(new String[] { "BLUE", "RED" }));
+	}
+
+	@Test
+	public void testEnumCaseInsensitive() throws Exception {
+		ParamConverterRegistry registry = new ParamConverterRegistry();
+		registry.setEnumsCaseInsensitive(true);
+		ParamConverter converter = registry.findConverter(Color.class);
+		assertSame(Color.RED, converter.convertString("red"));
+		assertSame(Color.BLUE, converter.convertString("bLuE"));
+	}
+
+	@Test
+	public void testObjectConverters() throws Exception {
+		ParamConverterRegistry registry = new ParamConverterRegistry();
+		ParamConverter converter = registry.findConverter(StringConstructor.class);
+		assertEquals("foo", ((StringConstructor) converter.convertString("foo")).value);
+		StringConstructor[] array =
+				(StringConstructor[]) converter.convertStringArray(new String[] { "foo", "bar" });
+		assertEquals(2, array.length);
+		assertEquals("bar", array[1].value);
+
+		converter = registry.findConverter(FromString.class);
+		assertEquals("baz", ((FromString) converter.convertString("baz")).value);
+		try {
+			converter.convertString("bad");
+			fail("should have thrown");
+		} catch (ParamConversionException e) {
+			// expected
+		}
+		try {
+			converter.convertString("error");
+			fail("should have thrown");
+		} catch (StackOverflowError e) {
+			// not a conversion problem
+		}
+
+		assertNull(registry.findConverter(Object.class));
+	}
+
+	@Test
+	public void testRegistered() throws Exception {
+		ParamConverterRegistry registry = new ParamConverterRegistry();
+		ParamConverter converter = new BaseParamConverter(String.class) {
+			@Override
+			public Object convertString(String param) {
+				return param.toUpperCase();
+			}
+		};
+		registry.registerConverter(String.class, converter);
+		assertSame(converter, registry.findConverter(String.class));
+		assertEquals("FOO", converter.convertString("foo"));
+	}
+
+	private enum Color {
+		RED,
+		BLUE,
+		// end
+		;
+	}
+
+	public static class StringConstructor {
+		final String value;
+		public StringConstructor(String value) {
+			this.value = value;
+		}
+	}
+
+	public static class FromString {
+		final String value;
+		private FromString(String value) {
+			this.value = value;
+		}
+		public static FromString fromString(String value) {
+			if (value.equals("bad")) {
+				throw new IllegalArgumentException("bad value");
+			} else if (value.equals("error")) {
+				throw new StackOverflowError();
+			}
+			return new FromString(value);
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package com.j256.simplewebframework.resource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.j256.simplewebframework.displayer.FileResultDisplayer.FileInfo;
+
+public class FileCacheTest {
+
+	@Test
+	public void testAdmission() throws IOException {
+		FileCache cache = new FileCache();
+		FileInfo fileInfo = createFileInfo("foo.css", 100);
+		assertNull(cache.findFile("foo.css"));
+		// first request is not cached
+		assertFalse(cache.maybeCacheFile("foo.css", fileInfo));
+		assertNull(cache.findFile("foo.css"));
+		assertTrue(cache.maybeCacheFile("foo.css", fileInfo));
+		assertNotNull(cache.findFile("foo.css"));
+		assertEquals(1, cache.getHitCount());
+		assertEquals(2, cache.getMissCount());
+		assertEquals(100, cache.getByteCount());
+
+		cache.liveRevisionChanged(fileInfo.getFile().getParentFile());
+		assertNull(cache.findFile("foo.css"));
+		assertEquals(0, cache.getByteCount());
+	}
+
+	@Test
+	public void testTooBig() throws IOException {
+		FileCache cache = new FileCache();
+		cache.setAdmitRequestCount(1);
+		cache.setMaxFileSize(10);
+		assertFalse(cache.maybeCacheFile("big.js", createFileInfo("big.js", 11)));
+	}
+
+	@Test
+	public void testEviction() throws IOException {
+		FileCache cache = new FileCache();
+		cache.setAdmitRequestCount(1);
+		cache.setMaxBytes(250);
+		assertTrue(cache.maybeCacheFile("hot.css", createFileInfo("hot.css", 100)));
+		assertTrue(cache.maybeCacheFile("cold.css", createFileInfo("cold.css", 100)));
+		assertNotNull(cache.findFile("hot.css"));
+		assertNotNull(cache.findFile("hot.css"));
+		// pushes us over the budget so the least hit file goes
+		assertTrue(cache.maybeCacheFile("new.css", createFileInfo("new.css", 100)));
+		assertEquals(1, cache.getEvictionCount());
+		assertNull(cache.findFile("cold.css"));
+		assertNotNull(cache.findFile("hot.css"));
+		assertNotNull(cache.findFile("new.css"));
+		assertEquals(200, cache.getByteCount());
+	}
+
+	@Test
+	public void testNewFileNotEvicted() throws IOException {
+		FileCache cache = new FileCache();
+		cache.setAdmitRequestCount(1);
+		cache.setMaxBytes(250);
+		assertTrue(cache.maybeCacheFile("warm.css", createFileInfo("warm.css", 100)));
+		assertTrue(cache.maybeCacheFile("hot.css", createFileInfo("hot.css", 100)));
+		for (int i = 0; i < 3; i++) {
+			assertNotNull(cache.findFile("warm.css"));
+		}
+		for (int i = 0; i < 5; i++) {
+			assertNotNull(cache.findFile("hot.css"));
+		}
+		// all of the others have been hit more but the file that was just added stays
+		assertTrue(cache.maybeCacheFile("new.css", createFileInfo("new.css", 100)));
+		assertEquals(1, cache.getEvictionCount());
+		assertNull(cache.findFile("warm.css"));
+		assertNotNull(cache.findFile("hot.css"));
+		assertNotNull(cache.findFile("new.css"));
+	}
+
+	private FileInfo createFileInfo(String name, int size) throws IOException {
+		File file = File.createTempFile(getClass().getSimpleName(), name);
+		file.deleteOnExit();
+		FileOutputStream fos = new FileOutputStream(file);
+		try {
+			fos.write(new byte[size]);
+		} finally {
+			fos.close();
+		}
+		return new FileInfo(name, file);
+	}
+}
@@ -0,0 +1,82 @@
+package com.j256.simplewebframework.resource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.j256.simplewebframework.displayer.FileResultDisplayer.FileInfo;
+import com.j256.simplewebframework.util.FileUtils;
+
+public class FileLocatorTest {
+
+	@Test
+	public void testIndexed() throws IOException {
+		File dir = new File("target/" + getClass().getSimpleName());
+		FileUtils.deleteDirectory(dir);
+		new File(dir, "sub").mkdirs();
+		new File(dir, "index.html").createNewFile();
+		new File(dir, "sub/foo.css").createNewFile();
+		new File(dir, "sub/foo.css.gz").createNewFile();
+
+		FileLocator locator = new FileLocator(dir, new String[] { "index.html" });
+		locator.setPrecompressedVariants(true);
+		locator.setIndexed(true);
+
+		FileInfo info = locator.findFile("");
+		assertNotNull(info);
+		assertEquals("index.html", info.getPath());
+		info = locator.findFile("sub/foo.css");
+		assertNotNull(info);
+		assertNotNull(info.getGzipFile());
+		// recorded when indexed
+		assertTrue(info.hasStats());
+		assertEquals(0, info.getGzipLength());
+		assertNull(locator.findFile("sub/"));
+		assertNull(locator.findFile("wp-admin"));
+		assertEquals(4, locator.getIndexedPathCount());
+
+		// not seen until the index is rebuilt
+		new File(dir, "bar.js").createNewFile();
+		assertNull(locator.findFile("bar.js"));
+		locator.liveRevisionChanged(dir);
+		assertNotNull(locator.findFile("bar.js"));
+
+		FileUtils.deleteDirectory(dir);
+	}
+
+	@Test
+	public void testTooManyToIndex() throws IOException {
+		File dir = new File("target/" + getClass().getSimpleName());
+		FileUtils.deleteDirectory(dir);
+		dir.mkdirs();
+		new File(dir, "index.html").createNewFile();
+		new File(dir, "foo.css").createNewFile();
+
+		FileLocator locator = new FileLocator(dir, new String[] { "index.html" });
+		locator.setIndexed(true);
+		locator.setMaxIndexedFiles(1);
+
+		// falls back to the file-system
+		assertNotNull(locator.findFile("foo.css"));
+		assertNotNull(locator.findFile(""));
+		assertNull(locator.findFile("wp-admin"));
+		new File(dir, "bar.js").createNewFile();
+		assertNotNull(locator.findFile("bar.js"));
+		assertEquals(-1, locator.getIndexedPathCount());
+		// the tree is only walked once
+		assertEquals(1, locator.getIndexBuildCount());
+
+		// until it is rebuilt
+		locator.liveRevisionChanged(dir);
+		assertNotNull(locator.findFile("foo.css"));
+		assertEquals(2, locator.getIndexBuildCount());
+
+		FileUtils.deleteDirectory(dir);
+	}
+}
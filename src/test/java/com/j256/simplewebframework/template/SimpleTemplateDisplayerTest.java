@@ -0,0 +1,160 @@
+package com.j256.simplewebframework.template;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.j256.simplewebframework.freemarker.ModelView;
+import com.j256.simplewebframework.resource.FileLocator;
+import com.j256.simplewebframework.util.BufferedResponseWriter;
+import com.j256.simplewebframework.util.FileUtils;
+import com.j256.simplewebframework.util.IOUtils;
+
+public class SimpleTemplateDisplayerTest {
+
+	private final File templateDir = new File("target/" + getClass().getSimpleName());
+
+	@Before
+	public void before() throws IOException {
+		FileUtils.deleteDirectory(templateDir);
+		templateDir.mkdirs();
+	}
+
+	@After
+	public void after() throws IOException {
+		FileUtils.deleteDirectory(templateDir);
+	}
+
+	@Test
+	public void testSubstitutions() throws Exception {
+		Map<String, Object> model = new HashMap<String, Object>();
+		model.put("name", "<b>Bob</b>");
+		model.put("user", new User("Alice"));
+		CompiledTemplate template =
+				CompiledTemplate.compile("Hi ${name} ${name?raw} ${user.name} ${missing} ${title!\"Home\"}.", null);
+		assertEquals(5, template.getExpressionCount());
+		assertEquals("Hi &lt;b&gt;Bob&lt;/b&gt; <b>Bob</b> Alice  Home.", render(template, model));
+		// literals are encoded as UTF-8
+		assertEquals("\u00e9t\u00e9 ", render(CompiledTemplate.compile("\u00e9t\u00e9 ${x}", null), null));
+	}
+
+	@Test
+	public void testIncludes() throws Exception {
+		writeFile("common/header.html", "<head>${title}</head>");
+		writeFile("footer.html", "<footer/>");
+		writeFile("index.html", "<html><!--#include virtual=\"/common/header.html\" --><body/>"
+				+ "<!--#include file=\"footer.html\" --></html>");
+		FileLocator fileLocator = new FileLocator(templateDir, new String[0]);
+		SimpleTemplateDisplayer displayer = new SimpleTemplateDisplayer();
+		displayer.setFileLocator(fileLocator);
+		CompiledTemplate template = CompiledTemplate.compile(new File(templateDir, "index.html"), displayer);
+		Map<String, Object> model = new HashMap<String, Object>();
+		model.put("title", "Title");
+		assertEquals("<html><head>Title</head><body/><footer/></html>", render(template, model));
+
+		// recursive includes are stopped
+		writeFile("loop.html", "<!--#include file=\"loop.html\" -->");
+		try {
+			CompiledTemplate.compile(new File(templateDir, "loop.html"), displayer);
+			fail("should have thrown");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testIncludesIndexed() throws Exception {
+		writeFile("common/header.html", "<head/>");
+		writeFile("index.html", "<html><!--#include virtual=\"/common/header.html\" --></html>");
+		FileLocator fileLocator = new FileLocator(templateDir, new String[0]);
+		fileLocator.setIndexed(true);
+		SimpleTemplateDisplayer displayer = new SimpleTemplateDisplayer();
+		displayer.setFileLocator(fileLocator);
+		CompiledTemplate template = CompiledTemplate.compile(new File(templateDir, "index.html"), displayer);
+		assertEquals("<html><head/></html>", render(template, null));
+	}
+
+	@Test
+	public void testRevisionChange() throws Exception {
+		writeFile("index.html", "first ${name}");
+		SimpleTemplateDisplayer displayer = new SimpleTemplateDisplayer();
+		displayer.setFileLocator(new FileLocator(templateDir, new String[0]));
+		ModelView modelView = new ModelView("index.html");
+		modelView.getModel().put("name", "page");
+		assertEquals("first page", render(displayer, modelView));
+
+		// the compiled template is used until the revision changes
+		writeFile("index.html", "second ${name}");
+		assertEquals("first page", render(displayer, modelView));
+		assertEquals(1, displayer.getTemplateCount());
+		displayer.liveRevisionChanged(templateDir);
+		assertEquals(0, displayer.getTemplateCount());
+		assertEquals("second page", render(displayer, modelView));
+	}
+
+	private String render(SimpleTemplateDisplayer displayer, ModelView modelView) throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		assertTrue(displayer.renderResult(null, null, createResponse(baos), modelView));
+		return baos.toString(BufferedResponseWriter.UTF8_CHARSET);
+	}
+
+	private String render(CompiledTemplate template, Map<String, Object> model) throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		BufferedResponseWriter writer = new BufferedResponseWriter(createResponse(baos), new byte[16]);
+		template.render(model, writer);
+		writer.close();
+		return baos.toString(BufferedResponseWriter.UTF8_CHARSET);
+	}
+
+	private HttpServletResponse createResponse(final ByteArrayOutputStream baos) throws IOException {
+		HttpServletResponse response = createNiceMock(HttpServletResponse.class);
+		expect(response.getOutputStream()).andReturn(new ServletOutputStream() {
+			@Override
+			public void write(int b) {
+				baos.write(b);
+			}
+		}).anyTimes();
+		replay(response);
+		return response;
+	}
+
+	private void writeFile(String path, String contents) throws IOException {
+		File file = new File(templateDir, path);
+		file.getParentFile().mkdirs();
+		FileOutputStream fos = new FileOutputStream(file);
+		try {
+			fos.write(contents.getBytes(BufferedResponseWriter.UTF8_CHARSET));
+		} finally {
+			IOUtils.closeQuietly(fos);
+		}
+	}
+
+	public static class User {
+		private final String name;
+
+		public User(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+	}
+}
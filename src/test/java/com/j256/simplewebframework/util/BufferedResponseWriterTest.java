@@ -0,0 +1,72 @@
+package com.j256.simplewebframework.util;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Test;
+
+public class BufferedResponseWriterTest {
+
+	private static final String TEXT = "plain \u00e9\u00e8 \u20ac \ud83d\ude00 end";
+
+	@Test
+	public void testContentLength() throws IOException {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		byte[] expected = TEXT.getBytes("UTF-8");
+		HttpServletResponse response = createMock(HttpServletResponse.class);
+		response.setCharacterEncoding("UTF-8");
+		response.setContentLength(expected.length);
+		expect(response.getOutputStream()).andReturn(new TestOutputStream(baos));
+		replay(response);
+
+		BufferedResponseWriter writer = new BufferedResponseWriter(response, new byte[1024]);
+		writer.write(TEXT);
+		writer.close();
+		verify(response);
+		assertArrayEquals(expected, baos.toByteArray());
+	}
+
+	@Test
+	public void testStreamed() throws IOException {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 20; i++) {
+			sb.append(TEXT);
+		}
+		HttpServletResponse response = createMock(HttpServletResponse.class);
+		response.setCharacterEncoding("UTF-8");
+		expect(response.getOutputStream()).andReturn(new TestOutputStream(baos));
+		replay(response);
+
+		// small buffer so the multi-byte characters straddle the flushes
+		BufferedResponseWriter writer = new BufferedResponseWriter(response, new byte[7]);
+		for (char ch : sb.toString().toCharArray()) {
+			writer.write(ch);
+		}
+		writer.close();
+		verify(response);
+		assertArrayEquals(sb.toString().getBytes("UTF-8"), baos.toByteArray());
+	}
+
+	private static class TestOutputStream extends ServletOutputStream {
+		private final ByteArrayOutputStream baos;
+
+		public TestOutputStream(ByteArrayOutputStream baos) {
+			this.baos = baos;
+		}
+
+		@Override
+		public void write(int b) {
+			baos.write(b);
+		}
+	}
+}
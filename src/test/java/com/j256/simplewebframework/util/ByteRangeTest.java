@@ -0,0 +1,67 @@
+package com.j256.simplewebframework.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class ByteRangeTest {
+
+	@Test
+	public void testSingle() {
+		List<ByteRange> ranges = ByteRange.parseRanges("bytes=0-499", 1000);
+		assertEquals(1, ranges.size());
+		assertEquals(0, ranges.get(0).getStart());
+		assertEquals(499, ranges.get(0).getEnd());
+		assertEquals(500, ranges.get(0).getLength());
+		assertEquals("bytes 0-499/1000", ranges.get(0).toContentRange(1000));
+	}
+
+	@Test
+	public void testOpenAndSuffix() {
+		List<ByteRange> ranges = ByteRange.parseRanges("bytes=900-, -50", 1000);
+		// the same bytes are coalesced
+		assertEquals(1, ranges.size());
+		assertEquals(900, ranges.get(0).getStart());
+		assertEquals(999, ranges.get(0).getEnd());
+		ranges = ByteRange.parseRanges("bytes=500-5000", 1000);
+		// clipped to the length
+		assertEquals(500, ranges.get(0).getStart());
+		assertEquals(999, ranges.get(0).getEnd());
+
+		ranges = ByteRange.parseRanges("bytes=-5000", 1000);
+		assertEquals(0, ranges.get(0).getStart());
+	}
+
+	@Test
+	public void testCoalesce() {
+		// not overlapping so the requested order is kept
+		List<ByteRange> ranges = ByteRange.parseRanges("bytes=500-599,0-99", 1000);
+		assertEquals("[500-599, 0-99]", ranges.toString());
+		// overlapping and adjacent
+		ranges = ByteRange.parseRanges("bytes=500-599,0-99,550-700,100-199,800-", 1000);
+		assertEquals("[0-199, 500-700, 800-999]", ranges.toString());
+		// contained
+		ranges = ByteRange.parseRanges("bytes=0-999,10-20", 1000);
+		assertEquals("[0-999]", ranges.toString());
+	}
+
+	@Test
+	public void testUnsatisfiable() {
+		assertTrue(ByteRange.parseRanges("bytes=1000-", 1000).isEmpty());
+		assertTrue(ByteRange.parseRanges("bytes=-0", 1000).isEmpty());
+	}
+
+	@Test
+	public void testInvalid() {
+		assertNull(ByteRange.parseRanges(null, 1000));
+		assertNull(ByteRange.parseRanges("items=0-1", 1000));
+		assertNull(ByteRange.parseRanges("bytes=", 1000));
+		assertNull(ByteRange.parseRanges("bytes=5-1", 1000));
+		assertNull(ByteRange.parseRanges("bytes=a-b", 1000));
+		assertNull(ByteRange.parseRanges("bytes=12", 1000));
+	}
+}
@@ -0,0 +1,44 @@
+package com.j256.simplewebframework.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class RequestUtilsTest {
+
+	@Test
+	public void testEncodingAccepted() {
+		assertTrue(RequestUtils.isEncodingAccepted("gzip, deflate, br", "gzip"));
+		assertTrue(RequestUtils.isEncodingAccepted("gzip, deflate, br", "br"));
+		assertTrue(RequestUtils.isEncodingAccepted("GZIP;q=0.5", "gzip"));
+		assertFalse(RequestUtils.isEncodingAccepted("gzip;q=0, deflate", "gzip"));
+		assertFalse(RequestUtils.isEncodingAccepted("deflate", "gzip"));
+		assertFalse(RequestUtils.isEncodingAccepted((String) null, "gzip"));
+		assertTrue(RequestUtils.isEncodingAccepted("*", "br"));
+		assertFalse(RequestUtils.isEncodingAccepted("*;q=0", "br"));
+		assertFalse(RequestUtils.isEncodingAccepted("*, br;q=0", "br"));
+	}
+
+	@Test
+	public void testPreferredType() {
+		List<String> alternates = Arrays.asList("application/cbor", "application/x-msgpack");
+		String json = "application/json; charset=UTF-8";
+		assertEquals("application/cbor", RequestUtils.findPreferredType("application/cbor", json, alternates));
+		assertEquals("application/cbor",
+				RequestUtils.findPreferredType("application/json;q=0.5, application/cbor", json, alternates));
+		assertEquals("application/x-msgpack", RequestUtils.findPreferredType(
+				"application/x-msgpack, application/cbor, */*;q=0.1", json, alternates));
+		assertEquals("application/cbor", RequestUtils.findPreferredType(
+				"application/x-msgpack;q=0.5, Application/CBOR;q=0.9", json, alternates));
+		assertNull(RequestUtils.findPreferredType("application/json, application/cbor", json, alternates));
+		assertNull(RequestUtils.findPreferredType("*/*", json, alternates));
+		assertNull(RequestUtils.findPreferredType("application/cbor;q=0", json, alternates));
+		assertNull(RequestUtils.findPreferredType(null, json, alternates));
+	}
+}